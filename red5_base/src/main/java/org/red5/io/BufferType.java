@@ -20,8 +20,8 @@ package org.red5.io;
  */
 
 /**
- * Buffer types (auto, direct or heap).
+ * Buffer types (auto, direct, heap, mapped or shared).
  */
 public enum BufferType {
-	AUTO, DIRECT, HEAP
+	AUTO, DIRECT, HEAP, MAPPED, SHARED
 }
\ No newline at end of file
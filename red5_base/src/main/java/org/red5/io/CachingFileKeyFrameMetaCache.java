@@ -20,84 +20,287 @@ package org.red5.io;
  */
 
 import java.io.File;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Keyframe metadata cache that keeps the recently used informations in memory
+ * and stores them in files in the background.
+ * <p>
+ * The memory cache is split into segments with their own lock and least
+ * recently used order, so lookups of different files rarely block each other
+ * and never wait for the disk. The cache is bounded by the number of entries
+ * and by the estimated memory of the keyframe informations, the least
+ * recently used entries are removed when a new entry exceeds one of the
+ * bounds. Entries are valid as long as the modification time and
+ * size of the media file don't change.
+ */
 public class CachingFileKeyFrameMetaCache extends FileKeyFrameMetaCache {
-	
-	private Map<String, KeyFrameMeta> inMemoryMetaCache = new HashMap<String, KeyFrameMeta>();
-	private ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+	private static Logger log = LoggerFactory.getLogger(CachingFileKeyFrameMetaCache.class);
+
+	/**
+	 * Number of segments, must be a power of two
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Estimated memory of an entry without the keyframes
+	 */
+	private static final int ENTRY_OVERHEAD = 200;
+
+	private final Segment[] segments;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final AtomicLong memory = new AtomicLong();
+
+	/**
+	 * Informations that have not been written to disk yet, by absolute path
+	 */
+	private final ConcurrentMap<String, Entry> pending = new ConcurrentHashMap<String, Entry>();
+
+	private final ExecutorService writer;
+
 	private int maxCacheEntry = 500;
-	private Random random = new Random();
 
+	private long maxCacheSize = 16 * 1024 * 1024;
+
+	public CachingFileKeyFrameMetaCache() {
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "KeyFrameMetaWriter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Setter for the maximum number of files to keep informations for.
+	 * 
+	 * @param maxCacheEntry		Maximum number of entries
+	 */
 	public void setMaxCacheEntry(int maxCacheEntry) {
 		this.maxCacheEntry = maxCacheEntry;
 	}
 
+	/**
+	 * Setter for the maximum memory of the cached informations.
+	 * 
+	 * @param maxCacheSize		Maximum memory in bytes
+	 */
+	public void setMaxCacheSize(long maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	/**
+	 * Return the number of files with cached informations.
+	 * 
+	 * @return Number of entries
+	 */
+	public int getCacheEntries() {
+		return count.get();
+	}
+
+	/**
+	 * Return the estimated memory of the cached informations.
+	 * 
+	 * @return Memory in bytes
+	 */
+	public long getCacheSize() {
+		return memory.get();
+	}
+
+	private Segment segmentFor(String key) {
+		int hash = key.hashCode();
+		// spread the bits like ConcurrentHashMap does
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return segments[hash & (SEGMENTS - 1)];
+	}
+
 	@Override
 	public KeyFrameMeta loadKeyFrameMeta(File file) {
-		rwLock.readLock().lock();
-		try {
-			String canonicalPath = file.getCanonicalPath();
-			if (!inMemoryMetaCache.containsKey(canonicalPath)) {
-				rwLock.readLock().unlock();
-				rwLock.writeLock().lock();
-				try {
-					if (inMemoryMetaCache.size() >= maxCacheEntry) {
-						freeCachingMetadata();
-					}
-					KeyFrameMeta keyFrameMeta = super.loadKeyFrameMeta(file);
-					if (keyFrameMeta != null) {
-						inMemoryMetaCache.put(canonicalPath, keyFrameMeta);
-					} else {
-						return null;
-    				}
-    			} finally {
-    				rwLock.writeLock().unlock();
-    				rwLock.readLock().lock();
-    			}
+		String key = file.getAbsolutePath();
+		long modified = file.lastModified();
+		long size = file.length();
+		Segment segment = segmentFor(key);
+		Entry entry = segment.get(key);
+		if (entry != null) {
+			if (entry.isValid(modified, size)) {
+				return entry.meta;
 			}
-			return inMemoryMetaCache.get(canonicalPath);
-		} catch (IOException e) {
-			return null;
-		} finally {
-			rwLock.readLock().unlock();
+			segment.remove(key, entry);
 		}
+		entry = pending.get(key);
+		if (entry == null || !entry.isValid(modified, size)) {
+			// load without holding a lock, concurrent misses load the same data
+			KeyFrameMeta meta = super.loadKeyFrameMeta(file);
+			if (meta == null) {
+				return null;
+			}
+			entry = new Entry(key, meta, modified, size);
+		}
+		put(key, segment, entry);
+		return entry.meta;
 	}
 
 	@Override
-	public void saveKeyFrameMeta(File file, KeyFrameMeta meta) {
-		rwLock.writeLock().lock();
-		try {
-   			String canonicalPath = file.getCanonicalPath();
-   			if (inMemoryMetaCache.containsKey(canonicalPath)) {
-   				inMemoryMetaCache.remove(canonicalPath);
-   			}
-		} catch (IOException e) {
-			// ignore the exception here, let super class to handle it.
-		} finally {
-			rwLock.writeLock().unlock();
+	public void saveKeyFrameMeta(final File file, KeyFrameMeta meta) {
+		final String key = file.getAbsolutePath();
+		Entry entry = new Entry(key, meta, file.lastModified(), file.length());
+		put(key, segmentFor(key), entry);
+		if (pending.put(key, entry) == null) {
+			try {
+				writer.execute(new Runnable() {
+					public void run() {
+						// write the latest informations saved in the meantime
+						Entry latest = pending.remove(key);
+						if (latest != null) {
+							saveKeyFrameMeta(file, latest.meta, latest.modified, latest.size);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				log.debug("Save of {} rejected, cache has been shut down", key);
+				pending.remove(key, entry);
+			}
 		}
-		super.saveKeyFrameMeta(file, meta);
 	}
 
-	private void freeCachingMetadata() {
-		int cacheSize = inMemoryMetaCache.size();
-		int randomIndex = random.nextInt(cacheSize);
-		Map.Entry<String, KeyFrameMeta> entryToRemove = null;
-		for (Map.Entry<String, KeyFrameMeta> cacheEntry : inMemoryMetaCache.entrySet()) {
-			if (randomIndex == 0) {
-				entryToRemove = cacheEntry;
+	private void put(String key, Segment segment, Entry entry) {
+		segment.put(key, entry);
+		while (count.get() > maxCacheEntry || memory.get() > maxCacheSize) {
+			// remove the least recently used of the oldest entries of the segments
+			Segment oldest = null;
+			Entry eldest = null;
+			for (Segment candidate : segments) {
+				Entry e = candidate.eldest();
+				if (e != null && (eldest == null || e.lastAccess - eldest.lastAccess < 0)) {
+					oldest = candidate;
+					eldest = e;
+				}
+			}
+			if (oldest == null) {
 				break;
 			}
-			randomIndex--;
+			oldest.remove(eldest.key, eldest);
 		}
-		inMemoryMetaCache.remove(entryToRemove.getKey());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Stop the background writer after all informations have been written.
+	 */
+	public void shutdown() {
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+				log.warn("Not all keyframe informations could be written");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Cached informations of a file.
+	 */
+	private static final class Entry {
+
+		final String key;
+
+		final KeyFrameMeta meta;
+
+		final long modified;
+
+		final long size;
+
+		final int weight;
+
+		/**
+		 * Time of the last lookup
+		 */
+		volatile long lastAccess = System.nanoTime();
+
+		Entry(String key, KeyFrameMeta meta, long modified, long size) {
+			this.key = key;
+			this.meta = meta;
+			this.modified = modified;
+			this.size = size;
+			this.weight = ENTRY_OVERHEAD + meta.positions.length * 12;
+		}
+
+		boolean isValid(long modified, long size) {
+			return this.modified == modified && this.size == size;
+		}
+
+	}
+
+	/**
+	 * Part of the cache with its own lock, iterates in least recently used
+	 * order.
+	 */
+	private final class Segment {
+
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+		synchronized Entry get(String key) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				entry.lastAccess = System.nanoTime();
+			}
+			return entry;
+		}
+
+		synchronized void put(String key, Entry entry) {
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				removed(old);
+			}
+			count.incrementAndGet();
+			memory.addAndGet(entry.weight);
+		}
+
+		synchronized void remove(String key, Entry entry) {
+			if (entries.get(key) == entry) {
+				entries.remove(key);
+				removed(entry);
+			}
+		}
+
+		/**
+		 * Return the least recently used entry of the segment.
+		 * 
+		 * @return Entry or <code>null</code> if the segment is empty
+		 */
+		synchronized Entry eldest() {
+			Iterator<Entry> it = entries.values().iterator();
+			return it.hasNext() ? it.next() : null;
+		}
+
+		private void removed(Entry entry) {
+			count.decrementAndGet();
+			memory.addAndGet(-entry.weight);
+		}
+
+	}
+
+}
@@ -20,37 +20,39 @@ package org.red5.io;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.apache.xml.serialize.OutputFormat;
-import org.apache.xml.serialize.XMLSerializer;
 import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * File-based keyframe metadata cache.
+ * <p>
+ * The informations are stored next to the media file in a binary ".meta" file
+ * that contains the modification time and size of the media file, so it is
+ * ignored once the media file has been changed. Files in the old XML format
+ * are ignored as well and are replaced when the informations are saved again.
+ * All numbers are big endian:
+ * <pre>
+ * int     magic "R5KF"
+ * int     format version
+ * long    modification time of the media file
+ * long    size of the media file
+ * long    duration in milliseconds
+ * byte    1 if only audio frames, 0 otherwise
+ * int     number of keyframes
+ * long[]  keyframe positions
+ * int[]   keyframe timestamps
+ * </pre>
  * 
  * @author The Red5 Project (red5@osflash.org)
  * @author Joachim Bauch (jojo@struktur.de)
  */
-@SuppressWarnings("deprecation")
 public class FileKeyFrameMetaCache implements IKeyFrameMetaCache {
 
     /**
@@ -58,127 +60,138 @@ public class FileKeyFrameMetaCache implements IKeyFrameMetaCache {
      */
     private static Logger log = LoggerFactory.getLogger(FileKeyFrameMetaCache.class);
 
+    /**
+     * Magic number at the start of the files
+     */
+    private static final int MAGIC = 0x52354B46;
+
+    /**
+     * Version of the file format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the data before the keyframes
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 1 + 4;
+
+    /**
+     * Return the file the informations of a media file are stored in.
+     * 
+     * @param file		Media file
+     * @return Metadata file
+     */
+    protected File getMetaFile(File file) {
+    	return new File(file.getAbsolutePath() + ".meta");
+    }
+
     /** {@inheritDoc} */
 	public KeyFrameMeta loadKeyFrameMeta(File file) {
-		String filename = file.getAbsolutePath() + ".meta";
-		File metadataFile = new File(filename);
+		File metadataFile = getMetaFile(file);
 		if (!metadataFile.exists())
 			// No such metadata
 			return null;
-		
-		Document dom;
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+
+		ByteBuffer data;
 		try {
-			// Using factory get an instance of document builder
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			
-			// parse using builder to get DOM representation of the XML file
-			dom = db.parse(filename);
-		} catch (ParserConfigurationException pce) {
-			log.error("Could not parse XML file.", pce);
-			return null;
-		} catch (SAXException se) {
-			log.error("Could not parse XML file.", se);
-			return null;
+			FileInputStream in = new FileInputStream(metadataFile);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+					// Invalid file
+					return null;
+				data = ByteBuffer.allocate((int) size);
+				while (data.hasRemaining() && channel.read(data) != -1) {
+				}
+				data.flip();
+			} finally {
+				in.close();
+			}
 		} catch (IOException ioe) {
-			log.error("Could not parse XML file.", ioe);
+			log.error("Could not read keyframe data.", ioe);
 			return null;
 		}
-		
-		Element root = dom.getDocumentElement();
-		// Check if .xml file is valid and for this .flv file
-		if (!"FrameMetadata".equals(root.getNodeName()))
-			// Invalid XML
+
+		if (data.getInt() != MAGIC || data.getInt() != VERSION)
+			// Old XML file or unknown format
 			return null;
-		
-		String modified = root.getAttribute("modified");
-		if (modified == null || !modified.equals(String.valueOf(file.lastModified())))
+
+		if (data.getLong() != file.lastModified() || data.getLong() != file.length())
 			// File has changed in the meantime
 			return null;
-		
-		if (!root.hasAttribute("duration"))
-			// Old file without duration informations
-			return null;
-		
-		if (!root.hasAttribute("audioOnly"))
-			// Old file without audio/video informations
+
+		KeyFrameMeta result = new KeyFrameMeta();
+		result.duration = data.getLong();
+		result.audioOnly = data.get() != 0;
+		int length = data.getInt();
+		if (length <= 0 || data.remaining() != length * 12L)
+			// File doesn't contain informations about keyframes or is damaged
 			return null;
-		
-		XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath();
-        NodeList keyFrames;
-        try {
-            XPathExpression xexpr = xpath.compile("/FrameMetadata/KeyFrame");
-            keyFrames = (NodeList) xexpr.evaluate(dom, XPathConstants.NODESET);
-        } catch (XPathExpressionException err) {
-        	log.error("could not compile xpath expression", err);
-        	return null;
-        }
-
-        int length = keyFrames.getLength();
-        if (keyFrames == null || length == 0)
-        	// File doesn't contain informations about keyframes
-        	return null;
-		
-        KeyFrameMeta result = new KeyFrameMeta();
-        result.duration = Long.parseLong(root.getAttribute("duration"));
-        result.positions = new long[length];
-        result.timestamps = new int[length];
-		for (int i=0; i<length; i++) {
-			Node node = keyFrames.item(i);
-			NamedNodeMap attrs = node.getAttributes();
-			result.positions[i] = Long.parseLong(attrs.getNamedItem("position").getNodeValue());
-			result.timestamps[i] = Integer.parseInt(attrs.getNamedItem("timestamp").getNodeValue());
-		}
-		result.audioOnly = "true".equals(root.getAttribute("audioOnly"));
-        
+
+		result.positions = new long[length];
+		result.timestamps = new int[length];
+		data.asLongBuffer().get(result.positions);
+		data.position(data.position() + length * 8);
+		data.asIntBuffer().get(result.timestamps);
 		return result;
 	}
 
     /** {@inheritDoc} */
 	public void saveKeyFrameMeta(File file, KeyFrameMeta meta) {
+		saveKeyFrameMeta(file, meta, file.lastModified(), file.length());
+	}
+
+	/**
+	 * Store keyframe informations for a given state of the media file.
+	 * 
+	 * @param file		File to save informations for.
+	 * @param meta		Keyframe informations for this file.
+	 * @param modified	Modification time of the file the informations belong to.
+	 * @param size		Size of the file the informations belong to.
+	 */
+	protected void saveKeyFrameMeta(File file, KeyFrameMeta meta, long modified, long size) {
 		if (meta.positions.length == 0)
 			// Don't store empty meta informations
 			return;
-		
-		Document dom;
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		try {
-			//get an instance of builder
-			DocumentBuilder db = dbf.newDocumentBuilder();
-	
-			//create an instance of DOM
-			dom = db.newDocument();
-		} catch (ParserConfigurationException pce) {
-			log.error("Error while creating document.", pce);
-			return;
-		}
-		
-		// Create file and add keyframe informations
-		Element root = dom.createElement("FrameMetadata");
-		root.setAttribute("modified", String.valueOf(file.lastModified()));
-		root.setAttribute("duration", String.valueOf(meta.duration));
-		root.setAttribute("audioOnly", meta.audioOnly ? "true" : "false");
-		dom.appendChild(root);
-		
-		for (int i=0; i<meta.positions.length; i++) {
-			Element node = dom.createElement("KeyFrame");
-			node.setAttribute("position", String.valueOf(meta.positions[i]));
-			node.setAttribute("timestamp", String.valueOf(meta.timestamps[i]));
-			root.appendChild(node);
-		}
-		
-		String filename = file.getAbsolutePath() + ".meta";
-		
-		OutputFormat format = new OutputFormat(dom);
-		format.setIndenting(true);
-		
+
+		int length = meta.positions.length;
+		ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + length * 12);
+		data.putInt(MAGIC);
+		data.putInt(VERSION);
+		data.putLong(modified);
+		data.putLong(size);
+		data.putLong(meta.duration);
+		data.put((byte) (meta.audioOnly ? 1 : 0));
+		data.putInt(length);
+		data.asLongBuffer().put(meta.positions);
+		data.position(data.position() + length * 8);
+		data.asIntBuffer().put(meta.timestamps);
+		data.clear();
+
+		// Write to a temporary file first, so readers never see partial data
+		File metadataFile = getMetaFile(file);
+		File tmpFile = new File(metadataFile.getPath() + ".tmp");
 		try {
-			XMLSerializer serializer = new XMLSerializer(
-				new FileOutputStream(new File(filename)), format);
-			serializer.serialize(dom);
+			FileOutputStream out = new FileOutputStream(tmpFile);
+			try {
+				FileChannel channel = out.getChannel();
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(metadataFile)) {
+				// Some platforms don't replace existing files
+				metadataFile.delete();
+				if (!tmpFile.renameTo(metadataFile)) {
+					throw new IOException("Could not rename " + tmpFile + " to " + metadataFile);
+				}
+			}
 		} catch (IOException err) {
 			log.error("could not save keyframe data", err);
+			tmpFile.delete();
 		}
 	}
 
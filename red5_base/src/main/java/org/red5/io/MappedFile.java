@@ -0,0 +1,282 @@
+package org.red5.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File that is mapped into memory read-only and shared by all readers of the
+ * file. Large files are mapped in windows of a fixed size that are created
+ * when they are first used. Every window overlaps the next one, so data that
+ * starts in a window can be read from that window as long as it is not longer
+ * than the overlap.
+ * <p>
+ * Readers acquire the file when they are opened and release it when they are
+ * closed, the file is closed after the last reader released it. The mapped
+ * memory is freed once the last buffer that refers to it has been garbage
+ * collected, so data returned from a window stays valid after the release.
+ * A file that was modified after it has been mapped is mapped again for new
+ * readers.
+ */
+public class MappedFile {
+
+	private static Logger log = LoggerFactory.getLogger(MappedFile.class);
+
+	/**
+	 * Files that are currently mapped, by canonical path.
+	 */
+	private static final ConcurrentMap<String, MappedFile> files = new ConcurrentHashMap<String, MappedFile>();
+
+	/**
+	 * Size of a window.
+	 */
+	private static int windowSize = 64 * 1024 * 1024;
+
+	/**
+	 * Number of bytes a window extends into the next one.
+	 */
+	private static int windowOverlap = 1024 * 1024;
+
+	private final String key;
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final long lastModified;
+
+	/**
+	 * Window settings when the file was mapped.
+	 */
+	private final int windowSizeUsed;
+
+	private final int windowOverlapUsed;
+
+	private final AtomicReferenceArray<MappedByteBuffer> windows;
+
+	/**
+	 * Number of readers, the file is closed when it drops to zero.
+	 */
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	private MappedFile(String key, File file) throws IOException {
+		this.key = key;
+		lastModified = file.lastModified();
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		size = channel.size();
+		windowSizeUsed = windowSize;
+		windowOverlapUsed = windowOverlap;
+		int count = (int) ((size + windowSizeUsed - 1) / windowSizeUsed);
+		windows = new AtomicReferenceArray<MappedByteBuffer>(Math.max(count, 1));
+	}
+
+	/**
+	 * Return the mapping of a file, the file is mapped if no other reader
+	 * uses it yet. Every call must be followed by a call to {@link #release()}
+	 * when the file is not needed any longer.
+	 * 
+	 * @param file File to map
+	 * @return Mapped file
+	 * @throws IOException if the file can not be opened
+	 */
+	public static MappedFile acquire(File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		while (true) {
+			MappedFile mapped = files.get(key);
+			if (mapped == null) {
+				mapped = new MappedFile(key, file);
+				MappedFile existing = files.putIfAbsent(key, mapped);
+				if (existing == null) {
+					log.debug("Mapped {}, size: {}", key, mapped.size);
+					return mapped;
+				}
+				// mapped by another reader in the meantime
+				mapped.close();
+				mapped = existing;
+			}
+			if (mapped.lastModified != file.lastModified() || mapped.size != file.length()) {
+				// the file has changed, current readers keep the old mapping
+				files.remove(key, mapped);
+				continue;
+			}
+			if (mapped.tryAcquire()) {
+				return mapped;
+			}
+			// released by the last reader in the meantime
+			files.remove(key, mapped);
+		}
+	}
+
+	/**
+	 * Add a reader unless the file has been closed already.
+	 * 
+	 * @return <code>true</code> if the reader was added
+	 */
+	private boolean tryAcquire() {
+		while (true) {
+			int count = refs.get();
+			if (count == 0) {
+				return false;
+			}
+			if (refs.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release the file, it is closed once all readers released it.
+	 */
+	public void release() {
+		if (refs.decrementAndGet() == 0) {
+			files.remove(key, this);
+			close();
+		}
+	}
+
+	/**
+	 * Close the file, mapped windows stay valid.
+	 */
+	private void close() {
+		log.debug("Closing {}", key);
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			log.warn("Error closing mapped file {}", key, e);
+		}
+	}
+
+	/**
+	 * Return the number of readers of the file.
+	 * 
+	 * @return Number of readers
+	 */
+	public int getReferences() {
+		return refs.get();
+	}
+
+	/**
+	 * Return size of the file.
+	 * 
+	 * @return Size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Return the index of the window that should be used to read from the
+	 * given position. Reading from this window is possible for at least the
+	 * overlap size or up to the end of the file.
+	 * 
+	 * @param position Position in the file
+	 * @return Window index
+	 */
+	public int getWindowIndex(long position) {
+		int index = (int) (position / windowSizeUsed);
+		return Math.max(0, Math.min(index, windows.length() - 1));
+	}
+
+	/**
+	 * Return the position in the file where the window starts.
+	 * 
+	 * @param index Window index
+	 * @return Position in the file
+	 */
+	public long getWindowStart(int index) {
+		return (long) index * windowSizeUsed;
+	}
+
+	/**
+	 * Return a window of the file. The buffer is a read-only view of the
+	 * mapped memory with its own position and limit, position 0 is at the
+	 * start of the window.
+	 * 
+	 * @param index Window index
+	 * @return Mapped data of the window
+	 * @throws IOException if the window could not be mapped
+	 */
+	public ByteBuffer getWindow(int index) throws IOException {
+		MappedByteBuffer window = windows.get(index);
+		if (window == null) {
+			long start = getWindowStart(index);
+			long length = Math.min((long) windowSizeUsed + windowOverlapUsed, size - start);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			if (!windows.compareAndSet(index, null, window)) {
+				// mapped by another reader in the meantime
+				window = windows.get(index);
+			}
+		}
+		return window.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Getter for window size.
+	 * 
+	 * @return Window size in bytes
+	 */
+	public static int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Setter for window size, applies to files mapped after the change.
+	 * 
+	 * @param windowSize Window size in bytes
+	 */
+	public static void setWindowSize(int windowSize) {
+		MappedFile.windowSize = windowSize;
+	}
+
+	/**
+	 * Getter for window overlap.
+	 * 
+	 * @return Number of bytes a window extends into the next one
+	 */
+	public static int getWindowOverlap() {
+		return windowOverlap;
+	}
+
+	/**
+	 * Setter for window overlap, applies to files mapped after the change.
+	 * 
+	 * @param windowOverlap Number of bytes a window extends into the next one
+	 */
+	public static void setWindowOverlap(int windowOverlap) {
+		MappedFile.windowOverlap = windowOverlap;
+	}
+
+}
@@ -0,0 +1,393 @@
+package org.red5.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File that is opened once and shared by all readers of the file. Readers
+ * keep their own position and read with positional reads from the shared
+ * channel, so they need neither a file handle nor a read buffer of their own.
+ * Data that is expensive to build, like the keyframe index, can be stored
+ * with the file once and used by all readers; it must not be modified after
+ * it has been stored.
+ * <p>
+ * Readers acquire the file when they are opened and release it when they are
+ * closed. The file stays open for the idle timeout after the last reader
+ * released it, so readers that come and go, e.g. when a client seeks or
+ * plays a clip again, do not have to open the file and build the index again.
+ * A file that was modified after it has been opened is opened again for new
+ * readers.
+ * <p>
+ * A reader thread that is interrupted while reading closes the channel for
+ * all readers, the file is opened again in place for them then.
+ */
+public class SharedFile {
+
+	private static Logger log = LoggerFactory.getLogger(SharedFile.class);
+
+	/**
+	 * Files that are currently open, by canonical path.
+	 */
+	private static final ConcurrentMap<String, SharedFile> files = new ConcurrentHashMap<String, SharedFile>();
+
+	/**
+	 * Time in milliseconds a file stays open after the last reader released
+	 * it.
+	 */
+	private static long idleTimeout = 30000;
+
+	/**
+	 * Closes idle files, created on demand.
+	 */
+	private static ScheduledExecutorService closer;
+
+	private final String key;
+
+	private volatile RandomAccessFile raf;
+
+	private volatile FileChannel channel;
+
+	private final long size;
+
+	private final long lastModified;
+
+	/**
+	 * Number of readers, 0 while the file is idle and -1 once it has been
+	 * closed.
+	 */
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	/**
+	 * Data stored by the readers, by name.
+	 */
+	private final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+	private SharedFile(String key, File file) throws IOException {
+		this.key = key;
+		lastModified = file.lastModified();
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		size = channel.size();
+	}
+
+	/**
+	 * Return the shared file, the file is opened if no other reader uses it
+	 * yet. Every call must be followed by a call to {@link #release()} when
+	 * the file is not needed any longer.
+	 * 
+	 * @param file File to open
+	 * @return Shared file
+	 * @throws IOException if the file can not be opened
+	 */
+	public static SharedFile acquire(File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		while (true) {
+			SharedFile shared = files.get(key);
+			if (shared == null) {
+				shared = new SharedFile(key, file);
+				SharedFile existing = files.putIfAbsent(key, shared);
+				if (existing == null) {
+					log.debug("Opened {}, size: {}", key, shared.size);
+					return shared;
+				}
+				// opened by another reader in the meantime
+				shared.close();
+				shared = existing;
+			}
+			if (shared.lastModified != file.lastModified() || shared.size != file.length()) {
+				// the file has changed, current readers keep the old file
+				files.remove(key, shared);
+				shared.closeIfIdle();
+				continue;
+			}
+			if (shared.tryAcquire()) {
+				return shared;
+			}
+			// closed after the idle timeout in the meantime
+			files.remove(key, shared);
+		}
+	}
+
+	/**
+	 * Add a reader unless the file has been closed already.
+	 * 
+	 * @return <code>true</code> if the reader was added
+	 */
+	private boolean tryAcquire() {
+		while (true) {
+			int count = refs.get();
+			if (count < 0) {
+				return false;
+			}
+			if (refs.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release the file, it is closed after the idle timeout once all readers
+	 * released it.
+	 */
+	public void release() {
+		if (refs.decrementAndGet() == 0) {
+			if (idleTimeout <= 0 || files.get(key) != this) {
+				closeIfIdle();
+				return;
+			}
+			try {
+				getCloser().schedule(new Runnable() {
+					public void run() {
+						closeIfIdle();
+					}
+				}, idleTimeout, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				log.debug("Closer has been shut down, closing {} now", key);
+				closeIfIdle();
+			}
+		}
+	}
+
+	/**
+	 * Return the executor that closes idle files.
+	 * 
+	 * @return Executor
+	 */
+	private static synchronized ScheduledExecutorService getCloser() {
+		if (closer == null) {
+			closer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SharedFileCloser");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return closer;
+	}
+
+	/**
+	 * Close the idle files and stop the executor that closes them, called
+	 * when the server shuts down. Files that are still used are closed when
+	 * their last reader released them.
+	 */
+	public static void shutdown() {
+		synchronized (SharedFile.class) {
+			if (closer != null) {
+				closer.shutdownNow();
+				closer = null;
+			}
+		}
+		for (SharedFile shared : files.values()) {
+			files.remove(shared.key, shared);
+			shared.closeIfIdle();
+		}
+	}
+
+	/**
+	 * Close the file unless a reader acquired it again.
+	 */
+	private void closeIfIdle() {
+		if (refs.compareAndSet(0, -1)) {
+			files.remove(key, this);
+			close();
+		}
+	}
+
+	private synchronized void close() {
+		log.debug("Closing {}", key);
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			log.warn("Error closing shared file {}", key, e);
+		}
+	}
+
+	/**
+	 * Read bytes starting at the given position in the file. Bytes are read
+	 * until the buffer is full or the end of the file has been reached, the
+	 * position of the buffer is advanced by the number of bytes read.
+	 * 
+	 * @param dst Buffer to read into
+	 * @param position Position in the file
+	 * @return Number of bytes read
+	 * @throws IOException if the file could not be read
+	 */
+	public int read(ByteBuffer dst, long position) throws IOException {
+		final int start = dst.position();
+		boolean retried = false;
+		while (true) {
+			FileChannel current = channel;
+			int total = 0;
+			try {
+				while (dst.hasRemaining() && position + total < size) {
+					int count = current.read(dst, position + total);
+					if (count < 0) {
+						break;
+					}
+					total += count;
+				}
+				return total;
+			} catch (ClosedChannelException e) {
+				reopen(current);
+				if (retried || e instanceof ClosedByInterruptException) {
+					// the interrupted reader stops, the others go on
+					throw e;
+				}
+				retried = true;
+				dst.position(start);
+			}
+		}
+	}
+
+	/**
+	 * Open the file again after the channel has been closed by an
+	 * interrupted reader. The file is evicted so new readers open it again
+	 * if it can not be reopened or has changed in the meantime.
+	 * 
+	 * @param closed Channel that has been closed
+	 * @throws IOException if the file can not be reopened
+	 */
+	private synchronized void reopen(FileChannel closed) throws IOException {
+		if (channel != closed) {
+			// reopened by another reader already
+			return;
+		}
+		File file = new File(key);
+		if (isClosed() || lastModified != file.lastModified() || size != file.length()) {
+			files.remove(key, this);
+			throw new IOException("Shared file " + key + " has been closed");
+		}
+		RandomAccessFile reopened;
+		try {
+			reopened = new RandomAccessFile(file, "r");
+		} catch (IOException e) {
+			files.remove(key, this);
+			throw e;
+		}
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.debug("Error closing shared file {}", key, e);
+		}
+		raf = reopened;
+		channel = reopened.getChannel();
+		log.debug("Reopened {}", key);
+	}
+
+	/**
+	 * Return data stored with the file.
+	 * 
+	 * @param name Name of the data
+	 * @return Data or <code>null</code> if none has been stored
+	 */
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	/**
+	 * Store data with the file unless another reader stored it already.
+	 * 
+	 * @param name Name of the data
+	 * @param value Data, must not be modified afterwards
+	 * @return Data stored with the file
+	 */
+	public Object setAttributeIfAbsent(String name, Object value) {
+		Object existing = attributes.putIfAbsent(name, value);
+		return existing != null ? existing : value;
+	}
+
+	/**
+	 * Return the number of readers of the file.
+	 * 
+	 * @return Number of readers, 0 if the file is idle
+	 */
+	public int getReferences() {
+		return Math.max(0, refs.get());
+	}
+
+	/**
+	 * Return whether the file has been closed.
+	 * 
+	 * @return <code>true</code> if the file has been closed
+	 */
+	public boolean isClosed() {
+		return refs.get() < 0;
+	}
+
+	/**
+	 * Return size of the file.
+	 * 
+	 * @return Size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Return the number of open files.
+	 * 
+	 * @return Number of open files
+	 */
+	public static int getOpenFiles() {
+		return files.size();
+	}
+
+	/**
+	 * Getter for idle timeout.
+	 * 
+	 * @return Time in milliseconds a file stays open without readers
+	 */
+	public static long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Setter for idle timeout, 0 closes files as soon as the last reader
+	 * released them.
+	 * 
+	 * @param idleTimeout Time in milliseconds a file stays open without
+	 *            readers
+	 */
+	public static void setIdleTimeout(long idleTimeout) {
+		SharedFile.idleTimeout = idleTimeout;
+	}
+
+}
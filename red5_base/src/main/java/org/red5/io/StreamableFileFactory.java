@@ -65,4 +65,12 @@ public class StreamableFileFactory implements IStreamableFileFactory {
 		logger.debug("StreamableFileFactory get services");
 		return services;
 	}
+
+	/**
+	 * Close the files that are shared by the readers, called when the server
+	 * shuts down.
+	 */
+	public void destroy() {
+		SharedFile.shutdown();
+	}
 }
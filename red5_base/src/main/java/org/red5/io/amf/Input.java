@@ -20,7 +20,6 @@ package org.red5.io.amf;
  */
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,14 +28,12 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.beans.PropertyDescriptor;
 
 import org.apache.commons.beanutils.BeanUtils;
-import org.apache.commons.beanutils.BeanUtilsBean;
-import org.apache.commons.beanutils.PropertyUtilsBean;
 import org.apache.mina.common.ByteBuffer;
 import org.red5.io.amf3.ByteArray;
 import org.red5.io.object.BaseInput;
+import org.red5.io.object.BeanCodec;
 import org.red5.io.object.DataTypes;
 import org.red5.io.object.Deserializer;
 import org.red5.io.object.RecordSet;
@@ -44,7 +41,6 @@ import org.red5.io.object.RecordSetPage;
 import org.red5.io.utils.ArrayUtils;
 import org.red5.io.utils.ObjectMap;
 import org.red5.io.utils.XMLUtils;
-import org.red5.server.service.ConversionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -413,14 +409,13 @@ public class Input extends BaseInput implements org.red5.io.object.Input {
      * @param bean               Input as bean
      * @return                   Decoded object
      */
-	@SuppressWarnings("unchecked")
 	protected Object readBean(Deserializer deserializer, Object bean) {
 		log.debug("read bean");
 		storeReference(bean);
-		Class theClass = bean.getClass();
+		BeanCodec codec = BeanCodec.getCodec(bean.getClass());
 		while (hasMoreProperties()) {
 			String name = readPropertyName();
-            Type type = getPropertyType(bean, name);
+            Type type = codec.getPropertyType(name);
 			log.debug("property: {}", name);
 			Object property = deserializer.deserialize(this, type);
 			log.debug("val: {}", property);
@@ -428,14 +423,10 @@ public class Input extends BaseInput implements org.red5.io.object.Input {
 			try {
 				if (property != null) {
 					try {
-                        if (type instanceof Class) {
-                            Class t = (Class) type;
-                            if (!t.isAssignableFrom(property.getClass())) {
-                                property = ConversionUtils.convert(property, t);
-                            }
-                        }
-						final Field field = theClass.getField(name);
-						field.set(bean, property);
+						// Set through the public field or setter
+						if (!codec.setProperty(bean, name, property)) {
+							BeanUtils.setProperty(bean, name, property);
+						}
 					} catch (Exception ex2) {
 						BeanUtils.setProperty(bean, name, property);
 					}
@@ -600,26 +591,10 @@ public class Input extends BaseInput implements org.red5.io.object.Input {
 	}
 
     protected Type getPropertyType(Object instance, String propertyName) {
-        try {
-        	if (instance != null) {
-        		Field field = instance.getClass().getField(propertyName);
-        		return field.getGenericType();
-        	} else {
-        		// instance is null for anonymous class, use default type
-        	}
-        } catch (NoSuchFieldException e1) {
-            try {
-                BeanUtilsBean beanUtilsBean = BeanUtilsBean.getInstance();
-                PropertyUtilsBean propertyUtils = beanUtilsBean.getPropertyUtils();
-                PropertyDescriptor propertyDescriptor = propertyUtils.getPropertyDescriptor(instance, propertyName);
-                return propertyDescriptor.getReadMethod().getGenericReturnType();
-            } catch (Exception e2) {
-                // nothing
-            }
-        } catch (Exception e) {
-        	// ignore other exceptions
-        }
-        // return Object class type by default
-        return Object.class;
+    	if (instance == null) {
+    		// instance is null for anonymous class, use default type
+    		return Object.class;
+    	}
+    	return BeanCodec.getCodec(instance.getClass()).getPropertyType(propertyName);
     }
 }
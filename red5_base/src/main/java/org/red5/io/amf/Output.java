@@ -21,22 +21,17 @@ package org.red5.io.amf;
 
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
-import java.util.Set;
 import java.util.TimeZone;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.beanutils.BeanMap;
 import org.apache.mina.common.ByteBuffer;
 import org.red5.annotations.Anonymous;
 import org.red5.io.amf3.ByteArray;
 import org.red5.io.object.BaseOutput;
+import org.red5.io.object.BeanCodec;
 import org.red5.io.object.ICustomSerializable;
 import org.red5.io.object.RecordSet;
 import org.red5.io.object.Serializer;
@@ -56,13 +51,6 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
 
 	protected static Logger log = LoggerFactory.getLogger(Output.class);
 
-	/**
-	 * Cache encoded strings.
-	 */
-	protected static final ConcurrentMap<String, byte[]> stringCache = new ConcurrentHashMap<String, byte[]>();
-	protected static final Map<Class<?>, Map<String, Boolean>> serializeCache = new HashMap<Class<?>, Map<String, Boolean>>();
-	protected static final Map<Class<?>, Map<String, Field>> fieldCache = new HashMap<Class<?>, Map<String, Field>>();
-	protected static final Map<Class<?>, Map<String, Method>> getterCache = new HashMap<Class<?>, Map<String, Method>>();
 
     /**
      * Output buffer
@@ -262,22 +250,19 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
     public void writeReference(Object obj) {
 		log.debug("Write reference");
 		buf.put(AMF.TYPE_REFERENCE);
-		buf.putShort(getReferenceId(obj));
+		buf.putShort((short) getReferenceId(obj));
 	}
 
 	/** {@inheritDoc} */
-    @SuppressWarnings("unchecked")
 	public void writeObject(Object object, Serializer serializer) {
 		if (checkWriteReference(object)) {
 			return;
 		}
 		storeReference(object);
-        // Create new map out of bean properties
-        BeanMap beanMap = new BeanMap(object);
-        // Set of bean attributes
-        Set set = beanMap.keySet();
-		if ((set.size() == 0) || (set.size() == 1 && beanMap.containsKey("class"))) {
-			// BeanMap is empty or can only access "class" attribute, skip it
+		// Properties of the class, looked up once
+		BeanCodec codec = BeanCodec.getCodec(object.getClass());
+		if (!codec.isBean()) {
+			// No bean properties besides "class", write public fields
 			writeArbitraryObject(object, serializer);
 			return;
 		}
@@ -299,21 +284,10 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
     		return;
         }
 
-        // Iterate thru entries and write out property names with separators
-		for (Object key : set) {
-            String fieldName = key.toString();
-            log.debug("Field name: {} class: {}", fieldName, objectClass);
-            
-            Field field = getField(objectClass, fieldName);
-            Method getter = getGetter(objectClass, fieldName);
-
-            // Check if the Field corresponding to the getter/setter pair is transient
-            if (!serializeField(serializer, objectClass, fieldName, field, getter)) {
-            	continue;
-            }
-
-            putString(buf, fieldName);
-			serializer.serialize(this, field, getter, beanMap.get(key));
+        // Write out property names and values, transient and @DontSerialize ones are skipped
+		for (BeanCodec.Property property : codec.getProperties(serializer)) {
+            putString(buf, property.getName());
+			serializer.serialize(this, property.getField(), property.getGetter(), property.getValue(object));
 		}
         // Write out end of object mark
 		buf.put((byte) 0x00);
@@ -321,86 +295,6 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
 		buf.put(AMF.TYPE_END_OF_OBJECT);
 	}
 
-	protected boolean serializeField(Serializer serializer, Class<?> objectClass, String keyName, Field field, Method getter) {
-		Map<String, Boolean> serializeMap = serializeCache.get(objectClass);
-		if (serializeMap == null) {
-			serializeMap = new HashMap<String, Boolean>();
-			serializeCache.put(objectClass, serializeMap);
-		}
-
-		Boolean serialize;
-		if (serializeCache.containsKey(keyName)) {
-			serialize = serializeMap.get(keyName);
-		} else {
-			serialize = serializer.serializeField(keyName, field, getter);
-			serializeMap.put(keyName, serialize);
-		}
-
-		return serialize;
-	}
-
-	protected Field getField(Class<?> objectClass, String keyName) {
-	    Map<String, Field> fieldMap = fieldCache.get(objectClass);
-	    if (fieldMap == null) {
-		    fieldMap = new HashMap<String, Field>();
-		    fieldCache.put(objectClass, fieldMap);
-	    }
-
-	    Field field = null;
-
-	    if (fieldMap.containsKey(keyName)) {
-		    field = fieldMap.get(keyName);
-	    } else {
-		    for (Class<?> clazz = objectClass; !clazz.equals(Object.class); clazz = clazz.getSuperclass()) {
-			    try {
-				    field = clazz.getDeclaredField(keyName);
-			    } catch (NoSuchFieldException nfe) {
-				    // Ignore this exception and use the default behavior
-				    log.debug("writeObject caught NoSuchFieldException", nfe);
-			    }
-		    }
-
-		    fieldMap.put(keyName, field);
-	    }
-
-	    return field;
-    }
-
-	protected Method getGetter(Class<?> objectClass, String keyName) {
-
-		Map<String, Method> getterMap = getterCache.get(objectClass);
-		if (getterMap == null) {
-			getterMap = new HashMap<String, Method>();
-			getterCache.put(objectClass, getterMap);
-		}
-
-		Method getter = null;
-
-		if (getterMap.containsKey(keyName)) {
-			getter = getterMap.get(keyName);
-		} else {
-			String upper = keyName.substring(0, 1).toUpperCase() + keyName.substring(1);
-
-			for (Class<?> clazz = objectClass; !clazz.equals(Object.class); clazz = clazz.getSuperclass()) {
-				try {
-					getter = clazz.getMethod("get" + upper);
-				} catch (NoSuchMethodException e1) {
-					try {
-						getter = clazz.getMethod("is" + upper);
-					} catch (NoSuchMethodException e2) {
-						// Ignore this exception and use the default behavior
-						log.debug("writeObject caught NoSuchMethodException", e2);
-					}
-				}
-			}
-
-			getterMap.put(keyName, getter);
-		}
-
-		return getter;
-	}
-
-
     /** {@inheritDoc} */
     public void writeObject(Map<Object, Object> map, Serializer serializer) {
 		if (checkWriteReference(map)) {
@@ -440,28 +334,12 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
 			buf.put(AMF.TYPE_OBJECT);
 		}
 
-        // Iterate thru fields of an object to build "name-value" map from it
-        for (Field field : objectClass.getFields()) {
-	        String fieldName = field.getName();
-
-        	log.debug("Field: {} class: {}", field, objectClass);
-            // Check if the Field corresponding to the getter/setter pair is transient
-	        if (!serializeField(serializer, objectClass, fieldName, field, null)) {
-            	continue;
-            }
-
-			Object value;
-			try {
-                // Get field value
-                value = field.get(object);
-			} catch (IllegalAccessException err) {
-                // Swallow on private and protected properties access exception
-                continue;
-			}
+        // Write out public fields, transient and @DontSerialize ones are skipped
+		for (BeanCodec.Property property : BeanCodec.getCodec(objectClass).getProperties(serializer)) {
             // Write out prop name
-	        putString(buf, fieldName);
+	        putString(buf, property.getName());
             // Write out
-            serializer.serialize(this, field, null, value);
+            serializer.serialize(this, property.getField(), null, property.getValue(object));
 		}
         // Write out end of object marker
 		buf.put((byte) 0x00);
@@ -496,14 +374,8 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
      * @return encoded string
      */
     protected static byte[] encodeString(String string) {
-    	byte[] encoded = stringCache.get(string);
-		if (encoded == null) {
-    		java.nio.ByteBuffer buf = AMF.CHARSET.encode(string);
-    		encoded = new byte[buf.limit()];
-    		buf.get(encoded);
-    		stringCache.put(string, encoded);
-    	}		
-    	return encoded;
+    	// recurring strings are encoded once
+    	return StringCache.getInstance().encode(string);
     }
 
     /**
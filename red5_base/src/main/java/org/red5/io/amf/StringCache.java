@@ -0,0 +1,318 @@
+package org.red5.io.amf;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.red5.server.api.statistics.support.CacheCounter;
+import org.red5.server.jmx.JMXAgent;
+
+/**
+ * Bounded cache of UTF-8 encoded strings, shared by the AMF0 and AMF3
+ * outputs. Strings are only admitted after they have been written a few
+ * times, so property names and other recurring strings are cached while
+ * one-off payloads like chat messages are not. When the cache is full, a
+ * new string replaces an entry only if it is used more frequently. The
+ * frequencies are estimated by a small sketch that is aged regularly.
+ */
+public class StringCache implements StringCacheMBean {
+
+	private static final StringCache instance = new StringCache();
+
+	/**
+	 * Maximum number of cached strings
+	 */
+	private volatile int maxEntries = 10000;
+
+	/**
+	 * Maximum length of cached strings in characters
+	 */
+	private volatile int maxLength = 256;
+
+	/**
+	 * Number of uses before a string is cached
+	 */
+	private volatile int minFrequency = 2;
+
+	private final ConcurrentMap<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+	/**
+	 * Number of entries, the size of the map is expensive to compute
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final CacheCounter counter = new CacheCounter();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong rejections = new AtomicLong();
+
+	private volatile FrequencySketch sketch = new FrequencySketch(maxEntries);
+
+	/**
+	 * Walks over the entries to find candidates for eviction, guarded by this
+	 */
+	private Iterator<String> victims;
+
+	/**
+	 * Return the cache used by the AMF outputs.
+	 * 
+	 * @return String cache
+	 */
+	public static StringCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Register the cache with JMX.
+	 */
+	public void init() {
+		JMXAgent.registerMBean(this, this.getClass().getName(), StringCacheMBean.class);
+	}
+
+	/**
+	 * Return the UTF-8 encoding of a string.
+	 * 
+	 * @param string String to encode
+	 * @return Encoded string, must not be modified
+	 */
+	public byte[] encode(String string) {
+		byte[] encoded = entries.get(string);
+		if (encoded != null) {
+			counter.hit();
+			sketch.increment(string);
+			return encoded;
+		}
+		counter.miss();
+		java.nio.ByteBuffer buf = AMF.CHARSET.encode(string);
+		encoded = new byte[buf.limit()];
+		buf.get(encoded);
+		if (string.length() <= maxLength) {
+			admit(string, encoded);
+		} else {
+			rejections.incrementAndGet();
+		}
+		return encoded;
+	}
+
+	/**
+	 * Cache an encoded string if it is used frequently enough.
+	 */
+	private void admit(String string, byte[] encoded) {
+		final FrequencySketch frequencies = sketch;
+		final int frequency = frequencies.increment(string);
+		if (frequency < minFrequency) {
+			rejections.incrementAndGet();
+			return;
+		}
+		if (size.get() >= maxEntries) {
+			synchronized (this) {
+				// shrink after the limit has been lowered
+				while (size.get() > maxEntries) {
+					evict(nextVictim());
+				}
+				if (size.get() >= maxEntries) {
+					final String victim = nextVictim();
+					if (victim != null && frequencies.frequency(victim) >= frequency) {
+						rejections.incrementAndGet();
+						return;
+					}
+					evict(victim);
+				}
+			}
+		}
+		if (entries.putIfAbsent(string, encoded) == null) {
+			size.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Return the next entry to check for eviction, walking over all entries
+	 * in turn.
+	 */
+	private String nextVictim() {
+		if (victims == null || !victims.hasNext()) {
+			victims = entries.keySet().iterator();
+			if (!victims.hasNext()) {
+				return null;
+			}
+		}
+		return victims.next();
+	}
+
+	private void evict(String victim) {
+		if (victim != null && entries.remove(victim) != null) {
+			size.decrementAndGet();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/** {@inheritDoc} */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		sketch = new FrequencySketch(maxEntries);
+	}
+
+	/** {@inheritDoc} */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/** {@inheritDoc} */
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/** {@inheritDoc} */
+	public int getMinFrequency() {
+		return minFrequency;
+	}
+
+	/** {@inheritDoc} */
+	public void setMinFrequency(int minFrequency) {
+		this.minFrequency = minFrequency;
+	}
+
+	/** {@inheritDoc} */
+	public int getSize() {
+		return size.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getHits() {
+		return counter.getHits();
+	}
+
+	/** {@inheritDoc} */
+	public long getMisses() {
+		return counter.getMisses();
+	}
+
+	/** {@inheritDoc} */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/** {@inheritDoc} */
+	public synchronized void clear() {
+		for (String key : entries.keySet()) {
+			if (entries.remove(key) != null) {
+				size.decrementAndGet();
+			}
+		}
+		victims = null;
+		sketch = new FrequencySketch(maxEntries);
+	}
+
+	/**
+	 * Count-min sketch of 4 bit counters estimating how often strings are
+	 * used. The counters are halved after a number of uses, so strings that
+	 * are not used any longer lose their frequency. Updates are not
+	 * synchronized, lost updates only make the estimate a bit lower.
+	 */
+	private static final class FrequencySketch {
+
+		private static final int MAX_COUNT = 15;
+
+		private final byte[] counters;
+
+		private final int mask;
+
+		private final int sampleSize;
+
+		private int additions;
+
+		FrequencySketch(int maxEntries) {
+			int length = 64;
+			while (length < maxEntries * 8 && length < (1 << 24)) {
+				length <<= 1;
+			}
+			counters = new byte[length];
+			mask = length - 1;
+			sampleSize = Math.max(maxEntries, 64) * 10;
+		}
+
+		/**
+		 * Count a use of the string.
+		 * 
+		 * @return Estimated frequency including this use
+		 */
+		int increment(String string) {
+			final int hash = spread(string.hashCode());
+			final int step = spread(hash * 0x9E3779B9) | 1;
+			int min = MAX_COUNT;
+			for (int i = 0; i < 4; i++) {
+				final int index = (hash + i * step) & mask;
+				int count = counters[index];
+				if (count < MAX_COUNT) {
+					counters[index] = (byte) ++count;
+				}
+				min = Math.min(min, count);
+			}
+			if (++additions >= sampleSize) {
+				age();
+			}
+			return min;
+		}
+
+		/**
+		 * Return the estimated frequency of the string.
+		 */
+		int frequency(String string) {
+			final int hash = spread(string.hashCode());
+			final int step = spread(hash * 0x9E3779B9) | 1;
+			int min = MAX_COUNT;
+			for (int i = 0; i < 4; i++) {
+				min = Math.min(min, counters[(hash + i * step) & mask]);
+			}
+			return min;
+		}
+
+		private void age() {
+			additions = 0;
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] = (byte) (counters[i] >> 1);
+			}
+		}
+
+		private static int spread(int hash) {
+			hash ^= (hash >>> 17);
+			hash *= 0xed5ad4bb;
+			hash ^= (hash >>> 11);
+			return hash;
+		}
+
+	}
+
+}
@@ -20,7 +20,6 @@ package org.red5.io.amf3;
  */
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.lang.reflect.ParameterizedType;
 import java.util.*;
@@ -30,12 +29,13 @@ import org.apache.commons.beanutils.ConvertUtilsBean;
 import org.apache.commons.beanutils.BeanUtilsBean;
 import org.apache.mina.common.ByteBuffer;
 import org.red5.io.amf.AMF;
+import org.red5.io.object.BeanCodec;
 import org.red5.io.object.DataTypes;
 import org.red5.io.object.Deserializer;
+import org.red5.io.object.ReferenceTable;
 import org.red5.io.utils.ObjectMap;
 import org.red5.io.utils.XMLUtils;
 import org.red5.io.utils.ArrayUtils;
-import org.red5.server.service.ConversionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -108,7 +108,9 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 			for (PendingProperty prop: properties) {
 				try {
 					try {
-						prop.klass.getField(prop.name).set(prop.obj, result);
+						if (!BeanCodec.getCodec(prop.klass).setProperty(prop.obj, prop.name, result)) {
+							BeanUtils.setProperty(prop.obj, prop.name, result);
+						}
 					} catch (Exception e) {
 						BeanUtils.setProperty(prop.obj, prop.name, result);
 					}
@@ -125,10 +127,20 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 	 * In AMF3 references should be collected through the whole "body" (across several Input objects).
 	 */
 	public static class RefStorage {
-		private List<ClassReference> classReferences = new ArrayList<ClassReference>();
-		private List<String> stringReferences = new ArrayList<String>();
-		private Map<Integer, Object> refMap = new HashMap<Integer, Object>();
-	} 
+		private ReferenceTable<ClassReference> classReferences = new ReferenceTable<ClassReference>();
+		private ReferenceTable<String> stringReferences = new ReferenceTable<String>();
+		private ReferenceTable<Object> references = new ReferenceTable<Object>();
+
+		/**
+		 * Forget the references of the previous message, so the storage
+		 * can be reused for the next one of the same connection.
+		 */
+		public void clear() {
+			stringReferences.clear();
+			classReferences.clear();
+			references.clear();
+		}
+	}
 	
     /**
      * Logger
@@ -141,11 +153,11 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 	/**
 	 * List of string values found in the input stream.
 	 */
-	private List<String> stringReferences;
+	private ReferenceTable<String> stringReferences;
 	/**
 	 * Informations about already deserialized classes.
 	 */
-	private List<ClassReference> classReferences;
+	private ReferenceTable<ClassReference> classReferences;
 
 	/**
 	 * Creates Input object for AMF3 from byte buffer
@@ -155,8 +167,8 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 	public Input(ByteBuffer buf) {
 		super(buf);
 		amf3_mode = 0;
-		stringReferences = new ArrayList<String>();
-		classReferences = new ArrayList<ClassReference>();
+		stringReferences = new ReferenceTable<String>();
+		classReferences = new ReferenceTable<ClassReference>();
 	}
 	
 	/**
@@ -169,7 +181,7 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
     	super(buf);
     	this.stringReferences = refStorage.stringReferences;
     	this.classReferences = refStorage.classReferences;
-    	this.refMap = refStorage.refMap;
+    	this.references = refStorage.references;
     	amf3_mode = 0;
 	}
 	
@@ -620,6 +632,7 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 				if (result != null) {
 					storeReference(tempRefId, result);
 					Class resultClass = result.getClass();
+					BeanCodec codec = BeanCodec.getCodec(resultClass);
 					pending.resolveProperties(result);
 					for (Map.Entry<String, Object> entry: properties.entrySet()) {
 						// Resolve circular references
@@ -638,12 +651,10 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 						try {
 							if (value != null) { 
     							try {
-    								final Field field = resultClass.getField(key);
-    								final Class fieldType = field.getType();
-    								if (!fieldType.isAssignableFrom(value.getClass())) {
-    									value = ConversionUtils.convert(value, fieldType);
+    								// Set through the public field or setter
+    								if (!codec.setProperty(result, key, value)) {
+    									BeanUtils.setProperty(result, key, value);
     								}
-    								field.set(result, value);
     							} catch (Exception e) {
     								BeanUtils.setProperty(result, key, value);
     							}
@@ -698,6 +709,7 @@ public class Input extends org.red5.io.amf.Input implements org.red5.io.object.I
 	public void reset() {
 		super.reset();
 		stringReferences.clear();
+		classReferences.clear();
 	}
 
 	/**
@@ -20,21 +20,17 @@ package org.red5.io.amf3;
  */
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.apache.commons.beanutils.BeanMap;
 import org.apache.mina.common.ByteBuffer;
 import org.red5.annotations.Anonymous;
 import org.red5.compatibility.flex.messaging.io.ObjectProxy;
 import org.red5.io.amf.AMF;
+import org.red5.io.object.BeanCodec;
 import org.red5.io.object.RecordSet;
+import org.red5.io.object.ReferenceMap;
 import org.red5.io.object.Serializer;
 import org.red5.io.utils.XMLUtils;
 import org.slf4j.Logger;
@@ -59,9 +55,9 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 	 */
 	private int amf3_mode;
 	/**
-	 * List of strings already written.
+	 * Reference ids of the strings already written.
 	 * */
-	private List<String> stringReferences;
+	private ReferenceMap stringReferences;
 
 	/**
 	 * Constructor of AMF3 output.
@@ -72,7 +68,7 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 	public Output(ByteBuffer buf) {
 		super(buf);
 		amf3_mode = 0;
-		stringReferences = new LinkedList<String>();
+		stringReferences = new ReferenceMap(false);
 	}
 
 	/**
@@ -141,25 +137,9 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 		}
 	}
 
-    protected static byte[] encodeString(String string) {
-    	byte[] encoded;
-    	synchronized (stringCache) {
-    		encoded = stringCache.get(string);
-    	}
-    	if (encoded == null) {
-    		java.nio.ByteBuffer buf = AMF3.CHARSET.encode(string);
-    		encoded = new byte[buf.limit()];
-    		buf.get(encoded);
-    		synchronized (stringCache) {
-    			stringCache.put(string, encoded);
-    		}
-    	}
-    	return encoded;
-    }
-
 	protected void putString(String str, byte[] encoded) {
 		final int len = encoded.length;
-		int pos = stringReferences.indexOf(str);
+		int pos = stringReferences.get(str);
 		if (pos >= 0) {
 			// Reference to existing string
 			putInteger(pos << 1);
@@ -389,29 +369,12 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 
     	// Store key/value pairs
     	amf3_mode += 1;
-        // Iterate thru fields of an object to build "name-value" map from it
-        for (Field field : objectClass.getFields()) {
-	        String fieldName = field.getName();
-
-        	log.debug("Field: {} class: {}", field, objectClass);
-            // Check if the Field corresponding to the getter/setter pair is transient
-	        if (!serializeField(serializer, objectClass, fieldName, field, null)) {
-		        continue;
-	        }
-
-			Object value;
-			try {
-                // Get field value
-                value = field.get(object);
-			} catch (IllegalAccessException err) {
-                // Swallow on private and protected properties access exception
-                continue;
-			}
-
+        // Write out public fields, transient and @DontSerialize ones are skipped
+		for (BeanCodec.Property property : BeanCodec.getCodec(objectClass).getProperties(serializer)) {
             // Write out prop name
-			putString(fieldName);
+			putString(property.getName());
             // Write out
-            serializer.serialize(this, field, null, value);
+            serializer.serialize(this, property.getField(), null, property.getValue(object));
 		}
     	amf3_mode -= 1;
         // Write out end of object marker
@@ -419,7 +382,6 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 	}
 
     /** {@inheritDoc} */
-    @SuppressWarnings("unchecked")
 	public void writeObject(Object object, Serializer serializer) {
 		writeAMF3();
 		buf.put(AMF3.TYPE_OBJECT);
@@ -456,12 +418,10 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
     	int type = AMF3.TYPE_OBJECT_VALUE << 2 | 1 << 1 | 1;
     	putInteger(type);
 
-        // Create new map out of bean properties
-        BeanMap beanMap = new BeanMap(object);
-        // Set of bean attributes
-        Set set = beanMap.keySet();
-		if ((set.size() == 0) || (set.size() == 1 && beanMap.containsKey("class"))) {
-			// BeanMap is empty or can only access "class" attribute, skip it
+		// Properties of the class, looked up once
+		BeanCodec codec = BeanCodec.getCodec(object.getClass());
+		if (!codec.isBean()) {
+			// No bean properties besides "class", write public fields
 			writeArbitraryObject(object, serializer);
 			return;
 		}
@@ -477,20 +437,10 @@ public class Output extends org.red5.io.amf.Output implements org.red5.io.object
 
     	// Store key/value pairs
     	amf3_mode += 1;
-    	for (Object key: set) {
-			String fieldName = key.toString();
-            log.debug("Field name: {} class: {}", fieldName, objectClass);
-
-			Field field = getField(objectClass, fieldName);
-			Method getter = getGetter(objectClass, fieldName);
-
-			// Check if the Field corresponding to the getter/setter pair is transient
-		    if (!serializeField(serializer, objectClass, fieldName, field, getter)) {
-			    continue;
-		    }
-
-			putString(fieldName);
-			serializer.serialize(this, field, getter, beanMap.get(key));
+    	for (BeanCodec.Property property : codec.getProperties(serializer)) {
+			// Transient and @DontSerialize properties have been skipped
+			putString(property.getName());
+			serializer.serialize(this, property.getField(), property.getGetter(), property.getValue(object));
 		}
     	amf3_mode -= 1;
 
@@ -34,7 +34,8 @@ public interface IKeyFrameDataAnalyzer {
     public KeyFrameMeta analyzeKeyFrames();
 
     /**
-     * Keyframe metadata.
+     * Keyframe metadata. The informations of a file are shared by all its
+     * readers and must not be modified once they have been created.
      */
     public static class KeyFrameMeta implements Serializable {
 		private static final long serialVersionUID = 5436632873705625365L;
@@ -47,12 +48,34 @@ public interface IKeyFrameDataAnalyzer {
 		 */
 		public boolean audioOnly;
         /**
-         * Keyframe timestamps
+         * Keyframe timestamps, ascending
          */
 		public int timestamps[];
         /**
-         * Keyframe positions
+         * Keyframe positions, ascending
          */
 		public long positions[];
+
+		/**
+		 * Find the last keyframe at or before a timestamp.
+		 *
+		 * @param timestamp  Timestamp in milliseconds
+		 * @return           Index of the keyframe or 0 if the timestamp is before
+		 *                   the first keyframe
+		 */
+		public int findKeyFrame(int timestamp) {
+			int low = 0;
+			int high = timestamps.length;
+			// find the first keyframe after the timestamp
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (timestamps[mid] > timestamp) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low > 0 ? low - 1 : 0;
+		}
 	}
 }
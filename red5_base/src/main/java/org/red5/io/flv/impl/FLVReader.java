@@ -24,9 +24,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.mina.common.ByteBuffer;
@@ -36,11 +34,14 @@ import org.red5.io.IStreamableFile;
 import org.red5.io.ITag;
 import org.red5.io.ITagReader;
 import org.red5.io.IoConstants;
+import org.red5.io.MappedFile;
+import org.red5.io.SharedFile;
 import org.red5.io.amf.Output;
 import org.red5.io.flv.FLVHeader;
 import org.red5.io.flv.IKeyFrameDataAnalyzer;
 import org.red5.io.object.Serializer;
 import org.red5.io.utils.IOUtils;
+import org.red5.server.exception.StreamDataException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,6 +80,37 @@ public class FLVReader implements IoConstants, ITagReader,
     private FileChannel channel;
     
     private long channelSize;
+
+	/**
+	 * Shared mapping of the file, used with the mapped buffer type
+	 */
+	private MappedFile mappedFile;
+
+	/**
+	 * Index of the mapped window the buffer is a view of
+	 */
+	private int windowIndex = -1;
+
+	/**
+	 * Position in the file where the mapped window or the cursor buffer starts
+	 */
+	private long windowStart;
+
+	/**
+	 * Shared channel of the file, used with the shared buffer type
+	 */
+	private SharedFile sharedFile;
+
+	/**
+	 * Size of the buffer used with the shared buffer type, holds a tag header
+	 * and the first byte of the body
+	 */
+	private static final int CURSOR_BUFFER_SIZE = 16;
+
+	/**
+	 * Name of the keyframe index stored with a shared file
+	 */
+	private static final String INDEX_ATTRIBUTE = FLVReader.class.getName() + ".index";
     /**
      * Keyframe metadata
      */
@@ -104,12 +136,12 @@ public class FLVReader implements IoConstants, ITagReader,
 	/** Duration in milliseconds. */
 	private long duration;
 
-	/** Mapping between file position and timestamp in ms. */
-	private HashMap<Long, Long> posTimeMap;
-
 	/** Buffer type / style to use **/
 	private static BufferType bufferType = BufferType.AUTO;
 
+	/** Buffer type of this reader */
+	private BufferType readerBufferType = BufferType.AUTO;
+
 	private static int bufferSize = 1024;
 	
 	/** Use load buffer */
@@ -143,18 +175,41 @@ public class FLVReader implements IoConstants, ITagReader,
      * @throws IOException on error
      */
     public FLVReader(File f, boolean generateMetadata) throws IOException {
+		this(f, generateMetadata, bufferType);
+	}
+
+    /**
+     * Creates FLV reader from file input stream with the given buffer type
+     * instead of the configured one.
+	 *
+     * @param f                    File input stream
+     * @param generateMetadata     <code>true</code> if metadata generation required, <code>false</code> otherwise
+     * @param type                 Buffer type
+     * @throws IOException on error
+     */
+    public FLVReader(File f, boolean generateMetadata, BufferType type) throws IOException {
     	if (null == f) {
     		log.warn("Reader was passed a null file");
         	log.debug("{}", org.apache.commons.lang.builder.ToStringBuilder.reflectionToString(this));
     	}
     	this.file = f;
-		this.fis = new FileInputStream(f);
 		this.generateMetadata = generateMetadata;
-		channel = fis.getChannel();
-		channelSize = channel.size();
-		
-		in = null;
-		fillBuffer();
+		readerBufferType = type;
+		if (type == BufferType.MAPPED) {
+			mappedFile = MappedFile.acquire(f);
+			selectWindow(0);
+		} else if (type == BufferType.SHARED) {
+			sharedFile = SharedFile.acquire(f);
+			in = ByteBuffer.allocate(CURSOR_BUFFER_SIZE, false);
+			in.limit(0);
+		} else {
+			this.fis = new FileInputStream(f);
+			channel = fis.getChannel();
+			channelSize = channel.size();
+
+			in = null;
+			fillBuffer();
+		}
 
 		postInitialize();
 	}
@@ -182,6 +237,12 @@ public class FLVReader implements IoConstants, ITagReader,
 	 * @return          Number of remaining bytes
 	 */
 	private long getRemainingBytes() {
+		if (mappedFile != null) {
+			return mappedFile.size() - windowStart - in.position();
+		}
+		if (sharedFile != null) {
+			return sharedFile.size() - windowStart - in.position();
+		}
 		if (!useLoadBuf) {
 			return in.remaining();
 		}
@@ -200,6 +261,12 @@ public class FLVReader implements IoConstants, ITagReader,
 	 * @return          Total readable bytes
 	 */
 	public long getTotalBytes() {
+		if (mappedFile != null) {
+			return mappedFile.size();
+		}
+		if (sharedFile != null) {
+			return sharedFile.size();
+		}
 		if (!useLoadBuf) {
 			return in.capacity();
 		}
@@ -220,6 +287,9 @@ public class FLVReader implements IoConstants, ITagReader,
 	private long getCurrentPosition() {
 		long pos;
 
+		if (mappedFile != null || sharedFile != null) {
+			return windowStart + in.position();
+		}
 		if (!useLoadBuf) {
 			return in.position();
 		}
@@ -246,6 +316,23 @@ public class FLVReader implements IoConstants, ITagReader,
 		if (pos == Long.MAX_VALUE) {
 			pos = file.length();
 		}
+		if (mappedFile != null) {
+			if (pos < windowStart || pos > windowStart + in.limit()) {
+				selectWindow(mappedFile.getWindowIndex(pos));
+			}
+			in.position((int) (pos - windowStart));
+			return;
+		}
+		if (sharedFile != null) {
+			if (pos >= windowStart && pos <= windowStart + in.limit()) {
+				in.position((int) (pos - windowStart));
+			} else {
+				// read from the new position on next access
+				windowStart = pos;
+				in.limit(0);
+			}
+			return;
+		}
 		if (!useLoadBuf) {
 			in.position((int) pos);
 			return;
@@ -291,6 +378,34 @@ public class FLVReader implements IoConstants, ITagReader,
 	 * @param reload Whether to reload or append
 	 */
 	private void fillBuffer(long amount, boolean reload) {
+		if (mappedFile != null) {
+			// continue in the window that holds the most data from here on
+			if (in.remaining() < amount) {
+				long pos = getCurrentPosition();
+				int index = mappedFile.getWindowIndex(pos);
+				if (index != windowIndex) {
+					selectWindow(index);
+					in.position((int) (pos - windowStart));
+				}
+			}
+			return;
+		}
+		if (sharedFile != null) {
+			if (in.remaining() < amount) {
+				long pos = getCurrentPosition();
+				windowStart = pos;
+				in.clear();
+				in.limit(CURSOR_BUFFER_SIZE);
+				try {
+					sharedFile.read(in.buf(), pos);
+				} catch (IOException e) {
+					in.limit(0);
+					throw new StreamDataException("Error reading " + file, e);
+				}
+				in.flip();
+			}
+			return;
+		}
 		try {
 			if (amount > bufferSize) {
 				amount = bufferSize;
@@ -302,7 +417,7 @@ public class FLVReader implements IoConstants, ITagReader,
 			}
 
 			if (in == null) {
-				switch (bufferType) {
+				switch (readerBufferType) {
 					case HEAP:
 						in = ByteBuffer.allocate(bufferSize, false);
 						break;
@@ -339,6 +454,26 @@ public class FLVReader implements IoConstants, ITagReader,
 		}
 	}
 
+	/**
+	 * Make the buffer a view of a mapped window of the file.
+	 *
+	 * @param index      Window index
+	 */
+	private void selectWindow(int index) {
+		if (in != null) {
+			in.release();
+		}
+		try {
+			in = ByteBuffer.wrap(mappedFile.getWindow(index));
+		} catch (IOException e) {
+			// the data of the window can't be read, just like at the end of file
+			log.error("Error mapping window {} of {}", index, file);
+			in = ByteBuffer.allocate(0);
+		}
+		windowIndex = index;
+		windowStart = mappedFile.getWindowStart(index);
+	}
+
     /**
      * Post-initialization hook, reads keyframe metadata and decodes header (if any).
      */
@@ -367,7 +502,7 @@ public class FLVReader implements IoConstants, ITagReader,
 
 
 	/**
-     * Getter for buffer type (auto, direct or heap).
+     * Getter for buffer type (auto, direct, heap, mapped or shared).
      *
      * @return Value for property 'bufferType'
      */
@@ -379,6 +514,10 @@ public class FLVReader implements IoConstants, ITagReader,
 				return "direct";
 			case HEAP:
 				return "heap";
+			case MAPPED:
+				return "mapped";
+			case SHARED:
+				return "shared";
 			default:
 				return null;
 		}
@@ -400,6 +539,14 @@ public class FLVReader implements IoConstants, ITagReader,
 				 //Get a direct buffer from buffer pool
 				 FLVReader.bufferType = BufferType.DIRECT;
 				 break;
+			 case -1081360845: //mapped
+				 //Map the file into memory and share it between readers
+				 FLVReader.bufferType = BufferType.MAPPED;
+				 break;
+			 case -903566235: //shared
+				 //Open the file once and read with positional reads
+				 FLVReader.bufferType = BufferType.SHARED;
+				 break;
 			 case 3005871: //auto
 				 //Let MINA choose
 			 default:
@@ -584,6 +731,50 @@ public class FLVReader implements IoConstants, ITagReader,
 			}
 		}
 
+		if (mappedFile != null) {
+			fillBuffer(tag.getBodySize());
+			if (in.remaining() >= tag.getBodySize()) {
+				// the body is a view of the mapped file
+				int limit = in.limit();
+				in.limit(in.position() + tag.getBodySize());
+				tag.setBody(in.slice());
+				in.position(in.limit());
+				in.limit(limit);
+				if (tag.getDataType() == TYPE_METADATA)
+					metadataSent = true;
+				return tag;
+			}
+			// larger than the window overlap or damaged, copy it below
+		}
+
+		if (sharedFile != null) {
+			// read the body straight from the file
+			long pos = getCurrentPosition();
+			if (pos + tag.getBodySize() <= getTotalBytes()) {
+				ByteBuffer body = ByteBuffer.allocate(tag.getBodySize(), false);
+				// pooled buffers may be larger
+				body.limit(tag.getBodySize());
+				int count;
+				try {
+					count = sharedFile.read(body.buf(), pos);
+				} catch (IOException e) {
+					body.release();
+					throw new StreamDataException("Error reading " + file, e);
+				}
+				if (count == tag.getBodySize()) {
+					body.flip();
+					tag.setBody(body);
+					setCurrentPosition(pos + tag.getBodySize());
+				} else {
+					// truncated in the meantime, like a damaged file
+					body.release();
+				}
+			}
+			if (tag.getDataType() == TYPE_METADATA)
+				metadataSent = true;
+			return tag;
+		}
+
 		ByteBuffer body = ByteBuffer.allocate(tag.getBodySize(), false);
 
 		// XXX Paul: this assists in 'properly' handling damaged FLV files		
@@ -628,6 +819,14 @@ public class FLVReader implements IoConstants, ITagReader,
 				log.error("FLVReader :: close ::>\n", e);
 			}
 		}
+		if (mappedFile != null) {
+			mappedFile.release();
+			mappedFile = null;
+		}
+		if (sharedFile != null) {
+			sharedFile.release();
+			sharedFile = null;
+		}
 	}
 
     /**
@@ -641,26 +840,33 @@ public class FLVReader implements IoConstants, ITagReader,
 			return keyframeMeta;
 		}
 
+		// check for the index of the other readers of a shared file
+		if (sharedFile != null) {
+			SharedIndex index = (SharedIndex) sharedFile.getAttribute(INDEX_ATTRIBUTE);
+			if (index != null) {
+				keyframeMeta = index.keyframeMeta;
+				duration = keyframeMeta.duration;
+				firstVideoTag = index.firstVideoTag;
+				firstAudioTag = index.firstAudioTag;
+				return keyframeMeta;
+			}
+		}
+
 		// check for cached keyframe informations
 		if (keyframeCache != null) {
 			keyframeMeta = keyframeCache.loadKeyFrameMeta(file);
 			if (keyframeMeta != null) {
-				// Keyframe data loaded, create other mappings
+				// Keyframe data loaded, shared with the other readers of the file
 				duration = keyframeMeta.duration;
-				posTimeMap = new HashMap<Long, Long>();
-				for (int i=0; i<keyframeMeta.positions.length; i++) {
-					posTimeMap.put(keyframeMeta.positions[i], (long) keyframeMeta.timestamps[i]);
-				}
+				shareIndex();
 				return keyframeMeta;
 			}
 		}
 		
-        // Lists of video positions and timestamps
-        List<Long> positionList = new ArrayList<Long>();
-        List<Integer> timestampList = new ArrayList<Integer>();
-        // Lists of audio positions and timestamps
-        List<Long> audioPositionList = new ArrayList<Long>();
-        List<Integer> audioTimestampList = new ArrayList<Integer>();
+        // Video positions and timestamps
+        KeyFrameList videoKeyFrames = new KeyFrameList();
+        // Audio positions and timestamps
+        KeyFrameList audioKeyFrames = new KeyFrameList();
 		long origPos = getCurrentPosition();
 		// point to the first tag
 		setCurrentPosition(9);
@@ -674,8 +880,7 @@ public class FLVReader implements IoConstants, ITagReader,
 			if (tmpTag.getDataType() == IoConstants.TYPE_VIDEO) {
 				if (audioOnly) {
 					audioOnly = false;
-					audioPositionList.clear();
-					audioTimestampList.clear();
+					audioKeyFrames.clear();
 				}
 				if (firstVideoTag == -1) {
 					firstVideoTag = pos;
@@ -685,8 +890,7 @@ public class FLVReader implements IoConstants, ITagReader,
 				fillBuffer(1);
 				byte frametype = in.get();
 				if (((frametype & MASK_VIDEO_FRAMETYPE) >> 4) == FLAG_FRAMETYPE_KEYFRAME) {
-					positionList.add(pos);
-					timestampList.add(tmpTag.getTimestamp());
+					videoKeyFrames.add(pos, tmpTag.getTimestamp());
 				}
 
 			} else if (tmpTag.getDataType() == IoConstants.TYPE_AUDIO) {
@@ -694,8 +898,7 @@ public class FLVReader implements IoConstants, ITagReader,
 					firstAudioTag = pos;
 				}
 				if (audioOnly) {
-					audioPositionList.add(pos);
-					audioTimestampList.add(tmpTag.getTimestamp());
+					audioKeyFrames.add(pos, tmpTag.getTimestamp());
 				}
 			}
 			// XXX Paul: this 'properly' handles damaged FLV files - as far as
@@ -725,27 +928,51 @@ public class FLVReader implements IoConstants, ITagReader,
 
 		keyframeMeta = new KeyFrameMeta();
 		keyframeMeta.duration = duration;
-		posTimeMap = new HashMap<Long, Long>();
+		keyframeMeta.audioOnly = audioOnly;
 		if (audioOnly) {
 			// The flv only contains audio tags, use their lists
 			// to support pause and seeking
-			positionList = audioPositionList;
-			timestampList = audioTimestampList;
-		}
-		keyframeMeta.audioOnly = audioOnly;
-		keyframeMeta.positions = new long[positionList.size()];
-		keyframeMeta.timestamps = new int[timestampList.size()];
-		for (int i = 0; i < keyframeMeta.positions.length; i++) {
-			keyframeMeta.positions[i] = positionList.get(i);
-			keyframeMeta.timestamps[i] = timestampList.get(i);
-			posTimeMap.put((long) positionList.get(i), (long) timestampList
-					.get(i));
+			audioKeyFrames.copyTo(keyframeMeta);
+		} else {
+			videoKeyFrames.copyTo(keyframeMeta);
 		}
 		if (keyframeCache != null)
 			keyframeCache.saveKeyFrameMeta(file, keyframeMeta);
+		shareIndex();
 		return keyframeMeta;
 	}
 
+	/**
+	 * Store the keyframe index with the shared file for the other readers.
+	 */
+	private void shareIndex() {
+		if (sharedFile != null) {
+			sharedFile.setAttributeIfAbsent(INDEX_ATTRIBUTE, new SharedIndex(
+					keyframeMeta, firstVideoTag, firstAudioTag));
+		}
+	}
+
+	/**
+	 * Keyframe index and positions of the first tags, shared by the readers
+	 * of a file.
+	 */
+	private static final class SharedIndex {
+
+		private final KeyFrameMeta keyframeMeta;
+
+		private final long firstVideoTag;
+
+		private final long firstAudioTag;
+
+		SharedIndex(KeyFrameMeta keyframeMeta, long firstVideoTag,
+				long firstAudioTag) {
+			this.keyframeMeta = keyframeMeta;
+			this.firstVideoTag = firstVideoTag;
+			this.firstAudioTag = firstAudioTag;
+		}
+
+	}
+
 	/**
 	 * Put the current position to pos.
 	 * The caller must ensure the pos is a valid one
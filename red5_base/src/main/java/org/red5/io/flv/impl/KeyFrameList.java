@@ -0,0 +1,71 @@
+package org.red5.io.flv.impl;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.Arrays;
+
+import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+
+/**
+ * Growing list of keyframe positions and timestamps, stored in primitive
+ * arrays while a file is analyzed.
+ */
+class KeyFrameList {
+
+	private long[] positions = new long[256];
+
+	private int[] timestamps = new int[256];
+
+	private int size;
+
+	/**
+	 * Add a keyframe.
+	 *
+	 * @param position      Position of the tag in the file
+	 * @param timestamp     Timestamp of the tag
+	 */
+	void add(long position, int timestamp) {
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+		}
+		positions[size] = position;
+		timestamps[size] = timestamp;
+		size++;
+	}
+
+	/**
+	 * Remove all keyframes.
+	 */
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Copy the keyframes to the metadata.
+	 *
+	 * @param meta          Metadata to fill
+	 */
+	void copyTo(KeyFrameMeta meta) {
+		meta.positions = Arrays.copyOf(positions, size);
+		meta.timestamps = Arrays.copyOf(timestamps, size);
+	}
+
+}
@@ -19,9 +19,6 @@ package org.red5.io.object;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * BaseInput represents a way to map input to a HashMap.  This class
  * is meant to be extended.
@@ -32,23 +29,16 @@ import java.util.Map;
 public class BaseInput {
 	
 	/**
-     * References map
+     * Objects read so far by reference id
      */
-	protected Map<Integer, Object> refMap = new HashMap<Integer, Object>();
+	protected ReferenceTable<Object> references = new ReferenceTable<Object>();
 
-    /**
-     * References id
-     */
-    protected int refId;
-    
 	/**
 	 * Store an object into a map
 	 * @param obj  Object to store
 	 */
 	protected int storeReference(Object obj) {
-		int newRefId = refId++;
-		refMap.put(Integer.valueOf(newRefId), obj);
-		return newRefId;
+		return references.add(obj);
 	}
 
 	/**
@@ -59,15 +49,14 @@ public class BaseInput {
 	 * @param newRef
 	 */
 	protected void storeReference(int refId, Object newRef) {
-		refMap.put(Integer.valueOf(refId), newRef);
+		references.set(refId, newRef);
 	}
 	
 	/**
 	 * Clears the map
 	 */
 	public void clearReferences() {
-		refMap.clear();
-		refId = 0;
+		references.clear();
 	}
 
 	/**
@@ -76,7 +65,7 @@ public class BaseInput {
 	 * @return Object   Object reference with given id
 	 */
 	protected Object getReference(int id) {
-		return refMap.get(Integer.valueOf(id));
+		return references.get(id);
 	}
 
 }
@@ -19,9 +19,6 @@ package org.red5.io.object;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * BaseOutput represents a way to map input to a HashMap.  This class
  * is meant to be extended.
@@ -31,54 +28,17 @@ import java.util.Map;
  */
 public class BaseOutput {
 
-	class IdentityWrapper {
-        /**
-         * Wrapped object
-         */
-		Object object;
-
-        /**
-         * Creates wrapper for object
-         * @param object        Object to wrap
-         */
-        public IdentityWrapper(Object object) {
-			this.object = object;
-		}
-
-		/** {@inheritDoc} */
-        @Override
-		public int hashCode() {
-			return System.identityHashCode(object);
-		}
-
-		/** {@inheritDoc} */
-        @Override
-		public boolean equals(Object object) {
-			if (object instanceof IdentityWrapper) {
-				return ((IdentityWrapper) object).object == this.object;
-			}
-
-			return false;
-		}
-
-	}
-
-    /**
-     * References map
-     */
-    protected Map<IdentityWrapper, Short> refMap;
-
     /**
-     * Reference id
+     * Reference ids of the objects written so far
      */
-    protected short refId;
+    protected ReferenceMap references;
 
 	/**
 	 * BaseOutput Constructor
 	 *
 	 */
 	protected BaseOutput() {
-		refMap = new HashMap<IdentityWrapper, Short>();
+		references = new ReferenceMap(true);
 	}
 
 	/**
@@ -87,7 +47,7 @@ public class BaseOutput {
 	 * @param obj   Object to store
 	 */
 	protected void storeReference(Object obj) {
-		refMap.put(new IdentityWrapper(obj), Short.valueOf(refId++));
+		references.add(obj);
 	}
 
 	/**
@@ -97,25 +57,24 @@ public class BaseOutput {
 	 * @return boolean       <code>true</code> if it does contain it, <code>false</code> otherwise
 	 */
 	protected boolean hasReference(Object obj) {
-		return refMap.containsKey(new IdentityWrapper(obj));
+		return references.get(obj) >= 0;
 	}
 
 	/**
 	 * Clears the map
 	 */
 	public void clearReferences() {
-		refMap.clear();
-		refId = 0;
+		references.clear();
 	}
 
 	/**
 	 * Returns the reference id based on the parameter obj
 	 * 
 	 * @param obj            Object
-	 * @return short         Reference id
+	 * @return int           Reference id
 	 */
-	protected short getReferenceId(Object obj) {
-		return refMap.get(new IdentityWrapper(obj)).shortValue();
+	protected int getReferenceId(Object obj) {
+		return references.get(obj);
 	}
 
 }
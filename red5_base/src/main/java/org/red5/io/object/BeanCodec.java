@@ -0,0 +1,359 @@
+package org.red5.io.object;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.red5.server.service.ConversionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Properties of a class as they are written to and read from AMF. The
+ * properties are looked up once per class, the readable ones in the order
+ * they are written. Classes without bean properties are written with their
+ * public fields.
+ */
+public class BeanCodec {
+
+	protected static Logger log = LoggerFactory.getLogger(BeanCodec.class);
+
+	/**
+	 * Codecs by class
+	 */
+	private static final ConcurrentMap<Class<?>, BeanCodec> codecs = new ConcurrentHashMap<Class<?>, BeanCodec>();
+
+	/**
+	 * Class of the beans
+	 */
+	private final Class<?> type;
+
+	/**
+	 * Whether the class has bean properties or is written with its public
+	 * fields
+	 */
+	private final boolean bean;
+
+	/**
+	 * Readable properties or public fields
+	 */
+	private final Property[] properties;
+
+	/**
+	 * Properties that are written by serializer class, decided by the
+	 * serializer on first use
+	 */
+	private final ConcurrentMap<Class<?>, Property[]> serialized = new ConcurrentHashMap<Class<?>, Property[]>();
+
+	/**
+	 * Public fields by name
+	 */
+	private final Map<String, Field> fields = new HashMap<String, Field>();
+
+	/**
+	 * Setters by property name
+	 */
+	private final Map<String, Method> setters = new HashMap<String, Method>();
+
+	/**
+	 * Getters by property name
+	 */
+	private final Map<String, Method> getters = new HashMap<String, Method>();
+
+	/**
+	 * Return the codec for a class.
+	 * 
+	 * @param type Class of the beans
+	 * @return Codec
+	 */
+	public static BeanCodec getCodec(Class<?> type) {
+		BeanCodec codec = codecs.get(type);
+		if (codec == null) {
+			codec = new BeanCodec(type);
+			BeanCodec existing = codecs.putIfAbsent(type, codec);
+			if (existing != null) {
+				codec = existing;
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Forget all codecs, for example after classes have been reloaded.
+	 */
+	public static void clear() {
+		codecs.clear();
+	}
+
+	private BeanCodec(Class<?> type) {
+		this.type = type;
+		for (Field field : type.getFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+				fields.put(field.getName(), field);
+			}
+		}
+		List<Property> readable = new ArrayList<Property>();
+		try {
+			BeanInfo info = Introspector.getBeanInfo(type);
+			for (PropertyDescriptor descriptor : info.getPropertyDescriptors()) {
+				final String name = descriptor.getName();
+				final Method reader = descriptor.getReadMethod();
+				final Method writer = descriptor.getWriteMethod();
+				if (writer != null) {
+					setters.put(name, accessible(writer));
+				}
+				if (reader == null) {
+					continue;
+				}
+				getters.put(name, accessible(reader));
+				if (!"class".equals(name)) {
+					readable.add(new Property(name, findField(name), findGetter(name, reader), reader, null));
+				}
+			}
+		} catch (IntrospectionException err) {
+			log.warn("Could not introspect " + type, err);
+		}
+		bean = !readable.isEmpty();
+		if (!bean) {
+			for (Field field : type.getFields()) {
+				readable.add(new Property(field.getName(), field, null, null, accessible(field)));
+			}
+		}
+		properties = readable.toArray(new Property[readable.size()]);
+	}
+
+	/**
+	 * Skip the access checks of public members of classes that are not public.
+	 */
+	private static <T extends AccessibleObject> T accessible(T member) {
+		try {
+			member.setAccessible(true);
+		} catch (SecurityException err) {
+			// checked on every access then
+		}
+		return member;
+	}
+
+	/**
+	 * Find the field behind a property, declared in the class or one of its
+	 * super classes.
+	 */
+	private Field findField(String name) {
+		for (Class<?> clazz = type; clazz != null && !clazz.equals(Object.class); clazz = clazz.getSuperclass()) {
+			try {
+				return clazz.getDeclaredField(name);
+			} catch (NoSuchFieldException nfe) {
+				// look in the super class
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the public getter of a property, annotations are checked on it.
+	 */
+	private Method findGetter(String name, Method reader) {
+		final String upper = name.substring(0, 1).toUpperCase() + name.substring(1);
+		try {
+			return type.getMethod("get" + upper);
+		} catch (NoSuchMethodException e1) {
+			try {
+				return type.getMethod("is" + upper);
+			} catch (NoSuchMethodException e2) {
+				return reader;
+			}
+		}
+	}
+
+	/**
+	 * Return whether the class has bean properties. Other classes are written
+	 * with their public fields.
+	 * 
+	 * @return <code>true</code> if the properties are bean properties
+	 */
+	public boolean isBean() {
+		return bean;
+	}
+
+	/**
+	 * Return the properties that are written. The decisions are kept per
+	 * serializer class, serializers must not change them between calls.
+	 * 
+	 * @param serializer Serializer that decides which properties are written
+	 * @return Properties in the order they are written
+	 */
+	public Property[] getProperties(Serializer serializer) {
+		Property[] result = serialized.get(serializer.getClass());
+		if (result == null) {
+			List<Property> list = new ArrayList<Property>(properties.length);
+			for (Property property : properties) {
+				if (serializer.serializeField(property.name, property.field, property.getter)) {
+					list.add(property);
+				}
+			}
+			result = list.toArray(new Property[list.size()]);
+			serialized.putIfAbsent(serializer.getClass(), result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the type of a property as declared by its public field or getter.
+	 * 
+	 * @param name Property name
+	 * @return Property type, <code>Object</code> if the property is unknown
+	 */
+	public Type getPropertyType(String name) {
+		final Field field = fields.get(name);
+		if (field != null) {
+			return field.getGenericType();
+		}
+		final Method getter = getters.get(name);
+		if (getter != null) {
+			return getter.getGenericReturnType();
+		}
+		return Object.class;
+	}
+
+	/**
+	 * Set a property through its public field or setter. The value is
+	 * converted to the type of the property if needed.
+	 * 
+	 * @param bean Bean to change
+	 * @param name Property name
+	 * @param value New value
+	 * @return <code>true</code> if the property has been set,
+	 *         <code>false</code> if there is no public field or setter
+	 * @throws Exception if the value could not be converted or set
+	 */
+	public boolean setProperty(Object bean, String name, Object value) throws Exception {
+		final Field field = fields.get(name);
+		if (field != null) {
+			field.set(bean, convert(value, field.getType()));
+			return true;
+		}
+		final Method setter = setters.get(name);
+		if (setter != null) {
+			setter.invoke(bean, convert(value, setter.getParameterTypes()[0]));
+			return true;
+		}
+		return false;
+	}
+
+	private static Object convert(Object value, Class<?> target) {
+		if (value == null || target.isInstance(value)) {
+			return value;
+		}
+		return ConversionUtils.convert(value, target);
+	}
+
+	/**
+	 * Property that is written to AMF.
+	 */
+	public static final class Property {
+
+		private final String name;
+
+		private final Field field;
+
+		private final Method getter;
+
+		private final Method reader;
+
+		private final Field publicField;
+
+		Property(String name, Field field, Method getter, Method reader, Field publicField) {
+			this.name = name;
+			this.field = field;
+			this.getter = getter;
+			this.reader = reader;
+			this.publicField = publicField;
+		}
+
+		/**
+		 * Getter for the property name.
+		 * 
+		 * @return Name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Getter for the field behind the property.
+		 * 
+		 * @return Field or <code>null</code>
+		 */
+		public Field getField() {
+			return field;
+		}
+
+		/**
+		 * Getter for the public getter of the property.
+		 * 
+		 * @return Getter or <code>null</code> for public fields
+		 */
+		public Method getGetter() {
+			return getter;
+		}
+
+		/**
+		 * Read the property of a bean.
+		 * 
+		 * @param bean Bean to read
+		 * @return Value
+		 * @throws RuntimeException if the property could not be read
+		 */
+		public Object getValue(Object bean) {
+			try {
+				if (reader != null) {
+					return reader.invoke(bean);
+				}
+				return publicField.get(bean);
+			} catch (InvocationTargetException err) {
+				log.error("Error reading property " + name + " of " + bean.getClass(), err.getCause());
+				if (err.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) err.getCause();
+				}
+				throw new RuntimeException("Error reading property " + name, err.getCause());
+			} catch (IllegalAccessException err) {
+				log.error("Error reading property " + name + " of " + bean.getClass(), err);
+				throw new RuntimeException("Error reading property " + name, err);
+			}
+		}
+
+	}
+
+}
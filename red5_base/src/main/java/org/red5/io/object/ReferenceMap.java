@@ -0,0 +1,141 @@
+package org.red5.io.object;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.Arrays;
+
+/**
+ * Reference ids of objects written to AMF, in an open addressing table that
+ * does not box the ids. Objects are either compared by identity or, for
+ * strings, by equality. Clearing the map keeps its storage, so it can be
+ * reused for the next message.
+ */
+public class ReferenceMap {
+
+	/**
+	 * Storage that is kept when the map is cleared
+	 */
+	private static final int MAX_RETAINED = 65536;
+
+	/**
+	 * Whether keys are compared by identity or equality
+	 */
+	private final boolean identity;
+
+	private Object[] keys;
+
+	private int[] ids;
+
+	private int size;
+
+	/**
+	 * Create a map.
+	 * 
+	 * @param identity <code>true</code> to compare the objects by identity,
+	 *            <code>false</code> to use their equals method
+	 */
+	public ReferenceMap(boolean identity) {
+		this.identity = identity;
+		keys = new Object[32];
+		ids = new int[32];
+	}
+
+	private int hash(Object key) {
+		final int hash = identity ? System.identityHashCode(key) : key.hashCode();
+		// spread the bits, identity hashes and string hashes cluster
+		return (hash ^ (hash >>> 16)) * 0x85ebca6b;
+	}
+
+	private int indexOf(Object key) {
+		final int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		Object current;
+		while ((current = keys[index]) != null) {
+			if (current == key || (!identity && current.equals(key))) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1 - index;
+	}
+
+	/**
+	 * Return the reference id of an object.
+	 * 
+	 * @param key Object
+	 * @return Reference id or -1 if the object has not been added
+	 */
+	public int get(Object key) {
+		final int index = indexOf(key);
+		return (index >= 0) ? ids[index] : -1;
+	}
+
+	/**
+	 * Add an object that is not in the map yet, it gets the next id.
+	 * 
+	 * @param key Object
+	 * @return Reference id of the object
+	 */
+	public int add(Object key) {
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int index = indexOf(key);
+		if (index >= 0) {
+			return ids[index];
+		}
+		index = -1 - index;
+		keys[index] = key;
+		ids[index] = size;
+		return size++;
+	}
+
+	private void resize(int length) {
+		final Object[] oldKeys = keys;
+		final int[] oldIds = ids;
+		keys = new Object[length];
+		ids = new int[length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				final int index = -1 - indexOf(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				ids[index] = oldIds[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all objects. The storage is kept unless it has grown very large.
+	 */
+	public void clear() {
+		if (keys.length > MAX_RETAINED) {
+			keys = new Object[32];
+			ids = new int[32];
+		} else if (size > 0) {
+			Arrays.fill(keys, null);
+		}
+		size = 0;
+	}
+
+}
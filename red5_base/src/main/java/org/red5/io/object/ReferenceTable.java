@@ -0,0 +1,107 @@
+package org.red5.io.object;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.Arrays;
+
+/**
+ * Objects read from AMF by their dense reference id. Clearing the table keeps
+ * its storage, so it can be reused for the next message of a connection
+ * without allocating or boxing the ids again.
+ * 
+ * @param <T> Type of the referenced objects
+ */
+public class ReferenceTable<T> {
+
+	/**
+	 * Storage that is kept when the table is cleared
+	 */
+	private static final int MAX_RETAINED = 65536;
+
+	private Object[] items;
+
+	private int size;
+
+	public ReferenceTable() {
+		items = new Object[16];
+	}
+
+	/**
+	 * Add an object, it gets the next id.
+	 * 
+	 * @param item Object
+	 * @return Reference id of the object
+	 */
+	public int add(T item) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size * 2);
+		}
+		items[size] = item;
+		return size++;
+	}
+
+	/**
+	 * Replace the object with the given id.
+	 * 
+	 * @param id Reference id
+	 * @param item New object
+	 */
+	public void set(int id, T item) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Reference " + id + " of " + size);
+		}
+		items[id] = item;
+	}
+
+	/**
+	 * Return the object with the given id.
+	 * 
+	 * @param id Reference id
+	 * @return Object
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Reference " + id + " of " + size);
+		}
+		return (T) items[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove all objects. The storage is kept unless it has grown very large.
+	 */
+	public void clear() {
+		if (items.length > MAX_RETAINED) {
+			items = new Object[16];
+		} else {
+			Arrays.fill(items, 0, size, null);
+		}
+		size = 0;
+	}
+
+}
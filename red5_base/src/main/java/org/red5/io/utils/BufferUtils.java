@@ -96,4 +96,23 @@ public class BufferUtils {
 		return numBytesRead;
 	}
 
+	/**
+	 * Appends input buffer to the data between position and limit of the
+	 * output buffer. The position of the output buffer is kept and its limit
+	 * is moved to the end of the appended data, so it can be read again
+	 * without a flip. The output buffer must be auto expanding if the data
+	 * may not fit.
+	 * 
+	 * @param out                Buffer to append to
+	 * @param in                 Input buffer
+	 */
+	public static void append(ByteBuffer out, ByteBuffer in) {
+		final int position = out.position();
+		out.position(out.limit());
+		out.limit(out.capacity());
+		out.put(in);
+		out.limit(out.position());
+		out.position(position);
+	}
+
 }
@@ -71,5 +71,37 @@ public interface IClientBroadcastStreamStatistics extends IStreamStatistics {
 	 * @return number of bytes
 	 */
 	public long getBytesReceived();
+
+	/**
+	 * Return number of times an already encoded packet was reused for a
+	 * subscriber.
+	 * 
+	 * @return number of hits
+	 */
+	public long getSharedEncodingHits();
+
+	/**
+	 * Return number of times a packet had to be encoded because no
+	 * subscriber with the same chunk size and channel received it before.
+	 * 
+	 * @return number of misses
+	 */
+	public long getSharedEncodingMisses();
+
+	/**
+	 * Return number of bytes of the frames since the last keyframe, the
+	 * metadata and the codec configuration kept for new subscribers.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getGOPCacheSize();
+
+	/**
+	 * Return number of frames since the last keyframe kept for new
+	 * subscribers.
+	 * 
+	 * @return number of frames
+	 */
+	public int getGOPCacheFrames();
 	
 }
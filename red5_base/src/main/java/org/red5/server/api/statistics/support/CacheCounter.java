@@ -0,0 +1,68 @@
+package org.red5.server.api.statistics.support;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts cache lookups used by the statistics. Keeps track of hits
+ * and misses.
+ */
+public class CacheCounter {
+
+	/** Number of hits. */
+	private AtomicLong hits = new AtomicLong();
+
+	/** Number of misses. */
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Record a lookup that was served from the cache.
+	 */
+	public void hit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Record a lookup that had to create the cached value.
+	 */
+	public void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Get number of hits.
+	 * 
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of misses.
+	 * 
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
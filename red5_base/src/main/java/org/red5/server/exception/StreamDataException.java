@@ -29,4 +29,18 @@ public class StreamDataException extends RuntimeException {
 	 */
 	private static final long serialVersionUID = 5529626622367065317L;
 
+	public StreamDataException() {
+		super();
+	}
+
+	/**
+	 * Create exception with given message and cause
+	 * 
+	 * @param message Message
+	 * @param cause Cause
+	 */
+	public StreamDataException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
 }
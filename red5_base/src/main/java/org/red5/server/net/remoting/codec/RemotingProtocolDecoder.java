@@ -85,6 +85,23 @@ public class RemotingProtocolDecoder implements SimpleProtocolDecoder {
 		return new RemotingPacket(headers, calls);
 	}
 
+    /**
+     * Decode the headers of a request for incremental decoding. The returned
+     * packet has no calls yet, they must be read one after another with
+     * {@link #decodeCall(ByteBuffer)}.
+     * 
+     * @param in         Input data as byte buffer
+     * @return           Packet with the headers and the number of calls
+     */
+    public RemotingPacket decodeHeaders(ByteBuffer in) {
+		Map<String, Object> headers = readHeaders(in);
+		int count = in.getUnsignedShort();
+		if (log.isDebugEnabled()) {
+			log.debug("Calls: {}", count);
+		}
+		return new RemotingPacket(headers, count);
+	}
+
     /**
      * Disposes session. Not yet implemented.
 	 *
@@ -145,9 +162,7 @@ public class RemotingProtocolDecoder implements SimpleProtocolDecoder {
 		if (log.isDebugEnabled()) {
 			log.debug("Decode calls");
 		}
-		//in.getInt();
 		List<RemotingCall> calls = new LinkedList<RemotingCall>();
-		org.red5.io.amf.Input input;
 		int count = in.getUnsignedShort();
 		if (log.isDebugEnabled()) {
 			log.debug("Calls: {}", count);
@@ -156,82 +171,90 @@ public class RemotingProtocolDecoder implements SimpleProtocolDecoder {
 
 		// Loop over all the body elements
 		for (int i = 0; i < count; i++) {
-
 			in.limit(limit);
+			calls.add(decodeCall(in));
+		}
+		return calls;
+	}
 
-			String serviceString = org.red5.io.amf.Input.getString(in);
-			String clientCallback = org.red5.io.amf.Input.getString(in);
-			log.debug("callback: {}", clientCallback);
+    /**
+     * Decode the next call of a request.
+	 *
+     * @param in         Input data as byte buffer
+     * @return           Pending call
+     */
+	public RemotingCall decodeCall(ByteBuffer in) {
+		org.red5.io.amf.Input input;
+		String serviceString = org.red5.io.amf.Input.getString(in);
+		String clientCallback = org.red5.io.amf.Input.getString(in);
+		log.debug("callback: {}", clientCallback);
 
-            Object[] args = null;
-			boolean isAMF3 = false;
-			
-			@SuppressWarnings("unused") 
-			int length = in.getInt();
-			// Set the limit and deserialize
-			// NOTE: disabled because the FP sends wrong values here
-			/*
-			 * if (length != -1) in.limit(in.position()+length);
-			 */
-			byte type = in.get();
-			if (type == AMF.TYPE_ARRAY) {
-    			int elements = in.getInt();
-    			List<Object> values = new ArrayList<Object>();
-    			for (int j=0; j<elements; j++) {
-    				byte amf3Check = in.get();
-    				in.position(in.position()-1);
-    				isAMF3 = (amf3Check == AMF.TYPE_AMF3_OBJECT);
-    				if (isAMF3) {
-    					input = new org.red5.io.amf3.Input(in);
-    				} else {
-    					input = new org.red5.io.amf.Input(in);
-    				}
-    				// Prepare remoting mode
-    				input.reset();
-    				
-    				values.add(deserializer.deserialize(input, Object.class));
-    			}
-
-    			args = values.toArray(new Object[values.size()]);
-    			if (log.isDebugEnabled()) {
-    				for (Object element : args) {
-    					log.debug("> " + element);
-    				}
-    			}
-
-            } else if (type == AMF.TYPE_NULL) {
-                log.debug("Got null amf type");
-                            
-            } else if (type != AMF.TYPE_ARRAY) {
-				throw new RuntimeException("AMF0 array type expected but found " + type);
-			}
+		Object[] args = null;
+		boolean isAMF3 = false;
 		
-			String serviceName;
-			String serviceMethod;
-			int dotPos = serviceString.lastIndexOf('.');
-			if (dotPos != -1) {
-				serviceName = serviceString.substring(0, dotPos);
-				serviceMethod = serviceString.substring(dotPos + 1,
-						serviceString.length());
-			} else {
-				serviceName = "";
-				serviceMethod = serviceString;
+		@SuppressWarnings("unused") 
+		int length = in.getInt();
+		// Set the limit and deserialize
+		// NOTE: disabled because the FP sends wrong values here
+		/*
+		 * if (length != -1) in.limit(in.position()+length);
+		 */
+		byte type = in.get();
+		if (type == AMF.TYPE_ARRAY) {
+			int elements = in.getInt();
+			List<Object> values = new ArrayList<Object>();
+			for (int j=0; j<elements; j++) {
+				byte amf3Check = in.get();
+				in.position(in.position()-1);
+				isAMF3 = (amf3Check == AMF.TYPE_AMF3_OBJECT);
+				if (isAMF3) {
+					input = new org.red5.io.amf3.Input(in);
+				} else {
+					input = new org.red5.io.amf.Input(in);
+				}
+				// Prepare remoting mode
+				input.reset();
+				
+				values.add(deserializer.deserialize(input, Object.class));
 			}
 
-			boolean isMessaging = false;
-			if ("".equals(serviceName) && "null".equals(serviceMethod)) {
-				// Use fixed service and method name for Flex messaging requests,
-				// this probably will change in the future.
-				serviceName = FlexMessagingService.SERVICE_NAME;
-				serviceMethod = "handleRequest";
-				isMessaging = true;
+			args = values.toArray(new Object[values.size()]);
+			if (log.isDebugEnabled()) {
+				for (Object element : args) {
+					log.debug("> " + element);
+				}
 			}
-			log.debug("Service: {} Method: {}", serviceName, serviceMethod);
 
-			// Add the call to the list
-			calls.add(new RemotingCall(serviceName, serviceMethod, args, clientCallback, isAMF3, isMessaging));
+		} else if (type == AMF.TYPE_NULL) {
+			log.debug("Got null amf type");
+			
+		} else if (type != AMF.TYPE_ARRAY) {
+			throw new RuntimeException("AMF0 array type expected but found " + type);
 		}
-		return calls;
+	
+		String serviceName;
+		String serviceMethod;
+		int dotPos = serviceString.lastIndexOf('.');
+		if (dotPos != -1) {
+			serviceName = serviceString.substring(0, dotPos);
+			serviceMethod = serviceString.substring(dotPos + 1,
+					serviceString.length());
+		} else {
+			serviceName = "";
+			serviceMethod = serviceString;
+		}
+
+		boolean isMessaging = false;
+		if ("".equals(serviceName) && "null".equals(serviceMethod)) {
+			// Use fixed service and method name for Flex messaging requests,
+			// this probably will change in the future.
+			serviceName = FlexMessagingService.SERVICE_NAME;
+			serviceMethod = "handleRequest";
+			isMessaging = true;
+		}
+		log.debug("Service: {} Method: {}", serviceName, serviceMethod);
+
+		return new RemotingCall(serviceName, serviceMethod, args, clientCallback, isAMF3, isMessaging);
 	}
 
 }
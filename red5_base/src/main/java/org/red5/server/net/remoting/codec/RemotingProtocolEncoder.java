@@ -67,8 +67,31 @@ public class RemotingProtocolEncoder extends BaseProtocolEncoder implements Simp
 		RemotingPacket resp = (RemotingPacket) message;
 		ByteBuffer buf = ByteBuffer.allocate(1024);
 		buf.setAutoExpand(true);
+		encodeHeaders(buf, resp.getEncoding(), resp.getCalls().size());
+		for (RemotingCall call: resp.getCalls()) {
+			encodeCall(buf, call);
+		}
+		//buf.compact();
+		buf.flip();
+		if (log.isDebugEnabled()) {
+			log.debug(">>" + buf.getHexDump());
+		}
+		return buf;
+
+	}
+
+    /**
+     * Encode the start of a response: the version, the headers of the current
+     * connection and the number of results that follow. The headers are
+     * removed from the connection.
+     *
+     * @param buf            Buffer to write to
+     * @param encoding       Encoding of the response
+     * @param count          Number of results
+     */
+	public void encodeHeaders(ByteBuffer buf, Encoding encoding, int count) {
 		Output output;
-		if (resp.getEncoding() == Encoding.AMF0) {
+		if (encoding == Encoding.AMF0) {
 			buf.putShort((short) 0);  // encoded using AMF0
 		} else {
 			buf.putShort((short) 3);  // encoded using AMF3
@@ -78,7 +101,7 @@ public class RemotingProtocolEncoder extends BaseProtocolEncoder implements Simp
 		Collection<IRemotingHeader> headers = conn.getHeaders();
 		synchronized (headers) {
 			buf.putShort((short) headers.size()); // write the header count
-			if (resp.getEncoding() == Encoding.AMF0) {
+			if (encoding == Encoding.AMF0) {
 				output = new Output(buf);
 			} else {
 				output = new org.red5.io.amf3.Output(buf);
@@ -95,58 +118,59 @@ public class RemotingProtocolEncoder extends BaseProtocolEncoder implements Simp
 			headers.clear();
 		}
 		
-		buf.putShort((short) resp.getCalls().size()); // write the number of bodies
-		for (RemotingCall call: resp.getCalls()) {
-			if (log.isDebugEnabled()) {
-				log.debug("Call");
-			}
-			Output.putString(buf, call.getClientResponse());
-			if (!call.isMessaging) {
-				Output.putString(buf, "null");
-			} else {
-				Output.putString(buf, "");
-			}
-			buf.putInt(-1);
-			if (log.isDebugEnabled()) {
-				log.info("result:" + call.getResult());
-			}
-			if (call.isAMF3) {
-				output = new org.red5.io.amf3.Output(buf);
-			} else {
-				output = new Output(buf);
-			}
-			Object result = call.getClientResult();
-			if (!call.isSuccess()) {
-				if (call.isMessaging && !(result instanceof ErrorMessage)) {
-					// Generate proper error result for the Flex messaging client
-					AbstractMessage request = (AbstractMessage) call.getArguments()[0];
-					if (result instanceof ServiceNotFoundException) {
-						ServiceNotFoundException ex = (ServiceNotFoundException) result;
-						if (FlexMessagingService.SERVICE_NAME.equals(ex.getServiceName())) {
-							result = FlexMessagingService.returnError(request, "serviceNotAvailable", "Flex messaging not activated", ex.getMessage());
-						} else {
-							// This should never happen as the service name is hardcoded...
-							result = FlexMessagingService.returnError(request, "serviceNotAvailable", "Flex messaging not activated", ex.getMessage());
-						}
-					} else if (result instanceof Throwable) {
-						result = FlexMessagingService.returnError(request, "Server.Invoke.Error", ((Throwable) result).getMessage(), (Throwable) result);
+		buf.putShort((short) count); // write the number of bodies
+	}
+
+    /**
+     * Encode the result of a call.
+     *
+     * @param buf            Buffer to write to
+     * @param call           Call that has been invoked
+     */
+	public void encodeCall(ByteBuffer buf, RemotingCall call) {
+		Output output;
+		if (log.isDebugEnabled()) {
+			log.debug("Call");
+		}
+		Output.putString(buf, call.getClientResponse());
+		if (!call.isMessaging) {
+			Output.putString(buf, "null");
+		} else {
+			Output.putString(buf, "");
+		}
+		buf.putInt(-1);
+		if (log.isDebugEnabled()) {
+			log.info("result:" + call.getResult());
+		}
+		if (call.isAMF3) {
+			output = new org.red5.io.amf3.Output(buf);
+		} else {
+			output = new Output(buf);
+		}
+		Object result = call.getClientResult();
+		if (!call.isSuccess()) {
+			if (call.isMessaging && !(result instanceof ErrorMessage)) {
+				// Generate proper error result for the Flex messaging client
+				AbstractMessage request = (AbstractMessage) call.getArguments()[0];
+				if (result instanceof ServiceNotFoundException) {
+					ServiceNotFoundException ex = (ServiceNotFoundException) result;
+					if (FlexMessagingService.SERVICE_NAME.equals(ex.getServiceName())) {
+						result = FlexMessagingService.returnError(request, "serviceNotAvailable", "Flex messaging not activated", ex.getMessage());
 					} else {
-						result = FlexMessagingService.returnError(request, "Server.Invoke.Error", result.toString(), "");
+						// This should never happen as the service name is hardcoded...
+						result = FlexMessagingService.returnError(request, "serviceNotAvailable", "Flex messaging not activated", ex.getMessage());
 					}
-				} else if (!call.isMessaging) {
-					// Generate proper error object to return
-					result = generateErrorResult(StatusCodes.NC_CALL_FAILED, call.getException());
+				} else if (result instanceof Throwable) {
+					result = FlexMessagingService.returnError(request, "Server.Invoke.Error", ((Throwable) result).getMessage(), (Throwable) result);
+				} else {
+					result = FlexMessagingService.returnError(request, "Server.Invoke.Error", result.toString(), "");
 				}
+			} else if (!call.isMessaging) {
+				// Generate proper error object to return
+				result = generateErrorResult(StatusCodes.NC_CALL_FAILED, call.getException());
 			}
-			serializer.serialize(output, result);
 		}
-		//buf.compact();
-		buf.flip();
-		if (log.isDebugEnabled()) {
-			log.debug(">>" + buf.getHexDump());
-		}
-		return buf;
-
+		serializer.serialize(output, result);
 	}
 
     /**
@@ -20,6 +20,7 @@ package org.red5.server.net.remoting.message;
  */
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -47,6 +48,10 @@ public class RemotingPacket {
      * List of calls
      */
 	protected List<RemotingCall> calls;
+    /**
+     * Number of calls in the request
+     */
+	protected int callCount;
     /**
      * Scope path
      */
@@ -60,6 +65,20 @@ public class RemotingPacket {
     public RemotingPacket(Map<String, Object> headers, List<RemotingCall> calls) {
     	this.headers = headers;
 		this.calls = calls;
+		this.callCount = calls.size();
+	}
+
+    /**
+     * Create remoting packet for a request whose calls are decoded one after
+     * another. The list of calls only contains the call being processed.
+     * 
+     * @param headers headers
+     * @param callCount          Number of calls in the request
+     */
+    public RemotingPacket(Map<String, Object> headers, int callCount) {
+    	this.headers = headers;
+		this.calls = new ArrayList<RemotingCall>(1);
+		this.callCount = callCount;
 	}
 
     /**
@@ -80,6 +99,26 @@ public class RemotingPacket {
 		return calls;
 	}
 
+	/**
+     * Getter for the number of calls in the request.
+     *
+     * @return   Number of calls
+     */
+    public int getCallCount() {
+		return callCount;
+	}
+
+	/**
+     * Setter for the call being processed, used while the calls of a request
+     * are decoded one after another.
+     *
+     * @param call   Current call
+     */
+    public void setCurrentCall(RemotingCall call) {
+		calls.clear();
+		calls.add(call);
+	}
+
 	/**
      * Setter for scope path.
      *
@@ -26,6 +26,7 @@ import org.red5.server.net.rtmp.event.Invoke;
 import org.red5.server.net.rtmp.event.Notify;
 import org.red5.server.net.rtmp.message.Header;
 import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.net.rtmp.message.SharedPacket;
 import org.red5.server.net.rtmp.status.Status;
 import org.red5.server.net.rtmp.status.StatusCodes;
 import org.red5.server.service.Call;
@@ -93,6 +94,16 @@ public class Channel {
      * @param event          Event data
      */
     public void write(IRTMPEvent event) {
+		write(event, (SharedPacket) null);
+	}
+
+    /**
+     * Write event whose encoded data may be shared with other connections.
+     *
+     * @param event        Event to write
+     * @param shared       Shared encoded data of the event or <code>null</code>
+     */
+    public void write(IRTMPEvent event, SharedPacket shared) {
 		final IClientStream stream = connection.getStreamByChannelId(id);
 		if (id > 3 && stream == null) {
 			log.info("Stream doesn't exist any longer, discarding message {}", event);
@@ -100,7 +111,7 @@ public class Channel {
 		}
 
 		final int streamId = (stream == null) ? 0 : stream.getStreamId();
-		write(event, streamId);
+		write(event, streamId, shared);
 	}
 
     /**
@@ -110,9 +121,21 @@ public class Channel {
      * @param streamId        Stream id
      */
     private void write(IRTMPEvent event, int streamId) {
+		write(event, streamId, null);
+	}
+
+    /**
+     * Writes packet from event data to RTMP connection and stream id.
+	 *
+     * @param event           Event data
+     * @param streamId        Stream id
+     * @param shared          Shared encoded data or <code>null</code>
+     */
+    private void write(IRTMPEvent event, int streamId, SharedPacket shared) {
 
 		final Header header = new Header();
 		final Packet packet = new Packet(header, event);
+		packet.setSharedPacket(shared);
 
 		header.setChannelId(id);
 		header.setTimer(event.getTimestamp());
@@ -53,6 +53,7 @@ import org.red5.server.api.stream.IStreamCapableConnection;
 import org.red5.server.api.stream.IStreamService;
 import org.red5.server.exception.ClientRejectedException;
 import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor.CachedChunks;
 import org.red5.server.net.rtmp.event.BytesRead;
 import org.red5.server.net.rtmp.event.ClientBW;
 import org.red5.server.net.rtmp.event.Invoke;
@@ -986,6 +987,12 @@ public abstract class RTMPConnection extends BaseConnection implements
 	 *            Message to mark
 	 */
 	protected void messageSent(Packet message) {
+		final CachedChunks cached = message.getCachedChunks();
+		if (cached != null) {
+			// Shared chunks have been written, drop our reference
+			message.setCachedChunks(null);
+			cached.dispose();
+		}
 		if (message.getMessage() instanceof VideoData) {
 			int streamId = message.getHeader().getStreamId();
 			AtomicInteger pending = pendingVideos.get(streamId);
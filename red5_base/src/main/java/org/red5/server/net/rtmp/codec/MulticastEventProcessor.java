@@ -19,12 +19,53 @@ package org.red5.server.net.rtmp.codec;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.mina.common.ByteBuffer;
+import org.red5.server.api.statistics.support.CacheCounter;
+import org.red5.server.net.rtmp.RTMPUtils;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.SharedPacket;
+import org.red5.server.stream.IStreamData;
 
 /**
- * Processes multicast events.
+ * Processes multicast events. Events that are sent to many connections are
+ * chunked once per chunk size and channel and the chunks are kept in a cache
+ * keyed by the identity of the event. Every connection that uses cached chunks
+ * holds a reference to them until the data has been written, the buffers are
+ * released after the last reference has been disposed.
  */
-public class MulticastEventProcessor {
+public class MulticastEventProcessor implements Constants {
+
+	/**
+	 * Source of cache ids
+	 */
+	private static final AtomicInteger nextCacheId = new AtomicInteger();
+
+	/**
+	 * Id of this cache
+	 */
+	private final byte cacheId = (byte) nextCacheId.incrementAndGet();
+
+	/**
+	 * Cached chunks
+	 */
+	private final ConcurrentMap<CacheKey, CachedChunks> cache = new ConcurrentHashMap<CacheKey, CachedChunks>();
+
+	/**
+	 * Keys of events that have been garbage collected
+	 */
+	private final ReferenceQueue<Object> staleKeys = new ReferenceQueue<Object>();
+
+	/**
+	 * Counts hits and misses of all events
+	 */
+	private final CacheCounter counter = new CacheCounter();
 
 	/**
      * Getter for cache ID.
@@ -32,11 +73,83 @@ public class MulticastEventProcessor {
      * @return  Cache ID
      */
     public byte getCacheId() {
-		return 0;
+		return cacheId;
+	}
+
+	/**
+	 * Return number of cached chunk arrays.
+	 * 
+	 * @return Number of cache entries
+	 */
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Return number of lookups that were served from the cache.
+	 * 
+	 * @return Number of hits
+	 */
+	public long getCacheHits() {
+		return counter.getHits();
+	}
+
+	/**
+	 * Return number of lookups that had to chunk the event data.
+	 * 
+	 * @return Number of misses
+	 */
+	public long getCacheMisses() {
+		return counter.getMisses();
+	}
+
+	/**
+	 * Return the chunks of a shared packet for given chunk size and channel.
+	 * The returned object is referenced by the caller and must be passed to
+	 * {@link #disposeCached(Object)} once its data has been written.
+	 * 
+	 * @param packet        Shared packet
+	 * @param chunkSize     Chunk size
+	 * @param channelId     Channel id
+	 * @return              Cached chunks
+	 */
+	public CachedChunks getCached(SharedPacket packet, int chunkSize, int channelId) {
+		expungeStaleEntries();
+		final CacheKey key = new CacheKey(packet.getSource(), chunkSize,
+				channelId, null);
+		final CacheCounter packetCounter = packet.getCounter();
+		while (true) {
+			CachedChunks cached = cache.get(key);
+			if (cached == null) {
+				final CachedChunks created = new CachedChunks(new CacheKey(
+						packet.getSource(), chunkSize, channelId, staleKeys),
+						packet.getData(), chunkSize, channelId);
+				cached = cache.putIfAbsent(created.key, created);
+				if (cached == null) {
+					counter.miss();
+					if (packetCounter != null) {
+						packetCounter.miss();
+					}
+					return created;
+				}
+				// another connection was faster
+				created.releaseBuffers();
+			}
+			if (cached.acquire()) {
+				counter.hit();
+				if (packetCounter != null) {
+					packetCounter.hit();
+				}
+				return cached;
+			}
+			// the last reference has just been disposed
+			cache.remove(key, cached);
+		}
 	}
 
     /**
-     * Disposes cached object.
+     * Disposes cached object. The buffers are released if this was the last
+     * reference to them.
 	 *
      * @param obj                Cached object
      */
@@ -44,10 +157,21 @@ public class MulticastEventProcessor {
 		if (obj == null) {
 			return;
 		}
-		final ByteBuffer[] chunks = (ByteBuffer[]) obj;
-		for (int c=0;c < chunks.length;c++) {
-			chunks[c].release();
-			chunks[c] = null;
+		final CachedChunks cached = (CachedChunks) obj;
+		if (cached.release()) {
+			cache.remove(cached.key, cached);
+			cached.releaseBuffers();
+		}
+	}
+
+	/**
+	 * Remove entries of events that are not referenced any longer. These are
+	 * left behind if a connection closed before writing the cached chunks.
+	 */
+	private void expungeStaleEntries() {
+		Reference<?> ref;
+		while ((ref = staleKeys.poll()) != null) {
+			cache.remove(ref);
 		}
 	}
 
@@ -64,7 +188,7 @@ public class MulticastEventProcessor {
 		for (int i = 0; i < num; i++) {
 			chunks[i] = buf.asReadOnlyBuffer();
 			final ByteBuffer chunk = chunks[i];
-			int position = size * num;
+			int position = size * i;
 			chunk.position(position);
 			if (position + size < chunk.limit()) {
 				chunk.limit(position + size);
@@ -73,4 +197,170 @@ public class MulticastEventProcessor {
 		return chunks;
 	}
 
+	/**
+	 * Key of cached chunks. Refers to the event weakly so entries that were
+	 * never disposed don't keep it alive.
+	 */
+	private static final class CacheKey extends WeakReference<Object> {
+
+		private final int hash;
+
+		private final int chunkSize;
+
+		private final int channelId;
+
+		CacheKey(Object event, int chunkSize, int channelId,
+				ReferenceQueue<Object> queue) {
+			super(event, queue);
+			this.chunkSize = chunkSize;
+			this.channelId = channelId;
+			this.hash = (System.identityHashCode(event) * 31 + chunkSize) * 31
+					+ channelId;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			final CacheKey other = (CacheKey) obj;
+			final Object event = get();
+			return event != null && event == other.get()
+					&& chunkSize == other.chunkSize
+					&& channelId == other.channelId;
+		}
+
+	}
+
+	/**
+	 * Event data split into chunks of one size, with continuation headers for
+	 * one channel. All chunks are views of one body buffer.
+	 */
+	public final class CachedChunks {
+
+		/**
+		 * Cache key
+		 */
+		private final CacheKey key;
+
+		/**
+		 * Chunked body
+		 */
+		private ByteBuffer body;
+
+		/**
+		 * Chunks, each one starts with the continuation header except the first
+		 */
+		private ByteBuffer[] chunks;
+
+		/**
+		 * Number of references, the creator holds the first one
+		 */
+		private final AtomicInteger refs = new AtomicInteger(1);
+
+		CachedChunks(CacheKey key, ByteBuffer data, int chunkSize, int channelId) {
+			this.key = key;
+			final ByteBuffer[] parts = chunkBuffer(data, chunkSize);
+			int chunkHeaderSize = 1;
+			if (channelId > 320) {
+				chunkHeaderSize = 3;
+			} else if (channelId > 63) {
+				chunkHeaderSize = 2;
+			}
+			body = ByteBuffer.allocate(data.limit()
+					+ (parts.length > 0 ? (parts.length - 1) * chunkHeaderSize : 0), false);
+			chunks = new ByteBuffer[parts.length];
+			final int[] offsets = new int[parts.length + 1];
+			for (int i = 0; i < parts.length; i++) {
+				offsets[i] = body.position();
+				if (i > 0) {
+					RTMPUtils.encodeHeaderByte(body, HEADER_CONTINUE, channelId);
+				}
+				body.put(parts[i]);
+			}
+			offsets[parts.length] = body.position();
+			body.flip();
+			for (int i = 0; i < parts.length; i++) {
+				chunks[i] = body.asReadOnlyBuffer();
+				chunks[i].limit(offsets[i + 1]);
+				chunks[i].position(offsets[i]);
+			}
+		}
+
+		/**
+		 * Add a reference unless the chunks are being disposed.
+		 * 
+		 * @return <code>true</code> if the reference was added
+		 */
+		boolean acquire() {
+			while (true) {
+				final int current = refs.get();
+				if (current <= 0) {
+					return false;
+				}
+				if (refs.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Remove a reference.
+		 * 
+		 * @return <code>true</code> if this was the last reference
+		 */
+		boolean release() {
+			return refs.decrementAndGet() == 0;
+		}
+
+		/**
+		 * Dispose the reference of the caller.
+		 */
+		public void dispose() {
+			disposeCached(this);
+		}
+
+		/**
+		 * Release the buffers.
+		 */
+		synchronized void releaseBuffers() {
+			if (body != null) {
+				body.release();
+				body = null;
+				chunks = null;
+			}
+		}
+
+		/**
+		 * Getter for the chunked body.
+		 * 
+		 * @return Read-only view of all chunks
+		 */
+		public synchronized ByteBuffer getBody() {
+			return body.asReadOnlyBuffer();
+		}
+
+		/**
+		 * Getter for the chunks.
+		 * 
+		 * @return Read-only views of the single chunks
+		 */
+		public synchronized ByteBuffer[] getChunks() {
+			final ByteBuffer[] result = new ByteBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++) {
+				result[i] = chunks[i].duplicate();
+			}
+			return result;
+		}
+
+	}
+
 }
@@ -19,8 +19,10 @@ package org.red5.server.net.rtmp.codec;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.mina.common.ByteBuffer;
@@ -100,19 +102,19 @@ public class RTMP extends ProtocolState {
     /**
      * Read headers.
      */
-	private Map<Integer, Header> readHeaders = new HashMap<Integer, Header>();
+	private ChannelTable<Header> readHeaders = new ChannelTable<Header>();
     /**
      * Write headers.
      */
-	private Map<Integer, Header> writeHeaders = new HashMap<Integer, Header>();
+	private ChannelTable<Header> writeHeaders = new ChannelTable<Header>();
     /**
      * Read packets.
      */
-	private Map<Integer, Packet> readPackets = new HashMap<Integer, Packet>();
+	private ChannelTable<Packet> readPackets = new ChannelTable<Packet>();
     /**
      * Written packets.
      */
-	private Map<Integer, Packet> writePackets = new HashMap<Integer, Packet>();
+	private ChannelTable<Packet> writePackets = new ChannelTable<Packet>();
     /**
      * Read chunk size. Packets are read and written chunk-by-chunk.
      */
@@ -129,6 +131,10 @@ public class RTMP extends ProtocolState {
 	 * Handshake as sent to the client.
 	 */
 	private byte[] handshake;
+	/**
+	 * AMF3 references of the message being decoded, reused for all messages.
+	 */
+	private final org.red5.io.amf3.Input.RefStorage amf3References = new org.red5.io.amf3.Input.RefStorage();
 	
     /**
      * Creates RTMP object with initial mode.
@@ -180,9 +186,9 @@ public class RTMP extends ProtocolState {
 	 *
      * @param packets            Packets to release
      */
-    private void freePackets(Map<Integer, Packet> packets) {
+    private void freePackets(ChannelTable<Packet> packets) {
 		for (Packet packet : packets.values()) {
-			if (packet != null && packet.getData() != null) {
+			if (packet.getData() != null) {
 				packet.getData().release();
 				packet.setData(null);
 			}
@@ -371,6 +377,17 @@ public class RTMP extends ProtocolState {
     	this.encoding = encoding;
     }
     
+    /**
+     * Return the storage for the AMF3 references of a message. Messages are
+     * decoded one after another, so the storage of the connection is reused
+     * for every message. It must be cleared before and after decoding.
+     * 
+     * @return Reference storage
+     */
+    public org.red5.io.amf3.Input.RefStorage getAMF3References() {
+    	return amf3References;
+    }
+    
     /**
      * Store the handshake sent to the client.
      * 
@@ -407,5 +424,118 @@ public class RTMP extends ProtocolState {
     	
     	return Arrays.equals(reply, handshake);
     }
-    
+
+	/**
+	 * Table of per-channel values. Channel ids in use are small integers, so
+	 * their values are stored in an array indexed by channel id that grows on
+	 * demand. This avoids boxing the channel id on every chunk. The peer can
+	 * send any channel id, values of higher ids are kept in a map so they
+	 * can't grow the array.
+	 * 
+	 * @param <V> Type of values
+	 */
+	private static final class ChannelTable<V> {
+
+		/**
+		 * Number of channels a table initially holds, enough for the control
+		 * channels and the first few streams.
+		 */
+		private static final int INITIAL_CAPACITY = 16;
+
+		/**
+		 * Number of channels the array holds at most.
+		 */
+		private static final int MAX_CAPACITY = 320;
+
+		/**
+		 * Values indexed by channel id.
+		 */
+		private Object[] values = new Object[INITIAL_CAPACITY];
+
+		/**
+		 * Values of channels beyond the array, created on demand.
+		 */
+		private Map<Integer, V> overflow;
+
+		/**
+		 * Return value for channel.
+		 * 
+		 * @param channelId Channel id
+		 * @return Value or <code>null</code>
+		 */
+		@SuppressWarnings("unchecked")
+		V get(int channelId) {
+			final Object[] values = this.values;
+			if (channelId < values.length) {
+				return (V) values[channelId];
+			}
+			return (overflow != null) ? overflow.get(channelId) : null;
+		}
+
+		/**
+		 * Store value for channel.
+		 * 
+		 * @param channelId Channel id
+		 * @param value Value to store
+		 * @return Previous value or <code>null</code>
+		 */
+		@SuppressWarnings("unchecked")
+		V put(int channelId, V value) {
+			if (channelId >= MAX_CAPACITY) {
+				if (value == null) {
+					return (overflow != null) ? overflow.remove(channelId) : null;
+				}
+				if (overflow == null) {
+					overflow = new HashMap<Integer, V>();
+				}
+				return overflow.put(channelId, value);
+			}
+			if (channelId >= values.length) {
+				if (value == null) {
+					return null;
+				}
+				int capacity = values.length;
+				while (capacity <= channelId) {
+					capacity <<= 1;
+				}
+				values = Arrays.copyOf(values, Math.min(capacity, MAX_CAPACITY));
+			}
+			final V previous = (V) values[channelId];
+			values[channelId] = value;
+			return previous;
+		}
+
+		/**
+		 * Return all values.
+		 * 
+		 * @return Values that are not <code>null</code>
+		 */
+		@SuppressWarnings("unchecked")
+		List<V> values() {
+			List<V> result = new ArrayList<V>();
+			for (Object value : values) {
+				if (value != null) {
+					result.add((V) value);
+				}
+			}
+			if (overflow != null) {
+				result.addAll(overflow.values());
+			}
+			return result;
+		}
+
+		/**
+		 * Remove all values.
+		 */
+		void clear() {
+			overflow = null;
+			if (values.length > INITIAL_CAPACITY) {
+				values = new Object[INITIAL_CAPACITY];
+			} else {
+				Arrays.fill(values, null);
+			}
+		}
+
+	}
+
 }
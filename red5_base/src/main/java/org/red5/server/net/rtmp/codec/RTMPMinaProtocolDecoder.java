@@ -19,13 +19,12 @@ package org.red5.server.net.rtmp.codec;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
-import java.util.List;
-
 import org.apache.mina.common.ByteBuffer;
 import org.apache.mina.common.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecException;
 import org.apache.mina.filter.codec.ProtocolDecoder;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.red5.io.utils.BufferUtils;
 import org.red5.server.api.Red5;
 import org.red5.server.net.protocol.ProtocolState;
 import org.red5.server.net.rtmp.RTMPConnection;
@@ -53,19 +52,14 @@ public class RTMPMinaProtocolDecoder extends RTMPProtocolDecoder implements
 			if (buf == null) {
 				buf = ByteBuffer.allocate(2048);
 				buf.setAutoExpand(true);
+				// no data to decode yet
+				buf.limit(0);
 				session.setAttribute("buffer", buf);
 			}
-			buf.put(in);
-			buf.flip();
-	
-			List<?> objects = decodeBuffer(state, buf);
-			if (objects == null || objects.isEmpty()) {
-				return;
-			}
+			// the buffer keeps data that could not be decoded yet
+			BufferUtils.append(buf, in);
 	
-			for (Object object : objects) {
-				out.write(object);
-			}
+			decodeBuffer(state, buf, out);
 		} finally {
 			conn.getWriteLock().unlock();
 		}
@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.ProtocolCodecException;
 import org.apache.mina.filter.codec.ProtocolEncoder;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.red5.server.net.protocol.ProtocolState;
+import org.red5.server.net.rtmp.message.Packet;
 
 /**
  * Mina protocol encoder for RTMP.
@@ -43,6 +44,17 @@ public class RTMPMinaProtocolEncoder extends RTMPProtocolEncoder implements
 			// to be sent in different order thus resulting in wrong
 			// headers being generated.
 			synchronized (out) {
+				if (message instanceof Packet
+						&& ((Packet) message).getSharedPacket() != null) {
+					// Write header and shared body separately, merging
+					// them would copy the body for every connection.
+					final ByteBuffer[] parts = encodeSharedPacket((RTMP) state,
+							(Packet) message);
+					out.write(parts[0]);
+					out.write(parts[1]);
+					out.flush();
+					return;
+				}
 				final ByteBuffer buf = encode(state, message);
 				if (buf != null) {
 					out.write(buf);
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 import org.red5.io.amf.AMF;
 import org.red5.io.object.Deserializer;
 import org.red5.io.object.Input;
@@ -88,6 +89,12 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 	 */
 	private Deserializer deserializer;
 
+	/**
+	 * Number of decoded bytes in front of undecoded data before a buffer is
+	 * compacted by {@link #decodeBuffer(ProtocolState, ByteBuffer, ProtocolDecoderOutput)}.
+	 */
+	private int compactThreshold = 4096;
+
 	/** Constructs a new RTMPProtocolDecoder. */
 	public RTMPProtocolDecoder() {
 
@@ -108,60 +115,136 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 		final List<Object> result = new LinkedList<Object>();
 
 		try {
-			while (true) {
-
-				final int remaining = buffer.remaining();
-				if (state.canStartDecoding(remaining)) {
-					state.startDecoding();
-				} else {
-					break;
-				}
+			decodeObjects(state, buffer, new ListDecoderOutput(result));
+		} catch (Exception ex) {
+			buffer.clear();
+			decodingFailed(ex);
+			return null;
+		} finally {
+			buffer.compact();
+		}
+		return result;
+	}
 
-				final Object decodedObject = decode(state, buffer);
+	/**
+	 * Decode all available objects in buffer and write them to the given
+	 * output, the output can be reused for all reads of a connection. Unlike
+	 * {@link #decodeBuffer(ProtocolState, ByteBuffer)} the buffer is not
+	 * compacted on every call, the data that could not be decoded yet stays
+	 * between position and limit. It is moved to the start of the buffer only
+	 * once the decoded data in front of it exceeds the compact threshold, or
+	 * when all data has been decoded. Received data can be added to the buffer
+	 * with {@link BufferUtils#append(ByteBuffer, ByteBuffer)}.
+	 * 
+	 * @param state Protocol state
+	 * @param buffer Data to be decoded
+	 * @param out Output for decoded objects
+	 * @return <code>true</code> if the data could be decoded, <code>false</code>
+	 *         if decoding failed and the data has been dropped
+	 */
+	public boolean decodeBuffer(ProtocolState state, ByteBuffer buffer,
+			ProtocolDecoderOutput out) {
+		try {
+			decodeObjects(state, buffer, out);
+		} catch (Exception ex) {
+			buffer.position(buffer.limit());
+			decodingFailed(ex);
+			return false;
+		} finally {
+			if (!buffer.hasRemaining()) {
+				// nothing to move, just start over
+				buffer.clear();
+				buffer.limit(0);
+			} else if (buffer.position() >= compactThreshold) {
+				buffer.compact();
+				buffer.flip();
+			}
+		}
+		return true;
+	}
 
-				if (state.hasDecodedObject()) {
-					result.add(decodedObject);
-				} else if (state.canContinueDecoding()) {
-					continue;
-				} else {
-					break;
-				}
+	/**
+	 * Decode objects until the buffer has no more complete objects.
+	 * 
+	 * @param state Protocol state
+	 * @param buffer Data to be decoded
+	 * @param out Output for decoded objects
+	 * @throws Exception on decoding errors
+	 */
+	private void decodeObjects(ProtocolState state, ByteBuffer buffer,
+			ProtocolDecoderOutput out) throws Exception {
+		while (true) {
 
-				if (!buffer.hasRemaining()) {
-					break;
-				}
+			final int remaining = buffer.remaining();
+			if (state.canStartDecoding(remaining)) {
+				state.startDecoding();
+			} else {
+				break;
 			}
-		} catch (HandshakeFailedException hfe) {
-			// patched by Victor to clear buffer if something is wrong in
-			// protocol decoding.
-			buffer.clear();
 
-			IConnection conn = Red5.getConnectionLocal();
-			if (conn != null) {
-				conn.close();
+			final Object decodedObject = decode(state, buffer);
+
+			if (state.hasDecodedObject()) {
+				out.write(decodedObject);
+			} else if (state.canContinueDecoding()) {
+				continue;
 			} else {
-				log.error("Handshake validation failed but no current connection!?");
+				break;
 			}
-			return null;
-		} catch (Exception ex) {
-			// Exception handling is patched by Victor - we catch any exception in the decoding
-			// Then clear the buffer to eliminate memory leaks when we can't parse protocol
-			// Also close Connection because we can't parse data from it
-			log.error("Error decoding buffer", ex);
-			buffer.clear();
 
-			IConnection conn = Red5.getConnectionLocal();
+			if (!buffer.hasRemaining()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Handle an error during decoding by closing the current connection.
+	 * 
+	 * @param ex Error
+	 */
+	private void decodingFailed(Exception ex) {
+		IConnection conn = Red5.getConnectionLocal();
+		if (ex instanceof HandshakeFailedException) {
+			// patched by Victor to clear buffer if something is wrong in
+			// protocol decoding.
 			if (conn != null) {
-				log.warn("Closing connection because decoding failed: {}", conn);
 				conn.close();
 			} else {
-				log.error("Decoding buffer failed but no current connection!?");
+				log.error("Handshake validation failed but no current connection!?");
 			}
-			return null;
-		} finally {
-			buffer.compact();
+			return;
 		}
-		return result;
+		// Exception handling is patched by Victor - we catch any exception in the decoding
+		// Then clear the buffer to eliminate memory leaks when we can't parse protocol
+		// Also close Connection because we can't parse data from it
+		log.error("Error decoding buffer", ex);
+		if (conn != null) {
+			log.warn("Closing connection because decoding failed: {}", conn);
+			conn.close();
+		} else {
+			log.error("Decoding buffer failed but no current connection!?");
+		}
+	}
+
+	/**
+	 * Getter for compact threshold.
+	 * 
+	 * @return Number of decoded bytes in front of the undecoded data before the
+	 *         buffer is compacted
+	 */
+	public int getCompactThreshold() {
+		return compactThreshold;
+	}
+
+	/**
+	 * Setter for compact threshold.
+	 * 
+	 * @param compactThreshold Number of decoded bytes in front of the undecoded
+	 *            data before the buffer is compacted
+	 */
+	public void setCompactThreshold(int compactThreshold) {
+		this.compactThreshold = compactThreshold;
 	}
 
 	/**
@@ -193,8 +276,9 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 	 */
 	public Object decode(ProtocolState state, ByteBuffer in)
 			throws ProtocolException {
-		int start = in.position();
-		log.debug("Start: {}", start);
+		if (log.isDebugEnabled()) {
+			log.debug("Start: {}", in.position());
+		}
 		try {
 			final RTMP rtmp = (RTMP) state;
 			switch (rtmp.getState()) {
@@ -344,32 +428,41 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 		}
 
 		// Get the header size and length
-		int headerLength = RTMPUtils.getHeaderLength(RTMPUtils.decodeHeaderSize(headerValue, byteCount));
+		final byte headerSize = RTMPUtils.decodeHeaderSize(headerValue, byteCount);
+		int headerLength = RTMPUtils.getHeaderLength(headerSize);
 		headerLength += byteCount - 1;
 
 		if(headerLength+byteCount-1 > remaining) {
-			log.debug("Header too small, buffering. remaining: {}", remaining);
+			if (log.isDebugEnabled()) {
+				log.debug("Header too small, buffering. remaining: {}", remaining);
+			}
 			in.position(position);
 			rtmp.bufferDecoding(headerLength+byteCount-1);
 			return null;
 		}
 
-		// Move the position back to the start
-		in.position(position);
+		// Check to see if this is a new packets or continue decoding an
+		// existing one.
+		Packet packet = rtmp.getLastReadPacket(channelId);
 
-		final Header header = decodeHeader(in, rtmp
-				.getLastReadHeader(channelId));
+		final Header header;
+		if (headerSize == HEADER_CONTINUE && packet != null) {
+			// Next chunk of a packet, the header does not change so there
+			// is no need to decode a copy of the last one for every chunk
+			header = rtmp.getLastReadHeader(channelId);
+		} else {
+			// Move the position back to the start
+			in.position(position);
 
-		if (header == null) {
-			throw new ProtocolException("Header is null, check for error");
-		}
+			header = decodeHeader(in, rtmp.getLastReadHeader(channelId));
 
-		// Save the header
-		rtmp.setLastReadHeader(channelId, header);
+			if (header == null) {
+				throw new ProtocolException("Header is null, check for error");
+			}
 
-		// Check to see if this is a new packets or continue decoding an
-		// existing one.
-		Packet packet = rtmp.getLastReadPacket(channelId);
+			// Save the header
+			rtmp.setLastReadHeader(channelId, header);
+		}
 
 		if (packet == null) {
 			packet = new Packet(header);
@@ -384,8 +477,10 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 				: readRemaining;
 
 		if (in.remaining() < readAmount) {
-			log.debug("Chunk too small, buffering ({},{})", in.remaining(),
-					readAmount);
+			if (log.isDebugEnabled()) {
+				log.debug("Chunk too small, buffering ({},{})", in.remaining(),
+						readAmount);
+			}
 			// skip the position back to the start
 			in.position(position);
 			rtmp.bufferDecoding(headerLength + readAmount);
@@ -819,8 +914,10 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 		}
 
 		// now go back to the actual encoding to decode parameters
+		final org.red5.io.amf3.Input.RefStorage refStorage = rtmp.getAMF3References();
 		if (rtmp.getEncoding() == Encoding.AMF3) {
-			input = new org.red5.io.amf3.Input(in);
+			refStorage.clear();
+			input = new org.red5.io.amf3.Input(in, refStorage);
 		} else {
 			input = new org.red5.io.amf.Input(in);
 		}
@@ -846,6 +943,8 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 			while (in.hasRemaining()) {
 				paramList.add(deserializer.deserialize(input, Object.class));
 			}
+			// don't keep the decoded objects until the next message
+			refStorage.clear();
 			params = paramList.toArray();
 			if (log.isDebugEnabled()) {
 				log.debug("Num params: {}", paramList.size());
@@ -925,7 +1024,8 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 		// Encoding of message params can be mixed - some params may be in AMF0, others in AMF3,
 		// but according to AMF3 spec, we should collect AMF3 references
 		// for the whole message body (through all params)
-		org.red5.io.amf3.Input.RefStorage refStorage = new org.red5.io.amf3.Input.RefStorage(); 
+		final org.red5.io.amf3.Input.RefStorage refStorage = rtmp.getAMF3References();
+		refStorage.clear();
 		
 		Input input = new org.red5.io.amf.Input(in);
 		String action = deserializer.deserialize(input, String.class);
@@ -956,6 +1056,8 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 				}
 				paramList.add(deserializer.deserialize(input, Object.class));
 			}
+			// don't keep the decoded objects until the next message
+			refStorage.clear();
 			params = paramList.toArray();
 			if (log.isDebugEnabled()) {
 				log.debug("Num params: {}", paramList.size());
@@ -980,4 +1082,26 @@ public class RTMPProtocolDecoder implements Constants, SimpleProtocolDecoder,
 		return new FlexStreamSend(in.asReadOnlyBuffer());
 	}
 
+	/**
+	 * Collects decoded objects in a list.
+	 */
+	private static final class ListDecoderOutput implements ProtocolDecoderOutput {
+
+		private final List<Object> result;
+
+		ListDecoderOutput(List<Object> result) {
+			this.result = result;
+		}
+
+		/** {@inheritDoc} */
+		public void write(Object message) {
+			result.add(message);
+		}
+
+		/** {@inheritDoc} */
+		public void flush() {
+		}
+
+	}
+
 }
@@ -33,6 +33,7 @@ import org.red5.server.net.protocol.BaseProtocolEncoder;
 import org.red5.server.net.protocol.ProtocolState;
 import org.red5.server.net.protocol.SimpleProtocolEncoder;
 import org.red5.server.net.rtmp.RTMPUtils;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor.CachedChunks;
 import org.red5.server.net.rtmp.event.AudioData;
 import org.red5.server.net.rtmp.event.BytesRead;
 import org.red5.server.net.rtmp.event.ChunkSize;
@@ -49,12 +50,15 @@ import org.red5.server.net.rtmp.event.VideoData;
 import org.red5.server.net.rtmp.message.Constants;
 import org.red5.server.net.rtmp.message.Header;
 import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.net.rtmp.message.SharedPacket;
 import org.red5.server.net.rtmp.message.SharedObjectTypeMapping;
 import org.red5.server.net.rtmp.status.StatusCodes;
 import org.red5.server.net.rtmp.status.StatusObject;
 import org.red5.server.service.Call;
 import org.red5.server.so.ISharedObjectEvent;
 import org.red5.server.so.ISharedObjectMessage;
+import org.red5.server.so.SharedObjectMessage;
+import org.red5.server.so.SyncMessageCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,6 +78,11 @@ public class RTMPProtocolEncoder extends BaseProtocolEncoder
      */
     private Serializer serializer;
 
+    /**
+     * Cache of chunked data shared between connections.
+     */
+    private MulticastEventProcessor multicastEventProcessor = new MulticastEventProcessor();
+
 	/** {@inheritDoc} */
     public ByteBuffer encode(ProtocolState state, Object message)
 			throws Exception {
@@ -98,6 +107,22 @@ public class RTMPProtocolEncoder extends BaseProtocolEncoder
      * @return            Encoded data
      */
     public ByteBuffer encodePacket(RTMP rtmp, Packet packet) {
+		if (packet.getSharedPacket() != null) {
+			// callers expect a single buffer, so join header and shared body
+			final ByteBuffer[] parts = encodeSharedPacket(rtmp, packet);
+			final ByteBuffer out = ByteBuffer.allocate(parts[0].limit()
+					+ parts[1].limit(), false);
+			out.put(parts[0]);
+			out.put(parts[1]);
+			parts[0].release();
+			parts[1].release();
+			out.flip();
+			// the body has been copied, so the chunks are not needed any longer
+			final CachedChunks cached = packet.getCachedChunks();
+			packet.setCachedChunks(null);
+			multicastEventProcessor.disposeCached(cached);
+			return out;
+		}
 
 		final Header header = packet.getHeader();
 		final int channelId = header.getChannelId();
@@ -161,6 +186,40 @@ public class RTMPProtocolEncoder extends BaseProtocolEncoder
 		return out;
 	}
 
+    /**
+     * Encode packet whose chunked body is shared with other connections.
+     * Only the header of the first chunk is encoded for this connection,
+     * the body is a read-only view of the chunks cached by the
+     * {@link MulticastEventProcessor}. The packet references the cached
+     * chunks until they are disposed after the packet has been sent.
+	 *
+     * @param rtmp        RTMP protocol state
+     * @param packet      RTMP packet with shared data
+     * @return            Encoded header and shared body
+     */
+    public ByteBuffer[] encodeSharedPacket(RTMP rtmp, Packet packet) {
+		final Header header = packet.getHeader();
+		final int channelId = header.getChannelId();
+		final SharedPacket shared = packet.getSharedPacket();
+		// the event itself is not needed any longer
+		packet.getMessage().release();
+		header.setSize(shared.getSize());
+
+		final Header lastHeader = rtmp.getLastWriteHeader(channelId);
+		final ByteBuffer out = ByteBuffer.allocate(calculateHeaderSize(header,
+				lastHeader), false);
+		encodeHeader(header, lastHeader, out);
+		out.flip();
+
+		rtmp.setLastWriteHeader(channelId, header);
+		rtmp.setLastWritePacket(channelId, packet);
+
+		final CachedChunks cached = multicastEventProcessor.getCached(shared,
+				rtmp.getWriteChunkSize(), channelId);
+		packet.setCachedChunks(cached);
+		return new ByteBuffer[] { out, cached.getBody() };
+	}
+
     /**
      * Determine type of header to use.
      * 
@@ -345,9 +404,22 @@ public class RTMPProtocolEncoder extends BaseProtocolEncoder
 
 	/** {@inheritDoc} */
     public ByteBuffer encodeSharedObject(ISharedObjectMessage so, RTMP rtmp) {
+		final SyncMessageCache cache = (so instanceof SharedObjectMessage) ? ((SharedObjectMessage) so)
+				.getSyncCache() : null;
+		if (cache != null) {
+			// the same events are sent to many listeners, encode them once
+			final ByteBuffer cached = cache.get(rtmp.getEncoding());
+			if (cached != null) {
+				return cached;
+			}
+		}
 		final ByteBuffer out = ByteBuffer.allocate(128);
 		out.setAutoExpand(true);
     	doEncodeSharedObject(so, rtmp, out);
+		if (cache != null) {
+			out.flip();
+			return cache.put(rtmp.getEncoding(), out);
+		}
     	return out;
     }
 
@@ -617,6 +689,24 @@ public class RTMPProtocolEncoder extends BaseProtocolEncoder
 		return result;
 	}
 
+	/**
+     * Getter for the cache of shared chunked data.
+     *
+     * @return Multicast event processor
+     */
+    public MulticastEventProcessor getMulticastEventProcessor() {
+		return multicastEventProcessor;
+	}
+
+	/**
+     * Setter for the cache of shared chunked data.
+     *
+     * @param multicastEventProcessor Multicast event processor
+     */
+    public void setMulticastEventProcessor(MulticastEventProcessor multicastEventProcessor) {
+		this.multicastEventProcessor = multicastEventProcessor;
+	}
+
 	/**
      * Setter for serializer.
      *
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import org.apache.mina.common.ByteBuffer;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor.CachedChunks;
 import org.red5.server.net.rtmp.event.IRTMPEvent;
 
 /**
@@ -43,6 +44,14 @@ public class Packet implements Externalizable {
      * Packet data
      */
 	protected ByteBuffer data;
+    /**
+     * Encoded data shared with other connections, not serialized
+     */
+	protected transient SharedPacket sharedPacket;
+    /**
+     * Cached chunks the shared data is written from, not serialized
+     */
+	protected transient CachedChunks cachedChunks;
 
 	public Packet() {
 		data = null;
@@ -115,6 +124,42 @@ public class Packet implements Externalizable {
 		return data;
 	}
 
+	/**
+     * Setter for shared encoded data
+     *
+     * @param sharedPacket Shared packet or <code>null</code> to encode the message itself
+     */
+    public void setSharedPacket(SharedPacket sharedPacket) {
+		this.sharedPacket = sharedPacket;
+	}
+
+	/**
+     * Getter for shared encoded data
+     *
+     * @return Shared packet or <code>null</code>
+     */
+    public SharedPacket getSharedPacket() {
+		return sharedPacket;
+	}
+
+	/**
+     * Setter for cached chunks referenced by this packet
+     *
+     * @param cachedChunks Cached chunks that must be disposed after the packet has been written
+     */
+    public void setCachedChunks(CachedChunks cachedChunks) {
+		this.cachedChunks = cachedChunks;
+	}
+
+	/**
+     * Getter for cached chunks referenced by this packet
+     *
+     * @return Cached chunks or <code>null</code>
+     */
+    public CachedChunks getCachedChunks() {
+		return cachedChunks;
+	}
+
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		header = (Header) in.readObject();
 		message = (IRTMPEvent) in.readObject();
@@ -0,0 +1,104 @@
+package org.red5.server.net.rtmp.message;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.api.statistics.support.CacheCounter;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.stream.IStreamData;
+
+/**
+ * Live stream event whose encoded form is shared between all subscribers
+ * of a broadcast. The chunked body only depends on the chunk size and the
+ * channel of the receiving connection, so the encoder builds it once for
+ * every such combination through the {@link MulticastEventProcessor} and
+ * writes read-only views of it. Timestamp and stream id only appear in the
+ * first chunk header, which is still encoded per connection.
+ */
+public class SharedPacket {
+
+	/**
+	 * Event that is being shared
+	 */
+	private final IRTMPEvent source;
+
+	/**
+	 * Counts reused and newly built bodies
+	 */
+	private final CacheCounter counter;
+
+	/**
+	 * Size of the event data
+	 */
+	private final int size;
+
+	/**
+	 * Create shared packet for given stream event.
+	 * 
+	 * @param source       Event to share, must carry stream data
+	 * @param counter      Counter to update on lookups, may be <code>null</code>
+	 */
+	public SharedPacket(IRTMPEvent source, CacheCounter counter) {
+		this.source = source;
+		this.counter = counter;
+		this.size = ((IStreamData) source).getData().limit();
+	}
+
+	/**
+	 * Getter for the shared event.
+	 * 
+	 * @return Event this packet was created for
+	 */
+	public IRTMPEvent getSource() {
+		return source;
+	}
+
+	/**
+	 * Getter for the lookup counter.
+	 * 
+	 * @return Counter or <code>null</code>
+	 */
+	public CacheCounter getCounter() {
+		return counter;
+	}
+
+	/**
+	 * Getter for the size of the unchunked event data.
+	 * 
+	 * @return Data size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return a read-only view of the complete event data.
+	 * 
+	 * @return Event data
+	 */
+	public ByteBuffer getData() {
+		final ByteBuffer data = ((IStreamData) source).getData().asReadOnlyBuffer();
+		data.position(0);
+		data.limit(size);
+		return data;
+	}
+
+}
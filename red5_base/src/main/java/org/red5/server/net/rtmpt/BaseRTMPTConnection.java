@@ -19,9 +19,11 @@ package org.red5.server.net.rtmpt;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.mina.common.ByteBuffer;
@@ -78,7 +80,7 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 	/**
 	 * List of pending messages
 	 */
-	private LinkedList<PendingData> pendingMessages = new LinkedList<PendingData>();
+	private Queue<PendingData> pendingMessages = new ArrayDeque<PendingData>();
 	
 	/**
 	 * Closing flag
@@ -126,6 +128,7 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 	public void close() {
 		// Defer actual closing so we can send back pending messages to the client.
 		closing = true;
+		onPendingMessage();
 	}
 
 	/**
@@ -151,6 +154,9 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 				buffer = null;
 			}
 			state.setState(RTMP.STATE_DISCONNECTED);
+			for (PendingData pendingMessage : pendingMessages) {
+				pendingMessage.getBuffer().release();
+			}
 			pendingMessages.clear();
 		} finally {
 			getWriteLock().unlock();
@@ -171,6 +177,7 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 		} finally {
 			getWriteLock().unlock();
 		}
+		onPendingMessage();
 	}
 
 	/** {@inheritDoc} */
@@ -249,14 +256,31 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 		} finally {
 			getWriteLock().unlock();
 		}
+		onPendingMessage();
 	}
 
-	protected ByteBuffer foldPendingMessages(int targetSize) {
-		ByteBuffer result = ByteBuffer.allocate(2048);
-		result.setAutoExpand(true);
-		
+	/**
+	 * Called after a message has been queued or the connection is being
+	 * closed, without holding the write lock.
+	 */
+	protected void onPendingMessage() {
+	}
+
+	/**
+	 * Remove pending messages up to a given size from the queue. The encoded
+	 * buffers are returned as they have been queued, the caller writes and
+	 * releases them.
+	 *
+	 * @param targetSize the size the buffers should have in total, the last
+	 *            buffer may exceed it
+	 * @return buffers containing the data to send or null if no messages are
+	 *         pending
+	 */
+	protected List<ByteBuffer> drainPendingMessages(int targetSize) {
+		List<ByteBuffer> result;
 		// We'll have to create a copy here to avoid endless recursion
-		List<Object> toNotify = new LinkedList<Object>();
+		List<Packet> toNotify = null;
+		long size = 0;
 
 		getWriteLock().lock();
 		try {
@@ -264,29 +288,64 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 				return null;
 			}
 
+			result = new ArrayList<ByteBuffer>(pendingMessages.size());
 			while (!pendingMessages.isEmpty()) {
 				PendingData pendingMessage = pendingMessages.remove();
-				result.put(pendingMessage.getBuffer());
-				if (pendingMessage.getPacket() != null)
+				ByteBuffer data = pendingMessage.getBuffer();
+				result.add(data);
+				size += data.remaining();
+				if (pendingMessage.getPacket() != null) {
+					if (toNotify == null) {
+						toNotify = new ArrayList<Packet>();
+					}
 					toNotify.add(pendingMessage.getPacket());
-				
-				if ((result.position() > targetSize))
+				}
+
+				if (size > targetSize)
 					break;
 			}
 		} finally {
 			getWriteLock().unlock();
 		}
-		
-		for (Object message : toNotify) {
-			try {
-				handler.messageSent(this, message);
-			} catch (Exception e) {
-				log.error("Could not notify stream subsystem about sent message.", e);
+
+		if (toNotify != null) {
+			for (Packet message : toNotify) {
+				try {
+					handler.messageSent(this, message);
+				} catch (Exception e) {
+					log.error("Could not notify stream subsystem about sent message.", e);
+				}
 			}
 		}
 
+		writtenBytes.addAndGet(size);
+		return result;
+	}
+
+	/**
+	 * Remove pending messages up to a given size from the queue and copy
+	 * them to a single buffer.
+	 *
+	 * @param targetSize the size the resulting buffer should have
+	 * @return a buffer containing the data to send or null if no messages are
+	 *         pending
+	 */
+	protected ByteBuffer foldPendingMessages(int targetSize) {
+		List<ByteBuffer> buffers = drainPendingMessages(targetSize);
+		if (buffers == null) {
+			return null;
+		}
+
+		int size = 0;
+		for (ByteBuffer data : buffers) {
+			size += data.remaining();
+		}
+		ByteBuffer result = ByteBuffer.allocate(size);
+		for (ByteBuffer data : buffers) {
+			result.put(data);
+			data.release();
+		}
 		result.flip();
-		writtenBytes.addAndGet(result.limit());
 		return result;
 	}
 
@@ -19,6 +19,8 @@ package org.red5.server.net.rtmpt;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
 
+import java.util.List;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.mina.common.ByteBuffer;
@@ -70,6 +72,16 @@ public class RTMPTConnection extends BaseRTMPTConnection {
 	 */
 	private volatile RTMPTServlet servlet;
 
+	/**
+	 * Monitor requests wait on for pending messages
+	 */
+	private final Object pendingMonitor = new Object();
+
+	/**
+	 * Number of requests waiting for pending messages
+	 */
+	private volatile int waitingRequests;
+
 	/** Constructs a new RTMPTConnection. */
 	RTMPTConnection() {
 		super(POLLING);
@@ -138,6 +150,80 @@ public class RTMPTConnection extends BaseRTMPTConnection {
 	 * {@inheritDoc}
 	 */
 	public ByteBuffer getPendingMessages(int targetSize) {
+		if (!checkPendingMessages()) {
+			return null;
+		}
+		return foldPendingMessages(targetSize);
+	}
+
+	/**
+	 * Return any pending messages up to a given size without copying them
+	 * to a single buffer. The caller has to release the buffers after they
+	 * have been written.
+	 *
+	 * @param targetSize the size the buffers should have in total
+	 * @return buffers containing the data to send or null if no messages are
+	 *         pending
+	 */
+	public List<ByteBuffer> getPendingBuffers(int targetSize) {
+		if (!checkPendingMessages()) {
+			return null;
+		}
+		return drainPendingMessages(targetSize);
+	}
+
+	/**
+	 * Wait until messages are pending, the connection is being closed or
+	 * the timeout expires. The client does not need to poll again while
+	 * the request is waiting, so the polling delay is reset.
+	 *
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return <code>true</code> if messages are pending
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public boolean waitForPendingMessages(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (pendingMonitor) {
+			waitingRequests++;
+			try {
+				long remaining = timeout;
+				while (getPendingMessages() == 0 && !isClosing() && remaining > 0) {
+					pendingMonitor.wait(remaining);
+					remaining = deadline - System.currentTimeMillis();
+				}
+			} finally {
+				waitingRequests--;
+			}
+		}
+		getWriteLock().lock();
+		try {
+			this.noPendingMessages = 0;
+			this.pollingDelay = INITIAL_POLLING_DELAY;
+		} finally {
+			getWriteLock().unlock();
+		}
+		return getPendingMessages() > 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onPendingMessage() {
+		// the message has been queued before, so a request that starts to
+		// wait afterwards sees it
+		if (waitingRequests > 0) {
+			synchronized (pendingMonitor) {
+				pendingMonitor.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Check for pending messages and adjust the polling delay, it is
+	 * increased after several polls without messages.
+	 *
+	 * @return <code>true</code> if messages are pending
+	 */
+	private boolean checkPendingMessages() {
 		getWriteLock().lock();
 		try {
 			long currentPendingMessages = getPendingMessages();
@@ -152,16 +238,15 @@ public class RTMPTConnection extends BaseRTMPTConnection {
 						this.pollingDelay = MAX_POLLING_DELAY;
 					}
 				}
-				return null;
+				return false;
 			}
 
 			log.debug("Going to return {} messages to client.", currentPendingMessages);
 			this.noPendingMessages = 0;
 			this.pollingDelay = INITIAL_POLLING_DELAY;
+			return true;
 		} finally {
 			getWriteLock().unlock();
 		}
-
-		return foldPendingMessages(targetSize);
 	}
 }
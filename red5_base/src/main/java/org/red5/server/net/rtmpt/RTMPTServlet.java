@@ -22,6 +22,8 @@ package org.red5.server.net.rtmpt;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -32,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.mina.common.ByteBuffer;
 import org.red5.logging.Red5LoggerFactory;
+import org.red5.server.jmx.JMXAgent;
 import org.red5.server.net.rtmp.IRTMPConnManager;
 import org.red5.server.net.rtmp.RTMPConnection;
 import org.red5.server.net.rtmp.codec.RTMP;
@@ -46,7 +49,7 @@ import org.springframework.web.context.support.WebApplicationContextUtils;
  * @author The Red5 Project (red5@osflash.org)
  * @author Joachim Bauch (jojo@struktur.de)
  */
-public class RTMPTServlet extends HttpServlet {
+public class RTMPTServlet extends HttpServlet implements RTMPTServletMBean {
 
 	/**
 	 * Serialization UID
@@ -75,6 +78,11 @@ public class RTMPTServlet extends HttpServlet {
 	 */
 	private static final int RESPONSE_TARGET_SIZE = 32768;
 
+	/**
+	 * Size of the chunks direct buffers are copied in
+	 */
+	private static final int COPY_BUFFER_SIZE = 8192;
+
 	/**
 	 * Web app context
 	 */
@@ -87,6 +95,34 @@ public class RTMPTServlet extends HttpServlet {
 
 	private static IRTMPConnManager rtmpConnManager;
 
+	/**
+	 * Milliseconds an idle request waits for messages before it is answered,
+	 * 0 answers idle requests immediately
+	 */
+	private static long longPollTimeout;
+
+	/**
+	 * Maximum number of idle requests that wait at the same time, each of
+	 * them blocks a thread of the servlet container
+	 */
+	private static int maxParkedRequests = 10;
+
+	private final AtomicInteger parkedRequests = new AtomicInteger();
+
+	private final AtomicLong longPolls = new AtomicLong();
+
+	private final AtomicLong longPollTimeouts = new AtomicLong();
+
+	private final AtomicLong polls = new AtomicLong();
+
+	private final AtomicLong emptyPolls = new AtomicLong();
+
+	private final AtomicLong batchedMessages = new AtomicLong();
+
+	private final AtomicLong batchedBytes = new AtomicLong();
+
+	private final AtomicLong maxMessagesPerPoll = new AtomicLong();
+
 	public void setRtmpConnManager(IRTMPConnManager rtmpConnManager) {
 		RTMPTServlet.rtmpConnManager = rtmpConnManager;
 	}
@@ -100,6 +136,29 @@ public class RTMPTServlet extends HttpServlet {
 		RTMPTServlet.handler = handler;
 	}
 
+	/**
+	 * Set the time idle requests wait for messages. Clients send idle
+	 * requests when they have nothing to send, so waiting saves the empty
+	 * responses and the polling delay of the client. Data the client wants
+	 * to send while its request is waiting is delayed by up to this time.
+	 * 
+	 * @param longPollTimeout timeout in milliseconds, 0 to disable waiting
+	 */
+	public void setLongPollTimeout(long longPollTimeout) {
+		RTMPTServlet.longPollTimeout = longPollTimeout;
+	}
+
+	/**
+	 * Set the maximum number of idle requests that wait at the same time.
+	 * Further requests are answered immediately, so this should be lower
+	 * than the number of threads of the servlet container.
+	 * 
+	 * @param maxParkedRequests maximum number of waiting requests
+	 */
+	public void setMaxParkedRequests(int maxParkedRequests) {
+		RTMPTServlet.maxParkedRequests = maxParkedRequests;
+	}
+
 	/**
 	 * Return an error message to the client.
 	 * 
@@ -188,6 +247,68 @@ public class RTMPTServlet extends HttpServlet {
 		buffer = null;
 	}
 
+	/**
+	 * Return raw data to the client. The buffers are written to the response
+	 * one after another and released afterwards.
+	 * 
+	 * @param client
+	 *            RTMP connection
+	 * @param buffers
+	 *            Raw data as byte buffers
+	 * @param resp
+	 *            Servlet response
+	 * @throws IOException
+	 *             I/O exception
+	 */
+	protected void returnMessages(RTMPTConnection client, List<ByteBuffer> buffers,
+			HttpServletResponse resp) throws IOException {
+		try {
+			int size = 0;
+			for (ByteBuffer buffer : buffers) {
+				size += buffer.remaining();
+			}
+			updateStatistics(buffers.size(), size);
+			resp.setStatus(HttpServletResponse.SC_OK);
+			resp.setHeader("Connection", "Keep-Alive");
+			resp.setHeader("Cache-Control", "no-cache");
+			resp.setContentType(CONTENT_TYPE);
+			log.debug("Sending {} bytes in {} buffers", size, buffers.size());
+			resp.setContentLength(size + 1);
+			ServletOutputStream output = resp.getOutputStream();
+			output.write(client.getPollingDelay());
+			byte[] chunk = null;
+			for (ByteBuffer buffer : buffers) {
+				if (!buffer.isDirect()) {
+					output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				} else {
+					if (chunk == null) {
+						chunk = new byte[COPY_BUFFER_SIZE];
+					}
+					while (buffer.hasRemaining()) {
+						int length = Math.min(chunk.length, buffer.remaining());
+						buffer.get(chunk, 0, length);
+						output.write(chunk, 0, length);
+					}
+				}
+			}
+			output.flush();
+		} finally {
+			for (ByteBuffer buffer : buffers) {
+				buffer.release();
+			}
+		}
+	}
+
+	private void updateStatistics(int messages, int bytes) {
+		polls.incrementAndGet();
+		batchedMessages.addAndGet(messages);
+		batchedBytes.addAndGet(bytes);
+		long max = maxMessagesPerPoll.get();
+		while (messages > max && !maxMessagesPerPoll.compareAndSet(max, messages)) {
+			max = maxMessagesPerPoll.get();
+		}
+	}
+
 	/**
 	 * Return the client id from a url like /send/123456/12 -> 123456
 	 * 
@@ -257,8 +378,9 @@ public class RTMPTServlet extends HttpServlet {
 	protected void returnPendingMessages(RTMPTConnection client,
 			HttpServletResponse resp) throws IOException {
 
-		ByteBuffer data = client.getPendingMessages(RESPONSE_TARGET_SIZE);
+		List<ByteBuffer> data = client.getPendingBuffers(RESPONSE_TARGET_SIZE);
 		if (data == null) {
+			emptyPolls.incrementAndGet();
 			// no more messages to send...
 			if (client.isClosing()) {
 				// Tell client to close connection
@@ -269,7 +391,7 @@ public class RTMPTServlet extends HttpServlet {
 			return;
 		}
 
-		returnMessage(client, data, resp);
+		returnMessages(client, data, resp);
 	}
 
 	/**
@@ -427,9 +549,36 @@ public class RTMPTServlet extends HttpServlet {
 		}
 
 		connection.setServletRequest(req);
+		waitForPendingMessages(connection);
 		returnPendingMessages(connection, resp);
 	}
 
+	/**
+	 * Wait for messages of an idle client if long polling is enabled and not
+	 * too many requests are waiting already.
+	 * 
+	 * @param client
+	 *            RTMP connection
+	 */
+	protected void waitForPendingMessages(RTMPTConnection client) {
+		if (longPollTimeout <= 0 || client.getPendingMessages() > 0) {
+			return;
+		}
+		try {
+			if (parkedRequests.incrementAndGet() > maxParkedRequests) {
+				return;
+			}
+			longPolls.incrementAndGet();
+			if (!client.waitForPendingMessages(longPollTimeout)) {
+				longPollTimeouts.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			parkedRequests.decrementAndGet();
+		}
+	}
+
 	/**
 	 * Main entry point for the servlet.
 	 * 
@@ -505,6 +654,9 @@ public class RTMPTServlet extends HttpServlet {
 			appCtx = (WebApplicationContext) ctx.getAttribute(
 					WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
 		}
+		//register with jmx server
+		JMXAgent.registerMBean(this, this.getClass().getName(),
+				RTMPTServletMBean.class);
 	}
 
 	/** {@inheritDoc} */
@@ -549,4 +701,56 @@ public class RTMPTServlet extends HttpServlet {
 	protected void removeConnection(int clientId) {
 		rtmpConnManager.removeConnection(clientId);
 	}
+
+	public long getPolls() {
+		return polls.get();
+	}
+
+	public long getEmptyPolls() {
+		return emptyPolls.get();
+	}
+
+	public long getBatchedMessages() {
+		return batchedMessages.get();
+	}
+
+	public long getBatchedBytes() {
+		return batchedBytes.get();
+	}
+
+	public double getAverageMessagesPerPoll() {
+		long count = polls.get();
+		return count > 0 ? (double) batchedMessages.get() / count : 0;
+	}
+
+	public double getAverageBytesPerPoll() {
+		long count = polls.get();
+		return count > 0 ? (double) batchedBytes.get() / count : 0;
+	}
+
+	public long getMaxMessagesPerPoll() {
+		return maxMessagesPerPoll.get();
+	}
+
+	public int getParkedRequests() {
+		return parkedRequests.get();
+	}
+
+	public long getLongPolls() {
+		return longPolls.get();
+	}
+
+	public long getLongPollTimeouts() {
+		return longPollTimeouts.get();
+	}
+
+	public void resetStatistics() {
+		longPolls.set(0);
+		longPollTimeouts.set(0);
+		polls.set(0);
+		emptyPolls.set(0);
+		batchedMessages.set(0);
+		batchedBytes.set(0);
+		maxMessagesPerPoll.set(0);
+	}
 }
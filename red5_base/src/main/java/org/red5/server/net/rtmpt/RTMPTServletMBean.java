@@ -0,0 +1,83 @@
+package org.red5.server.net.rtmpt;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+/**
+ * Statistics of the responses to the polls of RTMPT clients and of the idle
+ * requests waiting for messages.
+ *
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface RTMPTServletMBean {
+
+	/**
+	 * @return Number of polls answered with pending messages
+	 */
+	public long getPolls();
+
+	/**
+	 * @return Number of polls answered without messages
+	 */
+	public long getEmptyPolls();
+
+	/**
+	 * @return Number of messages sent in responses to polls
+	 */
+	public long getBatchedMessages();
+
+	/**
+	 * @return Number of bytes sent in responses to polls
+	 */
+	public long getBatchedBytes();
+
+	/**
+	 * @return Average number of messages per poll with messages
+	 */
+	public double getAverageMessagesPerPoll();
+
+	/**
+	 * @return Average number of bytes per poll with messages
+	 */
+	public double getAverageBytesPerPoll();
+
+	/**
+	 * @return Largest number of messages sent in response to a poll
+	 */
+	public long getMaxMessagesPerPoll();
+
+	/**
+	 * @return Number of idle requests waiting for messages
+	 */
+	public int getParkedRequests();
+
+	/**
+	 * @return Number of idle requests that have waited for messages
+	 */
+	public long getLongPolls();
+
+	/**
+	 * @return Number of idle requests that have waited without receiving
+	 *         messages
+	 */
+	public long getLongPollTimeouts();
+
+	public void resetStatistics();
+
+}
@@ -21,6 +21,7 @@ package org.red5.server.net.servlet;
 
 import java.io.IOException;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -29,6 +30,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
 import org.red5.logging.Red5LoggerFactory;
 import org.red5.server.api.IContext;
 import org.red5.server.api.IGlobalScope;
@@ -39,8 +41,11 @@ import org.red5.server.api.remoting.IRemotingConnection;
 import org.red5.server.api.service.IServiceInvoker;
 import org.red5.server.net.remoting.RemotingConnection;
 import org.red5.server.net.remoting.codec.RemotingCodecFactory;
+import org.red5.server.net.remoting.codec.RemotingProtocolDecoder;
+import org.red5.server.net.remoting.codec.RemotingProtocolEncoder;
 import org.red5.server.net.remoting.message.RemotingCall;
 import org.red5.server.net.remoting.message.RemotingPacket;
+import org.red5.server.service.Call;
 import org.slf4j.Logger;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
@@ -85,10 +90,21 @@ public class AMFGatewayServlet extends HttpServlet {
 	 * Request attribute holding the Red5 connection object
 	 */
 	private static final String CONNECTION = "red5.remotingConnection";
+
+	/**
+	 * Whether the calls of a request are decoded, invoked and written to the
+	 * client one after another instead of all at once
+	 */
+	protected boolean streaming = false;
 	
 	/** {@inheritDoc} */
 	@Override
-	public void init() throws ServletException {
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		if (config.getInitParameter("streaming") != null) {
+			streaming = Boolean.valueOf(config.getInitParameter("streaming"));
+		}
+		log.debug("Streaming remoting calls: {}", streaming);
 	}
 
 	/** {@inheritDoc} */
@@ -164,8 +180,16 @@ public class AMFGatewayServlet extends HttpServlet {
 			throws ServletException, IOException {
 		log.debug("Servicing AMF");
 		IRemotingConnection conn = null;
+		ByteBuffer reqBuffer = null;
 		try {
-			RemotingPacket packet = decodeRequest(req);
+			RemotingPacket packet;
+			if (streaming) {
+				reqBuffer = readRequest(req);
+				packet = ((RemotingProtocolDecoder) codecFactory.getSimpleDecoder()).decodeHeaders(reqBuffer);
+				packet.setScopePath(getScopePath(req));
+			} else {
+				packet = decodeRequest(req);
+			}
 			if (packet == null) {
 				log.error("Packet should not be null");
 				return;
@@ -179,14 +203,23 @@ public class AMFGatewayServlet extends HttpServlet {
 			req.setAttribute(CONNECTION, conn);
 			// set thread local reference
 			Red5.setConnectionLocal(conn);
-			handleRemotingPacket(req, context, scope, packet);
-			resp.setStatus(HttpServletResponse.SC_OK);
-			resp.setContentType(APPLICATION_AMF);
-			sendResponse(resp, packet);
+			if (streaming) {
+				handleRemotingStream(resp, context, scope, packet, reqBuffer);
+			} else {
+				handleRemotingPacket(req, context, scope, packet);
+				resp.setStatus(HttpServletResponse.SC_OK);
+				resp.setContentType(APPLICATION_AMF);
+				sendResponse(resp, packet);
+			}
 		} catch (Exception e) {
 			log.error("Error handling remoting call", e);
-			resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			if (!resp.isCommitted()) {
+				resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
 		} finally {
+			if (reqBuffer != null) {
+				reqBuffer.release();
+			}
 			//ensure the conn attr gets removed
 			req.removeAttribute(CONNECTION);
 			//unregister the remote connection client
@@ -208,11 +241,41 @@ public class AMFGatewayServlet extends HttpServlet {
 	protected RemotingPacket decodeRequest(HttpServletRequest req)
 			throws Exception {
 		log.debug("Decoding request");
+		ByteBuffer reqBuffer = readRequest(req);
+		RemotingPacket packet = (RemotingPacket) codecFactory
+				.getSimpleDecoder().decode(null, reqBuffer);
+		String path = getScopePath(req);
+		log.debug("Path: {} Scope path: {}", path, packet.getScopePath());
+		packet.setScopePath(path);
+		reqBuffer.release();
+		reqBuffer = null;
+		return packet;
+	}
+
+	/**
+	 * Read the body of a request.
+	 * 
+	 * @param req
+	 *            Request
+	 * @return Buffer with the body
+	 * @throws IOException
+	 *             I/O exception
+	 */
+	protected ByteBuffer readRequest(HttpServletRequest req) throws IOException {
 		ByteBuffer reqBuffer = ByteBuffer.allocate(req.getContentLength());
 		ServletUtils.copy(req.getInputStream(), reqBuffer.asOutputStream());
 		reqBuffer.flip();
-		RemotingPacket packet = (RemotingPacket) codecFactory
-				.getSimpleDecoder().decode(null, reqBuffer);
+		return reqBuffer;
+	}
+
+	/**
+	 * Return the path of the scope a request is sent to.
+	 * 
+	 * @param req
+	 *            Request
+	 * @return Scope path
+	 */
+	protected String getScopePath(HttpServletRequest req) {
 		String path = req.getContextPath();
 		if (path == null) {
 			path = "";
@@ -229,11 +292,7 @@ public class AMFGatewayServlet extends HttpServlet {
 		if (path.length() > 0 && path.charAt(0) == '/') {
 			path = path.substring(1);
 		}
-		log.debug("Path: {} Scope path: {}", path, packet.getScopePath());
-		packet.setScopePath(path);
-		reqBuffer.release();
-		reqBuffer = null;
-		return packet;
+		return path;
 	}
 
 	/**
@@ -255,6 +314,143 @@ public class AMFGatewayServlet extends HttpServlet {
 		return true;
 	}
 
+	/**
+	 * Handles AMF request by decoding, invoking and encoding the calls one
+	 * after another. Every result is sent to the client as soon as it is
+	 * available, so only the arguments and result of one call are kept in
+	 * memory. The response starts after the first call has been invoked, so
+	 * headers set by that call are sent to the client. Calls that fail to
+	 * decode, invoke or encode get an error result, as do the calls after
+	 * one that could not be decoded.
+	 * 
+	 * @param resp
+	 *            Response
+	 * @param context
+	 *            Context of the scope
+	 * @param scope
+	 *            Scope to invoke the calls on
+	 * @param packet
+	 *            Remoting packet with the headers of the request
+	 * @param in
+	 *            Request body positioned at the first call
+	 * @throws IOException
+	 *             I/O exception
+	 */
+	protected void handleRemotingStream(HttpServletResponse resp, IContext context,
+			IScope scope, RemotingPacket packet, ByteBuffer in) throws IOException {
+		log.debug("Handling remoting stream");
+		final IServiceInvoker invoker = context.getServiceInvoker();
+		final RemotingProtocolDecoder decoder = (RemotingProtocolDecoder) codecFactory.getSimpleDecoder();
+		final RemotingProtocolEncoder encoder = (RemotingProtocolEncoder) codecFactory.getSimpleEncoder();
+		final int count = packet.getCallCount();
+		final int limit = in.limit();
+		ByteBuffer respBuffer = ByteBuffer.allocate(1024);
+		respBuffer.setAutoExpand(true);
+		try {
+			ServletOutputStream out = null;
+			boolean decoding = true;
+			for (int i = 0; i < count; i++) {
+				RemotingCall call;
+				if (decoding) {
+					in.limit(limit);
+					final int start = in.position();
+					try {
+						call = decoder.decodeCall(in);
+					} catch (Exception e) {
+						log.error("Error decoding remoting call", e);
+						// the following calls start at an unknown position
+						decoding = false;
+						call = createFailedCall(in, start, limit, i, e);
+					}
+				} else {
+					call = createFailedCall(in, -1, limit, i, new IllegalStateException("Previous call could not be decoded"));
+				}
+				packet.setCurrentCall(call);
+				if (call.getStatus() == Call.STATUS_PENDING) {
+					try {
+						invoker.invoke(call, scope);
+					} catch (Exception e) {
+						log.error("Error invoking remoting call", e);
+						call.setStatus(Call.STATUS_GENERAL_EXCEPTION);
+						call.setException(e);
+					}
+				}
+				if (out == null) {
+					resp.setStatus(HttpServletResponse.SC_OK);
+					resp.setContentType(APPLICATION_AMF);
+					out = resp.getOutputStream();
+					encoder.encodeHeaders(respBuffer, packet.getEncoding(), count);
+				}
+				final int position = respBuffer.position();
+				try {
+					encoder.encodeCall(respBuffer, call);
+				} catch (Exception e) {
+					log.error("Error encoding remoting result", e);
+					respBuffer.position(position);
+					call.setStatus(Call.STATUS_GENERAL_EXCEPTION);
+					call.setException(e);
+					encoder.encodeCall(respBuffer, call);
+				}
+				respBuffer.flip();
+				ServletUtils.copy(respBuffer.asInputStream(), out);
+				out.flush();
+				respBuffer.clear();
+			}
+			if (out == null) {
+				// no calls at all
+				resp.setStatus(HttpServletResponse.SC_OK);
+				resp.setContentType(APPLICATION_AMF);
+				out = resp.getOutputStream();
+				encoder.encodeHeaders(respBuffer, packet.getEncoding(), 0);
+				respBuffer.flip();
+				ServletUtils.copy(respBuffer.asInputStream(), out);
+				out.flush();
+			}
+			out.close();
+			IRemotingConnection conn = (IRemotingConnection) Red5.getConnectionLocal();
+			if (!conn.getHeaders().isEmpty()) {
+				log.warn("Headers set after the first call of a request are not sent to the client");
+			}
+		} finally {
+			respBuffer.release();
+		}
+	}
+
+	/**
+	 * Create a failed call for a call that could not be decoded. The client
+	 * response is read from the start of the call if possible, otherwise the
+	 * one Flash Player uses for the n-th call is taken.
+	 * 
+	 * @param in
+	 *            Request body
+	 * @param start
+	 *            Position of the call or -1 if unknown
+	 * @param limit
+	 *            Limit of the request body
+	 * @param index
+	 *            Index of the call
+	 * @param error
+	 *            Reason of the failure
+	 * @return Call with an error result
+	 */
+	private RemotingCall createFailedCall(ByteBuffer in, int start, int limit, int index, Exception error) {
+		String callback = "/" + (index + 1);
+		if (start >= 0) {
+			try {
+				in.limit(limit);
+				in.position(start);
+				Input.getString(in);
+				callback = Input.getString(in);
+			} catch (Exception e) {
+				log.debug("Could not read the response of call {}", index);
+			}
+		}
+		RemotingCall call = new RemotingCall(null, null, null, callback, false, false);
+		call.setStatus(Call.STATUS_GENERAL_EXCEPTION);
+		call.setException(error);
+		return call;
+	}
+
 	/**
 	 * Sends response to client
 	 * 
@@ -0,0 +1,795 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
+import org.red5.io.amf.Output;
+import org.red5.server.api.persistence.IPersistable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the persistent objects stored in one directory.
+ * Every change is written as a checksummed record to the active segment
+ * file, which is replaced by a new one when it reaches its maximum size. The
+ * location of the latest record of every object is kept in memory, the
+ * objects are read from the segments when they are loaded.
+ * <p>
+ * Changes are queued by the stores and written in batches by the
+ * {@link JournalPersistenceThread}, an object that has been modified several
+ * times between two batches is serialized once. Sealed segments that mostly
+ * contain outdated records are compacted into one segment. Segments are named
+ * after the range of segments they cover, so a compacted segment supersedes
+ * the segments it has been created from even if these could not be deleted.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class Journal {
+
+	private static Logger log = LoggerFactory.getLogger(Journal.class);
+
+	/**
+	 * Header of segment files, "R5JL" and the format version
+	 */
+	private static final int MAGIC = 0x52354A4C;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Records start with the length and the checksum of their body
+	 */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final byte OP_SAVE = 1;
+
+	private static final byte OP_REMOVE = 2;
+
+	private static final String SUFFIX = ".journal";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File dir;
+
+	private final String syncPolicy;
+
+	private final long syncInterval;
+
+	private final long maxSegmentSize;
+
+	/**
+	 * Changes that have not been written yet, the changes of the batch that
+	 * is being written are not in the index yet
+	 */
+	private final WriteBehindQueue queue = new WriteBehindQueue();
+
+	/**
+	 * Location of the latest record of every object, guarded by this
+	 */
+	private final Map<String, Location> index = new HashMap<String, Location>();
+
+	/**
+	 * Segments in the order they are replayed, the last one is active
+	 */
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	/**
+	 * Serializes writes, rolls and compactions
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Whether records have been written since the last sync
+	 */
+	private boolean dirty;
+
+	private long lastSync;
+
+	private boolean closed;
+
+	/**
+	 * Open the journal in the given directory and replay its segments.
+	 * 
+	 * @param dir Directory of the segment files
+	 * @param syncPolicy When written records are synced to disk, one of the
+	 *            <code>SYNC_</code> constants of {@link JournalPersistenceThread}
+	 * @param syncInterval Minimum time between syncs in milliseconds for the
+	 *            interval policy
+	 * @param maxSegmentSize Size in bytes at which a new segment is started
+	 * @throws IOException if the directory or the active segment can not be
+	 *             created
+	 */
+	public Journal(File dir, String syncPolicy, long syncInterval, long maxSegmentSize) throws IOException {
+		this.dir = dir;
+		this.syncPolicy = syncPolicy;
+		this.syncInterval = syncInterval;
+		this.maxSegmentSize = maxSegmentSize;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir.getAbsolutePath());
+		}
+		replay();
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (last != null && last.first == last.last && last.size < maxSegmentSize) {
+			last.open();
+		} else {
+			segments.add(createSegment(last == null ? 1 : last.last + 1));
+		}
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Find the segment files, drop superseded ones and replay the rest.
+	 */
+	private void replay() {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<Segment> found = new ArrayList<Segment>();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				// left over from an interrupted compaction
+				if (!file.delete()) {
+					log.warn("Could not delete {}", file);
+				}
+				continue;
+			}
+			if (!name.endsWith(SUFFIX)) {
+				continue;
+			}
+			int dash = name.indexOf('-');
+			try {
+				long first = Long.parseLong(name.substring(0, dash));
+				long last = Long.parseLong(name.substring(dash + 1, name.length() - SUFFIX.length()));
+				found.add(new Segment(first, last));
+			} catch (RuntimeException e) {
+				log.warn("Ignoring unknown file {}", file);
+			}
+		}
+		// newest first, a compacted segment before the segments it covers
+		Collections.sort(found, new Comparator<Segment>() {
+			public int compare(Segment s1, Segment s2) {
+				if (s1.last != s2.last) {
+					return s1.last > s2.last ? -1 : 1;
+				}
+				return s1.first < s2.first ? -1 : (s1.first == s2.first ? 0 : 1);
+			}
+		});
+		long floor = Long.MAX_VALUE;
+		for (Segment segment : found) {
+			if (segment.last >= floor) {
+				log.debug("Deleting superseded segment {}", segment.file);
+				if (!segment.file.delete()) {
+					log.warn("Could not delete superseded segment {}", segment.file);
+				}
+				continue;
+			}
+			floor = segment.first;
+			segments.add(0, segment);
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			replay(segments.get(i), i == segments.size() - 1);
+		}
+		log.debug("Replayed {} objects from {} segments in {}", new Object[] { index.size(), segments.size(), dir });
+	}
+
+	/**
+	 * Replay the records of a segment. A torn record at the end of the last
+	 * segment is cut off, it has been written partially before a crash.
+	 */
+	private void replay(Segment segment, boolean last) {
+		long offset = HEADER_SIZE;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.error("Segment {} has an unknown format, ignoring it", segment.file);
+				segment.size = segment.file.length();
+				return;
+			}
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				int checksum = in.readInt();
+				if (length <= 0 || length > segment.file.length() - offset - RECORD_HEADER_SIZE) {
+					throw new EOFException();
+				}
+				byte[] body = new byte[length];
+				in.readFully(body);
+				crc.reset();
+				crc.update(body);
+				if ((int) crc.getValue() != checksum) {
+					throw new EOFException();
+				}
+				ByteBuffer buf = ByteBuffer.wrap(body);
+				byte op = buf.get();
+				String id = Input.getString(buf);
+				int size = RECORD_HEADER_SIZE + length;
+				if (op == OP_SAVE) {
+					update(id, new Location(segment, offset, size));
+				} else {
+					update(id, null);
+				}
+				offset += size;
+			}
+		} catch (EOFException e) {
+			if (last) {
+				log.warn("Truncating torn record at {} of {}", offset, segment.file);
+				truncate(segment.file, offset);
+			} else {
+				log.error("Corrupt record at {} of {}, ignoring the rest of the segment", offset, segment.file);
+			}
+		} catch (IOException e) {
+			log.error("Could not replay " + segment.file, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		segment.size = segment.file.length();
+	}
+
+	private void truncate(File file, long length) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			log.error("Could not truncate " + file, e);
+		}
+	}
+
+	/**
+	 * Point the index to a new record of an object or remove it.
+	 */
+	private void update(String id, Location location) {
+		Location previous;
+		if (location != null) {
+			previous = index.put(id, location);
+			location.segment.live += location.length;
+		} else {
+			previous = index.remove(id);
+		}
+		if (previous != null) {
+			previous.segment.live -= previous.length;
+		}
+	}
+
+	private Segment createSegment(long seq) throws IOException {
+		Segment segment = new Segment(seq, seq);
+		segment.open();
+		java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		segment.channel.write(header, 0);
+		segment.size = HEADER_SIZE;
+		return segment;
+	}
+
+	/**
+	 * Queue an object to be written with the next batch.
+	 * 
+	 * @param id Object id
+	 * @param object Object to write
+	 */
+	public void save(String id, IPersistable object) {
+		queue.save(id, object);
+	}
+
+	/**
+	 * Queue the removal of an object.
+	 * 
+	 * @param id Object id
+	 */
+	public void remove(String id) {
+		queue.remove(id);
+	}
+
+	/**
+	 * Read the latest state of an object, queued changes of the object are
+	 * written first and a batch with changes of the object that is being
+	 * written is waited for.
+	 * 
+	 * @param id Object id
+	 * @return Buffer positioned at the serialized object or <code>null</code>
+	 *         if the journal does not contain the object
+	 */
+	public ByteBuffer read(String id) {
+		if (queue.isQueued(id)) {
+			flush();
+		}
+		synchronized (this) {
+			Location location = index.get(id);
+			if (location == null) {
+				return null;
+			}
+			try {
+				ByteBuffer buf = ByteBuffer.wrap(location.read());
+				buf.position(RECORD_HEADER_SIZE + 1);
+				Input.getString(buf);
+				return buf;
+			} catch (IOException e) {
+				log.error("Could not read " + id + " from " + location.segment.file, e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Write the queued changes as one batch.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			Map<String, IPersistable> batch = queue.take();
+			try {
+				if (!batch.isEmpty()) {
+					write(batch);
+				}
+			} finally {
+				queue.done();
+			}
+			if (dirty && (JournalPersistenceThread.SYNC_ALWAYS.equals(syncPolicy)
+					|| (JournalPersistenceThread.SYNC_INTERVAL.equals(syncPolicy)
+							&& System.currentTimeMillis() - lastSync >= syncInterval))) {
+				sync();
+			}
+			Segment active = getActiveSegment();
+			if (active.size >= maxSegmentSize) {
+				roll();
+			}
+		}
+	}
+
+	/**
+	 * Serialize the objects of a batch and append them to the active segment.
+	 */
+	private void write(Map<String, IPersistable> batch) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		DataOutputStream out = new DataOutputStream(bytes);
+		List<String> ids = new ArrayList<String>(batch.size());
+		List<Integer> sizes = new ArrayList<Integer>(batch.size());
+		CRC32 crc = new CRC32();
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.setAutoExpand(true);
+		try {
+			for (Map.Entry<String, IPersistable> entry : batch.entrySet()) {
+				String id = entry.getKey();
+				IPersistable object = entry.getValue();
+				buf.clear();
+				try {
+					buf.put(object == null ? OP_REMOVE : OP_SAVE);
+					Output.putString(buf, id);
+					if (object != null) {
+						Output output = new Output(buf);
+						output.writeString(object.getClass().getName());
+						object.serialize(output);
+					}
+				} catch (Exception e) {
+					log.error("Could not serialize " + id, e);
+					continue;
+				}
+				buf.flip();
+				byte[] body = new byte[buf.limit()];
+				buf.get(body);
+				crc.reset();
+				crc.update(body);
+				out.writeInt(body.length);
+				out.writeInt((int) crc.getValue());
+				out.write(body);
+				ids.add(id);
+				// removals are not indexed, they are marked by a negative size
+				int size = RECORD_HEADER_SIZE + body.length;
+				sizes.add(object == null ? -size : size);
+			}
+			out.flush();
+		} catch (IOException e) {
+			// not thrown by in-memory streams
+			throw new RuntimeException(e);
+		} finally {
+			buf.release();
+		}
+		Segment active = getActiveSegment();
+		try {
+			java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap(bytes.toByteArray());
+			long position = active.size;
+			while (data.hasRemaining()) {
+				position += active.channel.write(data, position);
+			}
+		} catch (IOException e) {
+			log.error("Could not write to " + active.file + ", retrying with the next batch", e);
+			truncate(active);
+			queue.requeue(batch);
+			return;
+		}
+		synchronized (this) {
+			long offset = active.size;
+			for (int i = 0; i < ids.size(); i++) {
+				int size = sizes.get(i);
+				if (size > 0) {
+					update(ids.get(i), new Location(active, offset, size));
+				} else {
+					update(ids.get(i), null);
+					size = -size;
+				}
+				offset += size;
+			}
+			active.size += bytes.size();
+		}
+		dirty = true;
+		if (log.isDebugEnabled()) {
+			log.debug("Wrote {} objects with {} bytes to {}", new Object[] { ids.size(), bytes.size(), active.file });
+		}
+	}
+
+	/**
+	 * Cut off a partially written batch.
+	 */
+	private void truncate(Segment segment) {
+		try {
+			segment.channel.truncate(segment.size);
+		} catch (IOException e) {
+			log.error("Could not truncate " + segment.file, e);
+		}
+	}
+
+	private synchronized Segment getActiveSegment() {
+		return segments.get(segments.size() - 1);
+	}
+
+	/**
+	 * Sync the active segment to disk.
+	 */
+	private void sync() {
+		try {
+			getActiveSegment().channel.force(false);
+			dirty = false;
+			lastSync = System.currentTimeMillis();
+		} catch (IOException e) {
+			log.error("Could not sync journal in " + dir, e);
+		}
+	}
+
+	/**
+	 * Seal the active segment and start a new one.
+	 */
+	private void roll() {
+		Segment active = getActiveSegment();
+		try {
+			Segment next = createSegment(active.last + 1);
+			if (dirty) {
+				sync();
+			}
+			synchronized (this) {
+				segments.add(next);
+				active.close();
+			}
+			log.debug("Started segment {}", next.file);
+		} catch (IOException e) {
+			log.error("Could not start a new segment in " + dir, e);
+		}
+	}
+
+	/**
+	 * Compact the sealed segments into one if the share of outdated records
+	 * in them has reached the given ratio. The live records are copied in the
+	 * background, reads and queued changes are not blocked.
+	 * 
+	 * @param ratio Share of outdated bytes from 0 to 1 at which the sealed
+	 *            segments are compacted
+	 * @return <code>true</code> if the segments have been compacted
+	 */
+	public boolean compact(double ratio) {
+		synchronized (writeLock) {
+			if (closed) {
+				return false;
+			}
+			// the index only changes when writing, so it is stable from here on
+			final List<Segment> sealed;
+			final List<Map.Entry<String, Location>> live = new ArrayList<Map.Entry<String, Location>>();
+			synchronized (this) {
+				if (segments.size() < 3) {
+					// compaction needs at least two sealed segments
+					return false;
+				}
+				sealed = new ArrayList<Segment>(segments.subList(0, segments.size() - 1));
+				long size = 0;
+				long used = 0;
+				for (Segment segment : sealed) {
+					size += segment.size - HEADER_SIZE;
+					used += segment.live;
+				}
+				if (size == 0 || size - used < size * ratio) {
+					return false;
+				}
+				for (Map.Entry<String, Location> entry : index.entrySet()) {
+					if (entry.getValue().segment != getActiveSegment()) {
+						live.add(new AbstractMap.SimpleEntry<String, Location>(entry));
+					}
+				}
+			}
+			// copy in the order of the records
+			Collections.sort(live, new Comparator<Map.Entry<String, Location>>() {
+				public int compare(Map.Entry<String, Location> e1, Map.Entry<String, Location> e2) {
+					Location l1 = e1.getValue();
+					Location l2 = e2.getValue();
+					if (l1.segment != l2.segment) {
+						return l1.segment.first < l2.segment.first ? -1 : 1;
+					}
+					return l1.offset < l2.offset ? -1 : (l1.offset == l2.offset ? 0 : 1);
+				}
+			});
+			Segment compacted = new Segment(sealed.get(0).first, sealed.get(sealed.size() - 1).last);
+			File temp = new File(dir, compacted.file.getName() + TEMP_SUFFIX);
+			Map<String, Location> locations = new HashMap<String, Location>();
+			try {
+				RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+				try {
+					raf.setLength(0);
+					raf.writeInt(MAGIC);
+					raf.writeInt(VERSION);
+					long offset = HEADER_SIZE;
+					for (Map.Entry<String, Location> entry : live) {
+						Location location = entry.getValue();
+						raf.write(location.read());
+						locations.put(entry.getKey(), new Location(compacted, offset, location.length));
+						offset += location.length;
+					}
+					raf.getFD().sync();
+					compacted.size = offset;
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+				log.error("Could not compact journal in " + dir, e);
+				if (!temp.delete()) {
+					log.warn("Could not delete {}", temp);
+				}
+				return false;
+			}
+			if (!temp.renameTo(compacted.file)) {
+				log.error("Could not rename {} to {}", temp, compacted.file);
+				temp.delete();
+				return false;
+			}
+			synchronized (this) {
+				for (Map.Entry<String, Location> entry : locations.entrySet()) {
+					update(entry.getKey(), entry.getValue());
+				}
+				segments.removeAll(sealed);
+				segments.add(0, compacted);
+			}
+			for (Segment segment : sealed) {
+				if (!segment.file.delete()) {
+					log.warn("Could not delete compacted segment {}", segment.file);
+				}
+			}
+			log.debug("Compacted {} segments into {}", sealed.size(), compacted.file);
+			return true;
+		}
+	}
+
+	/**
+	 * Write the queued changes and close the active segment.
+	 */
+	public void close() {
+		flush();
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			if (dirty && !JournalPersistenceThread.SYNC_NEVER.equals(syncPolicy)) {
+				sync();
+			}
+			synchronized (this) {
+				getActiveSegment().close();
+				closed = true;
+			}
+		}
+	}
+
+	/**
+	 * Return the directory of the journal.
+	 * 
+	 * @return Directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Return the number of objects in the journal.
+	 * 
+	 * @return Number of objects
+	 */
+	public synchronized int getObjectCount() {
+		return index.size();
+	}
+
+	/**
+	 * Return the number of segment files.
+	 * 
+	 * @return Number of segments
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Return the size of all segment files.
+	 * 
+	 * @return Size in bytes
+	 */
+	public synchronized long getSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Segment file covering a range of sequence numbers.
+	 */
+	private class Segment {
+
+		final long first;
+
+		final long last;
+
+		final File file;
+
+		/**
+		 * Size of the file in bytes
+		 */
+		long size;
+
+		/**
+		 * Bytes of the records the index points to
+		 */
+		long live;
+
+		/**
+		 * Open channel of the active segment
+		 */
+		FileChannel channel;
+
+		private RandomAccessFile raf;
+
+		Segment(long first, long last) {
+			this.first = first;
+			this.last = last;
+			file = new File(dir, first + "-" + last + SUFFIX);
+		}
+
+		void open() throws IOException {
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+		}
+
+		void close() {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					log.warn("Could not close " + file, e);
+				}
+				raf = null;
+				channel = null;
+			}
+		}
+
+	}
+
+	/**
+	 * Location of a record.
+	 */
+	private static class Location {
+
+		final Segment segment;
+
+		final long offset;
+
+		/**
+		 * Size including the record header
+		 */
+		final int length;
+
+		Location(Segment segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Read and verify the record.
+		 */
+		byte[] read() throws IOException {
+			byte[] record = new byte[length];
+			java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(record);
+			if (segment.channel != null) {
+				read(segment.channel, buf);
+			} else {
+				RandomAccessFile raf = new RandomAccessFile(segment.file, "r");
+				try {
+					read(raf.getChannel(), buf);
+				} finally {
+					raf.close();
+				}
+			}
+			buf.flip();
+			buf.getInt();
+			int checksum = buf.getInt();
+			CRC32 crc = new CRC32();
+			crc.update(record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+			if ((int) crc.getValue() != checksum) {
+				throw new IOException("Record at " + offset + " is corrupt");
+			}
+			return record;
+		}
+
+		private void read(FileChannel channel, java.nio.ByteBuffer buf) throws IOException {
+			long position = offset;
+			while (buf.hasRemaining()) {
+				int read = channel.read(buf, position);
+				if (read < 0) {
+					throw new IOException("Record at " + offset + " is incomplete");
+				}
+				position += read;
+			}
+		}
+
+	}
+
+}
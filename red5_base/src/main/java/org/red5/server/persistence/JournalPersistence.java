@@ -0,0 +1,192 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
+import org.red5.io.object.Deserializer;
+import org.red5.server.api.IScope;
+import org.red5.server.api.persistence.IPersistable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+/**
+ * Persistence that appends the changes of all objects of an application to a
+ * journal instead of writing one file per object. Changes are written behind
+ * in batches by the {@link JournalPersistenceThread}, the journal is replayed
+ * when the first store of an application is created.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class JournalPersistence extends RamPersistence {
+
+	/**
+	 * Logger
+	 */
+	private Logger log = LoggerFactory.getLogger(JournalPersistence.class);
+
+	/**
+	 * Path of the journal directory
+	 */
+	private String path = "persistence/journal";
+
+	/**
+	 * Journal shared by the stores of the directory
+	 */
+	private Journal journal;
+
+	/**
+	 * Create journal persistence object from given resource pattern resolver
+	 * 
+	 * @param resolver Resource pattern resolver and loader
+	 */
+	public JournalPersistence(ResourcePatternResolver resolver) {
+		super(resolver);
+		setPath(path);
+	}
+
+	/**
+	 * Create journal persistence object for given scope
+	 * 
+	 * @param scope Scope
+	 */
+	public JournalPersistence(IScope scope) {
+		super(scope);
+		setPath(path);
+	}
+
+	/**
+	 * Setter for the path of the journal directory.
+	 * 
+	 * @param path New path
+	 */
+	public void setPath(String path) {
+		try {
+			File dir = resources.getResource(path).getFile();
+			journal = JournalPersistenceThread.getInstance().getJournal(dir);
+			log.debug("Journal dir: {} path: {}", dir, path);
+			this.path = path;
+		} catch (IOException err) {
+			log.error("I/O exception thrown when setting journal path to " + path);
+			throw new RuntimeException(err);
+		}
+	}
+
+	/**
+	 * Load an object from the journal and attach it to the given object.
+	 * 
+	 * @param id Object id
+	 * @param object Object to initialize or <code>null</code> to create it
+	 * @return Persistable object
+	 */
+	private IPersistable doLoad(String id, IPersistable object) {
+		ByteBuffer buf = journal.read(id);
+		if (buf == null) {
+			return null;
+		}
+		IPersistable result = object;
+		try {
+			Input in = new Input(buf);
+			String className = new Deserializer().deserialize(in, String.class);
+			if (result == null) {
+				Class<?> theClass = Class.forName(className);
+				try {
+					result = (IPersistable) theClass.getConstructor(org.red5.io.object.Input.class).newInstance(in);
+				} catch (NoSuchMethodException err) {
+					// No constructor taking the input, use empty constructor.
+					result = (IPersistable) theClass.newInstance();
+					result.deserialize(in);
+				}
+				// Set object's properties
+				result.setName(getObjectName(id));
+				result.setPath(getObjectPath(id, result.getName()));
+			} else {
+				// Initialize existing object
+				String resultClass = result.getClass().getName();
+				if (!resultClass.equals(className)) {
+					log.error("The classes differ: {} != {}", resultClass, className);
+					return null;
+				}
+				result.deserialize(in);
+			}
+		} catch (Exception e) {
+			log.error("Could not load " + id + " from the journal", e);
+			return null;
+		}
+		if (result.getStore() != this) {
+			result.setStore(this);
+		}
+		super.save(result);
+		log.debug("Loaded persistent object {} from the journal", result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public IPersistable load(String name) {
+		IPersistable result = super.load(name);
+		if (result != null) {
+			// Object has already been loaded
+			return result;
+		}
+		return doLoad(name, null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean load(IPersistable object) {
+		if (object.isPersistent()) {
+			// Already loaded
+			return true;
+		}
+		return (doLoad(getObjectId(object), object) != null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean save(IPersistable object) {
+		if (!super.save(object)) {
+			return false;
+		}
+		journal.save(getObjectId(object), object);
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean remove(String name) {
+		super.remove(name);
+		journal.remove(name);
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void notifyClose() {
+		// Write any pending objects
+		journal.flush();
+		super.notifyClose();
+	}
+
+}
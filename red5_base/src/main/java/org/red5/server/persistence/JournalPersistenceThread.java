@@ -0,0 +1,188 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread that writes the changes queued in the journals of all
+ * {@link JournalPersistence} stores in batches and compacts the journals.
+ * The stores of a directory share one journal. The settings apply to
+ * journals opened after they have been changed.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class JournalPersistenceThread extends WriteBehindThread<Journal> {
+
+	/**
+	 * Sync the journal after every batch
+	 */
+	public static final String SYNC_ALWAYS = "always";
+
+	/**
+	 * Sync the journal with a batch if the sync interval has passed
+	 */
+	public static final String SYNC_INTERVAL = "interval";
+
+	/**
+	 * Leave syncing to the operating system, changes may be lost on a crash
+	 * of the machine but not on a crash of the server
+	 */
+	public static final String SYNC_NEVER = "never";
+
+	/**
+	 * Logger
+	 */
+	private Logger log = LoggerFactory.getLogger(JournalPersistenceThread.class);
+
+	/**
+	 * Singleton instance.
+	 */
+	private static volatile JournalPersistenceThread instance = null;
+
+	/**
+	 * When written changes are synced to disk
+	 */
+	private String syncPolicy = SYNC_INTERVAL;
+
+	/**
+	 * Minimum time between two syncs for the interval policy in milliseconds
+	 */
+	private long syncInterval = 5000;
+
+	/**
+	 * Size at which a new segment is started
+	 */
+	private long maxSegmentSize = 4 * 1024 * 1024;
+
+	/**
+	 * Share of outdated records at which sealed segments are compacted
+	 */
+	private double compactionRatio = 0.5;
+
+	/**
+	 * Return singleton instance of the thread, a thread with the default
+	 * settings is created if none has been configured.
+	 * 
+	 * @return singleton instance of thread.
+	 */
+	public static JournalPersistenceThread getInstance() {
+		if (instance == null) {
+			synchronized (JournalPersistenceThread.class) {
+				if (instance == null) {
+					new JournalPersistenceThread();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Create instance of the thread.
+	 */
+	public JournalPersistenceThread() {
+		super("JournalPersistence");
+		if (instance != null) {
+			log.error("Instance was not null, this is not a good sign");
+		}
+		instance = this;
+	}
+
+	/**
+	 * Return the journal of a directory, it is opened and replayed on first
+	 * access.
+	 * 
+	 * @param dir Directory of the journal
+	 * @return Journal
+	 * @throws IOException if the journal can not be opened
+	 */
+	public Journal getJournal(File dir) throws IOException {
+		return getStore(dir);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected Journal open(File dir) throws IOException {
+		return new Journal(dir, syncPolicy, syncInterval, maxSegmentSize);
+	}
+
+	/**
+	 * Write queued changes and compact the journal.
+	 * 
+	 * @param journal Journal
+	 */
+	@Override
+	protected void write(Journal journal) {
+		journal.flush();
+		journal.compact(compactionRatio);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void close(Journal journal) {
+		journal.close();
+	}
+
+	/**
+	 * Setter for the sync policy.
+	 * 
+	 * @param syncPolicy One of {@link #SYNC_ALWAYS}, {@link #SYNC_INTERVAL}
+	 *            or {@link #SYNC_NEVER}
+	 */
+	public void setSyncPolicy(String syncPolicy) {
+		if (!SYNC_ALWAYS.equals(syncPolicy) && !SYNC_INTERVAL.equals(syncPolicy) && !SYNC_NEVER.equals(syncPolicy)) {
+			throw new IllegalArgumentException("Unknown sync policy " + syncPolicy);
+		}
+		this.syncPolicy = syncPolicy;
+	}
+
+	/**
+	 * Setter for the minimum time between two syncs.
+	 * 
+	 * @param syncInterval Interval in milliseconds
+	 */
+	public void setSyncInterval(long syncInterval) {
+		this.syncInterval = syncInterval;
+	}
+
+	/**
+	 * Setter for the size at which a new segment is started.
+	 * 
+	 * @param maxSegmentSize Size in bytes
+	 */
+	public void setMaxSegmentSize(long maxSegmentSize) {
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	/**
+	 * Setter for the share of outdated records at which segments are
+	 * compacted.
+	 * 
+	 * @param compactionRatio Ratio from 0 to 1
+	 */
+	public void setCompactionRatio(double compactionRatio) {
+		this.compactionRatio = compactionRatio;
+	}
+
+}
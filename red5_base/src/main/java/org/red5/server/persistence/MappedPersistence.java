@@ -0,0 +1,294 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
+import org.red5.io.object.Deserializer;
+import org.red5.server.api.IScope;
+import org.red5.server.api.persistence.IPersistable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+/**
+ * Persistence that keeps the serialized objects of an application off the
+ * heap in memory mapped slab files. Objects are deserialized when they are
+ * first loaded and only weakly referenced afterwards, so objects that are no
+ * longer used by a scope are dropped from the heap and loaded from the slabs
+ * again when needed. Changes are written behind in batches by the
+ * {@link MappedPersistenceThread}, saved objects are strongly referenced by
+ * the queue of the slab store until they have been written.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class MappedPersistence extends RamPersistence {
+
+	/**
+	 * Logger
+	 */
+	private Logger log = LoggerFactory.getLogger(MappedPersistence.class);
+
+	/**
+	 * Path of the slab directory
+	 */
+	private String path = "persistence/slabs";
+
+	/**
+	 * Slab store shared by the stores of the directory
+	 */
+	private SlabStore slabs;
+
+	/**
+	 * Loaded objects by id
+	 */
+	private final ConcurrentMap<String, ObjectReference> loaded = new ConcurrentHashMap<String, ObjectReference>();
+
+	/**
+	 * Queue of collected objects
+	 */
+	private final ReferenceQueue<IPersistable> collected = new ReferenceQueue<IPersistable>();
+
+	/**
+	 * Create mapped persistence object from given resource pattern resolver
+	 * 
+	 * @param resolver Resource pattern resolver and loader
+	 */
+	public MappedPersistence(ResourcePatternResolver resolver) {
+		super(resolver);
+		setPath(path);
+	}
+
+	/**
+	 * Create mapped persistence object for given scope
+	 * 
+	 * @param scope Scope
+	 */
+	public MappedPersistence(IScope scope) {
+		super(scope);
+		setPath(path);
+	}
+
+	/**
+	 * Setter for the path of the slab directory.
+	 * 
+	 * @param path New path
+	 */
+	public void setPath(String path) {
+		try {
+			File dir = resources.getResource(path).getFile();
+			slabs = MappedPersistenceThread.getInstance().getStore(dir);
+			log.debug("Slab dir: {} path: {}", dir, path);
+			this.path = path;
+		} catch (IOException err) {
+			log.error("I/O exception thrown when setting slab path to " + path);
+			throw new RuntimeException(err);
+		}
+	}
+
+	/**
+	 * Return a loaded object that has not been collected yet or a saved one
+	 * that has not been written yet.
+	 */
+	private IPersistable getLoaded(String id) {
+		purge();
+		ObjectReference ref = loaded.get(id);
+		IPersistable object = ref == null ? null : ref.get();
+		if (object == null) {
+			object = slabs.getPending(id);
+			if (object != null) {
+				setLoaded(id, object);
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * Remember a loaded object.
+	 */
+	private void setLoaded(String id, IPersistable object) {
+		loaded.put(id, new ObjectReference(id, object, collected));
+	}
+
+	/**
+	 * Drop the references of collected objects.
+	 */
+	private void purge() {
+		Reference<? extends IPersistable> ref;
+		while ((ref = collected.poll()) != null) {
+			ObjectReference objectRef = (ObjectReference) ref;
+			loaded.remove(objectRef.id, objectRef);
+		}
+	}
+
+	/**
+	 * Deserialize an object from the slabs and attach it to the given object.
+	 * 
+	 * @param id Object id
+	 * @param object Object to initialize or <code>null</code> to create it
+	 * @return Persistable object
+	 */
+	private IPersistable doLoad(String id, IPersistable object) {
+		ByteBuffer buf = slabs.read(id);
+		if (buf == null) {
+			return null;
+		}
+		IPersistable result = object;
+		try {
+			Input in = new Input(buf);
+			String className = new Deserializer().deserialize(in, String.class);
+			if (result == null) {
+				Class<?> theClass = Class.forName(className);
+				try {
+					result = (IPersistable) theClass.getConstructor(org.red5.io.object.Input.class).newInstance(in);
+				} catch (NoSuchMethodException err) {
+					// No constructor taking the input, use empty constructor.
+					result = (IPersistable) theClass.newInstance();
+					result.deserialize(in);
+				}
+				// Set object's properties
+				result.setName(getObjectName(id));
+				result.setPath(getObjectPath(id, result.getName()));
+			} else {
+				// Initialize existing object
+				String resultClass = result.getClass().getName();
+				if (!resultClass.equals(className)) {
+					log.error("The classes differ: {} != {}", resultClass, className);
+					return null;
+				}
+				result.deserialize(in);
+			}
+		} catch (Exception e) {
+			log.error("Could not load " + id + " from the slabs", e);
+			return null;
+		}
+		// persistent first, attaching the store loads non-persistent objects
+		result.setPersistent(true);
+		setLoaded(id, result);
+		if (result.getStore() != this) {
+			result.setStore(this);
+		}
+		log.debug("Loaded persistent object {} from the slabs", result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public IPersistable load(String name) {
+		IPersistable result = getLoaded(name);
+		if (result != null) {
+			// Object has already been loaded
+			return result;
+		}
+		return doLoad(name, null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean load(IPersistable object) {
+		if (object.isPersistent()) {
+			// Already loaded
+			return true;
+		}
+		return (doLoad(getObjectId(object), object) != null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean save(IPersistable object) {
+		String id = getObjectId(object);
+		if (getLoaded(id) != object) {
+			setLoaded(id, object);
+		}
+		object.setPersistent(true);
+		slabs.save(id, object);
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean remove(String name) {
+		boolean result = slabs.contains(name);
+		ObjectReference ref = loaded.remove(name);
+		IPersistable object = ref == null ? null : ref.get();
+		if (object != null) {
+			object.setPersistent(false);
+			result = true;
+		}
+		slabs.remove(name);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> getObjectNames() {
+		purge();
+		return loaded.keySet();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Collection<IPersistable> getObjects() {
+		purge();
+		List<IPersistable> result = new ArrayList<IPersistable>(loaded.size());
+		for (ObjectReference ref : loaded.values()) {
+			IPersistable object = ref.get();
+			if (object != null) {
+				result.add(object);
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void notifyClose() {
+		// Write any pending objects
+		slabs.flush();
+		loaded.clear();
+	}
+
+	/**
+	 * Weak reference to a loaded object.
+	 */
+	private static class ObjectReference extends WeakReference<IPersistable> {
+
+		final String id;
+
+		ObjectReference(String id, IPersistable object, ReferenceQueue<IPersistable> queue) {
+			super(object, queue);
+			this.id = id;
+		}
+
+	}
+
+}
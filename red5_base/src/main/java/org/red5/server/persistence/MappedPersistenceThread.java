@@ -0,0 +1,121 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread that writes the changes queued in the slab stores of all
+ * {@link MappedPersistence} stores in batches. The stores of a directory share
+ * one slab store. The settings apply to slab stores opened after they have
+ * been changed.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class MappedPersistenceThread extends WriteBehindThread<SlabStore> {
+
+	/**
+	 * Logger
+	 */
+	private Logger log = LoggerFactory.getLogger(MappedPersistenceThread.class);
+
+	/**
+	 * Singleton instance.
+	 */
+	private static volatile MappedPersistenceThread instance = null;
+
+	/**
+	 * Size of new slab files
+	 */
+	private int slabSize = 16 * 1024 * 1024;
+
+	/**
+	 * Return singleton instance of the thread, a thread with the default
+	 * settings is created if none has been configured.
+	 * 
+	 * @return singleton instance of thread.
+	 */
+	public static MappedPersistenceThread getInstance() {
+		if (instance == null) {
+			synchronized (MappedPersistenceThread.class) {
+				if (instance == null) {
+					new MappedPersistenceThread();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Create instance of the thread.
+	 */
+	public MappedPersistenceThread() {
+		super("MappedPersistence");
+		if (instance != null) {
+			log.error("Instance was not null, this is not a good sign");
+		}
+		instance = this;
+	}
+
+	/**
+	 * Return the slab store of a directory, it is opened and indexed on first
+	 * access.
+	 * 
+	 * @param dir Directory of the slabs
+	 * @return Slab store
+	 * @throws IOException if the store can not be opened
+	 */
+	@Override
+	public SlabStore getStore(File dir) throws IOException {
+		return super.getStore(dir);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected SlabStore open(File dir) throws IOException {
+		return new SlabStore(dir, slabSize);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void write(SlabStore store) {
+		store.flush();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void close(SlabStore store) {
+		store.close();
+	}
+
+	/**
+	 * Setter for the size of new slab files.
+	 * 
+	 * @param slabSize Size in bytes
+	 */
+	public void setSlabSize(int slabSize) {
+		this.slabSize = slabSize;
+	}
+
+}
@@ -0,0 +1,674 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Output;
+import org.red5.server.api.persistence.IPersistable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serialized persistent objects of one directory, kept in slab files that are
+ * mapped into memory. Every object occupies a slot of a slab, the slots of
+ * all objects are indexed by object id. When the store is opened, the slots
+ * are indexed and checked, the objects are deserialized when they are
+ * loaded.
+ * <p>
+ * A changed object is written to a free slot and synced to disk before its
+ * previous slot is freed, the slots carry a version, so the latest complete
+ * copy wins if a crash left both behind. Slots a crash left incomplete are
+ * freed. Changes are queued by the stores and written in batches by
+ * the {@link MappedPersistenceThread}, an object that has been modified
+ * several times between two batches is serialized once.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class SlabStore {
+
+	private static Logger log = LoggerFactory.getLogger(SlabStore.class);
+
+	/**
+	 * Header of slab files, "R5SL" and the format version
+	 */
+	private static final int MAGIC = 0x5235534C;
+
+	private static final int VERSION = 1;
+
+	private static final int FILE_HEADER_SIZE = 8;
+
+	/**
+	 * Slot header: capacity, state, version, body length and checksum
+	 */
+	private static final int SLOT_HEADER_SIZE = 21;
+
+	private static final int STATE_OFFSET = 4;
+
+	private static final int VERSION_OFFSET = 5;
+
+	private static final int LENGTH_OFFSET = 13;
+
+	private static final int CHECKSUM_OFFSET = 17;
+
+	private static final byte STATE_FREE = 0;
+
+	private static final byte STATE_LIVE = 1;
+
+	/**
+	 * Slot capacities are multiples of this
+	 */
+	private static final int ALIGNMENT = 32;
+
+	/**
+	 * Free slots are split if at least this much would be left over
+	 */
+	private static final int MIN_SPLIT = 128;
+
+	private static final String SUFFIX = ".slab";
+
+	private final File dir;
+
+	private final int slabSize;
+
+	/**
+	 * Changes that have not been written yet
+	 */
+	private final WriteBehindQueue queue = new WriteBehindQueue();
+
+	/**
+	 * Slot of every object, guarded by this
+	 */
+	private final Map<String, Slot> index = new HashMap<String, Slot>();
+
+	/**
+	 * Free slots by capacity
+	 */
+	private final TreeMap<Integer, LinkedList<Slot>> free = new TreeMap<Integer, LinkedList<Slot>>();
+
+	private final List<Slab> slabs = new ArrayList<Slab>();
+
+	/**
+	 * Version of the last written slot
+	 */
+	private long version;
+
+	/**
+	 * Serializes batches
+	 */
+	private final Object writeLock = new Object();
+
+	private boolean closed;
+
+	/**
+	 * Open the store in the given directory and index its slabs.
+	 * 
+	 * @param dir Directory of the slab files
+	 * @param slabSize Size of new slab files in bytes
+	 * @throws IOException if the directory or a slab can not be opened
+	 */
+	public SlabStore(File dir, int slabSize) throws IOException {
+		this.dir = dir;
+		this.slabSize = slabSize;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir.getAbsolutePath());
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(SUFFIX)) {
+					continue;
+				}
+				int number;
+				try {
+					number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+				} catch (NumberFormatException e) {
+					log.warn("Ignoring unknown file {}", file);
+					continue;
+				}
+				Slab slab = new Slab(number, file);
+				if (slab.open()) {
+					slabs.add(slab);
+				} else {
+					slab.close();
+				}
+			}
+		}
+		// new slots are appended to the last slab
+		Collections.sort(slabs, new Comparator<Slab>() {
+			public int compare(Slab s1, Slab s2) {
+				return s1.number - s2.number;
+			}
+		});
+		for (Slab slab : slabs) {
+			scan(slab);
+		}
+		log.debug("Indexed {} objects in {} slabs in {}", new Object[] { index.size(), slabs.size(), dir });
+	}
+
+	/**
+	 * Index the slots of a slab. Adjacent free slots are merged.
+	 */
+	private void scan(Slab slab) {
+		MappedByteBuffer buf = slab.buffer;
+		int offset = FILE_HEADER_SIZE;
+		Slot lastFree = null;
+		while (offset + SLOT_HEADER_SIZE <= buf.capacity()) {
+			int capacity = buf.getInt(offset);
+			if (capacity == 0) {
+				// end of the used part
+				break;
+			}
+			if (capacity < SLOT_HEADER_SIZE || offset + capacity > buf.capacity()) {
+				log.error("Corrupt slot at {} of {}, ignoring the rest of the slab", offset, slab.file);
+				break;
+			}
+			Slot slot = new Slot(slab, offset, capacity);
+			boolean live = buf.get(offset + STATE_OFFSET) == STATE_LIVE;
+			if (live && !isComplete(buf, offset, capacity)) {
+				log.warn("Incomplete slot at {} of {}, freeing it", offset, slab.file);
+				buf.put(offset + STATE_OFFSET, STATE_FREE);
+				live = false;
+			}
+			if (live) {
+				lastFree = null;
+				slot.version = buf.getLong(offset + VERSION_OFFSET);
+				version = Math.max(version, slot.version);
+				String id = readId(buf, offset);
+				Slot previous = index.get(id);
+				if (previous == null || previous.version < slot.version) {
+					index.put(id, slot);
+					if (previous != null) {
+						release(previous);
+					}
+				} else {
+					release(slot);
+				}
+			} else if (lastFree != null && lastFree.offset + lastFree.capacity == offset) {
+				removeFree(lastFree);
+				lastFree.capacity += capacity;
+				buf.putInt(lastFree.offset, lastFree.capacity);
+				addFree(lastFree);
+			} else {
+				addFree(slot);
+				lastFree = slot;
+			}
+			offset += capacity;
+		}
+		slab.top = offset;
+	}
+
+	/**
+	 * Check that the body of a live slot fits into the slot, holds its id
+	 * and matches the checksum, writes to the mapped file may reach the disk
+	 * in any order.
+	 */
+	private boolean isComplete(MappedByteBuffer buf, int offset, int capacity) {
+		int length = buf.getInt(offset + LENGTH_OFFSET);
+		if (length < 2 || length > capacity - SLOT_HEADER_SIZE) {
+			return false;
+		}
+		int start = offset + SLOT_HEADER_SIZE;
+		if (2 + (buf.getShort(start) & 0xffff) > length) {
+			return false;
+		}
+		byte[] body = new byte[length];
+		java.nio.ByteBuffer view = buf.duplicate();
+		view.position(start);
+		view.get(body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return (int) crc.getValue() == buf.getInt(offset + CHECKSUM_OFFSET);
+	}
+
+	private String readId(MappedByteBuffer buf, int offset) {
+		int start = offset + SLOT_HEADER_SIZE;
+		int length = buf.getShort(start) & 0xffff;
+		byte[] id = new byte[length];
+		java.nio.ByteBuffer view = buf.duplicate();
+		view.position(start + 2);
+		view.get(id);
+		try {
+			return new String(id, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Queue an object to be written with the next batch.
+	 * 
+	 * @param id Object id
+	 * @param object Object to write
+	 */
+	public void save(String id, IPersistable object) {
+		queue.save(id, object);
+	}
+
+	/**
+	 * Queue the removal of an object.
+	 * 
+	 * @param id Object id
+	 */
+	public void remove(String id) {
+		queue.remove(id);
+	}
+
+	/**
+	 * Read an object, queued changes of the object are written first.
+	 * 
+	 * @param id Object id
+	 * @return Buffer positioned at the serialized object or <code>null</code>
+	 *         if the store does not contain the object
+	 */
+	public ByteBuffer read(String id) {
+		if (isPending(id)) {
+			flush();
+		}
+		byte[] body;
+		int checksum;
+		synchronized (this) {
+			Slot slot = index.get(id);
+			if (slot == null) {
+				return null;
+			}
+			java.nio.ByteBuffer view = slot.slab.buffer.duplicate();
+			body = new byte[view.getInt(slot.offset + LENGTH_OFFSET)];
+			checksum = view.getInt(slot.offset + CHECKSUM_OFFSET);
+			view.position(slot.offset + SLOT_HEADER_SIZE);
+			view.get(body);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != checksum) {
+			log.error("Slot of {} in {} is corrupt", id, dir);
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(body);
+		buf.position(2 + (buf.getShort(0) & 0xffff));
+		return buf;
+	}
+
+	/**
+	 * Check whether the store contains an object.
+	 * 
+	 * @param id Object id
+	 * @return <code>true</code> if the object is stored or queued
+	 */
+	public boolean contains(String id) {
+		if (queue.get(id) != null) {
+			return true;
+		}
+		if (queue.isQueued(id)) {
+			// removal is queued
+			return false;
+		}
+		synchronized (this) {
+			return index.containsKey(id);
+		}
+	}
+
+	/**
+	 * Check whether changes of an object are queued or being written.
+	 * 
+	 * @param id Object id
+	 * @return <code>true</code> if the latest change has not been written yet
+	 */
+	public boolean isPending(String id) {
+		return queue.isQueued(id);
+	}
+
+	/**
+	 * Return an object whose latest change has not been written yet.
+	 * 
+	 * @param id Object id
+	 * @return Object or <code>null</code> if it has been written or its
+	 *         removal is queued
+	 */
+	public IPersistable getPending(String id) {
+		return queue.get(id);
+	}
+
+	/**
+	 * Write the queued changes and sync the changed slabs to disk. The
+	 * previous slots of changed objects are freed after the new ones have
+	 * been synced.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			Map<String, IPersistable> batch = queue.take();
+			if (batch.isEmpty()) {
+				queue.done();
+				return;
+			}
+			ByteBuffer buf = ByteBuffer.allocate(1024);
+			buf.setAutoExpand(true);
+			List<Slab> changed = new ArrayList<Slab>();
+			List<Slot> outdated = new ArrayList<Slot>();
+			try {
+				for (Map.Entry<String, IPersistable> entry : batch.entrySet()) {
+					String id = entry.getKey();
+					IPersistable object = entry.getValue();
+					if (object == null) {
+						synchronized (this) {
+							Slot slot = index.remove(id);
+							if (slot != null) {
+								release(slot);
+								markChanged(changed, slot.slab);
+							}
+						}
+						continue;
+					}
+					buf.clear();
+					try {
+						Output.putString(buf, id);
+						Output output = new Output(buf);
+						output.writeString(object.getClass().getName());
+						object.serialize(output);
+					} catch (Exception e) {
+						log.error("Could not serialize " + id, e);
+						continue;
+					}
+					buf.flip();
+					byte[] body = new byte[buf.limit()];
+					buf.get(body);
+					try {
+						synchronized (this) {
+							Slot slot = write(body);
+							Slot previous = index.put(id, slot);
+							if (previous != null) {
+								outdated.add(previous);
+							}
+							markChanged(changed, slot.slab);
+						}
+					} catch (IOException e) {
+						log.error("Could not write " + id + " to " + dir, e);
+					}
+				}
+				for (Slab slab : changed) {
+					slab.buffer.force();
+				}
+				// the new slots are on disk, the previous ones can be reused
+				if (!outdated.isEmpty()) {
+					changed.clear();
+					synchronized (this) {
+						for (Slot slot : outdated) {
+							release(slot);
+							markChanged(changed, slot.slab);
+						}
+					}
+					for (Slab slab : changed) {
+						slab.buffer.force();
+					}
+				}
+			} finally {
+				buf.release();
+				queue.done();
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Wrote {} objects to {}", batch.size(), dir);
+			}
+		}
+	}
+
+	private void markChanged(List<Slab> changed, Slab slab) {
+		if (!changed.contains(slab)) {
+			changed.add(slab);
+		}
+	}
+
+	/**
+	 * Write a body to a new slot.
+	 */
+	private Slot write(byte[] body) throws IOException {
+		int capacity = SLOT_HEADER_SIZE + body.length;
+		capacity = (capacity + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		Slot slot = allocate(capacity);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		java.nio.ByteBuffer view = slot.slab.buffer.duplicate();
+		view.putInt(slot.offset, slot.capacity);
+		view.position(slot.offset + SLOT_HEADER_SIZE);
+		view.put(body);
+		view.putInt(slot.offset + LENGTH_OFFSET, body.length);
+		view.putInt(slot.offset + CHECKSUM_OFFSET, (int) crc.getValue());
+		slot.version = ++version;
+		view.putLong(slot.offset + VERSION_OFFSET, slot.version);
+		// the slot is valid from here on
+		view.put(slot.offset + STATE_OFFSET, STATE_LIVE);
+		return slot;
+	}
+
+	/**
+	 * Find a slot with at least the given capacity: the smallest free slot
+	 * that is large enough, space at the end of the last slab or a new slab.
+	 */
+	private Slot allocate(int capacity) throws IOException {
+		Map.Entry<Integer, LinkedList<Slot>> entry = free.ceilingEntry(capacity);
+		if (entry != null) {
+			Slot slot = entry.getValue().removeFirst();
+			if (entry.getValue().isEmpty()) {
+				free.remove(entry.getKey());
+			}
+			if (slot.capacity - capacity >= MIN_SPLIT) {
+				Slot rest = new Slot(slot.slab, slot.offset + capacity, slot.capacity - capacity);
+				java.nio.ByteBuffer view = slot.slab.buffer;
+				view.putInt(rest.offset, rest.capacity);
+				view.put(rest.offset + STATE_OFFSET, STATE_FREE);
+				addFree(rest);
+				slot.capacity = capacity;
+			}
+			return slot;
+		}
+		Slab slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+		if (slab == null || slab.top + capacity > slab.buffer.capacity()) {
+			int number = slab == null ? 1 : slab.number + 1;
+			slab = new Slab(number, new File(dir, number + SUFFIX));
+			slab.create(Math.max(slabSize, FILE_HEADER_SIZE + capacity));
+			slabs.add(slab);
+			log.debug("Created slab {}", slab.file);
+		}
+		Slot slot = new Slot(slab, slab.top, capacity);
+		slab.top += capacity;
+		return slot;
+	}
+
+	/**
+	 * Mark a slot as free, the object it contains is outdated.
+	 */
+	private void release(Slot slot) {
+		slot.slab.buffer.put(slot.offset + STATE_OFFSET, STATE_FREE);
+		addFree(slot);
+	}
+
+	private void addFree(Slot slot) {
+		LinkedList<Slot> slots = free.get(slot.capacity);
+		if (slots == null) {
+			slots = new LinkedList<Slot>();
+			free.put(slot.capacity, slots);
+		}
+		slots.add(slot);
+	}
+
+	private void removeFree(Slot slot) {
+		LinkedList<Slot> slots = free.get(slot.capacity);
+		slots.remove(slot);
+		if (slots.isEmpty()) {
+			free.remove(slot.capacity);
+		}
+	}
+
+	/**
+	 * Write the queued changes and close the slabs.
+	 */
+	public void close() {
+		flush();
+		synchronized (writeLock) {
+			synchronized (this) {
+				for (Slab slab : slabs) {
+					slab.close();
+				}
+				closed = true;
+			}
+		}
+	}
+
+	/**
+	 * Return the directory of the store.
+	 * 
+	 * @return Directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Return the number of objects in the store.
+	 * 
+	 * @return Number of objects
+	 */
+	public synchronized int getObjectCount() {
+		return index.size();
+	}
+
+	/**
+	 * Return the number of slab files.
+	 * 
+	 * @return Number of slabs
+	 */
+	public synchronized int getSlabCount() {
+		return slabs.size();
+	}
+
+	/**
+	 * Return the bytes used by the slots of all objects.
+	 * 
+	 * @return Size in bytes
+	 */
+	public synchronized long getUsedSize() {
+		long size = 0;
+		for (Slot slot : index.values()) {
+			size += slot.capacity;
+		}
+		return size;
+	}
+
+	/**
+	 * Slab file mapped into memory.
+	 */
+	private static class Slab {
+
+		final int number;
+
+		final File file;
+
+		RandomAccessFile raf;
+
+		MappedByteBuffer buffer;
+
+		/**
+		 * Start of the unused part
+		 */
+		int top = FILE_HEADER_SIZE;
+
+		Slab(int number, File file) {
+			this.number = number;
+			this.file = file;
+		}
+
+		/**
+		 * Map an existing slab, it must have a valid header.
+		 */
+		boolean open() throws IOException {
+			raf = new RandomAccessFile(file, "rw");
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				log.error("Slab {} has an unknown format, ignoring it", file);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Create and map a new slab of the given size.
+		 */
+		void create(int size) throws IOException {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+		}
+
+		void close() {
+			if (raf != null) {
+				try {
+					buffer.force();
+					raf.close();
+				} catch (IOException e) {
+					log.warn("Could not close " + file, e);
+				}
+				raf = null;
+			}
+		}
+
+	}
+
+	/**
+	 * Slot of a slab.
+	 */
+	private static class Slot {
+
+		final Slab slab;
+
+		final int offset;
+
+		int capacity;
+
+		long version;
+
+		Slot(Slab slab, int offset, int capacity) {
+			this.slab = slab;
+			this.offset = offset;
+			this.capacity = capacity;
+		}
+
+	}
+
+}
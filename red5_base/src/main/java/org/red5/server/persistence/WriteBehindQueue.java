@@ -0,0 +1,125 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.red5.server.api.persistence.IPersistable;
+
+/**
+ * Queue of the changes of persistent objects that have not been written yet.
+ * The changes are taken from the queue in batches, an object that has been
+ * changed several times between two batches is written once. The queue keeps
+ * the batch that is being written until it is done, so reads can tell that
+ * the latest change of an object has not been written yet.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class WriteBehindQueue {
+
+	/**
+	 * Queued changes by object id, the value of a removal is <code>null</code>
+	 */
+	private Map<String, IPersistable> pending = new LinkedHashMap<String, IPersistable>();
+
+	/**
+	 * Batch that is being written
+	 */
+	private Map<String, IPersistable> writing = Collections.emptyMap();
+
+	/**
+	 * Queue an object to be written with the next batch.
+	 * 
+	 * @param id Object id
+	 * @param object Object to write
+	 */
+	public synchronized void save(String id, IPersistable object) {
+		pending.put(id, object);
+	}
+
+	/**
+	 * Queue the removal of an object.
+	 * 
+	 * @param id Object id
+	 */
+	public synchronized void remove(String id) {
+		pending.put(id, null);
+	}
+
+	/**
+	 * Check whether changes of an object are queued or being written.
+	 * 
+	 * @param id Object id
+	 * @return <code>true</code> if the latest change has not been written yet
+	 */
+	public synchronized boolean isQueued(String id) {
+		return pending.containsKey(id) || writing.containsKey(id);
+	}
+
+	/**
+	 * Return an object whose latest change has not been written yet.
+	 * 
+	 * @param id Object id
+	 * @return Object or <code>null</code> if no change is queued or the
+	 *         latest one is a removal
+	 */
+	public synchronized IPersistable get(String id) {
+		if (pending.containsKey(id)) {
+			return pending.get(id);
+		}
+		return writing.get(id);
+	}
+
+	/**
+	 * Take the queued changes as the batch that is being written. Every
+	 * batch must be followed by a call to {@link #done()}.
+	 * 
+	 * @return Changes by object id in the order they have been queued, the
+	 *         value of a removal is <code>null</code>
+	 */
+	public synchronized Map<String, IPersistable> take() {
+		Map<String, IPersistable> batch = pending;
+		pending = new LinkedHashMap<String, IPersistable>();
+		writing = batch;
+		return batch;
+	}
+
+	/**
+	 * Finish the batch that is being written.
+	 */
+	public synchronized void done() {
+		writing = Collections.emptyMap();
+	}
+
+	/**
+	 * Queue the changes of a failed batch again unless they have been
+	 * replaced in the meantime.
+	 * 
+	 * @param batch Changes of the failed batch
+	 */
+	public synchronized void requeue(Map<String, IPersistable> batch) {
+		Map<String, IPersistable> newer = pending;
+		pending = new LinkedHashMap<String, IPersistable>(batch);
+		pending.putAll(newer);
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.red5.server.persistence;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread that periodically writes the changes queued in the stores of a
+ * persistence backend. Every directory has one store that is shared by the
+ * persistence objects using it, the store is opened on first access.
+ * 
+ * @param <S> Type of the stores
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public abstract class WriteBehindThread<S> implements Runnable {
+
+	/**
+	 * Logger
+	 */
+	private Logger log = LoggerFactory.getLogger(WriteBehindThread.class);
+
+	/**
+	 * Name of the thread
+	 */
+	private final String name;
+
+	/**
+	 * Interval to write queued changes in milliseconds
+	 */
+	private long flushInterval = 1000;
+
+	/**
+	 * Open stores by directory
+	 */
+	private final Map<String, S> stores = new ConcurrentHashMap<String, S>();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Create the thread.
+	 * 
+	 * @param name Name of the thread
+	 */
+	protected WriteBehindThread(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return the store of a directory, it is opened on first access.
+	 * 
+	 * @param dir Directory of the store
+	 * @return Store
+	 * @throws IOException if the store can not be opened
+	 */
+	protected S getStore(File dir) throws IOException {
+		String key = dir.getCanonicalPath();
+		S store = stores.get(key);
+		if (store == null) {
+			synchronized (stores) {
+				store = stores.get(key);
+				if (store == null) {
+					store = open(dir);
+					stores.put(key, store);
+					start();
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Open the store of a directory.
+	 * 
+	 * @param dir Directory of the store
+	 * @return Store
+	 * @throws IOException if the store can not be opened
+	 */
+	protected abstract S open(File dir) throws IOException;
+
+	/**
+	 * Write the queued changes of a store.
+	 * 
+	 * @param store Store
+	 */
+	protected abstract void write(S store);
+
+	/**
+	 * Write the queued changes of a store and close it.
+	 * 
+	 * @param store Store
+	 */
+	protected abstract void close(S store);
+
+	/**
+	 * Start writing the stores periodically.
+	 */
+	private synchronized void start() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(this, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Write queued changes periodically.
+	 */
+	public void run() {
+		for (Map.Entry<String, S> entry : stores.entrySet()) {
+			try {
+				write(entry.getValue());
+			} catch (Throwable e) {
+				log.error("Error while writing " + name + " store in " + entry.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * Write all queued changes and close the stores.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+		}
+		synchronized (stores) {
+			for (S store : stores.values()) {
+				close(store);
+			}
+			stores.clear();
+		}
+	}
+
+	/**
+	 * Setter for the interval to write queued changes.
+	 * 
+	 * @param flushInterval Interval in milliseconds
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+}
@@ -0,0 +1,639 @@
+package org.red5.server.scheduling;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.red5.server.api.scheduling.IScheduledJob;
+import org.red5.server.api.scheduling.ISchedulingService;
+import org.red5.server.jmx.JMXAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduling service that uses a hashed timing wheel as backend. The wheel is
+ * an array of buckets with a linked list of timers each, a timer is added to
+ * the bucket its deadline hashes to and remembers the number of rounds of the
+ * wheel left until it expires. Adding and removing a job is a constant time
+ * operation, a single thread advances the wheel once per tick and hands the
+ * expired jobs to a bounded pool of workers.
+ * <p>
+ * Jobs are executed with the precision of a tick. A periodic job is not
+ * executed again while its previous execution is still running, these
+ * executions are skipped.
+ *
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class TimerWheelSchedulingService implements ISchedulingService,
+		TimerWheelSchedulingServiceMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(TimerWheelSchedulingService.class);
+
+	private static final int STATE_INIT = 0;
+
+	private static final int STATE_STARTED = 1;
+
+	private static final int STATE_SHUTDOWN = 2;
+
+	/**
+	 * Maximum number of new timers moved to the wheel per tick, so a burst
+	 * of new jobs does not delay the expiration of others.
+	 */
+	private static final int MAX_ADDITIONS_PER_TICK = 100000;
+
+	/**
+	 * Duration of a tick in milliseconds
+	 */
+	private long tickDuration = 10;
+
+	/**
+	 * Number of buckets, rounded up to a power of two
+	 */
+	private int wheelSize = 512;
+
+	/**
+	 * Number of threads that execute the jobs
+	 */
+	private int workerThreads = 8;
+
+	/**
+	 * Number of job names
+	 */
+	private final AtomicLong jobDetailCounter = new AtomicLong(0);
+
+	/**
+	 * Scheduled jobs by name
+	 */
+	private final ConcurrentMap<String, Timer> jobs = new ConcurrentHashMap<String, Timer>();
+
+	/**
+	 * Timers waiting to be moved to the wheel by the tick thread
+	 */
+	private final Queue<Timer> additions = new ConcurrentLinkedQueue<Timer>();
+
+	/**
+	 * Removed timers waiting to be unlinked from the wheel by the tick thread
+	 */
+	private final Queue<Timer> cancellations = new ConcurrentLinkedQueue<Timer>();
+
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+	private Bucket[] wheel;
+
+	private int mask;
+
+	private long tickNanos;
+
+	/**
+	 * Start of the wheel, deadlines are relative to it
+	 */
+	private volatile long startTime;
+
+	/**
+	 * Current tick, only accessed by the tick thread
+	 */
+	private long tick;
+
+	private Thread tickThread;
+
+	private ThreadPoolExecutor executor;
+
+	private volatile long lastTickLag;
+
+	private volatile long maxTickLag;
+
+	private volatile long totalTickLag;
+
+	private volatile long tickCount;
+
+	private final AtomicLong executedJobs = new AtomicLong();
+
+	private final AtomicLong skippedJobs = new AtomicLong();
+
+	/** Constructs a new TimerWheelSchedulingService. */
+	public TimerWheelSchedulingService() {
+		//register with jmx server
+		JMXAgent.registerMBean(this, this.getClass().getName(),
+				TimerWheelSchedulingServiceMBean.class);
+	}
+
+	/**
+	 * Start the tick thread and the workers. The service is started when the
+	 * first job is added if this has not been called.
+	 */
+	public synchronized void init() {
+		if (state.get() != STATE_INIT) {
+			return;
+		}
+		int size = 1;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		startTime = System.nanoTime();
+		executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "SchedulingWorker-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		tickThread = new Thread(new Runnable() {
+			public void run() {
+				runWheel();
+			}
+		}, "TimerWheelSchedulingService");
+		tickThread.setDaemon(true);
+		state.set(STATE_STARTED);
+		tickThread.start();
+		log.debug("Started timer wheel with {} buckets", size);
+	}
+
+	public void shutdown() {
+		if (state.getAndSet(STATE_SHUTDOWN) == STATE_STARTED) {
+			tickThread.interrupt();
+			executor.shutdown();
+		}
+		jobs.clear();
+		additions.clear();
+		cancellations.clear();
+	}
+
+	/** {@inheritDoc} */
+	public String addScheduledJob(int interval, IScheduledJob job) {
+		// fires immediately and then every <interval> milliseconds
+		return schedule(0, interval, job);
+	}
+
+	/** {@inheritDoc} */
+	public String addScheduledOnceJob(Date date, IScheduledJob job) {
+		return schedule(date.getTime() - System.currentTimeMillis(), 0, job);
+	}
+
+	/** {@inheritDoc} */
+	public String addScheduledOnceJob(long timeDelta, IScheduledJob job) {
+		return schedule(timeDelta, 0, job);
+	}
+
+	/** {@inheritDoc} */
+	public String addScheduledJobAfterDelay(int interval, IScheduledJob job, int delay) {
+		return schedule(delay, interval, job);
+	}
+
+	/**
+	 * Getter for job name.
+	 *
+	 * @return  Job name
+	 */
+	public String getJobName() {
+		return "ScheduledJob_" + jobDetailCounter.getAndIncrement();
+	}
+
+	/** {@inheritDoc} */
+	public List<String> getScheduledJobNames() {
+		return new ArrayList<String>(jobs.keySet());
+	}
+
+	/** {@inheritDoc} */
+	public void pauseScheduledJob(String name) {
+		Timer timer = jobs.get(name);
+		if (timer != null) {
+			timer.paused = true;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void resumeScheduledJob(String name) {
+		Timer timer = jobs.get(name);
+		if (timer != null) {
+			timer.paused = false;
+			// a job that expired while it was paused is executed now
+			if (timer.missed.compareAndSet(true, false)) {
+				fire(timer);
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void removeScheduledJob(String name) {
+		Timer timer = jobs.remove(name);
+		if (timer != null && timer.cancelled.compareAndSet(false, true)) {
+			cancellations.add(timer);
+		}
+	}
+
+	/**
+	 * Add a job to the wheel.
+	 *
+	 * @param delay Milliseconds until the first execution
+	 * @param interval Milliseconds between executions, 0 to execute the job once
+	 * @param job Job
+	 * @return Job name
+	 */
+	private String schedule(long delay, long interval, IScheduledJob job) {
+		if (state.get() == STATE_INIT) {
+			init();
+		}
+		if (state.get() != STATE_STARTED) {
+			throw new IllegalStateException("Scheduling service has been shut down");
+		}
+		Timer timer = new Timer(getJobName(), job, TimeUnit.MILLISECONDS.toNanos(interval));
+		timer.deadline = now() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		jobs.put(timer.name, timer);
+		additions.add(timer);
+		return timer.name;
+	}
+
+	/**
+	 * @return Nanoseconds since the start of the wheel
+	 */
+	private long now() {
+		return System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Loop of the tick thread.
+	 */
+	private void runWheel() {
+		while (state.get() == STATE_STARTED) {
+			long now = waitForNextTick();
+			if (now < 0) {
+				break;
+			}
+			try {
+				unlinkCancelled();
+				transferAdditions();
+				wheel[(int) (tick & mask)].expire(now);
+			} catch (Throwable e) {
+				log.error("Error in tick " + tick, e);
+			}
+			tick++;
+		}
+		log.debug("Timer wheel stopped");
+	}
+
+	/**
+	 * Sleep until the current tick is over.
+	 *
+	 * @return Current time relative to the start, -1 if the service has been
+	 *         shut down
+	 */
+	private long waitForNextTick() {
+		long target = (tick + 1) * tickNanos;
+		while (true) {
+			long now = now();
+			long sleep = target - now;
+			if (sleep <= 0) {
+				long lag = TimeUnit.NANOSECONDS.toMicros(now - target);
+				lastTickLag = lag;
+				if (lag > maxTickLag) {
+					maxTickLag = lag;
+				}
+				totalTickLag += lag;
+				tickCount++;
+				return now;
+			}
+			try {
+				Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleep + 999999));
+			} catch (InterruptedException e) {
+				if (state.get() != STATE_STARTED) {
+					return -1;
+				}
+			}
+		}
+	}
+
+	private void unlinkCancelled() {
+		Timer timer;
+		while ((timer = cancellations.poll()) != null) {
+			if (timer.bucket != null) {
+				timer.bucket.remove(timer);
+			}
+		}
+	}
+
+	private void transferAdditions() {
+		for (int i = 0; i < MAX_ADDITIONS_PER_TICK; i++) {
+			Timer timer = additions.poll();
+			if (timer == null) {
+				break;
+			}
+			if (timer.cancelled.get()) {
+				continue;
+			}
+			long ticks = timer.deadline / tickNanos;
+			timer.remainingRounds = (ticks - tick) / wheel.length;
+			// timers that are already due expire in the current tick
+			wheel[(int) (Math.max(ticks, tick) & mask)].add(timer);
+		}
+	}
+
+	/**
+	 * Called by the tick thread when a timer has expired.
+	 *
+	 * @param timer Expired timer
+	 * @param now Current time relative to the start
+	 */
+	private void expired(Timer timer, long now) {
+		if (timer.cancelled.get()) {
+			return;
+		}
+		if (timer.interval > 0) {
+			// next execution, executions missed by a late tick are dropped
+			long next = timer.deadline + timer.interval;
+			if (next <= now) {
+				next += ((now - next) / timer.interval + 1) * timer.interval;
+			}
+			timer.deadline = next;
+			additions.add(timer);
+			if (!timer.paused) {
+				fire(timer);
+			}
+		} else if (timer.paused) {
+			timer.missed.set(true);
+			// the job might have been resumed in the meantime
+			if (!timer.paused && timer.missed.compareAndSet(true, false)) {
+				fire(timer);
+			}
+		} else {
+			fire(timer);
+		}
+	}
+
+	/**
+	 * Hand a job to the workers.
+	 *
+	 * @param timer Timer of the job
+	 */
+	private void fire(Timer timer) {
+		if (timer.interval == 0) {
+			jobs.remove(timer.name, timer);
+		}
+		if (!timer.running.compareAndSet(false, true)) {
+			skippedJobs.incrementAndGet();
+			log.debug("Job {} is still running, execution skipped", timer.name);
+			return;
+		}
+		try {
+			executor.execute(timer);
+		} catch (RejectedExecutionException e) {
+			timer.running.set(false);
+			log.debug("Job {} rejected, service has been shut down", timer.name);
+		}
+	}
+
+	public int getScheduledJobCount() {
+		return jobs.size();
+	}
+
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	/**
+	 * Setter for the duration of a tick, only used before the service has
+	 * been started.
+	 *
+	 * @param tickDuration Duration of a tick in milliseconds
+	 */
+	public void setTickDuration(long tickDuration) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive");
+		}
+		this.tickDuration = tickDuration;
+	}
+
+	public int getWheelSize() {
+		return wheel != null ? wheel.length : wheelSize;
+	}
+
+	/**
+	 * Setter for the number of buckets, only used before the service has been
+	 * started. Jobs with a delay longer than the wheel size times the tick
+	 * duration stay in the wheel for several rounds.
+	 *
+	 * @param wheelSize Number of buckets
+	 */
+	public void setWheelSize(int wheelSize) {
+		if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+		}
+		this.wheelSize = wheelSize;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Setter for the number of threads that execute jobs, only used before the
+	 * service has been started.
+	 *
+	 * @param workerThreads Number of threads
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		if (workerThreads <= 0) {
+			throw new IllegalArgumentException("At least one worker thread is required");
+		}
+		this.workerThreads = workerThreads;
+	}
+
+	public long getLastTickLag() {
+		return lastTickLag;
+	}
+
+	public long getAverageTickLag() {
+		long count = tickCount;
+		return count > 0 ? totalTickLag / count : 0;
+	}
+
+	public long getMaxTickLag() {
+		return maxTickLag;
+	}
+
+	public int getQueueDepth() {
+		return executor != null ? executor.getQueue().size() : 0;
+	}
+
+	public int getActiveWorkers() {
+		return executor != null ? executor.getActiveCount() : 0;
+	}
+
+	public long getExecutedJobs() {
+		return executedJobs.get();
+	}
+
+	public long getSkippedJobs() {
+		return skippedJobs.get();
+	}
+
+	public void resetStatistics() {
+		// updated by the tick thread, a concurrent tick may be lost
+		lastTickLag = 0;
+		maxTickLag = 0;
+		totalTickLag = 0;
+		tickCount = 0;
+	}
+
+	/**
+	 * Linked list of the timers that hash to a bucket of the wheel, only
+	 * accessed by the tick thread.
+	 */
+	private final class Bucket {
+
+		private Timer head;
+
+		private Timer tail;
+
+		void add(Timer timer) {
+			timer.bucket = this;
+			if (head == null) {
+				head = tail = timer;
+			} else {
+				tail.next = timer;
+				timer.prev = tail;
+				tail = timer;
+			}
+		}
+
+		void remove(Timer timer) {
+			Timer next = timer.next;
+			if (timer.prev != null) {
+				timer.prev.next = next;
+			}
+			if (next != null) {
+				next.prev = timer.prev;
+			}
+			if (timer == head) {
+				head = next;
+			}
+			if (timer == tail) {
+				tail = timer.prev;
+			}
+			timer.prev = null;
+			timer.next = null;
+			timer.bucket = null;
+		}
+
+		/**
+		 * Expire the timers of this bucket that are due in the current round.
+		 *
+		 * @param now Current time relative to the start
+		 */
+		void expire(long now) {
+			Timer timer = head;
+			while (timer != null) {
+				Timer next = timer.next;
+				if (timer.cancelled.get()) {
+					remove(timer);
+				} else if (timer.remainingRounds <= 0) {
+					remove(timer);
+					expired(timer, now);
+				} else {
+					timer.remainingRounds--;
+				}
+				timer = next;
+			}
+		}
+
+	}
+
+	/**
+	 * Scheduled job in the wheel.
+	 */
+	private final class Timer implements Runnable {
+
+		final String name;
+
+		final IScheduledJob job;
+
+		/**
+		 * Nanoseconds between executions, 0 for jobs executed once
+		 */
+		final long interval;
+
+		/**
+		 * Next execution relative to the start of the wheel
+		 */
+		long deadline;
+
+		long remainingRounds;
+
+		Bucket bucket;
+
+		Timer prev;
+
+		Timer next;
+
+		volatile boolean paused;
+
+		final AtomicBoolean cancelled = new AtomicBoolean();
+
+		final AtomicBoolean running = new AtomicBoolean();
+
+		/**
+		 * Job executed once has expired while it was paused
+		 */
+		final AtomicBoolean missed = new AtomicBoolean();
+
+		Timer(String name, IScheduledJob job, long interval) {
+			this.name = name;
+			this.job = job;
+			this.interval = interval;
+		}
+
+		public void run() {
+			try {
+				if (!cancelled.get()) {
+					executedJobs.incrementAndGet();
+					job.execute(TimerWheelSchedulingService.this);
+				}
+			} catch (Throwable e) {
+				log.error("Job " + name + " execution failed", e);
+			} finally {
+				running.set(false);
+			}
+		}
+
+	}
+
+}
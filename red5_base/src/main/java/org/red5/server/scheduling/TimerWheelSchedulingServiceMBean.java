@@ -0,0 +1,93 @@
+package org.red5.server.scheduling;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.List;
+
+/**
+ * Scheduling service that uses a hashed timing wheel as backend.
+ *
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface TimerWheelSchedulingServiceMBean {
+
+	public String getJobName();
+
+	public void removeScheduledJob(String name);
+
+	public List<String> getScheduledJobNames();
+
+	/**
+	 * @return Number of scheduled jobs
+	 */
+	public int getScheduledJobCount();
+
+	/**
+	 * @return Duration of a tick in milliseconds
+	 */
+	public long getTickDuration();
+
+	/**
+	 * @return Number of buckets of the wheel
+	 */
+	public int getWheelSize();
+
+	/**
+	 * @return Lateness of the last tick in microseconds
+	 */
+	public long getLastTickLag();
+
+	/**
+	 * @return Average lateness of the ticks in microseconds
+	 */
+	public long getAverageTickLag();
+
+	/**
+	 * @return Maximum lateness of a tick in microseconds
+	 */
+	public long getMaxTickLag();
+
+	/**
+	 * @return Jobs that have expired and wait for a worker
+	 */
+	public int getQueueDepth();
+
+	/**
+	 * @return Number of workers that execute jobs
+	 */
+	public int getActiveWorkers();
+
+	/**
+	 * @return Number of executed jobs
+	 */
+	public long getExecutedJobs();
+
+	/**
+	 * @return Number of executions skipped because the previous execution of
+	 *         the job was still running
+	 */
+	public long getSkippedJobs();
+
+	/**
+	 * Reset the tick lag statistics.
+	 */
+	public void resetStatistics();
+
+}
@@ -22,11 +22,19 @@ package org.red5.server.so;
 import static org.red5.server.api.so.ISharedObject.TYPE;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.red5.io.object.Deserializer;
@@ -134,6 +142,33 @@ public class SharedObject extends AttributeStore implements ISharedObjectStatist
      */
     protected Set<IEventListener> listeners = new CopyOnWriteArraySet<IEventListener>();
 
+    /**
+     * Sync events that have not been sent to the listeners yet
+     */
+    private final List<ISharedObjectEvent> pendingEvents = new ArrayList<ISharedObjectEvent>();
+
+    /**
+     * Listeners that caused the pending sync events, <code>null</code> for
+     * server side changes
+     */
+    private final List<IEventListener> pendingSources = new ArrayList<IEventListener>();
+
+    /**
+     * Whether the pending sync events will be sent by the sync executor
+     */
+    private boolean syncScheduled;
+
+    /**
+     * Milliseconds to collect sync events before they are sent
+     */
+    protected int syncWindow;
+
+    /**
+     * Sends the sync events collected during the sync window of all shared
+     * objects
+     */
+    private static ScheduledExecutorService syncExecutor;
+
     /**
      * Event listener, actually RTMP connection
      */
@@ -304,37 +339,157 @@ public class SharedObject extends AttributeStore implements ISharedObjectStatist
 			}
 		}
 		//clear owner events
-		events.clear();		
-		//get read-only version of sync events
-		events.addAll(syncEvents);   	
-    	//clear out previous events
-		syncEvents.clear();
-		if (!events.isEmpty()) {
-			// Synchronize updates with all registered clients of this shared
-			for (IEventListener listener : listeners) {
-				if (listener == source) {
-					// Don't re-send update to active client
-					log.debug("Skipped {}", source);
-					continue;
+		events.clear();
+		final int window = syncWindow;
+		synchronized (pendingEvents) {
+			//move sync events to the pending ones, remembering their source
+			ISharedObjectEvent event;
+			while ((event = syncEvents.poll()) != null) {
+				pendingEvents.add(event);
+				pendingSources.add(source);
+			}
+			if (pendingEvents.isEmpty() || syncScheduled) {
+				return;
+			}
+			syncScheduled = window > 0;
+		}
+		if (window > 0) {
+			// Collect further updates and send them together
+			try {
+				getSyncExecutor().schedule(new Runnable() {
+					public void run() {
+						sendSyncUpdates();
+					}
+				}, window, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				log.debug("Sync executor has been shut down, sending the updates now");
+				sendSyncUpdates();
+			}
+		} else {
+			sendSyncUpdates();
+		}
+	}
+
+    /**
+     * Send pending sync events to all listeners except the ones that caused them.
+     * The listeners that caused none of the events get the same message body, so it
+     * is encoded only once for every object encoding.
+     */
+    protected void sendSyncUpdates() {
+    	final ISharedObjectEvent[] batch;
+    	final IEventListener[] batchSources;
+    	synchronized (pendingEvents) {
+    		syncScheduled = false;
+    		if (pendingEvents.isEmpty()) {
+    			return;
+    		}
+    		batch = pendingEvents.toArray(new ISharedObjectEvent[pendingEvents.size()]);
+    		batchSources = pendingSources.toArray(new IEventListener[pendingSources.size()]);
+    		pendingEvents.clear();
+    		pendingSources.clear();
+    	}
+    	// Only the last change of an attribute has to be sent
+    	final List<ISharedObjectEvent> events = new ArrayList<ISharedObjectEvent>(batch.length);
+    	final List<IEventListener> sources = new ArrayList<IEventListener>(batch.length);
+    	final Set<String> changed = new HashSet<String>();
+    	for (int i = batch.length - 1; i >= 0; i--) {
+    		final ISharedObjectEvent event = batch[i];
+    		final Type type = event.getType();
+    		if ((type == Type.CLIENT_UPDATE_DATA || type == Type.CLIENT_DELETE_DATA) && event.getKey() != null
+    				&& !changed.add(event.getKey())) {
+    			continue;
+    		}
+    		events.add(event);
+    		sources.add(batchSources[i]);
+    	}
+    	Collections.reverse(events);
+    	Collections.reverse(sources);
+
+    	final int currentVersion = version.get();
+    	final boolean persist = isPersistentObject();
+    	final SyncMessageCache cache = new SyncMessageCache();
+		// Synchronize updates with all registered clients of this shared
+		for (IEventListener listener : listeners) {
+			if (!(listener instanceof RTMPConnection)) {
+				log.warn("Can't send sync message to unknown connection {}", listener);
+				continue;
+			}
+			// Create a new sync message for every client to avoid
+			// concurrent access through multiple threads
+			SharedObjectMessage syncMessage = new SharedObjectMessage(null,	name, currentVersion, persist);
+			if (sources.contains(listener)) {
+				// Don't re-send updates to the client that caused them
+				for (int i = 0; i < events.size(); i++) {
+					if (sources.get(i) != listener) {
+						syncMessage.addEvent(events.get(i));
+					}
 				}
-				if (!(listener instanceof RTMPConnection)) {
-					log.warn("Can't send sync message to unknown connection {}", listener);
+				if (syncMessage.isEmpty()) {
+					log.debug("Skipped {}", listener);
 					continue;
 				}
-				// Create a new sync message for every client to avoid
-				// concurrent access through multiple threads
-				// TODO: perhaps we could cache the generated message
-				SharedObjectMessage syncMessage = new SharedObjectMessage(null,	name, currentVersion, persist);
+			} else {
 				syncMessage.addEvents(events);
-
-				Channel channel = ((RTMPConnection) listener).getChannel((byte) 3);
-				log.debug("Send to {}", channel);
-				channel.write(syncMessage);
+				syncMessage.setSyncCache(cache);
 			}
 
+			Channel channel = ((RTMPConnection) listener).getChannel((byte) 3);
+			log.debug("Send to {}", channel);
+			channel.write(syncMessage);
 		}
 	}
 
+    /**
+     * Return the executor that sends the sync events collected during the
+     * sync window.
+     * 
+     * @return Executor
+     */
+    private static synchronized ScheduledExecutorService getSyncExecutor() {
+    	if (syncExecutor == null) {
+    		syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    			public Thread newThread(Runnable r) {
+    				Thread thread = new Thread(r, "SharedObjectSync");
+    				thread.setDaemon(true);
+    				return thread;
+    			}
+    		});
+    	}
+    	return syncExecutor;
+    }
+
+    /**
+     * Shut down the executor that sends the sync events collected during the
+     * sync window, the events that are being collected are still sent. A new
+     * executor is created when a shared object collects sync events again.
+     */
+    public static synchronized void shutdownSyncExecutor() {
+    	if (syncExecutor != null) {
+    		syncExecutor.shutdown();
+    		syncExecutor = null;
+    	}
+    }
+
+    /**
+     * Getter for the sync window.
+     * 
+     * @return Milliseconds to collect sync events before they are sent
+     */
+    public int getSyncWindow() {
+    	return syncWindow;
+    }
+
+    /**
+     * Setter for the sync window. Changes of attributes during the window are
+     * merged, so listeners only receive the last value of every attribute.
+     * 
+     * @param syncWindow Milliseconds to collect sync events before they are
+     *            sent, 0 sends them with every update
+     */
+    public void setSyncWindow(int syncWindow) {
+    	this.syncWindow = syncWindow;
+    }
+
     /**
      * Send notification about modification of SO
      */
@@ -690,6 +845,10 @@ public class SharedObject extends AttributeStore implements ISharedObjectStatist
 		super.removeAttributes();
 		listeners.clear();
 		syncEvents.clear();
+		synchronized (pendingEvents) {
+			pendingEvents.clear();
+			pendingSources.clear();
+		}
 		ownerMessage.getEvents().clear();
 	}
 
@@ -57,6 +57,11 @@ public class SharedObjectMessage extends BaseEvent implements
 	 */
 	private boolean persistent;
 
+	/**
+	 * Encoded body shared with the messages of other listeners
+	 */
+	private transient SyncMessageCache syncCache;
+
 	public SharedObjectMessage() {
 	}
 
@@ -139,6 +144,27 @@ public class SharedObjectMessage extends BaseEvent implements
 		this.persistent = persistent;
 	}
 
+	/**
+	 * Getter for the encoded body shared with other messages
+	 * 
+	 * @return Shared body or <code>null</code> if the message is encoded
+	 *         on its own
+	 */
+	public SyncMessageCache getSyncCache() {
+		return syncCache;
+	}
+
+	/**
+	 * Setter for the encoded body shared with other messages. All messages
+	 * using the same cache must contain the same events.
+	 * 
+	 * @param syncCache
+	 *            Shared body
+	 */
+	public void setSyncCache(SyncMessageCache syncCache) {
+		this.syncCache = syncCache;
+	}
+
 	/** {@inheritDoc} */
 	public void addEvent(ISharedObjectEvent event) {
 		events.add(event);
@@ -189,6 +189,16 @@ public class SharedObjectScope extends BasicScope implements ISharedObject, Stat
 		return so.getVersion();
 	}
 
+	/**
+	 * Setter for the time sync events are collected before they are sent to
+	 * the listeners.
+	 * 
+	 * @param syncWindow Sync window in milliseconds, 0 sends them with every update
+	 */
+	public void setSyncWindow(int syncWindow) {
+		so.setSyncWindow(syncWindow);
+	}
+
 	/** {@inheritDoc} */
     public void sendMessage(String handler, List<?> arguments) {
 		beginUpdate();
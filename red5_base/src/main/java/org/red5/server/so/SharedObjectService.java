@@ -25,7 +25,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
-import org.red5.server.api.IBasicScope;
 import org.red5.server.api.IScope;
 import org.red5.server.api.persistence.IPersistable;
 import org.red5.server.api.persistence.IPersistenceStore;
@@ -71,6 +70,30 @@ public class SharedObjectService implements ISharedObjectService {
 		persistenceClassName = name;
 	}
 
+	/**
+	 * Time sync events are collected before they are sent to the listeners
+	 */
+	private int syncWindow;
+
+	/**
+	 * Setter for the sync window of new shared objects. Changes of attributes
+	 * during the window are merged into one update.
+	 * 
+	 * @param syncWindow Sync window in milliseconds, 0 sends the changes with
+	 *            every update
+	 */
+	public void setSyncWindow(int syncWindow) {
+		this.syncWindow = syncWindow;
+	}
+
+	/**
+	 * Stop the thread that sends the changes collected during the sync
+	 * window, called when the server shuts down.
+	 */
+	public void destroy() {
+		SharedObject.shutdownSyncExecutor();
+	}
+
 	/**
 	 * Return scope store
 	 * 
@@ -117,8 +140,9 @@ public class SharedObjectService implements ISharedObjectService {
 			return true;
 		}
 		synchronized (scope) {
-			final IBasicScope soScope = new SharedObjectScope(scope, name,
+			final SharedObjectScope soScope = new SharedObjectScope(scope, name,
 					persistent, getStore(scope, persistent));
+			soScope.setSyncWindow(syncWindow);
 			return scope.addChildScope(soScope);
 		}
 	}
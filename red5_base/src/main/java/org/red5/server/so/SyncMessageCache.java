@@ -0,0 +1,82 @@
+package org.red5.server.so;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.api.IConnection.Encoding;
+
+/**
+ * Encoded body of a shared object sync message, shared by the messages sent
+ * to all listeners that receive the same events. The body is encoded once
+ * for every object encoding used by the listeners, the encoder writes
+ * read-only views of it.
+ */
+public class SyncMessageCache {
+
+	/**
+	 * Encoded bodies by ordinal of the object encoding
+	 */
+	private final ByteBuffer[] encoded = new ByteBuffer[Encoding.values().length];
+
+	/**
+	 * Number of bodies that have been encoded
+	 */
+	private int encodings;
+
+	/**
+	 * Return the body for an object encoding if it has been encoded already.
+	 * 
+	 * @param encoding Object encoding of the connection
+	 * @return Read-only view of the body or <code>null</code>
+	 */
+	public synchronized ByteBuffer get(Encoding encoding) {
+		final ByteBuffer data = encoded[encoding.ordinal()];
+		return (data == null) ? null : data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Store the body encoded for an object encoding. The body must not be
+	 * modified or released by the caller any longer.
+	 * 
+	 * @param encoding Object encoding of the connection
+	 * @param data Encoded body, from position 0 to the limit
+	 * @return Read-only view of the body
+	 */
+	public synchronized ByteBuffer put(Encoding encoding, ByteBuffer data) {
+		if (encoded[encoding.ordinal()] == null) {
+			encoded[encoding.ordinal()] = data;
+			encodings++;
+		} else {
+			// encoded by another connection in the meantime
+			data.release();
+		}
+		return encoded[encoding.ordinal()].asReadOnlyBuffer();
+	}
+
+	/**
+	 * Return the number of bodies that have been encoded.
+	 * 
+	 * @return Number of encodings
+	 */
+	public synchronized int getEncodings() {
+		return encodings;
+	}
+
+}
@@ -0,0 +1,610 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.red5.server.api.IBWControllable;
+import org.red5.server.api.IBandwidthConfigure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bandwidth controller that refills the token buckets when tokens are
+ * requested instead of distributing them from a timer. The tokens of a bucket
+ * are stored as the time the bucket would have been empty, so a request
+ * computes the tokens that have been added since then and takes its tokens
+ * with a single compare-and-set. No locks are held, requests of different
+ * controllables do not contend with each other.
+ * <p>
+ * A request takes its tokens from the bucket of the controllable and of every
+ * parent, the tokens already taken are given back if a parent has not enough
+ * of them. Blocked requests sleep until the tokens should be available. The
+ * callbacks of non-blocking requests are executed on a bounded pool once the
+ * tokens have been taken for them, as {@link SimpleBWControlService} does.
+ * <p>
+ * As with {@link SimpleBWControlService}, the initial burst is half of the
+ * property "defaultCapacity" if not specified by the configuration and the
+ * tokens of a bucket never exceed the capacity. Parents of a controllable
+ * have to be registered before its tokens can be acquired.
+ *
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class AtomicBWControlService implements IBWControlService {
+
+	private static final Logger log = LoggerFactory.getLogger(AtomicBWControlService.class);
+
+	/**
+	 * Longest time a blocked request sleeps before it checks whether its
+	 * bucket has been reset, in nanoseconds
+	 */
+	private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(20);
+
+	/**
+	 * Upper bound of token times, so sums of them do not overflow
+	 */
+	private static final long MAX_NANOS = Long.MAX_VALUE / 4;
+
+	protected Map<IBWControllable, BWContext> contextMap = new ConcurrentHashMap<IBWControllable, BWContext>();
+
+	protected long defaultCapacity;
+
+	/**
+	 * Number of threads that execute callbacks
+	 */
+	private int callbackThreads = Runtime.getRuntime().availableProcessors();
+
+	private ScheduledThreadPoolExecutor callbackExecutor;
+
+	private final long startTime = System.nanoTime();
+
+	public void init() {
+		callbackExecutor = new ScheduledThreadPoolExecutor(callbackThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Token Callback-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void shutdown() {
+		if (callbackExecutor != null) {
+			callbackExecutor.shutdown();
+		}
+	}
+
+	public void setDefaultCapacity(long capacity) {
+		this.defaultCapacity = capacity;
+	}
+
+	public void setCallbackThreads(int callbackThreads) {
+		this.callbackThreads = callbackThreads;
+	}
+
+	/**
+	 * @return Nanoseconds since the service has been created
+	 */
+	private long now() {
+		return System.nanoTime() - startTime;
+	}
+
+	public ITokenBucket getAudioBucket(IBWControlContext context) {
+		if (!(context instanceof BWContext)) return null;
+		return ((BWContext) context).buckets[IBandwidthConfigure.AUDIO_CHANNEL];
+	}
+
+	public ITokenBucket getVideoBucket(IBWControlContext context) {
+		if (!(context instanceof BWContext)) return null;
+		return ((BWContext) context).buckets[IBandwidthConfigure.VIDEO_CHANNEL];
+	}
+
+	public ITokenBucket getDataBucket(IBWControlContext context) {
+		if (!(context instanceof BWContext)) return null;
+		return ((BWContext) context).buckets[IBandwidthConfigure.DATA_CHANNEL];
+	}
+
+	public IBWControlContext registerBWControllable(IBWControllable bc) {
+		BWContext context = new BWContext(bc);
+		context.counters = createCounters(bc.getBandwidthConfigure(), null);
+		contextMap.put(bc, context);
+		return context;
+	}
+
+	public void unregisterBWControllable(IBWControlContext context) {
+		resetBuckets(context);
+		contextMap.remove(context.getBWControllable());
+	}
+
+	public IBWControlContext lookupContext(IBWControllable bc) {
+		return contextMap.get(bc);
+	}
+
+	public void resetBuckets(IBWControlContext context) {
+		if (!(context instanceof BWContext)) return;
+		for (Bucket bucket : ((BWContext) context).buckets) {
+			bucket.reset();
+		}
+	}
+
+	public void updateBWConfigure(IBWControlContext context) {
+		if (!(context instanceof BWContext)) return;
+		BWContext c = (BWContext) context;
+		// tokens taken while the counters are replaced are not migrated
+		c.counters = createCounters(c.getBWControllable().getBandwidthConfigure(), c.counters);
+	}
+
+	/**
+	 * Create the token counters for a bandwidth configuration. The tokens of
+	 * the previous counters are moved to the new ones, from the channels to
+	 * the overall counter and back if the overall bandwidth has been enabled
+	 * or disabled.
+	 *
+	 * @param config Bandwidth configuration
+	 * @param old Previous counters or <code>null</code>
+	 * @return Counters by channel, <code>null</code> if the bandwidth is not
+	 *         limited
+	 */
+	private TokenCounter[] createCounters(IBandwidthConfigure config, TokenCounter[] old) {
+		if (config == null) {
+			return null;
+		}
+		long now = now();
+		long[] bandwidth = config.getChannelBandwidth();
+		long[] tokens = new long[IBandwidthConfigure.MAX_CHANNEL_CONFIG_COUNT];
+		if (old == null) {
+			long[] burst = config.getChannelInitialBurst();
+			for (int i = 0; i < tokens.length; i++) {
+				tokens[i] = burst[i] >= 0 ? burst[i] : defaultCapacity / 2;
+			}
+		} else {
+			for (int i = 0; i < tokens.length; i++) {
+				tokens[i] = old[i] != null ? old[i].available(now) : 0;
+			}
+			if (bandwidth[IBandwidthConfigure.OVERALL_CHANNEL] >= 0
+					&& old[IBandwidthConfigure.OVERALL_CHANNEL] == null) {
+				tokens[IBandwidthConfigure.OVERALL_CHANNEL] = tokens[IBandwidthConfigure.AUDIO_CHANNEL]
+						+ tokens[IBandwidthConfigure.VIDEO_CHANNEL] + tokens[IBandwidthConfigure.DATA_CHANNEL];
+			} else if (bandwidth[IBandwidthConfigure.OVERALL_CHANNEL] < 0
+					&& old[IBandwidthConfigure.OVERALL_CHANNEL] != null) {
+				for (int i = 0; i < 3; i++) {
+					if (bandwidth[i] >= 0) {
+						tokens[i] += tokens[IBandwidthConfigure.OVERALL_CHANNEL];
+						break;
+					}
+				}
+			}
+		}
+		TokenCounter[] counters = new TokenCounter[IBandwidthConfigure.MAX_CHANNEL_CONFIG_COUNT];
+		if (bandwidth[IBandwidthConfigure.OVERALL_CHANNEL] >= 0) {
+			counters[IBandwidthConfigure.OVERALL_CHANNEL] = new TokenCounter(
+					bandwidth[IBandwidthConfigure.OVERALL_CHANNEL], tokens[IBandwidthConfigure.OVERALL_CHANNEL], now);
+		} else {
+			for (int i = 0; i < 3; i++) {
+				if (bandwidth[i] >= 0) {
+					counters[i] = new TokenCounter(bandwidth[i], tokens[i], now);
+				}
+			}
+		}
+		return counters;
+	}
+
+	/**
+	 * Take tokens from the controllable and all its parents.
+	 *
+	 * @param bc Controllable of the bucket
+	 * @param channel Channel of the bucket
+	 * @param tokens Number of tokens
+	 * @return 0 if the tokens have been taken, the nanoseconds until they
+	 *         should be available or -1 if a controllable is not registered
+	 */
+	protected long tryAcquire(IBWControllable bc, int channel, long tokens) {
+		if (tokens <= 0) {
+			return 0;
+		}
+		long now = now();
+		List<TokenCounter> taken = null;
+		while (bc != null) {
+			BWContext context = contextMap.get(bc);
+			if (context == null) {
+				release(taken, tokens);
+				return -1;
+			}
+			TokenCounter counter = context.getCounter(channel);
+			if (counter != null) {
+				if (!counter.tryAcquire(tokens, now)) {
+					release(taken, tokens);
+					return Math.max(1, counter.waitTime(tokens, now));
+				}
+				if (taken == null) {
+					taken = new ArrayList<TokenCounter>(4);
+				}
+				taken.add(counter);
+			}
+			bc = bc.getParentBWControllable();
+		}
+		return 0;
+	}
+
+	/**
+	 * Take up to the given number of tokens from the controllable and all its
+	 * parents.
+	 *
+	 * @param bc Controllable of the bucket
+	 * @param channel Channel of the bucket
+	 * @param tokens Maximum number of tokens
+	 * @return Number of tokens taken
+	 */
+	protected long acquireUpTo(IBWControllable bc, int channel, long tokens) {
+		long now = now();
+		List<TokenCounter> taken = new ArrayList<TokenCounter>(4);
+		while (bc != null && tokens > 0) {
+			BWContext context = contextMap.get(bc);
+			if (context == null) {
+				release(taken, tokens);
+				return 0;
+			}
+			TokenCounter counter = context.getCounter(channel);
+			if (counter != null) {
+				long acquired = counter.acquireUpTo(tokens, now);
+				if (acquired < tokens) {
+					// the previous levels gave more than this one
+					release(taken, tokens - acquired);
+					tokens = acquired;
+				}
+				taken.add(counter);
+			}
+			bc = bc.getParentBWControllable();
+		}
+		return tokens;
+	}
+
+	/**
+	 * Give tokens back to the controllable and all its parents.
+	 *
+	 * @param bc Controllable of the bucket
+	 * @param channel Channel of the bucket
+	 * @param tokens Number of tokens
+	 */
+	protected void release(IBWControllable bc, int channel, long tokens) {
+		while (bc != null) {
+			BWContext context = contextMap.get(bc);
+			if (context == null) {
+				return;
+			}
+			TokenCounter counter = context.getCounter(channel);
+			if (counter != null) {
+				counter.release(tokens);
+			}
+			bc = bc.getParentBWControllable();
+		}
+	}
+
+	private void release(List<TokenCounter> counters, long tokens) {
+		if (counters != null) {
+			for (TokenCounter counter : counters) {
+				counter.release(tokens);
+			}
+		}
+	}
+
+	/**
+	 * Tokens of a channel. The tokens are stored as the time the counter would
+	 * have been empty, the counter is refilled with the bandwidth since then
+	 * up to the capacity.
+	 */
+	protected class TokenCounter {
+
+		/**
+		 * Nanoseconds it takes to refill one token
+		 */
+		private final double nanosPerToken;
+
+		/**
+		 * Nanoseconds it takes to refill the whole capacity
+		 */
+		private final long capacityNanos;
+
+		private final AtomicLong emptyTime;
+
+		/**
+		 * @param bandwidth Bandwidth in bits per second
+		 * @param tokens Initial tokens
+		 * @param now Current time
+		 */
+		TokenCounter(long bandwidth, long tokens, long now) {
+			// no bandwidth at all is treated as one bit per second
+			nanosPerToken = 8e9 / Math.max(1, bandwidth);
+			capacityNanos = toNanos(defaultCapacity);
+			emptyTime = new AtomicLong(now - Math.min(toNanos(tokens), capacityNanos));
+		}
+
+		private long toNanos(long tokens) {
+			double nanos = tokens * nanosPerToken;
+			return nanos >= MAX_NANOS ? MAX_NANOS : (long) nanos;
+		}
+
+		/**
+		 * @param empty Time the counter would have been empty
+		 * @param now Current time
+		 * @return Start of the refill, limited by the capacity
+		 */
+		private long base(long empty, long now) {
+			return Math.max(empty, now - capacityNanos);
+		}
+
+		long available(long now) {
+			return (long) ((now - base(emptyTime.get(), now)) / nanosPerToken);
+		}
+
+		boolean tryAcquire(long tokens, long now) {
+			long cost = toNanos(tokens);
+			// requests larger than the capacity are granted when the counter is full
+			long required = Math.min(cost, capacityNanos);
+			while (true) {
+				long empty = emptyTime.get();
+				long base = base(empty, now);
+				if (now - base < required) {
+					return false;
+				}
+				if (emptyTime.compareAndSet(empty, base + cost)) {
+					return true;
+				}
+			}
+		}
+
+		long acquireUpTo(long tokens, long now) {
+			while (true) {
+				long empty = emptyTime.get();
+				long base = base(empty, now);
+				long acquired = Math.min(tokens, (long) ((now - base) / nanosPerToken));
+				if (acquired <= 0) {
+					return 0;
+				}
+				if (emptyTime.compareAndSet(empty, base + toNanos(acquired))) {
+					return acquired;
+				}
+			}
+		}
+
+		void release(long tokens) {
+			emptyTime.addAndGet(-toNanos(tokens));
+		}
+
+		long waitTime(long tokens, long now) {
+			long required = Math.min(toNanos(tokens), capacityNanos);
+			return Math.max(0, base(emptyTime.get(), now) + required - now);
+		}
+
+	}
+
+	/**
+	 * Non-blocking request waiting for its tokens.
+	 */
+	protected class PendingRequest implements Runnable {
+
+		private final Bucket bucket;
+
+		private final ITokenBucket.ITokenBucketCallback callback;
+
+		private final long tokens;
+
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private volatile ScheduledFuture<?> future;
+
+		PendingRequest(Bucket bucket, ITokenBucket.ITokenBucketCallback callback, long tokens) {
+			this.bucket = bucket;
+			this.callback = callback;
+			this.tokens = tokens;
+		}
+
+		void schedule(long delay) {
+			try {
+				future = callbackExecutor.schedule(this, delay, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				log.debug("Callback rejected, service has been shut down");
+				cancel();
+			}
+		}
+
+		public void run() {
+			if (done.get()) {
+				return;
+			}
+			long wait = tryAcquire(bucket.bc, bucket.channel, tokens);
+			if (wait > 0) {
+				// taken by other requests in the meantime
+				schedule(wait);
+			} else if (wait < 0) {
+				// the controllable has been unregistered
+				cancel();
+			} else if (done.compareAndSet(false, true)) {
+				bucket.pending.remove(this);
+				try {
+					callback.available(bucket, tokens);
+				} catch (Throwable t) {
+					log.error("Error calling request's callback", t);
+				}
+			} else {
+				// reset while the tokens were taken
+				release(bucket.bc, bucket.channel, tokens);
+			}
+		}
+
+		void cancel() {
+			if (done.compareAndSet(false, true)) {
+				bucket.pending.remove(this);
+				ScheduledFuture<?> f = future;
+				if (f != null) {
+					f.cancel(false);
+				}
+				try {
+					callback.reset(bucket, tokens);
+				} catch (Throwable t) {
+					log.error("Error reset request's callback", t);
+				}
+			}
+		}
+
+	}
+
+	protected class Bucket implements ITokenBucket {
+
+		private final IBWControllable bc;
+
+		private final int channel;
+
+		/**
+		 * Requests waiting for a callback
+		 */
+		private final Queue<PendingRequest> pending = new ConcurrentLinkedQueue<PendingRequest>();
+
+		/**
+		 * Incremented when the bucket is reset, to wake blocked requests
+		 */
+		private final AtomicInteger resets = new AtomicInteger();
+
+		Bucket(IBWControllable bc, int channel) {
+			this.bc = bc;
+			this.channel = channel;
+		}
+
+		public boolean acquireToken(long tokenCount, long wait) {
+			int generation = resets.get();
+			long deadline = wait < 0 ? Long.MAX_VALUE : now() + TimeUnit.MILLISECONDS.toNanos(wait);
+			while (true) {
+				long delay = tryAcquire(bc, channel, tokenCount);
+				if (delay == 0) {
+					return true;
+				}
+				long now = now();
+				if (delay < 0 || now >= deadline) {
+					return false;
+				}
+				LockSupport.parkNanos(Math.min(Math.min(delay, deadline - now), MAX_PARK));
+				if (resets.get() != generation || Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+			}
+		}
+
+		public long acquireTokenBestEffort(long upperLimitCount) {
+			return acquireUpTo(bc, channel, upperLimitCount);
+		}
+
+		public boolean acquireTokenNonblocking(long tokenCount, ITokenBucketCallback callback) {
+			long delay = tryAcquire(bc, channel, tokenCount);
+			if (delay == 0) {
+				return true;
+			}
+			if (delay > 0 && callback != null) {
+				PendingRequest request = new PendingRequest(this, callback, tokenCount);
+				pending.add(request);
+				request.schedule(delay);
+			}
+			return false;
+		}
+
+		public long getCapacity() {
+			return defaultCapacity;
+		}
+
+		public double getSpeed() {
+			BWContext context = contextMap.get(bc);
+			IBandwidthConfigure config = bc.getBandwidthConfigure();
+			if (context == null || config == null) {
+				return -1;
+			}
+			long[] bandwidth = config.getChannelBandwidth();
+			if (bandwidth[IBandwidthConfigure.OVERALL_CHANNEL] >= 0) {
+				return bandwidth[IBandwidthConfigure.OVERALL_CHANNEL] * 1000 / 8;
+			} else if (bandwidth[channel] >= 0) {
+				return bandwidth[channel] * 1000 / 8;
+			} else {
+				return -1;
+			}
+		}
+
+		public void reset() {
+			resets.incrementAndGet();
+			PendingRequest request;
+			while ((request = pending.poll()) != null) {
+				request.cancel();
+			}
+		}
+
+	}
+
+	protected class BWContext implements IBWControlContext {
+
+		private final IBWControllable controllable;
+
+		final Bucket[] buckets = new Bucket[3];
+
+		/**
+		 * Counters by channel, <code>null</code> if the bandwidth is not
+		 * limited
+		 */
+		volatile TokenCounter[] counters;
+
+		public BWContext(IBWControllable controllable) {
+			this.controllable = controllable;
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new Bucket(controllable, i);
+			}
+		}
+
+		/**
+		 * @param channel Channel
+		 * @return Counter that limits the channel or <code>null</code>
+		 */
+		TokenCounter getCounter(int channel) {
+			TokenCounter[] c = counters;
+			if (c == null) {
+				return null;
+			}
+			TokenCounter overall = c[IBandwidthConfigure.OVERALL_CHANNEL];
+			return overall != null ? overall : c[channel];
+		}
+
+		public IBWControllable getBWControllable() {
+			return controllable;
+		}
+
+	}
+
+}
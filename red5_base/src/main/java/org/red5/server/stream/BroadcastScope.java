@@ -43,7 +43,8 @@ public class BroadcastScope extends BasicScope implements IBroadcastScope,
 		IPipeConnectionListener {
    
 	/**
-     *  Simple in memory push pipe, triggered by an active provider to push messages to consumer
+     *  In memory push pipe, triggered by an active provider to push messages to consumer,
+     *  created by the {@link FanOutService}
      */
 	private InMemoryPushPushPipe pipe;
    
@@ -71,7 +72,7 @@ public class BroadcastScope extends BasicScope implements IBroadcastScope,
      */
 	public BroadcastScope(IScope parent, String name) {
 		super(parent, TYPE, name, false);
-		pipe = new InMemoryPushPushPipe();
+		pipe = FanOutService.getInstance().createPipe();
 		pipe.addPipeConnectionListener(this);
 		compCounter = 0;
 		hasRemoved = false;
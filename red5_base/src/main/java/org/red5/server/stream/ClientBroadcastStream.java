@@ -38,6 +38,7 @@ import org.red5.server.api.event.IEvent;
 import org.red5.server.api.event.IEventDispatcher;
 import org.red5.server.api.event.IEventListener;
 import org.red5.server.api.statistics.IClientBroadcastStreamStatistics;
+import org.red5.server.api.statistics.support.CacheCounter;
 import org.red5.server.api.statistics.support.StatisticsCounter;
 import org.red5.server.api.stream.IClientBroadcastStream;
 import org.red5.server.api.stream.IStreamAwareScopeHandler;
@@ -69,6 +70,7 @@ import org.red5.server.net.rtmp.event.IRTMPEvent;
 import org.red5.server.net.rtmp.event.Invoke;
 import org.red5.server.net.rtmp.event.Notify;
 import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.SharedPacket;
 import org.red5.server.net.rtmp.status.Status;
 import org.red5.server.net.rtmp.status.StatusCodes;
 import org.red5.server.stream.codec.StreamCodecInfo;
@@ -178,11 +180,32 @@ public class ClientBroadcastStream extends AbstractClientStream implements
 	 */
 	private boolean sendStartNotification = true;
 
+	/**
+	 * Whether audio and video packets are encoded once and shared by all
+	 * subscribers.
+	 */
+	private boolean sharedEncoding = false;
+
+	/**
+	 * Stores statistics about reused shared packets.
+	 */
+	private CacheCounter sharedEncodingStats = new CacheCounter();
+
 	/**
 	 * Stores statistics about subscribers.
 	 */
 	private StatisticsCounter subscriberStats = new StatisticsCounter();
 
+	/**
+	 * Cache new subscribers start with?
+	 */
+	private boolean gopCacheEnabled = false;
+
+	/**
+	 * Frames since the last keyframe, metadata and codec configuration
+	 */
+	private volatile GOPCache gopCache;
+
 	/**
 	 * Factory object for video codecs
 	 */
@@ -224,6 +247,9 @@ public class ClientBroadcastStream extends AbstractClientStream implements
 		sendPublishStopNotify();
 		// TODO: can we sent the client something to make sure he stops sending data?
 		connMsgOut.unsubscribe(this);
+		if (gopCache != null) {
+			gopCache.clear();
+		}
 		notifyBroadcastClose();
 		// deregister with jmx
 		JMXAgent.unregisterMBean(oName);
@@ -330,6 +356,13 @@ public class ClientBroadcastStream extends AbstractClientStream implements
 		RTMPMessage msg = new RTMPMessage();
 		msg.setBody(rtmpEvent);
 		msg.getBody().setTimestamp(eventTime);
+		if (sharedEncoding && buf != null
+				&& (rtmpEvent instanceof AudioData || rtmpEvent instanceof VideoData)) {
+			msg.setSharedPacket(new SharedPacket(rtmpEvent, sharedEncodingStats));
+		}
+		if (gopCache != null && buf != null) {
+			gopCache.add(rtmpEvent);
+		}
 		try {
 			if (livePipe != null) {
 				livePipe.pushMessage(msg);
@@ -414,6 +447,75 @@ public class ClientBroadcastStream extends AbstractClientStream implements
 		return subscriberStats.getTotal();
 	}
 
+	/** {@inheritDoc} */
+	public long getSharedEncodingHits() {
+		return sharedEncodingStats.getHits();
+	}
+
+	/** {@inheritDoc} */
+	public long getSharedEncodingMisses() {
+		return sharedEncodingStats.getMisses();
+	}
+
+	/** {@inheritDoc} */
+	public long getGOPCacheSize() {
+		return gopCache == null ? 0 : gopCache.getSize();
+	}
+
+	/** {@inheritDoc} */
+	public int getGOPCacheFrames() {
+		return gopCache == null ? 0 : gopCache.getFrames();
+	}
+
+	/**
+	 * Getter for the cache new subscribers start with.
+	 * 
+	 * @return Cache or <code>null</code> if disabled
+	 */
+	public GOPCache getGOPCache() {
+		return gopCache;
+	}
+
+	/**
+	 * Getter for GOP cache mode.
+	 * 
+	 * @return <code>true</code> if new subscribers start with the last keyframe
+	 */
+	public boolean isGopCacheEnabled() {
+		return gopCacheEnabled;
+	}
+
+	/**
+	 * Setter for GOP cache mode. If enabled, the frames since the last
+	 * keyframe, the metadata and the codec configuration are sent to new
+	 * subscribers, so they don't have to wait for the next keyframe.
+	 * 
+	 * @param gopCacheEnabled <code>true</code> to cache the last keyframe
+	 */
+	public void setGopCacheEnabled(boolean gopCacheEnabled) {
+		this.gopCacheEnabled = gopCacheEnabled;
+	}
+
+	/**
+	 * Getter for shared encoding mode.
+	 * 
+	 * @return <code>true</code> if packets are encoded once for all subscribers
+	 */
+	public boolean isSharedEncoding() {
+		return sharedEncoding;
+	}
+
+	/**
+	 * Setter for shared encoding mode. If enabled, live audio and video
+	 * packets are chunked once per chunk size and channel and written to
+	 * all matching subscribers as read-only buffers.
+	 * 
+	 * @param sharedEncoding <code>true</code> to share encoded packets
+	 */
+	public void setSharedEncoding(boolean sharedEncoding) {
+		this.sharedEncoding = sharedEncoding;
+	}
+
 	/**
 	 *  Notifies handler on stream broadcast stop
 	 */
@@ -769,6 +871,10 @@ public class ClientBroadcastStream extends AbstractClientStream implements
 		recording = false;
 		recordingFilename = null;
 		setCodecInfo(new StreamCodecInfo());
+		if (gopCache != null) {
+			gopCache.clear();
+		}
+		gopCache = gopCacheEnabled ? new GOPCache() : null;
 		closed = false;
 		bytesReceived = 0;
 		creationTime = System.currentTimeMillis();
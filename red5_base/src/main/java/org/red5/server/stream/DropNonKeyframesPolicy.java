@@ -0,0 +1,124 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import org.red5.server.messaging.IMessage;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.stream.message.RTMPMessage;
+
+/**
+ * Overflow policy that drops video frames the decoder of the consumer can do
+ * without. Once an interframe has been dropped, the following interframes are
+ * dropped until the next keyframe. A keyframe that does not fit replaces the
+ * queued audio and video frames, as they would only delay it, the codec
+ * configuration and other messages like metadata stay queued. Other
+ * messages, e.g. audio or metadata, make room by dropping the oldest queued
+ * messages; if these include video frames, the following interframes are
+ * dropped until the next keyframe as well.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class DropNonKeyframesPolicy implements IOverflowPolicy {
+
+	/**
+	 * Keeps everything but audio and video frames
+	 */
+	private static final FanOutQueue.MessageFilter KEEP_NON_FRAMES = new FanOutQueue.MessageFilter() {
+		public boolean keep(IMessage message) {
+			if (!(message instanceof RTMPMessage)) {
+				return true;
+			}
+			IRTMPEvent body = ((RTMPMessage) message).getBody();
+			if (body instanceof VideoData) {
+				return GOPCache.isVideoConfig(((VideoData) body).getData());
+			} else if (body instanceof AudioData) {
+				return GOPCache.isAudioConfig(((AudioData) body).getData());
+			}
+			return true;
+		}
+	};
+
+	/**
+	 * Accepts the messages later interframes don't depend on
+	 */
+	private static final FanOutQueue.MessageFilter INDEPENDENT = new FanOutQueue.MessageFilter() {
+		public boolean keep(IMessage message) {
+			if (!(message instanceof RTMPMessage)) {
+				return true;
+			}
+			IRTMPEvent body = ((RTMPMessage) message).getBody();
+			if (body instanceof VideoData) {
+				return ((VideoData) body).getFrameType() == VideoData.FrameType.DISPOSABLE_INTERFRAME;
+			}
+			return true;
+		}
+	};
+
+	/** {@inheritDoc} */
+	public boolean offer(FanOutQueue queue, IMessage message) {
+		VideoData.FrameType frameType = getFrameType(message);
+		if (frameType == null) {
+			if (!queue.forceOffer(message, INDEPENDENT)) {
+				// the following interframes depend on a dropped frame
+				queue.setRecovering(true);
+			}
+			return true;
+		}
+		switch (frameType) {
+			case KEYFRAME:
+				queue.setRecovering(false);
+				if (!queue.offer(message)) {
+					queue.clear(KEEP_NON_FRAMES);
+					queue.forceOffer(message);
+				}
+				return true;
+			case DISPOSABLE_INTERFRAME:
+				return !queue.isRecovering() && queue.offer(message);
+			default:
+				if (queue.isRecovering()) {
+					return false;
+				}
+				if (queue.offer(message)) {
+					return true;
+				}
+				// the following interframes depend on this one
+				queue.setRecovering(true);
+				return false;
+		}
+	}
+
+	/**
+	 * Return the type of the video frame in a message.
+	 * 
+	 * @param message Message
+	 * @return Frame type or <code>null</code> if the message is no video frame
+	 */
+	private VideoData.FrameType getFrameType(IMessage message) {
+		if (message instanceof RTMPMessage
+				&& ((RTMPMessage) message).getBody() instanceof VideoData) {
+			return ((VideoData) ((RTMPMessage) message).getBody()).getFrameType();
+		}
+		return null;
+	}
+
+}
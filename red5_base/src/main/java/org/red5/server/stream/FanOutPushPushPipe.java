@@ -0,0 +1,161 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.red5.server.messaging.IConsumer;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.InMemoryPushPushPipe;
+
+/**
+ * Push-push pipe that delivers messages to its consumers asynchronously. Each
+ * consumer gets a bounded queue that is drained by the workers of an
+ * executor, so a slow consumer neither delays the provider nor the other
+ * consumers. When the queue of a consumer is full, the overflow policy
+ * decides which messages are dropped.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class FanOutPushPushPipe extends InMemoryPushPushPipe {
+
+	private final Executor executor;
+
+	private final int queueSize;
+
+	private final IOverflowPolicy policy;
+
+	private final ConcurrentMap<IConsumer, FanOutQueue> queues = new ConcurrentHashMap<IConsumer, FanOutQueue>();
+
+	private final AtomicLong disconnected = new AtomicLong();
+
+	/**
+	 * Create pipe.
+	 * 
+	 * @param executor Executor that runs the workers
+	 * @param queueSize Maximum number of queued messages per consumer
+	 * @param policy Policy for full queues
+	 */
+	public FanOutPushPushPipe(Executor executor, int queueSize,
+			IOverflowPolicy policy) {
+		this.executor = executor;
+		this.queueSize = queueSize;
+		this.policy = policy;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean subscribe(IConsumer consumer, Map<?, ?> paramMap) {
+		if (!(consumer instanceof IPushableConsumer)) {
+			throw new IllegalArgumentException(
+					"Non-pushable consumer not supported by PushPushPipe");
+		}
+		// the queue must exist before the consumer receives messages
+		FanOutQueue queue = new FanOutQueue(this, (IPushableConsumer) consumer,
+				executor, policy, queueSize);
+		boolean created = queues.putIfAbsent(consumer, queue) == null;
+		boolean success = super.subscribe(consumer, paramMap);
+		if (!success && created) {
+			queues.remove(consumer, queue);
+		}
+		return success;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean unsubscribe(IConsumer consumer) {
+		boolean success = super.unsubscribe(consumer);
+		FanOutQueue queue = queues.remove(consumer);
+		if (queue != null) {
+			queue.close();
+		}
+		return success;
+	}
+
+	/**
+	 * Queues a message for all the PushableConsumers, the message is
+	 * delivered by the workers.
+	 */
+	@Override
+	public void pushMessage(IMessage message) {
+		for (IConsumer consumer : consumers) {
+			FanOutQueue queue = queues.get(consumer);
+			if (queue != null) {
+				queue.push(message);
+			}
+		}
+	}
+
+	/**
+	 * Disconnect the consumer of a queue, called by the worker that drains the
+	 * queue. Subscribers are stopped so the client is notified.
+	 * 
+	 * @param queue Queue of the consumer
+	 */
+	protected void disconnect(FanOutQueue queue) {
+		IPushableConsumer consumer = queue.getConsumer();
+		if (!unsubscribe(consumer)) {
+			return;
+		}
+		disconnected.incrementAndGet();
+		if (consumer instanceof PlayEngine) {
+			try {
+				((PlayEngine) consumer).stop();
+			} catch (IllegalStateException e) {
+				// not playing anymore
+			}
+		}
+	}
+
+	/**
+	 * Return the queue of a consumer.
+	 * 
+	 * @param consumer Consumer
+	 * @return Queue or <code>null</code> if the consumer is not subscribed
+	 */
+	public FanOutQueue getQueue(IConsumer consumer) {
+		return queues.get(consumer);
+	}
+
+	/**
+	 * Getter for the queues of the consumers.
+	 * 
+	 * @return Queues
+	 */
+	public Collection<FanOutQueue> getQueues() {
+		return queues.values();
+	}
+
+	/**
+	 * @return Number of consumers that have been disconnected by the overflow
+	 *         policy or after errors
+	 */
+	public long getDisconnected() {
+		return disconnected.get();
+	}
+
+}
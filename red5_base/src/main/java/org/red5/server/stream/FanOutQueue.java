@@ -0,0 +1,510 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.stream.message.RTMPMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of the messages for one consumer of a
+ * {@link FanOutPushPushPipe}. The messages are kept in a lock-free ring
+ * buffer and delivered by a worker of the executor, at most one worker
+ * drains a queue at a time so the consumer receives the messages in order.
+ * The events of queued messages are retained until they have been delivered
+ * or dropped.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class FanOutQueue implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(FanOutQueue.class);
+
+	/**
+	 * Maximum number of messages delivered before the worker moves on to
+	 * other queues
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private final FanOutPushPushPipe pipe;
+
+	private final IPushableConsumer consumer;
+
+	private final Executor executor;
+
+	private final IOverflowPolicy policy;
+
+	private final AtomicReferenceArray<IMessage> buffer;
+
+	/**
+	 * Sequence of each slot, tells producers and consumers of the ring whether
+	 * the slot is free or filled in the current round
+	 */
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	/**
+	 * Position of the next message to poll
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Position of the next message to offer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Set while a worker has been scheduled to drain the queue
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private volatile boolean closed;
+
+	private volatile boolean disconnecting;
+
+	private volatile boolean recovering;
+
+	private final AtomicLong delivered = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile int maxQueued;
+
+	private volatile int lastQueuedTimestamp;
+
+	private volatile int lastDeliveredTimestamp;
+
+	/**
+	 * Create queue for a consumer.
+	 * 
+	 * @param pipe Pipe the consumer is subscribed to
+	 * @param consumer Consumer
+	 * @param executor Executor that runs the workers
+	 * @param policy Policy for full queues
+	 * @param capacity Maximum number of queued messages, rounded up to the next
+	 *            power of two
+	 */
+	public FanOutQueue(FanOutPushPushPipe pipe, IPushableConsumer consumer,
+			Executor executor, IOverflowPolicy policy, int capacity) {
+		this.pipe = pipe;
+		this.consumer = consumer;
+		this.executor = executor;
+		this.policy = policy;
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		buffer = new AtomicReferenceArray<IMessage>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Queue a message for the consumer according to the overflow policy and
+	 * schedule its delivery.
+	 * 
+	 * @param message Message
+	 */
+	public void push(IMessage message) {
+		if (closed) {
+			return;
+		}
+		retain(message);
+		if (!policy.offer(this, message)) {
+			dropped.incrementAndGet();
+			release(message);
+		}
+		if (closed) {
+			// closed while the message was queued
+			clear();
+			return;
+		}
+		schedule();
+	}
+
+	/**
+	 * Add a message to the queue if there is room for it.
+	 * 
+	 * @param message Message
+	 * @return <code>true</code> if the message has been queued,
+	 *         <code>false</code> if the queue is full
+	 */
+	public boolean offer(IMessage message) {
+		while (true) {
+			long pos = tail.get();
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer.set(index, message);
+					sequences.set(index, pos + 1);
+					queued(message);
+					return true;
+				}
+			} else if (diff < 0) {
+				// the slot still holds the message of the previous round
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Add a message to the queue, the oldest messages are dropped if the
+	 * queue is full.
+	 * 
+	 * @param message Message
+	 */
+	public void forceOffer(IMessage message) {
+		while (!offer(message)) {
+			dropOldest();
+		}
+	}
+
+	/**
+	 * Add a message to the queue, the oldest messages are dropped if the
+	 * queue is full.
+	 * 
+	 * @param message Message
+	 * @param filter Filter of the messages that can be dropped on their own
+	 * @return <code>false</code> if a dropped message was not accepted by the
+	 *         filter
+	 */
+	public boolean forceOffer(IMessage message, MessageFilter filter) {
+		boolean accepted = true;
+		while (!offer(message)) {
+			IMessage oldest = poll();
+			if (oldest != null) {
+				if (!filter.keep(oldest)) {
+					accepted = false;
+				}
+				dropped.incrementAndGet();
+				release(oldest);
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Drop the oldest queued message.
+	 * 
+	 * @return <code>true</code> if a message has been dropped,
+	 *         <code>false</code> if the queue was empty
+	 */
+	public boolean dropOldest() {
+		IMessage message = poll();
+		if (message == null) {
+			return false;
+		}
+		dropped.incrementAndGet();
+		release(message);
+		return true;
+	}
+
+	/**
+	 * Drop all queued messages.
+	 */
+	public void clear() {
+		while (dropOldest()) {
+		}
+	}
+
+	/**
+	 * Drop the queued messages the filter does not keep, the kept messages
+	 * stay queued in their order. Must be called by the thread that pushes
+	 * the messages.
+	 * 
+	 * @param filter Filter of the messages to keep
+	 */
+	public void clear(MessageFilter filter) {
+		List<IMessage> kept = new ArrayList<IMessage>();
+		IMessage message;
+		while ((message = poll()) != null) {
+			if (filter.keep(message)) {
+				kept.add(message);
+			} else {
+				dropped.incrementAndGet();
+				release(message);
+			}
+		}
+		for (IMessage keep : kept) {
+			if (!offer(keep)) {
+				dropped.incrementAndGet();
+				release(keep);
+			}
+		}
+	}
+
+	/**
+	 * Disconnect the consumer from the pipe, queued messages are dropped. The
+	 * consumer is disconnected by a worker, so the pushing thread does not
+	 * wait for a delivery in progress.
+	 */
+	public void disconnect() {
+		disconnecting = true;
+		schedule();
+	}
+
+	/**
+	 * Stop the delivery of messages and drop the queued messages.
+	 */
+	public void close() {
+		closed = true;
+		clear();
+	}
+
+	/**
+	 * Take the oldest message from the ring.
+	 * 
+	 * @return Message or <code>null</code> if the queue is empty
+	 */
+	private IMessage poll() {
+		while (true) {
+			long pos = head.get();
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					IMessage message = buffer.getAndSet(index, null);
+					// free the slot for the next round
+					sequences.set(index, pos + mask + 1);
+					return message;
+				}
+			} else if (diff < 0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Schedule a worker unless one is scheduled already.
+	 */
+	private void schedule() {
+		if (!closed && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				log.warn("Could not schedule delivery of messages to consumer " + consumer);
+			}
+		}
+	}
+
+	/**
+	 * Deliver queued messages to the consumer.
+	 */
+	public void run() {
+		try {
+			int count = 0;
+			IMessage message;
+			while (!disconnecting && count < BATCH_SIZE
+					&& (message = poll()) != null) {
+				count++;
+				try {
+					if (!closed) {
+						deliver(message);
+					}
+				} finally {
+					release(message);
+				}
+			}
+			if (disconnecting && !closed) {
+				close();
+				pipe.disconnect(this);
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		if (!isEmpty() || (disconnecting && !closed)) {
+			schedule();
+		}
+	}
+
+	private void deliver(IMessage message) {
+		try {
+			consumer.pushMessage(pipe, message);
+			delivered.incrementAndGet();
+			if (message instanceof RTMPMessage
+					&& ((RTMPMessage) message).getBody() != null) {
+				lastDeliveredTimestamp = ((RTMPMessage) message).getBody().getTimestamp();
+			}
+		} catch (IOException e) {
+			log.warn("Disconnecting consumer " + consumer + " after error", e);
+			disconnecting = true;
+		} catch (Throwable t) {
+			log.error("exception when pushing message to consumer", t);
+		}
+	}
+
+	/**
+	 * Update the statistics for a message that has been queued.
+	 */
+	private void queued(IMessage message) {
+		if (message instanceof RTMPMessage
+				&& ((RTMPMessage) message).getBody() != null) {
+			lastQueuedTimestamp = ((RTMPMessage) message).getBody().getTimestamp();
+		}
+		int size = size();
+		if (size > maxQueued) {
+			maxQueued = size;
+		}
+	}
+
+	private static void retain(IMessage message) {
+		if (message instanceof RTMPMessage) {
+			IRTMPEvent body = ((RTMPMessage) message).getBody();
+			if (body != null) {
+				body.retain();
+			}
+		}
+	}
+
+	private static void release(IMessage message) {
+		if (message instanceof RTMPMessage) {
+			IRTMPEvent body = ((RTMPMessage) message).getBody();
+			if (body != null) {
+				body.release();
+			}
+		}
+	}
+
+	/**
+	 * Selects queued messages, the messages that are kept by
+	 * {@link FanOutQueue#clear(MessageFilter)} or that can be dropped on their
+	 * own by {@link FanOutQueue#forceOffer(IMessage, MessageFilter)}.
+	 */
+	public interface MessageFilter {
+
+		/**
+		 * @param message Queued message
+		 * @return <code>true</code> if the message is selected
+		 */
+		boolean keep(IMessage message);
+
+	}
+
+	/**
+	 * Getter for the consumer.
+	 * 
+	 * @return Consumer
+	 */
+	public IPushableConsumer getConsumer() {
+		return consumer;
+	}
+
+	/**
+	 * Flag of overflow policies that drop messages until the consumer can
+	 * recover, e.g. at the next keyframe.
+	 * 
+	 * @return <code>true</code> while messages are dropped
+	 */
+	public boolean isRecovering() {
+		return recovering;
+	}
+
+	/**
+	 * Setter for the recovery flag.
+	 * 
+	 * @param recovering <code>true</code> while messages are dropped
+	 */
+	public void setRecovering(boolean recovering) {
+		this.recovering = recovering;
+	}
+
+	/**
+	 * @return <code>true</code> if the consumer has been disconnected
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return <code>true</code> if no messages are queued
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return Number of queued messages
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/**
+	 * @return Maximum number of queued messages
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return Largest number of messages that have been queued at once
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * @return Number of messages delivered to the consumer
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return Number of messages dropped for the consumer
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Return how far the consumer is behind the pushed messages, measured by
+	 * the timestamps of the last queued and the last delivered message.
+	 * 
+	 * @return Lag in milliseconds, 0 if no messages are queued
+	 */
+	public int getLag() {
+		if (isEmpty()) {
+			return 0;
+		}
+		return Math.max(0, lastQueuedTimestamp - lastDeliveredTimestamp);
+	}
+
+}
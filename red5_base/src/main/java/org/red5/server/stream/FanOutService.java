@@ -0,0 +1,246 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.red5.server.jmx.JMXAgent;
+import org.red5.server.messaging.InMemoryPushPushPipe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the pipes of broadcast scopes. If enabled, live streams are
+ * delivered to their subscribers by a {@link FanOutPushPushPipe} whose
+ * workers are shared by all streams, otherwise the publishing thread pushes
+ * the messages to all subscribers. The settings apply to pipes created after
+ * they have been changed.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class FanOutService implements FanOutServiceMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(FanOutService.class);
+
+	/**
+	 * Singleton instance.
+	 */
+	private static volatile FanOutService instance = null;
+
+	private boolean enabled = false;
+
+	private int workerThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Maximum number of queued messages per subscriber
+	 */
+	private int queueSize = 256;
+
+	private IOverflowPolicy overflowPolicy = new DropNonKeyframesPolicy();
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Pipes that have been created, kept for the statistics
+	 */
+	private final Map<FanOutPushPushPipe, Boolean> pipes = new WeakHashMap<FanOutPushPushPipe, Boolean>();
+
+	/**
+	 * Return singleton instance of the service, a disabled service is created
+	 * if none has been configured.
+	 * 
+	 * @return singleton instance of service.
+	 */
+	public static FanOutService getInstance() {
+		if (instance == null) {
+			synchronized (FanOutService.class) {
+				if (instance == null) {
+					new FanOutService();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Create instance of the service.
+	 */
+	public FanOutService() {
+		if (instance != null) {
+			log.error("Instance was not null, this is not a good sign");
+		}
+		instance = this;
+	}
+
+	/**
+	 * Register the service with JMX.
+	 */
+	public void init() {
+		JMXAgent.registerMBean(this, this.getClass().getName(),
+				FanOutServiceMBean.class);
+	}
+
+	/**
+	 * Create the pipe of a broadcast scope.
+	 * 
+	 * @return Asynchronous pipe if enabled, synchronous pipe otherwise
+	 */
+	public InMemoryPushPushPipe createPipe() {
+		if (!enabled) {
+			return new InMemoryPushPushPipe();
+		}
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(getExecutor(),
+				queueSize, overflowPolicy);
+		synchronized (pipes) {
+			pipes.put(pipe, Boolean.TRUE);
+		}
+		return pipe;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "FanOutWorker-"
+									+ count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return executor;
+	}
+
+	/**
+	 * Stop the workers, queued messages are not delivered anymore.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private List<FanOutPushPushPipe> getPipes() {
+		synchronized (pipes) {
+			return new ArrayList<FanOutPushPushPipe>(pipes.keySet());
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public IOverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(IOverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public String getOverflowPolicyName() {
+		return overflowPolicy.getClass().getName();
+	}
+
+	public int getConsumers() {
+		int consumers = 0;
+		for (FanOutPushPushPipe pipe : getPipes()) {
+			consumers += pipe.getQueues().size();
+		}
+		return consumers;
+	}
+
+	public long getQueuedMessages() {
+		long queued = 0;
+		for (FanOutPushPushPipe pipe : getPipes()) {
+			for (FanOutQueue queue : pipe.getQueues()) {
+				queued += queue.size();
+			}
+		}
+		return queued;
+	}
+
+	public long getDroppedMessages() {
+		long dropped = 0;
+		for (FanOutPushPushPipe pipe : getPipes()) {
+			for (FanOutQueue queue : pipe.getQueues()) {
+				dropped += queue.getDropped();
+			}
+		}
+		return dropped;
+	}
+
+	public long getDisconnectedConsumers() {
+		long disconnected = 0;
+		for (FanOutPushPushPipe pipe : getPipes()) {
+			disconnected += pipe.getDisconnected();
+		}
+		return disconnected;
+	}
+
+	public int getMaxLag() {
+		int maxLag = 0;
+		for (FanOutPushPushPipe pipe : getPipes()) {
+			for (FanOutQueue queue : pipe.getQueues()) {
+				maxLag = Math.max(maxLag, queue.getLag());
+			}
+		}
+		return maxLag;
+	}
+
+	public synchronized int getActiveWorkers() {
+		return executor == null ? 0 : executor.getActiveCount();
+	}
+
+}
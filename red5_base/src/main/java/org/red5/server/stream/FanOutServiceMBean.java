@@ -0,0 +1,72 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+/**
+ * Settings and statistics of the asynchronous delivery of live streams to
+ * their subscribers.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface FanOutServiceMBean {
+
+	public boolean isEnabled();
+
+	public int getWorkerThreads();
+
+	public int getQueueSize();
+
+	/**
+	 * @return Class name of the overflow policy
+	 */
+	public String getOverflowPolicyName();
+
+	/**
+	 * @return Number of subscribers with a queue
+	 */
+	public int getConsumers();
+
+	/**
+	 * @return Number of messages queued for all subscribers
+	 */
+	public long getQueuedMessages();
+
+	/**
+	 * @return Number of messages dropped for the current subscribers
+	 */
+	public long getDroppedMessages();
+
+	/**
+	 * @return Number of subscribers that have been disconnected
+	 */
+	public long getDisconnectedConsumers();
+
+	/**
+	 * @return Largest lag of a subscriber in milliseconds
+	 */
+	public int getMaxLag();
+
+	/**
+	 * @return Number of workers delivering messages
+	 */
+	public int getActiveWorkers();
+
+}
@@ -122,13 +122,7 @@ public class FileStreamSource implements ISeekableStreamSource, Constants {
 			// TODO add audio-seek capability
 			return ts;
 		}
-		int frame = 0;
-		for (int i = 0; i < keyFrameMeta.positions.length; i++) {
-			if (keyFrameMeta.timestamps[i] > ts) {
-				break;
-			}
-			frame = i;
-		}
+		int frame = keyFrameMeta.findKeyFrame(ts);
 		reader.position(keyFrameMeta.positions[frame]);
 		return keyFrameMeta.timestamps[frame];
 	}
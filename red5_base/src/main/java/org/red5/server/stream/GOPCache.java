@@ -0,0 +1,306 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.event.VideoData.FrameType;
+
+/**
+ * Keeps the frames of a live stream since its last keyframe, together with
+ * the latest metadata and the audio and video configuration, so new
+ * subscribers can start playback without waiting for the next keyframe.
+ * The frames are retained in a ring until the next keyframe replaces them.
+ * If a group of pictures exceeds the size available to the stream or to all
+ * streams, nothing is cached until the next keyframe.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class GOPCache {
+
+	/**
+	 * Maximum number of bytes cached per stream
+	 */
+	private static int maxStreamSize = 4 * 1024 * 1024;
+
+	/**
+	 * Maximum number of bytes cached for all streams
+	 */
+	private static long maxTotalSize = 64 * 1024 * 1024;
+
+	/**
+	 * Maximum number of frames cached per stream
+	 */
+	private static int maxFrames = 1024;
+
+	/**
+	 * Number of bytes cached for all streams
+	 */
+	private static final AtomicLong totalSize = new AtomicLong();
+
+	private IRTMPEvent metaData;
+
+	private IRTMPEvent videoConfig;
+
+	private IRTMPEvent audioConfig;
+
+	/**
+	 * Frames since the last keyframe, starting at <code>head</code>
+	 */
+	private IRTMPEvent[] frames;
+
+	private int head;
+
+	private int count;
+
+	/**
+	 * Number of bytes retained by the cache
+	 */
+	private long size;
+
+	/**
+	 * Cache the given event.
+	 * 
+	 * @param event Audio, video or notify event of the stream
+	 */
+	public synchronized void add(IRTMPEvent event) {
+		if (event instanceof VideoData) {
+			VideoData video = (VideoData) event;
+			if (isVideoConfig(video.getData())) {
+				videoConfig = replace(videoConfig, event);
+			} else if (video.getFrameType() == FrameType.KEYFRAME) {
+				clearFrames();
+				if (frames == null) {
+					frames = new IRTMPEvent[maxFrames];
+				}
+				addFrame(event);
+			} else if (count > 0) {
+				addFrame(event);
+			}
+		} else if (event instanceof AudioData) {
+			if (isAudioConfig(((AudioData) event).getData())) {
+				audioConfig = replace(audioConfig, event);
+			} else if (count > 0) {
+				addFrame(event);
+			}
+		} else if (event instanceof Notify) {
+			if (isMetaData(((Notify) event).getData())) {
+				metaData = replace(metaData, event);
+			}
+		}
+	}
+
+	/**
+	 * Return the cached events in the order they should be sent: metadata,
+	 * configuration and the frames since the last keyframe. Metadata and
+	 * configuration are copied with the timestamp of the keyframe, so the
+	 * timestamps don't decrease. The events must be released by the caller.
+	 * 
+	 * @return Cached events
+	 */
+	public synchronized List<IRTMPEvent> getEvents() {
+		List<IRTMPEvent> events = new ArrayList<IRTMPEvent>(count + 3);
+		int timestamp = count > 0 ? frames[head].getTimestamp() : -1;
+		if (metaData != null) {
+			events.add(copy(new Notify(readOnly(metaData)), metaData, timestamp));
+		}
+		if (videoConfig != null) {
+			events.add(copy(new VideoData(readOnly(videoConfig)), videoConfig, timestamp));
+		}
+		if (audioConfig != null) {
+			events.add(copy(new AudioData(readOnly(audioConfig)), audioConfig, timestamp));
+		}
+		for (int i = 0; i < count; i++) {
+			IRTMPEvent frame = frames[(head + i) % frames.length];
+			frame.retain();
+			events.add(frame);
+		}
+		return events;
+	}
+
+	private static ByteBuffer readOnly(IRTMPEvent event) {
+		return ((IStreamData) event).getData().asReadOnlyBuffer();
+	}
+
+	private static IRTMPEvent copy(IRTMPEvent copy, IRTMPEvent event,
+			int timestamp) {
+		copy.setTimestamp(timestamp >= 0 ? timestamp : event.getTimestamp());
+		return copy;
+	}
+
+	/**
+	 * Release all cached events.
+	 */
+	public synchronized void clear() {
+		clearFrames();
+		metaData = replace(metaData, null);
+		videoConfig = replace(videoConfig, null);
+		audioConfig = replace(audioConfig, null);
+	}
+
+	/**
+	 * @return Number of bytes retained by the cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Number of frames since the last keyframe
+	 */
+	public synchronized int getFrames() {
+		return count;
+	}
+
+	private IRTMPEvent replace(IRTMPEvent old, IRTMPEvent event) {
+		if (old != null) {
+			release(old);
+		}
+		if (event != null && reserve(event)) {
+			event.retain();
+			return event;
+		}
+		return null;
+	}
+
+	private void addFrame(IRTMPEvent event) {
+		if (count == frames.length || !reserve(event)) {
+			// incomplete groups of pictures are useless
+			clearFrames();
+			return;
+		}
+		event.retain();
+		frames[(head + count) % frames.length] = event;
+		count++;
+	}
+
+	private void clearFrames() {
+		for (int i = 0; i < count; i++) {
+			int index = (head + i) % frames.length;
+			release(frames[index]);
+			frames[index] = null;
+		}
+		head = 0;
+		count = 0;
+	}
+
+	/**
+	 * Account for the size of an event if the limits allow it.
+	 */
+	private boolean reserve(IRTMPEvent event) {
+		int length = getLength(event);
+		if (size + length > maxStreamSize) {
+			return false;
+		}
+		if (totalSize.addAndGet(length) > maxTotalSize) {
+			totalSize.addAndGet(-length);
+			return false;
+		}
+		size += length;
+		return true;
+	}
+
+	private void release(IRTMPEvent event) {
+		int length = getLength(event);
+		size -= length;
+		totalSize.addAndGet(-length);
+		event.release();
+	}
+
+	private static int getLength(IRTMPEvent event) {
+		ByteBuffer data = ((IStreamData) event).getData();
+		return data == null ? 0 : data.limit();
+	}
+
+	/**
+	 * @return <code>true</code> for an AVC sequence header
+	 */
+	static boolean isVideoConfig(ByteBuffer data) {
+		return data != null && data.limit() > 1 && (data.get(0) & 0x0f) == 7
+				&& data.get(1) == 0;
+	}
+
+	/**
+	 * @return <code>true</code> for an AAC sequence header
+	 */
+	static boolean isAudioConfig(ByteBuffer data) {
+		return data != null && data.limit() > 1
+				&& ((data.get(0) & 0xf0) >> 4) == 10 && data.get(1) == 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the notification is an onMetaData call,
+	 *         possibly wrapped by @setDataFrame
+	 */
+	private static boolean isMetaData(ByteBuffer data) {
+		if (data == null || data.limit() < 3 || data.get(0) != 2) {
+			return false;
+		}
+		int length = ((data.get(1) & 0xff) << 8) | (data.get(2) & 0xff);
+		if (data.limit() < 3 + length) {
+			return false;
+		}
+		byte[] name = new byte[length];
+		for (int i = 0; i < length; i++) {
+			name[i] = data.get(3 + i);
+		}
+		String action = new String(name);
+		return "onMetaData".equals(action) || "@setDataFrame".equals(action);
+	}
+
+	/**
+	 * @return Number of bytes cached for all streams
+	 */
+	public static long getTotalSize() {
+		return totalSize.get();
+	}
+
+	public static int getMaxStreamSize() {
+		return maxStreamSize;
+	}
+
+	public static void setMaxStreamSize(int maxStreamSize) {
+		GOPCache.maxStreamSize = maxStreamSize;
+	}
+
+	public static long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	public static void setMaxTotalSize(long maxTotalSize) {
+		GOPCache.maxTotalSize = maxTotalSize;
+	}
+
+	public static int getMaxFrames() {
+		return maxFrames;
+	}
+
+	public static void setMaxFrames(int maxFrames) {
+		GOPCache.maxFrames = maxFrames;
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+/**
+ * Flow control state of a consumer that writes to a client connection. Lets
+ * the play engine decide whether to send more data without sending
+ * out-of-band control messages through the pipe.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface IConsumerFlowControl {
+
+	/**
+	 * Return number of messages queued on the connection.
+	 * 
+	 * @return Number of pending messages
+	 */
+	public long getPendingMessages();
+
+	/**
+	 * Return number of video messages of the stream queued on the connection.
+	 * 
+	 * @return Number of pending video messages
+	 */
+	public long getPendingVideoMessages();
+
+	/**
+	 * Return number of bytes written to the client that it has not reported to
+	 * have received.
+	 * 
+	 * @return Delta between written bytes and bytes read by the client
+	 */
+	public long getWriteDelta();
+
+	/**
+	 * Return the interval the client should use for generating BytesRead
+	 * messages, half of the allowed downstream bandwidth.
+	 * 
+	 * @return Interval in bytes
+	 */
+	public long getBytesReadInterval();
+
+}
@@ -0,0 +1,46 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import org.red5.server.messaging.IMessage;
+
+/**
+ * Decides what happens to a message that is pushed to a consumer of a
+ * {@link FanOutPushPushPipe}. Policies are shared by all consumers of the
+ * pipes and must keep their state in the queue.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface IOverflowPolicy {
+
+	/**
+	 * Queue a message for the consumer of the given queue. The queue is
+	 * bounded, so the policy decides what to drop once it is full. Called
+	 * by the pushing thread only.
+	 * 
+	 * @param queue Queue of the consumer
+	 * @param message Message to queue
+	 * @return <code>true</code> if the message has been queued,
+	 *         <code>false</code> if it has been dropped
+	 */
+	public boolean offer(FanOutQueue queue, IMessage message);
+
+}
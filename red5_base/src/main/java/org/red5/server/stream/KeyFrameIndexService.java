@@ -0,0 +1,295 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.red5.io.BufferType;
+import org.red5.io.IKeyFrameMetaCache;
+import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+import org.red5.io.flv.impl.FLVReader;
+import org.red5.server.jmx.JMXAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the keyframe informations of the FLV files in the configured
+ * directories in the background, so the first viewer of a file doesn't have
+ * to wait until the whole file has been scanned. The files are indexed in
+ * parallel by a pool of low priority threads, files with valid informations
+ * in the keyframe cache are skipped. The progress is available through JMX.
+ */
+public class KeyFrameIndexService implements KeyFrameIndexServiceMBean {
+
+	private static Logger log = LoggerFactory.getLogger(KeyFrameIndexService.class);
+
+	/**
+	 * Directories to index, including their subdirectories
+	 */
+	private List<String> directories = new ArrayList<String>();
+
+	private IKeyFrameMetaCache keyFrameCache;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean indexOnStartup = true;
+
+	private ExecutorService executor;
+
+	/**
+	 * Set when the service is shut down, queued files are skipped then
+	 */
+	private volatile boolean stopped;
+
+	private final AtomicInteger found = new AtomicInteger();
+
+	private final AtomicInteger indexed = new AtomicInteger();
+
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Directory walks and files that have not been finished yet
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicLong indexTime = new AtomicLong();
+
+	private static final FileFilter filter = new FileFilter() {
+		public boolean accept(File file) {
+			return file.isDirectory() || file.getName().toLowerCase().endsWith(".flv");
+		}
+	};
+
+	public void init() {
+		JMXAgent.registerMBean(this, this.getClass().getName(), KeyFrameIndexServiceMBean.class);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "KeyFrameIndexer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		if (indexOnStartup) {
+			reindex();
+		}
+	}
+
+	/**
+	 * Stop indexing, files that are being indexed are finished. The threads
+	 * are not interrupted, as that would close the channels they read from.
+	 */
+	public void shutdown() {
+		stopped = true;
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					log.warn("Indexing did not finish in time");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Index all files of the directories again, files with valid informations
+	 * are skipped.
+	 */
+	public void reindex() {
+		for (String directory : directories) {
+			walk(new File(directory));
+		}
+	}
+
+	/**
+	 * Queue the files of a directory and walk its subdirectories.
+	 */
+	private void walk(final File directory) {
+		submit(new Runnable() {
+			public void run() {
+				try {
+					if (stopped) {
+						return;
+					}
+					File[] files = directory.listFiles(filter);
+					if (files == null) {
+						log.warn("Can't list files of {}", directory);
+						return;
+					}
+					for (File file : files) {
+						if (file.isDirectory()) {
+							walk(file);
+						} else {
+							found.incrementAndGet();
+							index(file);
+						}
+					}
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queue a task unless the service has been shut down.
+	 */
+	private void submit(Runnable task) {
+		pending.incrementAndGet();
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			log.debug("Task rejected, service has been shut down");
+			pending.decrementAndGet();
+		}
+	}
+
+	private void index(final File file) {
+		submit(new Runnable() {
+			public void run() {
+				try {
+					if (stopped) {
+						return;
+					}
+					if (keyFrameCache.loadKeyFrameMeta(file) != null) {
+						skipped.incrementAndGet();
+						return;
+					}
+					long start = System.currentTimeMillis();
+					// the reader analyzes the file when it is opened, a private
+					// reader doesn't keep the file open in the shared cache
+					FLVReader reader = new FLVReader(file, false, BufferType.HEAP);
+					KeyFrameMeta meta;
+					try {
+						meta = reader.analyzeKeyFrames();
+					} finally {
+						reader.close();
+					}
+					if (keyFrameCache.loadKeyFrameMeta(file) == null) {
+						// the readers use a different cache
+						keyFrameCache.saveKeyFrameMeta(file, meta);
+					}
+					indexTime.addAndGet(System.currentTimeMillis() - start);
+					indexed.incrementAndGet();
+					log.debug("Indexed {}, {} keyframes", file, meta.positions.length);
+				} catch (Exception e) {
+					failed.incrementAndGet();
+					log.warn("Could not index {}", file, e);
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Setter for the directories to index.
+	 *
+	 * @param directories Directories, including their subdirectories
+	 */
+	public void setDirectories(List<String> directories) {
+		this.directories = directories;
+	}
+
+	public String[] getDirectories() {
+		return directories.toArray(new String[directories.size()]);
+	}
+
+	/**
+	 * Setter for the cache the informations are stored in.
+	 *
+	 * @param keyFrameCache Keyframe cache
+	 */
+	public void setKeyFrameCache(IKeyFrameMetaCache keyFrameCache) {
+		this.keyFrameCache = keyFrameCache;
+	}
+
+	/**
+	 * Setter for the number of files indexed in parallel.
+	 *
+	 * @param threads Number of threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Setter for indexing the directories when the service is started.
+	 *
+	 * @param indexOnStartup <code>true</code> to index on startup
+	 */
+	public void setIndexOnStartup(boolean indexOnStartup) {
+		this.indexOnStartup = indexOnStartup;
+	}
+
+	public boolean isIndexing() {
+		return pending.get() > 0;
+	}
+
+	public int getFilesFound() {
+		return found.get();
+	}
+
+	public int getFilesIndexed() {
+		return indexed.get();
+	}
+
+	public int getFilesSkipped() {
+		return skipped.get();
+	}
+
+	public int getFilesFailed() {
+		return failed.get();
+	}
+
+	public int getFilesPending() {
+		return found.get() - indexed.get() - skipped.get() - failed.get();
+	}
+
+	/**
+	 * Return the time spent indexing files.
+	 *
+	 * @return Time in milliseconds, summed over all threads
+	 */
+	public long getIndexTime() {
+		return indexTime.get();
+	}
+
+}
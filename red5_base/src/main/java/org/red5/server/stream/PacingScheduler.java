@@ -0,0 +1,536 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.red5.server.jmx.JMXAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paces the playback of on-demand streams. The streams are distributed over
+ * shards, by default one per processor, each of them with a thread that keeps
+ * its streams in a queue ordered by the time their next messages are due. A
+ * shard only wakes up when the first of its streams is due, instead of every
+ * stream polling its source at a fixed rate.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public class PacingScheduler implements PacingSchedulerMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(PacingScheduler.class);
+
+	/**
+	 * Singleton instance.
+	 */
+	private static volatile PacingScheduler instance = null;
+
+	private boolean enabled = false;
+
+	private int shardCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Delay in milliseconds before a stream that waits for its connection to
+	 * send the queued messages is paced again
+	 */
+	private int retryInterval = 10;
+
+	/**
+	 * Maximum number of messages sent by a stream before the other streams of
+	 * its shard are paced
+	 */
+	private int batchSize = 32;
+
+	private Shard[] shards;
+
+	private final ConcurrentMap<IPacedStream, Entry> entries = new ConcurrentHashMap<IPacedStream, Entry>();
+
+	/**
+	 * Return singleton instance of the scheduler, a disabled scheduler is
+	 * created if none has been configured.
+	 * 
+	 * @return singleton instance of scheduler.
+	 */
+	public static PacingScheduler getInstance() {
+		if (instance == null) {
+			synchronized (PacingScheduler.class) {
+				if (instance == null) {
+					new PacingScheduler();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Create instance of the scheduler.
+	 */
+	public PacingScheduler() {
+		if (instance != null) {
+			log.error("Instance was not null, this is not a good sign");
+		}
+		instance = this;
+	}
+
+	/**
+	 * Register the scheduler with JMX.
+	 */
+	public void init() {
+		JMXAgent.registerMBean(this, this.getClass().getName(),
+				PacingSchedulerMBean.class);
+	}
+
+	/**
+	 * Stop the shards, scheduled streams are not paced anymore.
+	 */
+	public synchronized void shutdown() {
+		if (shards != null) {
+			for (Shard shard : shards) {
+				shard.stop();
+			}
+			shards = null;
+		}
+		entries.clear();
+	}
+
+	private synchronized Shard[] getShards() {
+		if (shards == null) {
+			shards = new Shard[Math.max(1, shardCount)];
+			for (int i = 0; i < shards.length; i++) {
+				shards[i] = new Shard(i);
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * Pace a stream as soon as possible.
+	 * 
+	 * @param stream Stream to pace
+	 */
+	public void schedule(IPacedStream stream) {
+		schedule(stream, System.currentTimeMillis());
+	}
+
+	/**
+	 * Pace a stream at the given time. A stream that has already been
+	 * scheduled is only moved to an earlier time.
+	 * 
+	 * @param stream Stream to pace
+	 * @param time Time in milliseconds
+	 */
+	public void schedule(IPacedStream stream, long time) {
+		while (true) {
+			Entry entry = entries.get(stream);
+			if (entry == null) {
+				Entry created = new Entry(stream, leastLoaded());
+				entry = entries.putIfAbsent(stream, created);
+				if (entry == null) {
+					entry = created;
+				}
+			}
+			if (entry.shard.schedule(entry, time)) {
+				return;
+			}
+			// removed in the meantime
+			entries.remove(stream, entry);
+		}
+	}
+
+	/**
+	 * Stop pacing a stream.
+	 * 
+	 * @param stream Stream to stop pacing
+	 */
+	public void cancel(IPacedStream stream) {
+		Entry entry = entries.remove(stream);
+		if (entry != null) {
+			entry.shard.remove(entry);
+		}
+	}
+
+	/**
+	 * @param stream Stream
+	 * @return <code>true</code> if the stream is paced
+	 */
+	public boolean isScheduled(IPacedStream stream) {
+		return entries.containsKey(stream);
+	}
+
+	private Shard leastLoaded() {
+		Shard result = null;
+		for (Shard shard : getShards()) {
+			if (result == null || shard.streams.get() < result.streams.get()) {
+				result = shard;
+			}
+		}
+		return result;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public void setShardCount(int shardCount) {
+		this.shardCount = shardCount;
+	}
+
+	public int getRetryInterval() {
+		return retryInterval;
+	}
+
+	public void setRetryInterval(int retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getPacedStreams() {
+		return entries.size();
+	}
+
+	public int[] getShardStreams() {
+		Shard[] shards = getShards();
+		int[] result = new int[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			result[i] = shards[i].streams.get();
+		}
+		return result;
+	}
+
+	public double[] getShardLoads() {
+		Shard[] shards = getShards();
+		double[] result = new double[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			result[i] = shards[i].getLoad();
+		}
+		return result;
+	}
+
+	public long getRuns() {
+		long runs = 0;
+		for (Shard shard : getShards()) {
+			runs += shard.runs.get();
+		}
+		return runs;
+	}
+
+	public long getWakeups() {
+		long wakeups = 0;
+		for (Shard shard : getShards()) {
+			wakeups += shard.wakeups.get();
+		}
+		return wakeups;
+	}
+
+	public long getMaxLateness() {
+		long maxLateness = 0;
+		for (Shard shard : getShards()) {
+			maxLateness = Math.max(maxLateness, shard.maxLateness.get());
+		}
+		return maxLateness;
+	}
+
+	public double getAverageLateness() {
+		long runs = 0;
+		long lateness = 0;
+		for (Shard shard : getShards()) {
+			runs += shard.runs.get();
+			lateness += shard.lateness.get();
+		}
+		return runs == 0 ? 0 : (double) lateness / runs;
+	}
+
+	public void resetStatistics() {
+		for (Shard shard : getShards()) {
+			shard.resetStatistics();
+		}
+	}
+
+	/**
+	 * Scheduled stream, the fields are guarded by the lock of its shard.
+	 */
+	private static final class Entry implements Comparable<Entry> {
+
+		final IPacedStream stream;
+
+		final Shard shard;
+
+		/**
+		 * Time the stream is due
+		 */
+		long time;
+
+		/**
+		 * Keeps streams that are due at the same time in order
+		 */
+		long sequence;
+
+		/**
+		 * Earliest time requested while the stream was paced, -1 if none
+		 */
+		long requested = -1;
+
+		boolean added;
+
+		boolean queued;
+
+		boolean running;
+
+		boolean removed;
+
+		Entry(IPacedStream stream, Shard shard) {
+			this.stream = stream;
+			this.shard = shard;
+		}
+
+		public int compareTo(Entry other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+
+	}
+
+	/**
+	 * Thread pacing the streams assigned to it in the order they are due.
+	 */
+	private final class Shard implements Runnable {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Condition due = lock.newCondition();
+
+		private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+		private final Thread thread;
+
+		private volatile boolean stopped;
+
+		private long sequence;
+
+		final AtomicInteger streams = new AtomicInteger();
+
+		final AtomicLong runs = new AtomicLong();
+
+		final AtomicLong wakeups = new AtomicLong();
+
+		/**
+		 * Sum of the milliseconds streams have been paced after they were due
+		 */
+		final AtomicLong lateness = new AtomicLong();
+
+		final AtomicLong maxLateness = new AtomicLong();
+
+		/**
+		 * Nanoseconds spent pacing streams since the statistics were reset
+		 */
+		final AtomicLong busy = new AtomicLong();
+
+		private volatile long statisticsStart = System.nanoTime();
+
+		Shard(int index) {
+			thread = new Thread(this, "PacingShard-" + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		boolean schedule(Entry entry, long time) {
+			lock.lock();
+			try {
+				if (entry.removed) {
+					return false;
+				}
+				if (!entry.added) {
+					entry.added = true;
+					streams.incrementAndGet();
+				}
+				if (entry.running) {
+					if (entry.requested < 0 || time < entry.requested) {
+						entry.requested = time;
+					}
+				} else if (!entry.queued) {
+					enqueue(entry, time);
+				} else if (time < entry.time) {
+					queue.remove(entry);
+					enqueue(entry, time);
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void remove(Entry entry) {
+			lock.lock();
+			try {
+				if (entry.queued) {
+					queue.remove(entry);
+					entry.queued = false;
+				}
+				removeLocked(entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void removeLocked(Entry entry) {
+			if (!entry.removed) {
+				entry.removed = true;
+				if (entry.added) {
+					streams.decrementAndGet();
+				}
+			}
+		}
+
+		private void enqueue(Entry entry, long time) {
+			entry.time = time;
+			entry.sequence = sequence++;
+			entry.queued = true;
+			queue.add(entry);
+			if (queue.peek() == entry) {
+				// the shard waits for a later stream
+				due.signal();
+			}
+		}
+
+		/**
+		 * Wait until the first stream is due.
+		 * 
+		 * @return Stream that is due, <code>null</code> if the shard has been
+		 *         stopped
+		 */
+		private Entry take() {
+			lock.lock();
+			try {
+				while (!stopped) {
+					Entry entry = queue.peek();
+					long delay = entry == null ? -1 : entry.time
+							- System.currentTimeMillis();
+					if (entry != null && delay <= 0) {
+						queue.poll();
+						entry.queued = false;
+						entry.running = true;
+						return entry;
+					}
+					if (entry == null) {
+						due.await();
+					} else {
+						due.await(delay, TimeUnit.MILLISECONDS);
+					}
+					wakeups.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+			} finally {
+				lock.unlock();
+			}
+			return null;
+		}
+
+		public void run() {
+			Entry entry;
+			while ((entry = take()) != null) {
+				long now = System.currentTimeMillis();
+				long late = now - entry.time;
+				lateness.addAndGet(late);
+				if (late > maxLateness.get()) {
+					maxLateness.set(late);
+				}
+				long start = System.nanoTime();
+				long next;
+				try {
+					next = entry.stream.pace(now);
+				} catch (Throwable err) {
+					log.error("Error while pacing stream " + entry.stream, err);
+					next = -1;
+				}
+				busy.addAndGet(System.nanoTime() - start);
+				runs.incrementAndGet();
+				lock.lock();
+				try {
+					entry.running = false;
+					if (entry.removed) {
+						continue;
+					}
+					if (entry.requested >= 0) {
+						next = next < 0 ? entry.requested : Math.min(next,
+								entry.requested);
+						entry.requested = -1;
+					}
+					if (next >= 0) {
+						enqueue(entry, next);
+					} else {
+						removeLocked(entry);
+						entries.remove(entry.stream, entry);
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		void stop() {
+			stopped = true;
+			thread.interrupt();
+		}
+
+		/**
+		 * @return Percentage of the time spent pacing streams
+		 */
+		double getLoad() {
+			long elapsed = System.nanoTime() - statisticsStart;
+			return elapsed <= 0 ? 0 : busy.get() * 100.0 / elapsed;
+		}
+
+		void resetStatistics() {
+			runs.set(0);
+			wakeups.set(0);
+			lateness.set(0);
+			maxLateness.set(0);
+			busy.set(0);
+			statisticsStart = System.nanoTime();
+		}
+
+	}
+
+}
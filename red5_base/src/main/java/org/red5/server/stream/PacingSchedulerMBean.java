@@ -0,0 +1,76 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+/**
+ * Settings and statistics of the pacing of on-demand streams.
+ * 
+ * @author The Red5 Project (red5@osflash.org)
+ */
+public interface PacingSchedulerMBean {
+
+	public boolean isEnabled();
+
+	public int getShardCount();
+
+	public int getRetryInterval();
+
+	public int getBatchSize();
+
+	/**
+	 * @return Number of streams being paced
+	 */
+	public int getPacedStreams();
+
+	/**
+	 * @return Number of streams being paced by each shard
+	 */
+	public int[] getShardStreams();
+
+	/**
+	 * @return Percentage of the time each shard spent pacing streams
+	 */
+	public double[] getShardLoads();
+
+	/**
+	 * @return Number of times streams have been paced
+	 */
+	public long getRuns();
+
+	/**
+	 * @return Number of times the shards have woken up
+	 */
+	public long getWakeups();
+
+	/**
+	 * @return Largest delay in milliseconds between the time a stream was
+	 *         due and the time it was paced
+	 */
+	public long getMaxLateness();
+
+	/**
+	 * @return Average delay in milliseconds between the time a stream was due
+	 *         and the time it was paced
+	 */
+	public double getAverageLateness();
+
+	public void resetStatistics();
+
+}
@@ -20,8 +20,12 @@ package org.red5.server.stream;
  */
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -37,6 +41,7 @@ import org.red5.server.api.stream.IPlayItem;
 import org.red5.server.api.stream.IVideoStreamCodec;
 import org.red5.server.api.stream.OperationNotSupportedException;
 import org.red5.server.messaging.AbstractMessage;
+import org.red5.server.messaging.IConsumer;
 import org.red5.server.messaging.IFilter;
 import org.red5.server.messaging.IMessage;
 import org.red5.server.messaging.IMessageComponent;
@@ -81,6 +86,12 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 
 	private IMessageOutput msgOut;
 
+	/**
+	 * Flow control of the consumer writing to the client, looked up when the
+	 * engine connects to its output
+	 */
+	private volatile IConsumerFlowControl flowControl;
+
 	private final PlaylistSubscriberStream playlistSubscriberStream;
 
 	private ISchedulingService schedulingService;
@@ -177,6 +188,21 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 	 */
 	private volatile ScheduledFuture<?> pullAndPushFuture = null;
 
+	/**
+	 * Sends the messages that are due when paced by the scheduler.
+	 */
+	private final IPacedStream pacedStream = new PacedPullAndPush();
+
+	/**
+	 * Is the stream paced by the scheduler?
+	 */
+	private volatile boolean pacing;
+
+	/**
+	 * Time when messages are due next, 0 if they can be sent right away.
+	 */
+	private long nextPullTime;
+
 	/**
 	 * Offset in ms the stream started.
 	 */
@@ -192,6 +218,12 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 	 */
 	private boolean sendBlankAudio;
 
+	/**
+	 * Frames sent from the GOP cache of a live stream that the stream may
+	 * still push.
+	 */
+	private Set<IRTMPEvent> cachedFrames;
+
 	/**
 	 * Constructs a new PlayEngine.
 	 */
@@ -345,6 +377,7 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 		log.debug("play decision is {}", decision);
 		currentItem = item;
 		long itemLength = item.getLength();
+		GOPCache gopCache = null;
 		switch (decision) {
 			case 0:
 				//get source input without create
@@ -355,6 +388,21 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 					// Send initial keyframe
 					IBroadcastStream stream = (IBroadcastStream) ((IBroadcastScope) msgIn)
 							.getAttribute(IBroadcastScope.STREAM_ATTRIBUTE);
+					if (stream instanceof ClientBroadcastStream) {
+						gopCache = ((ClientBroadcastStream) stream).getGOPCache();
+					}
+					if (gopCache != null) {
+						if (withReset) {
+							sendReset();
+							sendResetStatus(item);
+							sendStartStatus(item);
+							sendNotifications = false;
+						}
+						// Subscribe first so no frame is missed, the cache
+						// is sent once the stream is playing
+						msgIn.subscribe(this, null);
+						break;
+					}
 					if (stream != null && stream.getCodecInfo() != null) {
 						IVideoStreamCodec videoCodec = stream.getCodecInfo()
 								.getVideoCodec();
@@ -472,6 +520,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 		if (msg != null) {
 			sendMessage((RTMPMessage) msg);
 		}
+		if (gopCache != null && sendGOPCache(gopCache)) {
+			// Don't wait for keyframe
+			videoFrameDropper.reset();
+		}
 		playlistSubscriberStream.notifyItemPlay(currentItem, !pullMode);
 		if (withReset) {
 			long currentTime = System.currentTimeMillis();
@@ -713,6 +765,7 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 									buffered, buffer });
 			if (buffer > 0 && buffered > buffer) {
 				// Client is likely to have enough data in the buffer
+				nextPullTime = now + buffered - buffer;
 				return false;
 			}
 		}
@@ -728,6 +781,8 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 
 		if (pending > underrunTrigger) {
 			// Too many messages already queued on the connection
+			nextPullTime = now
+					+ PacingScheduler.getInstance().getRetryInterval();
 			return false;
 		}
 
@@ -763,6 +818,15 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 			return;
 		}
 
+		PacingScheduler pacingScheduler = PacingScheduler.getInstance();
+		if (pacingScheduler.isEnabled()) {
+			if (!pacing) {
+				pacing = true;
+				pacingScheduler.schedule(pacedStream);
+			}
+			return;
+		}
+
 		if (pullAndPushFuture == null) {
 			synchronized (this) {
 				if (pullAndPushFuture == null) {
@@ -844,10 +908,40 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 		}
 	}
 
+	/**
+	 * Send the messages that are due, at most a batch of them so the other
+	 * streams of the shard don't have to wait.
+	 * 
+	 * @param now Current time
+	 * @return Time when messages are due next, -1 to stop pacing
+	 * @throws IOException if the message couldn't be pulled
+	 */
+	private synchronized long pace(long now) throws IOException {
+		int batchSize = PacingScheduler.getInstance().getBatchSize();
+		for (int i = 0; i < batchSize; i++) {
+			nextPullTime = 0;
+			pullAndPush();
+			if (!pacing || playlistSubscriberStream.state != State.PLAYING
+					|| waitingForToken) {
+				// stopped, paused or waiting for the bandwidth callback
+				pacing = false;
+				return -1;
+			}
+			if (nextPullTime != 0) {
+				return nextPullTime;
+			}
+		}
+		return now;
+	}
+
 	/**
 	 * Clear all scheduled waiting jobs
 	 */
 	private void clearWaitJobs() {
+		if (pacing) {
+			pacing = false;
+			PacingScheduler.getInstance().cancel(pacedStream);
+		}
 		if (pullAndPushFuture != null) {
 			pullAndPushFuture.cancel(false);
 			pullAndPushFuture = null;
@@ -908,6 +1002,72 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 		doPushMessage(message);
 	}
 
+	/**
+	 * Send the cached events of a live stream the same way as the events the
+	 * stream pushes. The cached frames the stream pushes after they have been
+	 * sent are skipped.
+	 * 
+	 * @param gopCache Cache of the stream
+	 * @return <code>true</code> if a keyframe has been sent
+	 */
+	private boolean sendGOPCache(GOPCache gopCache) {
+		List<IRTMPEvent> events = gopCache.getEvents();
+		boolean keyFrame = false;
+		cachedFrames = Collections.newSetFromMap(new IdentityHashMap<IRTMPEvent, Boolean>());
+		try {
+			for (IRTMPEvent event : events) {
+				if (event instanceof VideoData
+						&& ((VideoData) event).getFrameType() == FrameType.KEYFRAME
+						&& !GOPCache.isVideoConfig(((VideoData) event).getData())) {
+					keyFrame = true;
+				}
+				if (keyFrame) {
+					cachedFrames.add(event);
+				}
+				RTMPMessage message = new RTMPMessage();
+				message.setBody(event);
+				sendMessage(message);
+				if (playlistSubscriberStream.state != State.PLAYING) {
+					// the item length has been reached
+					break;
+				}
+			}
+		} finally {
+			for (IRTMPEvent event : events) {
+				event.release();
+			}
+		}
+		if (cachedFrames.isEmpty()) {
+			cachedFrames = null;
+		}
+		return keyFrame;
+	}
+
+	/**
+	 * Check if the live stream pushes a frame that has already been sent
+	 * from its GOP cache.
+	 * 
+	 * @param body Pushed event
+	 * @return <code>true</code> if the event has been sent
+	 */
+	private boolean isCachedFrame(IRTMPEvent body) {
+		if (cachedFrames == null) {
+			return false;
+		}
+		if (cachedFrames.remove(body)) {
+			if (cachedFrames.isEmpty()) {
+				cachedFrames = null;
+			}
+			return true;
+		}
+		if (body instanceof VideoData
+				&& ((VideoData) body).getFrameType() == FrameType.KEYFRAME) {
+			// the following frames are newer than the cached ones
+			cachedFrames = null;
+		}
+		return false;
+	}
+
 	/**
 	 * Send clear ping, that is, just to check if connection is alive
 	 */
@@ -1215,6 +1375,13 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 						waiting = false;
 					}
 					sendPublishedStatus(currentItem);
+				} else if (event.getSource() instanceof IPipe) {
+					for (IConsumer consumer : ((IPipe) event.getSource()).getConsumers()) {
+						if (consumer instanceof IConsumerFlowControl) {
+							flowControl = (IConsumerFlowControl) consumer;
+							break;
+						}
+					}
 				}
 				break;
 			case PipeConnectionEvent.PROVIDER_DISCONNECT:
@@ -1252,6 +1419,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 			if (!(body instanceof IStreamData)) {
 				throw new RuntimeException(String.format("Expected IStreamData but got %s (type %s)", body.getClass(), body.getDataType()));
 			}
+			if (isCachedFrame(body)) {
+				// Already sent from the GOP cache
+				return;
+			}
 
 			int size = ((IStreamData) body).getData().limit();
 			if (body instanceof VideoData) {
@@ -1313,6 +1484,8 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 					} else {
 						body.setTimestamp(0);
 					}
+					// the message may be shared with other subscribers
+					rtmpMessage = new RTMPMessage();
 					rtmpMessage.setBody(body);
 				} else if (playlistSubscriberStream.state == State.PAUSED 
 						|| !receiveAudio
@@ -1336,6 +1509,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 			log.error("Error while pulling message.", err);
 		}
 		checkBandwidth = true;
+		if (playlistSubscriberStream.state == State.PLAYING) {
+			// paced streams stop while waiting for the tokens
+			ensurePullAndPushRunning();
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -1355,6 +1532,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 	 * @return          Number of pending video messages
 	 */
 	private long pendingVideoMessages() {
+		IConsumerFlowControl flowControl = this.flowControl;
+		if (flowControl != null) {
+			return flowControl.getPendingVideoMessages();
+		}
 		OOBControlMessage pendingRequest = new OOBControlMessage();
 		pendingRequest.setTarget("ConnectionConsumer");
 		pendingRequest.setServiceName("pendingVideoCount");
@@ -1371,6 +1552,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 	 * @return          Number of pending messages
 	 */
 	private long pendingMessages() {
+		IConsumerFlowControl flowControl = this.flowControl;
+		if (flowControl != null) {
+			return flowControl.getPendingMessages();
+		}
 		return playlistSubscriberStream.getConnection().getPendingMessages();
 	}
 	
@@ -1478,4 +1663,25 @@ public final class PlayEngine implements IFilter, IPushableConsumer,
 
 	}
 
+	/**
+	 * Triggered by the pacing scheduler when messages are due.
+	 */
+	private class PacedPullAndPush implements IPacedStream {
+
+		/**
+		 * Send the messages that are due.
+		 */
+		public long pace(long now) {
+			try {
+				return PlayEngine.this.pace(now);
+			} catch (IOException err) {
+				// We couldn't get more data, stop stream.
+				log.error("Error while getting message", err);
+				PlayEngine.this.stop();
+				return -1;
+			}
+		}
+
+	}
+
 }
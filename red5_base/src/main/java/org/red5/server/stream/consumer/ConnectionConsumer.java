@@ -42,6 +42,8 @@ import org.red5.server.net.rtmp.event.Ping;
 import org.red5.server.net.rtmp.event.VideoData;
 import org.red5.server.net.rtmp.message.Constants;
 import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.SharedPacket;
+import org.red5.server.stream.IConsumerFlowControl;
 import org.red5.server.stream.StreamTracker;
 import org.red5.server.stream.message.RTMPMessage;
 import org.red5.server.stream.message.ResetMessage;
@@ -53,7 +55,7 @@ import org.slf4j.LoggerFactory;
  * RTMP connection consumer.
  */
 public class ConnectionConsumer implements IPushableConsumer,
-		IPipeConnectionListener {
+		IPipeConnectionListener, IConsumerFlowControl {
     /**
      * Logger
      */
@@ -87,6 +89,11 @@ public class ConnectionConsumer implements IPushableConsumer,
      */
 	private StreamTracker streamTracker;
 
+    /**
+     * Id of the stream using the channels, looked up on first use
+     */
+	private int streamId = -1;
+
     /**
      * Create rtmp connection consumer for given connection and channels
      * @param conn                 RTMP connection
@@ -143,14 +150,14 @@ public class ConnectionConsumer implements IPushableConsumer,
 							.getData().asReadOnlyBuffer());
 					videoData.setHeader(header);
 					videoData.setTimestamp(header.getTimer());
-					video.write(videoData);
+					video.write(videoData, getSharedPacket(rtmpMsg));
 					break;
 				case Constants.TYPE_AUDIO_DATA:
 					AudioData audioData = new AudioData(((AudioData) msg)
 							.getData().asReadOnlyBuffer());
 					audioData.setHeader(header);
 					audioData.setTimestamp(header.getTimer());
-					audio.write(audioData);
+					audio.write(audioData, getSharedPacket(rtmpMsg));
 					break;
 				case Constants.TYPE_PING:
 					Ping ping = new Ping(((Ping) msg).getValue1(), ((Ping) msg)
@@ -178,6 +185,21 @@ public class ConnectionConsumer implements IPushableConsumer,
 		}
 	}
 
+    /**
+     * Return the shared encoded data of a message if it still belongs to the
+     * message body.
+     * 
+     * @param message          RTMP message
+     * @return                 Shared packet or <code>null</code>
+     */
+    private SharedPacket getSharedPacket(RTMPMessage message) {
+		SharedPacket shared = message.getSharedPacket();
+		if (shared != null && shared.getSource() == message.getBody()) {
+			return shared;
+		}
+		return null;
+	}
+
 	/** {@inheritDoc} */
     public void onPipeConnectionEvent(PipeConnectionEvent event) {
     	switch (event.getType()) {
@@ -192,6 +214,51 @@ public class ConnectionConsumer implements IPushableConsumer,
     	}
 	}
 
+	/** {@inheritDoc} */
+    public long getPendingMessages() {
+		return conn.getPendingMessages();
+	}
+
+	/** {@inheritDoc} */
+    public long getPendingVideoMessages() {
+		if (streamId == -1) {
+			IClientStream stream = conn.getStreamByChannelId(video.getId());
+			if (stream == null) {
+				return 0;
+			}
+			streamId = stream.getStreamId();
+		}
+		return conn.getPendingVideoMessages(streamId);
+	}
+
+	/** {@inheritDoc} */
+    public long getWriteDelta() {
+		return conn.getWrittenBytes() - conn.getClientBytesRead();
+	}
+
+	/** {@inheritDoc} */
+    public long getBytesReadInterval() {
+		long maxStream = 0;
+		IBWControllable bwControllable = conn;
+		// Search FC containing valid BWC
+		while (bwControllable != null && bwControllable.getBandwidthConfigure() == null) {
+			bwControllable = bwControllable.getParentBWControllable();
+		}
+		if (bwControllable != null && bwControllable.getBandwidthConfigure() != null) {
+			IBandwidthConfigure bwc = bwControllable.getBandwidthConfigure();
+			if (bwc instanceof IConnectionBWConfig) {
+				maxStream = ((IConnectionBWConfig) bwc).getDownstreamBandwidth() / 8;
+			}
+		}
+		if (maxStream <= 0) {
+			// Use default value
+			// TODO: this should be configured somewhere and sent to the client when connecting
+			maxStream = 120*1024;
+		}
+		// Half of the allowed bandwidth
+		return maxStream / 2;
+	}
+
 	/** {@inheritDoc} */
     public void onOOBControlMessage(IMessageComponent source, IPipe pipe,
 			OOBControlMessage oobCtrlMsg) {
@@ -200,38 +267,11 @@ public class ConnectionConsumer implements IPushableConsumer,
 		}
 
 		if ("pendingCount".equals(oobCtrlMsg.getServiceName())) {
-			oobCtrlMsg.setResult(conn.getPendingMessages());
+			oobCtrlMsg.setResult(getPendingMessages());
 		} else if ("pendingVideoCount".equals(oobCtrlMsg.getServiceName())) {
-			IClientStream stream = conn.getStreamByChannelId(video.getId());
-			if (stream != null) {
-				oobCtrlMsg.setResult(conn.getPendingVideoMessages(stream
-						.getStreamId()));
-			} else {
-				oobCtrlMsg.setResult((long) 0);
-			}
+			oobCtrlMsg.setResult(getPendingVideoMessages());
 		} else if ("writeDelta".equals(oobCtrlMsg.getServiceName())) {
-			long maxStream = 0;
-			IBWControllable bwControllable = conn;
-			// Search FC containing valid BWC
-			while (bwControllable != null && bwControllable.getBandwidthConfigure() == null) {
-				bwControllable = bwControllable.getParentBWControllable();
-			}
-			if (bwControllable != null && bwControllable.getBandwidthConfigure() != null) {
-				IBandwidthConfigure bwc = bwControllable.getBandwidthConfigure();
-				if (bwc instanceof IConnectionBWConfig) {
-					maxStream = ((IConnectionBWConfig) bwc).getDownstreamBandwidth() / 8;
-				}
-			}
-			if (maxStream <= 0) {
-				// Use default value
-				// TODO: this should be configured somewhere and sent to the client when connecting
-				maxStream = 120*1024;
-			}
-			
-			// Return the current delta between sent bytes and bytes the client
-			// reported to have received, and the interval the client should use
-			// for generating BytesRead messages (half of the allowed bandwidth).
-			oobCtrlMsg.setResult(new Long[]{conn.getWrittenBytes() - conn.getClientBytesRead(), maxStream / 2});
+			oobCtrlMsg.setResult(new Long[]{getWriteDelta(), getBytesReadInterval()});
 		} else if ("chunkSize".equals(oobCtrlMsg.getServiceName())) {
 			int newSize = (Integer) oobCtrlMsg.getServiceParamMap().get(
 					"chunkSize");
@@ -21,12 +21,14 @@ package org.red5.server.stream.message;
 
 import org.red5.server.messaging.AbstractMessage;
 import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.message.SharedPacket;
 
 /**
  * RTMP message
  */
 public class RTMPMessage extends AbstractMessage {
 	private IRTMPEvent body;
+	private SharedPacket sharedPacket;
 
 	/**
      * Return RTMP message body
@@ -46,4 +48,22 @@ public class RTMPMessage extends AbstractMessage {
 		this.body = body;
 	}
 
+	/**
+     * Return encoded data of the body that may be shared by all consumers
+     *
+     * @return Shared packet or <code>null</code> if every consumer encodes the body itself
+     */
+    public SharedPacket getSharedPacket() {
+		return sharedPacket;
+	}
+
+	/**
+     * Setter for encoded data of the body that may be shared by all consumers
+     *
+     * @param sharedPacket Shared packet created for the body
+     */
+    public void setSharedPacket(SharedPacket sharedPacket) {
+		this.sharedPacket = sharedPacket;
+	}
+
 }
@@ -32,6 +32,7 @@ import org.red5.io.flv.IKeyFrameDataAnalyzer;
 import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
 import org.red5.server.api.IScope;
 import org.red5.server.api.ScopeUtils;
+import org.red5.server.exception.StreamDataException;
 import org.red5.server.messaging.IMessage;
 import org.red5.server.messaging.IMessageComponent;
 import org.red5.server.messaging.IPassive;
@@ -130,7 +131,15 @@ public class FileProvider implements IPassive, ISeekableProvider,
 			// this.pipe.unsubscribe(this);
 			return null;
 		}
-		ITag tag = reader.readTag();
+		ITag tag;
+		try {
+			tag = reader.readTag();
+		} catch (StreamDataException e) {
+			// stop the stream instead of sending a damaged tag
+			IOException error = new IOException(e.getMessage());
+			error.initCause(e.getCause());
+			throw error;
+		}
 		IRTMPEvent msg = null;
 		int timestamp = tag.getTimestamp();
 		switch (tag.getDataType()) {
@@ -268,13 +277,7 @@ public class FileProvider implements IPassive, ISeekableProvider,
 			reader.position(Long.MAX_VALUE);
 			return (int) keyFrameMeta.duration;
 		}
-		int frame = 0;
-		for (int i = 0; i < keyFrameMeta.positions.length; i++) {
-			if (keyFrameMeta.timestamps[i] > ts) {
-				break;
-			}
-			frame = i;
-		}
+		int frame = keyFrameMeta.findKeyFrame(ts);
 		reader.position(keyFrameMeta.positions[frame]);
 		return keyFrameMeta.timestamps[frame];
 	}
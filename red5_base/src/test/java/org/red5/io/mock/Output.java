@@ -26,6 +26,8 @@ import java.util.Map;
 
 import org.red5.io.amf3.ByteArray;
 import org.red5.io.object.BaseOutput;
+import org.red5.io.object.BeanCodec;
+import org.red5.io.object.BeanCodec.Property;
 import org.red5.io.object.DataTypes;
 import org.red5.io.object.RecordSet;
 import org.red5.io.object.Serializer;
@@ -92,7 +94,7 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
 	/** {@inheritDoc} */
     public void writeReference(Object obj) {
 		list.add(Byte.valueOf(DataTypes.OPT_REFERENCE));
-		list.add(Short.valueOf(getReferenceId(obj)));
+		list.add(Short.valueOf((short) getReferenceId(obj)));
 	}
 
     /** {@inheritDoc} */
@@ -140,7 +142,30 @@ public class Output extends BaseOutput implements org.red5.io.object.Output {
 	/** {@inheritDoc} */
 	public void writeObject(Object object, Serializer serializer) {
 		list.add(Byte.valueOf(DataTypes.CORE_OBJECT));
-		list.add(object);
+		list.add(copy(object, serializer));
+	}
+
+	/**
+	 * Copy the properties of a bean the serializer writes, like the real
+	 * outputs do. References to the bean itself point to the copy, objects
+	 * that can't be copied are passed unchanged.
+	 */
+	private Object copy(Object object, Serializer serializer) {
+		BeanCodec codec = BeanCodec.getCodec(object.getClass());
+		if (!codec.isBean()) {
+			return object;
+		}
+		try {
+			Object copy = object.getClass().newInstance();
+			for (Property property : codec.getProperties(serializer)) {
+				Object value = property.getValue(object);
+				codec.setProperty(copy, property.getName(), value == object ? copy : value);
+			}
+			return copy;
+		} catch (Exception err) {
+			log.debug("Could not copy {}, passing it unchanged", object);
+			return object;
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -0,0 +1,234 @@
+package org.red5.server;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
+import org.red5.io.object.Output;
+import org.red5.io.object.Deserializer;
+import org.red5.server.persistence.Journal;
+import org.red5.server.persistence.JournalPersistence;
+import org.red5.server.persistence.JournalPersistenceThread;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+public class JournalPersistenceTest extends TestCase {
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("journal", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private Journal open(long maxSegmentSize) throws IOException {
+		return new Journal(dir, JournalPersistenceThread.SYNC_ALWAYS, 0, maxSegmentSize);
+	}
+
+	private PersistableAttributeStore create(String name, Object value) {
+		PersistableAttributeStore object = new PersistableAttributeStore("Test", name, "/app", false);
+		object.setAttribute("value", value);
+		return object;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object read(Journal journal, String id) {
+		ByteBuffer buf = journal.read(id);
+		if (buf == null) {
+			return null;
+		}
+		Input in = new Input(buf);
+		Deserializer deserializer = new Deserializer();
+		assertEquals(PersistableAttributeStore.class.getName(), deserializer.deserialize(in, String.class));
+		return ((Map<String, Object>) deserializer.deserialize(in, Map.class)).get("value");
+	}
+
+	public void testReplay() throws IOException {
+		Journal journal = open(1024 * 1024);
+		for (int i = 0; i < 3; i++) {
+			journal.save("Test/app/object" + i, create("object" + i, "value" + i));
+		}
+		journal.flush();
+		journal.remove("Test/app/object1");
+		journal.close();
+
+		journal = open(1024 * 1024);
+		assertEquals(2, journal.getObjectCount());
+		assertEquals("value0", read(journal, "Test/app/object0"));
+		assertNull(read(journal, "Test/app/object1"));
+		assertEquals("value2", read(journal, "Test/app/object2"));
+		journal.close();
+	}
+
+	public void testCoalescing() throws IOException {
+		Journal journal = open(1024 * 1024);
+		PersistableAttributeStore object = create("object", "value");
+		journal.save("Test/app/object", object);
+		journal.flush();
+		long size = journal.getSize();
+		for (int i = 0; i < 100; i++) {
+			object.setAttribute("value", "value" + i);
+			journal.save("Test/app/object", object);
+		}
+		journal.flush();
+		// written once
+		assertTrue(journal.getSize() < size * 2);
+		assertEquals("value99", read(journal, "Test/app/object"));
+		journal.close();
+	}
+
+	public void testTornRecord() throws IOException {
+		Journal journal = open(1024 * 1024);
+		journal.save("Test/app/object", create("object", "value"));
+		journal.close();
+		long size = journal.getSize();
+		File segment = dir.listFiles()[0];
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(new byte[] { 0, 0, 0, 50, 1, 2, 3, 4, 1, 0 });
+		out.close();
+
+		journal = open(1024 * 1024);
+		assertEquals(size, segment.length());
+		assertEquals("value", read(journal, "Test/app/object"));
+		journal.close();
+	}
+
+	public void testReadWhileWriting() throws Exception {
+		final Journal journal = open(1024 * 1024);
+		final CountDownLatch serializing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		PersistableAttributeStore object = new PersistableAttributeStore("Test", "object", "/app", false) {
+			@Override
+			public void serialize(Output output) throws IOException {
+				serializing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.serialize(output);
+			}
+		};
+		object.setAttribute("value", "value");
+		journal.save("Test/app/object", object);
+		Thread writer = new Thread() {
+			public void run() {
+				journal.flush();
+			}
+		};
+		writer.start();
+		assertTrue(serializing.await(5, TimeUnit.SECONDS));
+		final Object[] result = new Object[1];
+		Thread reader = new Thread() {
+			public void run() {
+				result[0] = journal.read("Test/app/object");
+			}
+		};
+		reader.start();
+		// the batch is neither queued nor indexed, the reader waits for it
+		reader.join(100);
+		assertTrue(reader.isAlive());
+		release.countDown();
+		reader.join(5000);
+		writer.join(5000);
+		assertNotNull(result[0]);
+		journal.close();
+	}
+
+	public void testCompaction() throws IOException {
+		Journal journal = open(512);
+		for (int i = 0; i < 50; i++) {
+			journal.save("Test/app/object" + (i % 5), create("object", "value" + i));
+			journal.flush();
+		}
+		journal.save("Test/app/removed", create("removed", "value"));
+		journal.flush();
+		journal.remove("Test/app/removed");
+		journal.flush();
+		int segments = journal.getSegmentCount();
+		long size = journal.getSize();
+		assertTrue(segments > 2);
+		assertTrue(journal.compact(0.5));
+		assertEquals(2, journal.getSegmentCount());
+		assertTrue(journal.getSize() < size);
+		assertEquals(dir.list().length, journal.getSegmentCount());
+		assertEquals("value49", read(journal, "Test/app/object4"));
+		journal.close();
+
+		journal = open(512);
+		assertEquals(5, journal.getObjectCount());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("value" + (45 + i), read(journal, "Test/app/object" + i));
+		}
+		assertNull(read(journal, "Test/app/removed"));
+		journal.close();
+	}
+
+	public void testPersistence() {
+		PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(new DefaultResourceLoader() {
+			@Override
+			protected Resource getResourceByPath(String path) {
+				return new FileSystemResource(new File(dir, path));
+			}
+		});
+		JournalPersistence store = new JournalPersistence(resolver);
+		PersistableAttributeStore object = create("object", "value");
+		store.save(object);
+		store.notifyClose();
+
+		store = new JournalPersistence(resolver);
+		PersistableAttributeStore loaded = new PersistableAttributeStore("Test", "object", "/app", false);
+		assertTrue(store.load(loaded));
+		assertEquals("value", loaded.getAttribute("value"));
+		assertTrue(store.remove(loaded));
+		store.notifyClose();
+		assertFalse(new JournalPersistence(resolver).load(new PersistableAttributeStore("Test", "object", "/app", false)));
+		JournalPersistenceThread.getInstance().shutdown();
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.red5.server;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.Input;
+import org.red5.io.object.Deserializer;
+import org.red5.server.api.persistence.IPersistable;
+import org.red5.server.persistence.MappedPersistence;
+import org.red5.server.persistence.MappedPersistenceThread;
+import org.red5.server.persistence.SlabStore;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+public class MappedPersistenceTest extends TestCase {
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("slabs", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private PersistableAttributeStore create(String name, Object value) {
+		PersistableAttributeStore object = new PersistableAttributeStore("Test", name, "/app", false);
+		object.setAttribute("value", value);
+		return object;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object read(SlabStore store, String id) {
+		ByteBuffer buf = store.read(id);
+		if (buf == null) {
+			return null;
+		}
+		Input in = new Input(buf);
+		Deserializer deserializer = new Deserializer();
+		assertEquals(PersistableAttributeStore.class.getName(), deserializer.deserialize(in, String.class));
+		return ((Map<String, Object>) deserializer.deserialize(in, Map.class)).get("value");
+	}
+
+	public void testReopen() throws IOException {
+		SlabStore store = new SlabStore(dir, 64 * 1024);
+		for (int i = 0; i < 100; i++) {
+			store.save("Test/app/object" + i, create("object" + i, "value" + i));
+		}
+		store.flush();
+		store.remove("Test/app/object50");
+		store.close();
+
+		store = new SlabStore(dir, 64 * 1024);
+		assertEquals(99, store.getObjectCount());
+		assertEquals("value0", read(store, "Test/app/object0"));
+		assertNull(read(store, "Test/app/object50"));
+		assertFalse(store.contains("Test/app/object50"));
+		assertEquals("value99", read(store, "Test/app/object99"));
+		store.close();
+	}
+
+	public void testSlotReuse() throws IOException {
+		SlabStore store = new SlabStore(dir, 64 * 1024);
+		PersistableAttributeStore[] objects = new PersistableAttributeStore[10];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = create("object" + i, "value");
+			store.save("Test/app/object" + i, objects[i]);
+		}
+		store.flush();
+		long used = store.getUsedSize();
+		for (int round = 0; round < 1000; round++) {
+			for (int i = 0; i < objects.length; i++) {
+				objects[i].setAttribute("value", "value" + (round % 10));
+				store.save("Test/app/object" + i, objects[i]);
+			}
+			store.flush();
+		}
+		// outdated slots are reused instead of growing the slabs
+		assertEquals(1, store.getSlabCount());
+		assertTrue(store.getUsedSize() <= used + objects.length * 32);
+		store.close();
+
+		store = new SlabStore(dir, 64 * 1024);
+		assertEquals(objects.length, store.getObjectCount());
+		assertEquals("value9", read(store, "Test/app/object3"));
+		store.close();
+	}
+
+	public void testLargeObject() throws IOException {
+		SlabStore store = new SlabStore(dir, 1024);
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			value.append("large");
+		}
+		store.save("Test/app/small", create("small", "value"));
+		store.save("Test/app/large", create("large", value.toString()));
+		store.flush();
+		assertEquals(2, store.getSlabCount());
+		assertEquals(value.toString(), read(store, "Test/app/large"));
+		store.close();
+	}
+
+	public void testIncompleteSlots() throws IOException {
+		SlabStore store = new SlabStore(dir, 64 * 1024);
+		PersistableAttributeStore object = create("a", "value1");
+		store.save("Test/app/a", object);
+		store.save("Test/app/b", create("b", "value"));
+		store.flush();
+		object.setAttribute("value", "value2");
+		store.save("Test/app/a", object);
+		store.flush();
+		store.close();
+
+		// slots: previous copy of a, b and the latest copy of a
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, "1.slab"), "rw");
+		try {
+			int first = 8;
+			raf.seek(first);
+			int second = first + raf.readInt();
+			raf.seek(second);
+			int third = second + raf.readInt();
+			// as if the crash happened before the previous copy was freed
+			raf.seek(first + 4);
+			raf.write(1);
+			// garbage id length
+			raf.seek(second + 21);
+			raf.writeShort(0xffff);
+			// torn body of the latest copy
+			raf.seek(third + 13);
+			int length = raf.readInt();
+			raf.seek(third + 21 + length - 1);
+			int last = raf.read();
+			raf.seek(third + 21 + length - 1);
+			raf.write(last ^ 0xff);
+		} finally {
+			raf.close();
+		}
+
+		store = new SlabStore(dir, 64 * 1024);
+		assertEquals(1, store.getObjectCount());
+		assertEquals("value1", read(store, "Test/app/a"));
+		assertFalse(store.contains("Test/app/b"));
+		store.close();
+	}
+
+	public void testPersistence() {
+		PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(new DefaultResourceLoader() {
+			@Override
+			protected Resource getResourceByPath(String path) {
+				return new FileSystemResource(new File(dir, path.substring(path.lastIndexOf('/') + 1)));
+			}
+		});
+		MappedPersistence store = new MappedPersistence(resolver);
+		PersistableAttributeStore object = create("object", "value");
+		store.save(object);
+		assertSame(object, store.load("Test/app/object"));
+		store.notifyClose();
+
+		store = new MappedPersistence(resolver);
+		PersistableAttributeStore loaded = new PersistableAttributeStore("Test", "object", "/app", false);
+		assertTrue(store.load(loaded));
+		assertEquals("value", loaded.getAttribute("value"));
+		assertTrue(loaded.isPersistent());
+		assertEquals(1, store.getObjects().size());
+		assertTrue(store.remove(loaded));
+		assertFalse(loaded.isPersistent());
+		IPersistable removed = store.load("Test/app/object");
+		assertNull(removed);
+		MappedPersistenceThread.getInstance().shutdown();
+	}
+
+	public void testUnwrittenObject() {
+		PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(new DefaultResourceLoader() {
+			@Override
+			protected Resource getResourceByPath(String path) {
+				return new FileSystemResource(new File(dir, path.substring(path.lastIndexOf('/') + 1)));
+			}
+		});
+		// no background writes during the test
+		MappedPersistenceThread.getInstance().setFlushInterval(60000);
+		try {
+			MappedPersistence store = new MappedPersistence(resolver);
+			store.save(create("object", "value"));
+			// only the store references the object until it has been written
+			for (int i = 0; i < 3; i++) {
+				System.gc();
+			}
+			assertEquals(1, store.getObjects().size());
+			assertEquals("value", ((PersistableAttributeStore) store.load("Test/app/object")).getAttribute("value"));
+			store.notifyClose();
+		} finally {
+			MappedPersistenceThread.getInstance().shutdown();
+			MappedPersistenceThread.getInstance().setFlushInterval(1000);
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package org.red5.server;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.red5.server.api.scheduling.IScheduledJob;
+import org.red5.server.api.scheduling.ISchedulingService;
+import org.red5.server.scheduling.TimerWheelSchedulingService;
+
+public class TimerWheelSchedulingServiceTest extends TestCase {
+
+	private TimerWheelSchedulingService service;
+
+	@Override
+	protected void setUp() throws Exception {
+		service = new TimerWheelSchedulingService();
+		service.setTickDuration(5);
+		// small wheel, so delays span several rounds
+		service.setWheelSize(16);
+		service.setWorkerThreads(2);
+		service.init();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		service.shutdown();
+	}
+
+	private static class CountingJob implements IScheduledJob {
+
+		final AtomicInteger count = new AtomicInteger();
+
+		final CountDownLatch latch;
+
+		volatile long executed;
+
+		CountingJob(int expected) {
+			latch = new CountDownLatch(expected);
+		}
+
+		public void execute(ISchedulingService service) {
+			executed = System.currentTimeMillis();
+			count.incrementAndGet();
+			latch.countDown();
+		}
+
+	}
+
+	public void testOnceJob() throws InterruptedException {
+		CountingJob job = new CountingJob(1);
+		long start = System.currentTimeMillis();
+		String name = service.addScheduledOnceJob(200, job);
+		assertTrue(service.getScheduledJobNames().contains(name));
+		assertTrue(job.latch.await(2, TimeUnit.SECONDS));
+		assertTrue(job.executed - start >= 190);
+		Thread.sleep(50);
+		assertEquals(1, job.count.get());
+		assertFalse(service.getScheduledJobNames().contains(name));
+	}
+
+	public void testPeriodicJob() throws InterruptedException {
+		CountingJob job = new CountingJob(5);
+		String name = service.addScheduledJob(20, job);
+		assertTrue(job.latch.await(2, TimeUnit.SECONDS));
+		service.removeScheduledJob(name);
+		assertFalse(service.getScheduledJobNames().contains(name));
+		Thread.sleep(50);
+		int count = job.count.get();
+		Thread.sleep(100);
+		assertEquals(count, job.count.get());
+	}
+
+	public void testRemove() throws InterruptedException {
+		CountingJob removed = new CountingJob(1);
+		CountingJob kept = new CountingJob(1);
+		for (int i = 0; i < 1000; i++) {
+			service.removeScheduledJob(service.addScheduledOnceJob(100, removed));
+		}
+		service.addScheduledOnceJob(150, kept);
+		assertEquals(1, service.getScheduledJobCount());
+		assertTrue(kept.latch.await(2, TimeUnit.SECONDS));
+		assertEquals(0, removed.count.get());
+	}
+
+	public void testPauseOnceJob() throws InterruptedException {
+		CountingJob job = new CountingJob(1);
+		String name = service.addScheduledOnceJob(20, job);
+		service.pauseScheduledJob(name);
+		Thread.sleep(150);
+		assertEquals(0, job.count.get());
+		// missed while paused
+		service.resumeScheduledJob(name);
+		assertTrue(job.latch.await(2, TimeUnit.SECONDS));
+	}
+
+	public void testSlowJobSkipped() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		String name = service.addScheduledJob(10, new IScheduledJob() {
+			public void execute(ISchedulingService service) {
+				int current = running.incrementAndGet();
+				if (current > maxRunning.get()) {
+					maxRunning.set(current);
+				}
+				try {
+					release.await(200, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+				}
+				running.decrementAndGet();
+			}
+		});
+		Thread.sleep(100);
+		release.countDown();
+		service.removeScheduledJob(name);
+		assertEquals(1, maxRunning.get());
+		assertTrue(service.getSkippedJobs() > 0);
+		assertTrue(service.getMaxTickLag() >= service.getAverageTickLag());
+	}
+
+}
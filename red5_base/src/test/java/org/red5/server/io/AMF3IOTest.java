@@ -55,4 +55,24 @@ public class AMF3IOTest extends AbstractIOTest {
 		out = new Output(buf);
 	}
 
+	public void testReusedReferences() {
+		Input.RefStorage references = new Input.RefStorage();
+		serializer.serialize(out, new SimpleJavaBean());
+		buf.flip();
+		Object first = deserializer.deserialize(new Input(buf, references), Object.class);
+		assertTrue(first instanceof SimpleJavaBean);
+		// the second message refers to the first string, then to the first class
+		byte[][] messages = new byte[][] { { 0x11, 0x06, 0x00 }, { 0x11, 0x0a, 0x01 } };
+		for (byte[] message : messages) {
+			references.clear();
+			try {
+				deserializer.deserialize(new Input(ByteBuffer.wrap(message), references), Object.class);
+				fail("Reference of the previous message");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+		resetOutput();
+	}
+
 }
@@ -19,6 +19,8 @@ package org.red5.server.io;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
 */
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -31,6 +33,7 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import org.apache.commons.beanutils.BeanMap;
+import org.red5.annotations.DontSerialize;
 import org.red5.io.object.Deserializer;
 import org.red5.io.object.Input;
 import org.red5.io.object.Output;
@@ -119,6 +122,42 @@ public abstract class AbstractIOTest extends TestCase {
 		resetOutput();
 	}
 
+	public void testDontSerialize() {
+		SkippedPropertyBean beanIn = new SkippedPropertyBean();
+		beanIn.setName("public");
+		beanIn.setSecret("hidden");
+		serializer.serialize(out, beanIn);
+		dumpOutput();
+		SkippedPropertyBean beanOut = deserializer.deserialize(in, SkippedPropertyBean.class);
+		Assert.assertEquals("public", beanOut.getName());
+		Assert.assertNull(beanOut.getSecret());
+		resetOutput();
+	}
+
+	public void testSerializerRules() {
+		Serializer skipName = new Serializer() {
+			@Override
+			public boolean serializeField(String keyName, Field field, Method getter) {
+				return !"name".equals(keyName) && super.serializeField(keyName, field, getter);
+			}
+		};
+		SkippedPropertyBean beanIn = new SkippedPropertyBean();
+		beanIn.setName("public");
+		skipName.serialize(out, beanIn);
+		dumpOutput();
+		SkippedPropertyBean beanOut = deserializer.deserialize(in, SkippedPropertyBean.class);
+		Assert.assertNull(beanOut.getName());
+		resetOutput();
+		// the rules of the first serializer are not used by others
+		beanIn = new SkippedPropertyBean();
+		beanIn.setName("public");
+		serializer.serialize(out, beanIn);
+		dumpOutput();
+		beanOut = deserializer.deserialize(in, SkippedPropertyBean.class);
+		Assert.assertEquals("public", beanOut.getName());
+		resetOutput();
+	}
+
 	@SuppressWarnings("unchecked")
 	public void testJavaBean() {
 		log.debug("Testing list");
@@ -282,4 +321,29 @@ public abstract class AbstractIOTest extends TestCase {
 		resetOutput();
 	}
 
+	public static class SkippedPropertyBean {
+
+		private String name;
+
+		@DontSerialize
+		private String secret;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getSecret() {
+			return secret;
+		}
+
+		public void setSecret(String secret) {
+			this.secret = secret;
+		}
+
+	}
+
 }
@@ -0,0 +1,152 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.red5.io.CachingFileKeyFrameMetaCache;
+import org.red5.io.FileKeyFrameMetaCache;
+import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+
+public class KeyFrameMetaCacheTest extends TestCase {
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("keyframes", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	private File createFile(String name, int size) throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[size]);
+		out.close();
+		return file;
+	}
+
+	private KeyFrameMeta createMeta(int keyframes) {
+		KeyFrameMeta meta = new KeyFrameMeta();
+		meta.duration = keyframes * 1000L;
+		meta.positions = new long[keyframes];
+		meta.timestamps = new int[keyframes];
+		for (int i = 0; i < keyframes; i++) {
+			meta.positions[i] = 13 + i * 5000000000L;
+			meta.timestamps[i] = i * 1000;
+		}
+		return meta;
+	}
+
+	public void testFileFormat() throws IOException {
+		File file = createFile("test.flv", 100);
+		FileKeyFrameMetaCache cache = new FileKeyFrameMetaCache();
+		assertNull(cache.loadKeyFrameMeta(file));
+		KeyFrameMeta meta = createMeta(10);
+		meta.audioOnly = true;
+		cache.saveKeyFrameMeta(file, meta);
+		KeyFrameMeta loaded = cache.loadKeyFrameMeta(file);
+		assertNotNull(loaded);
+		assertEquals(meta.duration, loaded.duration);
+		assertTrue(loaded.audioOnly);
+		assertEquals(10, loaded.positions.length);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(meta.positions[i], loaded.positions[i]);
+			assertEquals(meta.timestamps[i], loaded.timestamps[i]);
+		}
+		// the media file has been changed
+		createFile("test.flv", 200);
+		assertNull(cache.loadKeyFrameMeta(file));
+	}
+
+	public void testOldFormatIgnored() throws IOException {
+		File file = createFile("test.flv", 100);
+		FileOutputStream out = new FileOutputStream(new File(dir, "test.flv.meta"));
+		out.write(("<FrameMetadata modified=\"" + file.lastModified() + "\" duration=\"1000\" audioOnly=\"false\">"
+				+ "<KeyFrame position=\"13\" timestamp=\"0\"/></FrameMetadata>").getBytes("UTF-8"));
+		out.close();
+		assertNull(new FileKeyFrameMetaCache().loadKeyFrameMeta(file));
+	}
+
+	public void testCaching() throws IOException {
+		File file = createFile("test.flv", 100);
+		CachingFileKeyFrameMetaCache cache = new CachingFileKeyFrameMetaCache();
+		KeyFrameMeta meta = createMeta(10);
+		cache.saveKeyFrameMeta(file, meta);
+		assertSame(meta, cache.loadKeyFrameMeta(file));
+		cache.shutdown();
+		// written in the background
+		KeyFrameMeta loaded = new FileKeyFrameMetaCache().loadKeyFrameMeta(file);
+		assertNotNull(loaded);
+		assertEquals(10, loaded.positions.length);
+		// the media file has been changed
+		createFile("test.flv", 200);
+		assertNull(cache.loadKeyFrameMeta(file));
+		assertEquals(0, cache.getCacheEntries());
+		// saved in memory only after the shutdown
+		KeyFrameMeta late = createMeta(5);
+		cache.saveKeyFrameMeta(file, late);
+		assertSame(late, cache.loadKeyFrameMeta(file));
+	}
+
+	public void testBounds() throws IOException {
+		CachingFileKeyFrameMetaCache cache = new CachingFileKeyFrameMetaCache();
+		cache.setMaxCacheEntry(5);
+		KeyFrameMeta[] metas = new KeyFrameMeta[20];
+		for (int i = 0; i < 20; i++) {
+			metas[i] = createMeta(10);
+			cache.saveKeyFrameMeta(createFile(i + ".flv", 100), metas[i]);
+		}
+		assertEquals(5, cache.getCacheEntries());
+		// 15 is the least recently used entry now
+		for (int i = 16; i < 20; i++) {
+			assertSame(metas[i], cache.loadKeyFrameMeta(new File(dir, i + ".flv")));
+		}
+		long size = cache.getCacheSize();
+		cache.setMaxCacheSize(size + 1000 * 12);
+		KeyFrameMeta large = createMeta(1000);
+		cache.saveKeyFrameMeta(createFile("large.flv", 100), large);
+		assertTrue(cache.getCacheSize() <= size + 1000 * 12);
+		assertEquals(5, cache.getCacheEntries());
+		assertSame(large, cache.loadKeyFrameMeta(new File(dir, "large.flv")));
+		for (int i = 16; i < 20; i++) {
+			assertSame(metas[i], cache.loadKeyFrameMeta(new File(dir, i + ".flv")));
+		}
+		cache.shutdown();
+		// evicted informations are loaded from disk
+		KeyFrameMeta loaded = cache.loadKeyFrameMeta(new File(dir, "15.flv"));
+		assertNotNull(loaded);
+		assertNotSame(metas[15], loaded);
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+import org.red5.io.flv.impl.FLVReader;
+
+public class KeyFrameMetaTest extends TestCase {
+
+	/**
+	 * Index a linear search would find.
+	 */
+	private int linearSearch(KeyFrameMeta meta, int ts) {
+		int frame = 0;
+		for (int i = 0; i < meta.positions.length; i++) {
+			if (meta.timestamps[i] > ts) {
+				break;
+			}
+			frame = i;
+		}
+		return frame;
+	}
+
+	public void testFindKeyFrame() {
+		KeyFrameMeta meta = new KeyFrameMeta();
+		meta.timestamps = new int[] { 0, 1000, 1000, 2000, 4000, 4000, 4000, 8000 };
+		meta.positions = new long[meta.timestamps.length];
+		for (int i = 0; i < meta.positions.length; i++) {
+			meta.positions[i] = 13 + i * 100;
+		}
+		for (int ts = -1; ts <= 9000; ts += 250) {
+			assertEquals("timestamp " + ts, linearSearch(meta, ts), meta.findKeyFrame(ts));
+		}
+		assertEquals(2, meta.findKeyFrame(1999));
+		assertEquals(6, meta.findKeyFrame(4000));
+		assertEquals(7, meta.findKeyFrame(Integer.MAX_VALUE));
+	}
+
+	public void testFindKeyFrameInFile() throws IOException {
+		FLVReader reader = new FLVReader(new File("src/test/resources/fixtures/CuePointNavPointTest.flv"));
+		try {
+			KeyFrameMeta meta = reader.analyzeKeyFrames();
+			assertTrue(meta.timestamps.length > 1);
+			int last = meta.timestamps[meta.timestamps.length - 1];
+			for (int ts = 0; ts <= last + 100; ts += 7) {
+				assertEquals(linearSearch(meta, ts), meta.findKeyFrame(ts));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.ITag;
+import org.red5.io.MappedFile;
+import org.red5.io.flv.impl.FLVReader;
+
+public class MappedFLVReaderTest extends TestCase {
+
+	private static final String FILE = "src/test/resources/fixtures/CuePointNavPointTest.flv";
+
+	private int windowSize;
+
+	private int windowOverlap;
+
+	@Override
+	protected void setUp() throws Exception {
+		windowSize = MappedFile.getWindowSize();
+		windowOverlap = MappedFile.getWindowOverlap();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FLVReader.setBufferType("auto");
+		MappedFile.setWindowSize(windowSize);
+		MappedFile.setWindowOverlap(windowOverlap);
+	}
+
+	private List<ITag> readTags(String bufferType) throws IOException {
+		FLVReader.setBufferType(bufferType);
+		FLVReader reader = new FLVReader(new File(FILE));
+		try {
+			List<ITag> tags = new ArrayList<ITag>();
+			while (reader.hasMoreTags()) {
+				tags.add(reader.readTag());
+			}
+			return tags;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void assertSameTags(List<ITag> expected, List<ITag> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			ITag a = expected.get(i);
+			ITag b = actual.get(i);
+			assertEquals(a.getDataType(), b.getDataType());
+			assertEquals(a.getTimestamp(), b.getTimestamp());
+			assertEquals(a.getBodySize(), b.getBodySize());
+			assertEquals(a.getPreviousTagSize(), b.getPreviousTagSize());
+			ByteBuffer body = b.getBody();
+			assertEquals(a.getBody().limit(), body.limit());
+			assertEquals(a.getBody().getHexDump(), body.getHexDump());
+		}
+	}
+
+	public void testMappedTags() throws IOException {
+		List<ITag> expected = readTags("heap");
+		assertFalse(expected.isEmpty());
+		List<ITag> mapped = readTags("mapped");
+		assertEquals("mapped", FLVReader.getBufferType());
+		assertSameTags(expected, mapped);
+		// small bodies are views of the mapped file
+		assertTrue(mapped.get(mapped.size() - 1).getBody().isDirect());
+	}
+
+	public void testSmallWindows() throws IOException {
+		List<ITag> expected = readTags("heap");
+		// most tags span windows and are copied
+		MappedFile.setWindowSize(4096);
+		MappedFile.setWindowOverlap(256);
+		assertSameTags(expected, readTags("mapped"));
+	}
+
+	public void testShared() throws IOException {
+		File file = new File(FILE);
+		MappedFile first = MappedFile.acquire(file);
+		MappedFile second = MappedFile.acquire(file);
+		try {
+			assertSame(first, second);
+			assertEquals(2, first.getReferences());
+			assertEquals(file.length(), first.size());
+		} finally {
+			second.release();
+		}
+		first.release();
+		assertEquals(0, first.getReferences());
+		MappedFile third = MappedFile.acquire(file);
+		assertNotSame(first, third);
+		third.release();
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import junit.framework.TestCase;
+
+import org.red5.io.object.ReferenceMap;
+import org.red5.io.object.ReferenceTable;
+
+public class ReferenceTableTest extends TestCase {
+
+	public void testTable() {
+		ReferenceTable<String> table = new ReferenceTable<String>();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, table.add("item" + i));
+		}
+		assertEquals(1000, table.size());
+		assertEquals("item999", table.get(999));
+		table.set(5, "replaced");
+		assertEquals("replaced", table.get(5));
+		try {
+			table.get(1000);
+			fail("Unknown reference");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertEquals(0, table.add("first"));
+	}
+
+	public void testIdentityMap() {
+		ReferenceMap map = new ReferenceMap(true);
+		Object[] objects = new Object[10000];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = new String("object");
+			assertEquals(i, map.add(objects[i]));
+		}
+		for (int i = 0; i < objects.length; i++) {
+			assertEquals(i, map.get(objects[i]));
+		}
+		assertEquals(-1, map.get("object"));
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.get(objects[0]));
+		assertEquals(0, map.add(objects[1]));
+	}
+
+	public void testEqualityMap() {
+		ReferenceMap map = new ReferenceMap(false);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, map.add("string" + i));
+		}
+		assertEquals(1234, map.get(new String("string1234")));
+		assertEquals(1234, map.add("string1234"));
+		assertEquals(10000, map.size());
+		assertEquals(-1, map.get("unknown"));
+	}
+
+}
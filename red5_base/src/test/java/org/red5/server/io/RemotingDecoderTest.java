@@ -0,0 +1,103 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.AMF;
+import org.red5.io.amf.Output;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Serializer;
+import org.red5.server.net.remoting.codec.RemotingProtocolDecoder;
+import org.red5.server.net.remoting.message.RemotingCall;
+import org.red5.server.net.remoting.message.RemotingPacket;
+
+public class RemotingDecoderTest extends TestCase {
+
+	private static final int CALLS = 3;
+
+	private RemotingProtocolDecoder decoder;
+
+	@Override
+	protected void setUp() throws Exception {
+		decoder = new RemotingProtocolDecoder();
+		decoder.setDeserializer(new Deserializer());
+	}
+
+	private ByteBuffer createRequest() {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.setAutoExpand(true);
+		buf.putShort((short) 0);
+		buf.putShort((short) 0);
+		buf.putShort((short) CALLS);
+		Serializer serializer = new Serializer();
+		for (int i = 0; i < CALLS; i++) {
+			Output.putString(buf, "echo.echo" + i);
+			Output.putString(buf, "/" + (i + 1));
+			buf.putInt(-1);
+			buf.put(AMF.TYPE_ARRAY);
+			buf.putInt(2);
+			Output output = new Output(buf);
+			serializer.serialize(output, "value" + i);
+			serializer.serialize(output, i);
+		}
+		buf.flip();
+		return buf;
+	}
+
+	private void assertCall(int i, RemotingCall call) {
+		assertEquals("echo", call.getServiceName());
+		assertEquals("echo" + i, call.getServiceMethodName());
+		assertEquals("/" + (i + 1) + "/onStatus", call.getClientResponse());
+		assertEquals(2, call.getArguments().length);
+		assertEquals("value" + i, call.getArguments()[0]);
+		assertEquals(i, ((Number) call.getArguments()[1]).intValue());
+		assertFalse(call.isAMF3);
+	}
+
+	public void testDecode() throws Exception {
+		RemotingPacket packet = (RemotingPacket) decoder.decode(null, createRequest());
+		List<RemotingCall> calls = packet.getCalls();
+		assertEquals(CALLS, packet.getCallCount());
+		assertEquals(CALLS, calls.size());
+		for (int i = 0; i < CALLS; i++) {
+			assertCall(i, calls.get(i));
+		}
+	}
+
+	public void testDecodeIncremental() {
+		ByteBuffer in = createRequest();
+		RemotingPacket packet = decoder.decodeHeaders(in);
+		assertTrue(packet.getHeaders().isEmpty());
+		assertEquals(CALLS, packet.getCallCount());
+		assertTrue(packet.getCalls().isEmpty());
+		for (int i = 0; i < CALLS; i++) {
+			RemotingCall call = decoder.decodeCall(in);
+			packet.setCurrentCall(call);
+			assertCall(i, call);
+			assertEquals(1, packet.getCalls().size());
+		}
+		assertFalse(in.hasRemaining());
+	}
+
+}
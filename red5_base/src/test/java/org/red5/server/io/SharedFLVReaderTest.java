@@ -0,0 +1,179 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.red5.io.ITag;
+import org.red5.io.SharedFile;
+import org.red5.io.flv.impl.FLVReader;
+import org.red5.server.exception.StreamDataException;
+
+public class SharedFLVReaderTest extends TestCase {
+
+	private static final String FILE = "src/test/resources/fixtures/CuePointNavPointTest.flv";
+
+	private long idleTimeout;
+
+	@Override
+	protected void setUp() throws Exception {
+		idleTimeout = SharedFile.getIdleTimeout();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FLVReader.setBufferType("auto");
+		SharedFile.setIdleTimeout(idleTimeout);
+	}
+
+	private static List<ITag> readTags(FLVReader reader) {
+		List<ITag> tags = new ArrayList<ITag>();
+		while (reader.hasMoreTags()) {
+			tags.add(reader.readTag());
+		}
+		return tags;
+	}
+
+	private static void assertSameTags(List<ITag> expected, List<ITag> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			ITag a = expected.get(i);
+			ITag b = actual.get(i);
+			assertEquals(a.getDataType(), b.getDataType());
+			assertEquals(a.getTimestamp(), b.getTimestamp());
+			assertEquals(a.getBodySize(), b.getBodySize());
+			assertEquals(a.getPreviousTagSize(), b.getPreviousTagSize());
+			assertEquals(a.getBody().getHexDump(), b.getBody().getHexDump());
+		}
+	}
+
+	public void testSharedTags() throws IOException {
+		FLVReader.setBufferType("heap");
+		FLVReader heap = new FLVReader(new File(FILE));
+		List<ITag> expected = readTags(heap);
+		heap.close();
+		assertFalse(expected.isEmpty());
+
+		FLVReader.setBufferType("shared");
+		assertEquals("shared", FLVReader.getBufferType());
+		FLVReader first = new FLVReader(new File(FILE));
+		FLVReader second = new FLVReader(new File(FILE));
+		try {
+			// the keyframe index is built once
+			assertSame(first.analyzeKeyFrames(), second.analyzeKeyFrames());
+			assertEquals(first.getVideoCodecId(), second.getVideoCodecId());
+			// the readers keep their own position
+			second.readTag();
+			assertSameTags(expected, readTags(first));
+			assertSameTags(expected.subList(1, expected.size()), readTags(second));
+			// read again from a keyframe
+			long[] positions = first.analyzeKeyFrames().positions;
+			if (positions.length > 0) {
+				first.position(positions[0]);
+				assertTrue(first.hasMoreTags());
+				assertEquals(first.analyzeKeyFrames().timestamps[0], first.readTag().getTimestamp());
+			}
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	public void testIdleTimeout() throws Exception {
+		SharedFile.setIdleTimeout(100);
+		File file = new File(FILE);
+		SharedFile first = SharedFile.acquire(file);
+		SharedFile second = SharedFile.acquire(file);
+		assertSame(first, second);
+		assertEquals(2, first.getReferences());
+		assertEquals(file.length(), first.size());
+		second.release();
+		first.release();
+		assertEquals(0, first.getReferences());
+		// idle files are kept open for new readers
+		SharedFile third = SharedFile.acquire(file);
+		assertSame(first, third);
+		third.release();
+		Thread.sleep(300);
+		assertTrue(first.isClosed());
+		SharedFile fourth = SharedFile.acquire(file);
+		assertNotSame(first, fourth);
+		fourth.release();
+	}
+
+	public void testShutdown() throws IOException {
+		File file = new File(FILE);
+		SharedFile idle = SharedFile.acquire(file);
+		idle.release();
+		SharedFile used = SharedFile.acquire(new File("src/test/resources/fixtures/test.flv"));
+		SharedFile.shutdown();
+		// idle files are closed right away, used ones once released
+		assertTrue(idle.isClosed());
+		assertFalse(used.isClosed());
+		used.release();
+		assertTrue(used.isClosed());
+		assertEquals(0, SharedFile.getOpenFiles());
+		// files can be opened again afterwards
+		SharedFile reopened = SharedFile.acquire(file);
+		assertNotSame(idle, reopened);
+		reopened.release();
+	}
+
+	public void testInterruptedReader() throws IOException {
+		FLVReader.setBufferType("heap");
+		FLVReader heap = new FLVReader(new File(FILE));
+		List<ITag> expected = readTags(heap);
+		heap.close();
+
+		FLVReader.setBufferType("shared");
+		FLVReader first = new FLVReader(new File(FILE));
+		FLVReader second = new FLVReader(new File(FILE));
+		SharedFile shared = SharedFile.acquire(new File(FILE));
+		try {
+			first.readTag();
+			Thread.currentThread().interrupt();
+			try {
+				first.readTag();
+				fail("Read of interrupted reader should fail");
+			} catch (StreamDataException e) {
+				// expected
+			} finally {
+				Thread.interrupted();
+			}
+			// the file has been opened again for the other readers
+			assertFalse(shared.isClosed());
+			assertSameTags(expected, readTags(second));
+			SharedFile again = SharedFile.acquire(new File(FILE));
+			assertSame(shared, again);
+			again.release();
+		} finally {
+			shared.release();
+			first.close();
+			second.close();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.red5.server.io;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.red5.io.amf.StringCache;
+
+public class StringCacheTest extends TestCase {
+
+	public void testAdmission() throws Exception {
+		StringCache cache = new StringCache();
+		byte[] encoded = cache.encode("nameOfBean");
+		assertTrue(Arrays.equals("nameOfBean".getBytes("UTF-8"), encoded));
+		// cached on the second use
+		assertEquals(0, cache.getSize());
+		assertNotSame(encoded, cache.encode("nameOfBean"));
+		assertEquals(1, cache.getSize());
+		encoded = cache.encode("nameOfBean");
+		assertSame(encoded, cache.encode("nameOfBean"));
+		assertEquals(2, cache.getHits());
+		// long strings are never cached
+		cache.setMaxLength(8);
+		for (int i = 0; i < 5; i++) {
+			cache.encode("a long chat message");
+		}
+		assertEquals(1, cache.getSize());
+		assertTrue(cache.getRejections() > 0);
+		// multibyte characters
+		assertTrue(Arrays.equals("ä€".getBytes("UTF-8"), cache.encode("ä€")));
+	}
+
+	public void testBounds() {
+		StringCache cache = new StringCache();
+		cache.setMaxEntries(100);
+		// frequently used names
+		for (int n = 0; n < 5; n++) {
+			for (int i = 0; i < 50; i++) {
+				cache.encode("property" + i);
+			}
+		}
+		assertEquals(50, cache.getSize());
+		// payload strings used twice, written along with the names
+		for (int i = 0; i < 1000; i++) {
+			cache.encode("property" + (i % 50));
+			cache.encode("message" + i);
+			cache.encode("message" + i);
+		}
+		assertTrue(cache.getSize() <= 100);
+		long hits = cache.getHits();
+		for (int i = 0; i < 50; i++) {
+			cache.encode("property" + i);
+		}
+		// the frequent names are still cached
+		assertTrue(cache.getHits() - hits >= 45);
+		// names that are used more often replace the payloads
+		for (int n = 0; n < 10; n++) {
+			for (int i = 0; i < 50; i++) {
+				cache.encode("name" + i);
+			}
+		}
+		assertTrue(cache.getSize() <= 100);
+		assertTrue(cache.getEvictions() > 0);
+		hits = cache.getHits();
+		for (int i = 0; i < 50; i++) {
+			cache.encode("name" + i);
+		}
+		assertTrue(cache.getHits() - hits >= 45);
+	}
+
+}
@@ -0,0 +1,136 @@
+package org.red5.server.net.rtmpt;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class RTMPTServletTest extends TestCase {
+
+	private static ByteBuffer createBuffer(int size, int value, boolean direct) {
+		ByteBuffer buffer = ByteBuffer.allocate(size, direct);
+		buffer.fill((byte) value, size);
+		buffer.flip();
+		return buffer;
+	}
+
+	public void testReturnPendingMessages() throws Exception {
+		RTMPTConnection conn = new RTMPTConnection();
+		conn.rawWrite(createBuffer(20000, 1, false));
+		conn.rawWrite(createBuffer(20000, 2, true));
+		conn.rawWrite(createBuffer(100, 3, false));
+		RTMPTServlet servlet = new RTMPTServlet();
+
+		// the first response stops after the target size has been exceeded
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		servlet.returnPendingMessages(conn, resp);
+		byte[] content = resp.getContentAsByteArray();
+		assertEquals(40001, content.length);
+		assertEquals(40001, resp.getContentLength());
+		assertEquals(1, content[0]);
+		assertEquals(1, content[1]);
+		assertEquals(1, content[20000]);
+		assertEquals(2, content[20001]);
+		assertEquals(2, content[40000]);
+		assertEquals(1, conn.getPendingMessages());
+
+		resp = new MockHttpServletResponse();
+		servlet.returnPendingMessages(conn, resp);
+		assertEquals(101, resp.getContentAsByteArray().length);
+		assertEquals(3, resp.getContentAsByteArray()[100]);
+
+		resp = new MockHttpServletResponse();
+		servlet.returnPendingMessages(conn, resp);
+		assertEquals(1, resp.getContentAsByteArray().length);
+
+		assertEquals(2, servlet.getPolls());
+		assertEquals(1, servlet.getEmptyPolls());
+		assertEquals(3, servlet.getBatchedMessages());
+		assertEquals(40100, servlet.getBatchedBytes());
+		assertEquals(2, servlet.getMaxMessagesPerPoll());
+		assertEquals(1.5, servlet.getAverageMessagesPerPoll(), 0.001);
+		assertEquals(40100, conn.getWrittenBytes());
+	}
+
+	public void testLongPoll() throws Exception {
+		final RTMPTConnection conn = new RTMPTConnection();
+		RTMPTServlet servlet = new RTMPTServlet();
+		servlet.setLongPollTimeout(100);
+		try {
+			long start = System.currentTimeMillis();
+			servlet.waitForPendingMessages(conn);
+			assertTrue(System.currentTimeMillis() - start >= 90);
+			assertEquals(1, servlet.getLongPollTimeouts());
+
+			servlet.setLongPollTimeout(5000);
+			new Thread() {
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					conn.rawWrite(createBuffer(10, 1, false));
+				}
+			}.start();
+			start = System.currentTimeMillis();
+			servlet.waitForPendingMessages(conn);
+			assertTrue(System.currentTimeMillis() - start < 2500);
+			assertEquals(2, servlet.getLongPolls());
+			assertEquals(1, servlet.getLongPollTimeouts());
+			assertEquals(0, servlet.getParkedRequests());
+			MockHttpServletResponse resp = new MockHttpServletResponse();
+			servlet.returnPendingMessages(conn, resp);
+			assertEquals(11, resp.getContentAsByteArray().length);
+			// the client does not need to wait before the next poll
+			assertEquals(1, resp.getContentAsByteArray()[0]);
+
+			// closing wakes the request up
+			new Thread() {
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					conn.close();
+				}
+			}.start();
+			start = System.currentTimeMillis();
+			servlet.waitForPendingMessages(conn);
+			assertTrue(System.currentTimeMillis() - start < 2500);
+		} finally {
+			servlet.setLongPollTimeout(0);
+		}
+	}
+
+	public void testFoldPendingMessages() {
+		RTMPTClientConnection conn = new RTMPTClientConnection();
+		assertNull(conn.getPendingMessages(100));
+		conn.rawWrite(createBuffer(10, 1, false));
+		conn.rawWrite(createBuffer(10, 2, true));
+		ByteBuffer result = conn.getPendingMessages(100);
+		assertEquals(20, result.remaining());
+		assertEquals(1, result.get(9));
+		assertEquals(2, result.get(10));
+		result.release();
+	}
+
+}
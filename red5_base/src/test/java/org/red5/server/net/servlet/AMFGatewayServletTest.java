@@ -0,0 +1,171 @@
+package org.red5.server.net.servlet;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.amf.AMF;
+import org.red5.io.amf.Input;
+import org.red5.io.amf.Output;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Serializer;
+import org.red5.server.Context;
+import org.red5.server.api.IScope;
+import org.red5.server.api.Red5;
+import org.red5.server.api.service.IPendingServiceCall;
+import org.red5.server.api.service.IServiceCall;
+import org.red5.server.api.service.IServiceInvoker;
+import org.red5.server.net.remoting.RemotingConnection;
+import org.red5.server.net.remoting.codec.RemotingCodecFactory;
+import org.red5.server.net.remoting.codec.RemotingProtocolDecoder;
+import org.red5.server.net.remoting.message.RemotingPacket;
+import org.red5.server.service.Call;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class AMFGatewayServletTest extends TestCase {
+
+	private AMFGatewayServlet servlet;
+
+	private Context context;
+
+	@Override
+	protected void setUp() throws Exception {
+		RemotingCodecFactory codecFactory = new RemotingCodecFactory();
+		codecFactory.setDeserializer(new Deserializer());
+		codecFactory.setSerializer(new Serializer());
+		codecFactory.init();
+		servlet = new AMFGatewayServlet();
+		servlet.codecFactory = codecFactory;
+		context = new Context();
+		// echoes the first argument, fails calls of the "fail" method
+		context.setServiceInvoker(new IServiceInvoker() {
+			public boolean invoke(IServiceCall call, IScope scope) {
+				if ("fail".equals(call.getServiceMethodName())) {
+					throw new RuntimeException("Failed call");
+				}
+				call.setStatus(Call.STATUS_SUCCESS_RESULT);
+				((IPendingServiceCall) call).setResult(call.getArguments()[0]);
+				return true;
+			}
+
+			public boolean invoke(IServiceCall call, Object service) {
+				return invoke(call, (IScope) null);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Red5.setConnectionLocal(null);
+	}
+
+	private static void putCall(ByteBuffer buf, String method, int index) {
+		Output.putString(buf, "echo." + method);
+		Output.putString(buf, "/" + (index + 1));
+		buf.putInt(-1);
+		buf.put(AMF.TYPE_ARRAY);
+		buf.putInt(1);
+		new Serializer().serialize(new Output(buf), "value" + index);
+	}
+
+	private MockHttpServletResponse service(ByteBuffer request) throws Exception {
+		request.flip();
+		RemotingPacket packet = ((RemotingProtocolDecoder) servlet.codecFactory.getSimpleDecoder()).decodeHeaders(request);
+		RemotingConnection conn = new RemotingConnection(new MockHttpServletRequest(), null, packet);
+		Red5.setConnectionLocal(conn);
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		try {
+			servlet.handleRemotingStream(resp, context, null, packet, request);
+		} finally {
+			conn.cleanup();
+		}
+		return resp;
+	}
+
+	private static ByteBuffer createRequest(int calls) {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.setAutoExpand(true);
+		buf.putShort((short) 0);
+		buf.putShort((short) 0);
+		buf.putShort((short) calls);
+		return buf;
+	}
+
+	/**
+	 * Check the results of a response.
+	 * 
+	 * @param resp Response
+	 * @param results Expected value of each result, <code>null</code> for errors
+	 */
+	private static void assertResults(MockHttpServletResponse resp, String... results) {
+		assertEquals(200, resp.getStatus());
+		assertEquals(AMFGatewayServlet.APPLICATION_AMF, resp.getContentType());
+		ByteBuffer buf = ByteBuffer.wrap(resp.getContentAsByteArray());
+		assertEquals(0, buf.getShort());
+		assertEquals(0, buf.getShort());
+		assertEquals(results.length, buf.getShort());
+		Deserializer deserializer = new Deserializer();
+		for (int i = 0; i < results.length; i++) {
+			String response = Input.getString(buf);
+			Input.getString(buf);
+			buf.getInt();
+			Object value = deserializer.deserialize(new Input(buf), Object.class);
+			if (results[i] != null) {
+				assertEquals("/" + (i + 1) + "/onResult", response);
+				assertEquals(results[i], value);
+			} else {
+				assertEquals("/" + (i + 1) + "/onStatus", response);
+			}
+		}
+		assertFalse(buf.hasRemaining());
+	}
+
+	public void testStream() throws Exception {
+		ByteBuffer request = createRequest(3);
+		for (int i = 0; i < 3; i++) {
+			putCall(request, "echo", i);
+		}
+		assertResults(service(request), "value0", "value1", "value2");
+	}
+
+	public void testFailedInvoke() throws Exception {
+		ByteBuffer request = createRequest(3);
+		putCall(request, "echo", 0);
+		putCall(request, "fail", 1);
+		putCall(request, "echo", 2);
+		assertResults(service(request), "value0", null, "value2");
+	}
+
+	public void testFailedDecode() throws Exception {
+		ByteBuffer request = createRequest(3);
+		putCall(request, "echo", 0);
+		// arguments of an unknown type
+		Output.putString(request, "echo.echo");
+		Output.putString(request, "/2");
+		request.putInt(-1);
+		request.put((byte) 0x7f);
+		putCall(request, "echo", 2);
+		assertResults(service(request), "value0", null, null);
+	}
+
+}
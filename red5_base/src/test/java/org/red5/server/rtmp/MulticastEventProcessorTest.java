@@ -0,0 +1,169 @@
+package org.red5.server.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.api.statistics.support.CacheCounter;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor;
+import org.red5.server.net.rtmp.codec.MulticastEventProcessor.CachedChunks;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.net.rtmp.message.SharedPacket;
+
+/**
+ * Checks the chunk cache and that packets encoded from shared data match
+ * regularly encoded ones.
+ */
+public class MulticastEventProcessorTest extends TestCase {
+
+	private VideoData source;
+
+	private CacheCounter counter;
+
+	private SharedPacket shared;
+
+	private MulticastEventProcessor processor;
+
+	@Override
+	protected void setUp() throws Exception {
+		byte[] payload = new byte[1000];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		source = new VideoData(ByteBuffer.wrap(payload));
+		counter = new CacheCounter();
+		shared = new SharedPacket(source, counter);
+		processor = new MulticastEventProcessor();
+	}
+
+	private Packet createPacket(int channelId, int timestamp, boolean withShared) {
+		Header header = new Header();
+		header.setChannelId(channelId);
+		header.setStreamId(1);
+		header.setTimer(timestamp);
+		header.setDataType(source.getDataType());
+		VideoData event = new VideoData(source.getData().asReadOnlyBuffer());
+		event.setTimestamp(timestamp);
+		Packet packet = new Packet(header, event);
+		if (withShared) {
+			packet.setSharedPacket(shared);
+		}
+		return packet;
+	}
+
+	private void assertSameEncoding(int chunkSize, int channelId) {
+		RTMPProtocolEncoder encoder = new RTMPProtocolEncoder();
+		RTMP plainState = new RTMP(RTMP.MODE_SERVER);
+		RTMP sharedState = new RTMP(RTMP.MODE_SERVER);
+		plainState.setWriteChunkSize(chunkSize);
+		sharedState.setWriteChunkSize(chunkSize);
+		for (int ts = 0; ts < 3; ts++) {
+			ByteBuffer plain = encoder.encodePacket(plainState,
+					createPacket(channelId, ts * 40, false));
+			Packet packet = createPacket(channelId, ts * 40, true);
+			ByteBuffer[] parts = encoder.encodeSharedPacket(sharedState, packet);
+			// written immediately
+			packet.getCachedChunks().dispose();
+			assertEquals(plain.limit(), parts[0].limit() + parts[1].limit());
+			for (int i = 0; i < parts[0].limit(); i++) {
+				assertEquals(plain.get(), parts[0].get());
+			}
+			for (int i = 0; i < parts[1].limit(); i++) {
+				assertEquals(plain.get(), parts[1].get());
+			}
+		}
+		assertEquals(0, encoder.getMulticastEventProcessor().getCacheSize());
+	}
+
+	public void testSameAsPlainEncoding() {
+		assertSameEncoding(128, 5);
+		assertSameEncoding(4096, 5);
+		assertSameEncoding(128, 100);
+	}
+
+	public void testChunksAreReused() {
+		CachedChunks[] cached = new CachedChunks[5];
+		cached[0] = processor.getCached(shared, 128, 5);
+		cached[1] = processor.getCached(shared, 128, 5);
+		cached[2] = processor.getCached(shared, 128, 6);
+		cached[3] = processor.getCached(shared, 4096, 5);
+		cached[4] = processor.getCached(shared, 4096, 5);
+		assertSame(cached[0], cached[1]);
+		assertSame(cached[3], cached[4]);
+		assertEquals(2, counter.getHits());
+		assertEquals(3, counter.getMisses());
+		assertEquals(3, processor.getCacheSize());
+		for (CachedChunks chunks : cached) {
+			processor.disposeCached(chunks);
+		}
+		assertEquals(0, processor.getCacheSize());
+	}
+
+	public void testChunksReleasedAfterLastReference() {
+		CachedChunks first = processor.getCached(shared, 128, 5);
+		CachedChunks second = processor.getCached(shared, 128, 5);
+		first.dispose();
+		assertEquals(1, processor.getCacheSize());
+		// still usable by the second connection
+		assertEquals(1007, second.getBody().limit());
+		second.dispose();
+		assertEquals(0, processor.getCacheSize());
+		CachedChunks third = processor.getCached(shared, 128, 5);
+		assertNotSame(first, third);
+		third.dispose();
+	}
+
+	public void testBodyIsReadOnlyView() {
+		CachedChunks cached = processor.getCached(shared, 128, 5);
+		ByteBuffer first = cached.getBody();
+		first.get();
+		ByteBuffer second = cached.getBody();
+		assertTrue(second.isReadOnly());
+		assertEquals(0, second.position());
+		// 1000 bytes in 8 chunks need 7 continuation headers
+		assertEquals(1007, second.limit());
+		ByteBuffer[] chunks = cached.getChunks();
+		assertEquals(8, chunks.length);
+		assertEquals(128, chunks[0].remaining());
+		assertEquals(129, chunks[1].remaining());
+		assertEquals((byte) 0xC5, chunks[1].get());
+		assertEquals((byte) 128, chunks[1].get());
+		assertEquals(1000 - 7 * 128 + 1, chunks[7].remaining());
+		cached.dispose();
+	}
+
+	public void testChunkBuffer() {
+		ByteBuffer[] chunks = MulticastEventProcessor.chunkBuffer(source
+				.getData(), 300);
+		assertEquals(4, chunks.length);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(300, chunks[i].remaining());
+			assertEquals((byte) (i * 300), chunks[i].get());
+		}
+		assertEquals(100, chunks[3].remaining());
+		assertEquals((byte) 900, chunks[3].get());
+	}
+
+}
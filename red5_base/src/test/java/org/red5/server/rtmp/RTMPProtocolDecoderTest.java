@@ -0,0 +1,168 @@
+package org.red5.server.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.red5.io.utils.BufferUtils;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+
+/**
+ * Decodes chunked audio and video received in reads of various sizes.
+ */
+public class RTMPProtocolDecoderTest extends TestCase {
+
+	private static final int MESSAGES = 20;
+
+	private byte[] encoded;
+
+	private final List<Object> decoded = new ArrayList<Object>();
+
+	private final ProtocolDecoderOutput out = new ProtocolDecoderOutput() {
+
+		public void write(Object message) {
+			decoded.add(message);
+		}
+
+		public void flush() {
+		}
+
+	};
+
+	private static byte[] payload(int size, int seed) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (i + seed);
+		}
+		return data;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		RTMPProtocolEncoder encoder = new RTMPProtocolEncoder();
+		RTMP rtmp = new RTMP(RTMP.MODE_CLIENT);
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.setAutoExpand(true);
+		for (int i = 0; i < MESSAGES; i++) {
+			// interleave a large video and a small audio message
+			IRTMPEvent event = (i % 2 == 0) ? new VideoData(ByteBuffer.wrap(payload(1000, i)))
+					: new AudioData(ByteBuffer.wrap(payload(100, i)));
+			Header header = new Header();
+			header.setChannelId(i % 2 == 0 ? 5 : 6);
+			header.setStreamId(1);
+			header.setTimer(i * 20);
+			header.setDataType(event.getDataType());
+			ByteBuffer data = encoder.encodePacket(rtmp, new Packet(header, event));
+			buf.put(data);
+			data.release();
+		}
+		buf.flip();
+		encoded = new byte[buf.limit()];
+		buf.get(encoded);
+		buf.release();
+	}
+
+	private static RTMP createState() {
+		RTMP rtmp = new RTMP(RTMP.MODE_SERVER);
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		return rtmp;
+	}
+
+	private void assertDecoded(List<?> packets) {
+		assertEquals(MESSAGES, packets.size());
+		for (int i = 0; i < MESSAGES; i++) {
+			Packet packet = (Packet) packets.get(i);
+			byte[] expected = payload(i % 2 == 0 ? 1000 : 100, i);
+			ByteBuffer data = (i % 2 == 0) ? ((VideoData) packet.getMessage()).getData()
+					: ((AudioData) packet.getMessage()).getData();
+			assertEquals(i % 2 == 0 ? 5 : 6, packet.getHeader().getChannelId());
+			assertEquals(expected.length, data.remaining());
+			for (int j = 0; j < expected.length; j++) {
+				assertEquals(expected[j], data.get());
+			}
+		}
+	}
+
+	public void testDecodeBuffer() {
+		ByteBuffer buf = ByteBuffer.wrap(encoded);
+		assertDecoded(new RTMPProtocolDecoder().decodeBuffer(createState(), buf));
+	}
+
+	private void decodeInReads(int readSize, int compactThreshold) {
+		decoded.clear();
+		RTMPProtocolDecoder decoder = new RTMPProtocolDecoder();
+		decoder.setCompactThreshold(compactThreshold);
+		RTMP rtmp = createState();
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.setAutoExpand(true);
+		buf.limit(0);
+		for (int offset = 0; offset < encoded.length; offset += readSize) {
+			int length = Math.min(readSize, encoded.length - offset);
+			BufferUtils.append(buf, ByteBuffer.wrap(encoded, offset, length));
+			assertTrue(decoder.decodeBuffer(rtmp, buf, out));
+			// decoded data in front is limited by the threshold
+			assertTrue(buf.position() < Math.max(compactThreshold, 1));
+		}
+		assertFalse(buf.hasRemaining());
+		assertDecoded(decoded);
+	}
+
+	public void testDecodeIntoOutput() {
+		decodeInReads(encoded.length, 4096);
+	}
+
+	public void testDecodeSmallReads() {
+		decodeInReads(1, 4096);
+		decodeInReads(7, 4096);
+		decodeInReads(200, 4096);
+	}
+
+	public void testDecodeCompactAlways() {
+		decodeInReads(50, 0);
+		decodeInReads(300, 0);
+	}
+
+	public void testAppend() {
+		ByteBuffer buf = ByteBuffer.allocate(4);
+		buf.setAutoExpand(true);
+		buf.limit(0);
+		BufferUtils.append(buf, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		assertEquals(1, buf.get());
+		BufferUtils.append(buf, ByteBuffer.wrap(new byte[] { 4, 5, 6 }));
+		assertEquals(1, buf.position());
+		assertEquals(6, buf.limit());
+		assertEquals(2, buf.get());
+		assertEquals(3, buf.get());
+		assertEquals(4, buf.get());
+	}
+
+}
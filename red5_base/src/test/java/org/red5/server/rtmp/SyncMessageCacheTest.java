@@ -0,0 +1,85 @@
+package org.red5.server.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.io.object.Serializer;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.so.ISharedObjectEvent.Type;
+import org.red5.server.so.SharedObjectMessage;
+import org.red5.server.so.SyncMessageCache;
+
+/**
+ * Checks that sync messages sharing a cache are encoded once and match
+ * regularly encoded ones.
+ */
+public class SyncMessageCacheTest extends TestCase {
+
+	private RTMPProtocolEncoder encoder;
+
+	@Override
+	protected void setUp() throws Exception {
+		encoder = new RTMPProtocolEncoder();
+		encoder.setSerializer(new Serializer());
+	}
+
+	private SharedObjectMessage createMessage(SyncMessageCache cache) {
+		SharedObjectMessage message = new SharedObjectMessage(null, "lobby", 5, false);
+		message.addEvent(Type.CLIENT_UPDATE_DATA, "users", 3000.0);
+		message.addEvent(Type.CLIENT_UPDATE_DATA, "topic", "Welcome");
+		message.setSyncCache(cache);
+		return message;
+	}
+
+	private byte[] encode(SharedObjectMessage message, Encoding encoding) {
+		RTMP rtmp = new RTMP(RTMP.MODE_SERVER);
+		rtmp.setEncoding(encoding);
+		Header header = new Header();
+		header.setChannelId(3);
+		header.setDataType(message.getDataType());
+		ByteBuffer out = encoder.encodePacket(rtmp, new Packet(header, message));
+		byte[] result = new byte[out.remaining()];
+		out.get(result);
+		out.release();
+		return result;
+	}
+
+	public void testEncodedOnce() {
+		byte[] plain = encode(createMessage(null), Encoding.AMF0);
+		SyncMessageCache cache = new SyncMessageCache();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(Arrays.equals(plain, encode(createMessage(cache), Encoding.AMF0)));
+		}
+		assertEquals(1, cache.getEncodings());
+		byte[] amf3 = encode(createMessage(cache), Encoding.AMF3);
+		assertEquals(2, cache.getEncodings());
+		assertTrue(Arrays.equals(amf3, encode(createMessage(cache), Encoding.AMF3)));
+		assertEquals(2, cache.getEncodings());
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.red5.server.api.IBWControllable;
+import org.red5.server.api.IBandwidthConfigure;
+import org.red5.server.api.stream.support.SimpleBandwidthConfigure;
+import org.red5.server.stream.ITokenBucket.ITokenBucketCallback;
+
+public class AtomicBWControlServiceTest extends TestCase {
+
+	/**
+	 * 1 Mbit per second, 128 KB of tokens per second
+	 */
+	private static final long BANDWIDTH = 1024 * 1024;
+
+	private static final long SECOND = BANDWIDTH / 8;
+
+	private AtomicBWControlService service;
+
+	@Override
+	protected void setUp() throws Exception {
+		service = new AtomicBWControlService();
+		service.setDefaultCapacity(100 * 1024 * 1024);
+		service.setCallbackThreads(2);
+		service.init();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		service.shutdown();
+	}
+
+	private static class Node implements IBWControllable {
+
+		IBandwidthConfigure config;
+
+		IBWControllable parent;
+
+		Node(IBWControllable parent, IBandwidthConfigure config) {
+			this.parent = parent;
+			this.config = config;
+		}
+
+		public IBandwidthConfigure getBandwidthConfigure() {
+			return config;
+		}
+
+		public IBWControllable getParentBWControllable() {
+			return parent;
+		}
+
+		public void setBandwidthConfigure(IBandwidthConfigure config) {
+			this.config = config;
+		}
+
+	}
+
+	private static class Callback implements ITokenBucketCallback {
+
+		final CountDownLatch available = new CountDownLatch(1);
+
+		final CountDownLatch reset = new CountDownLatch(1);
+
+		/**
+		 * Whether the bucket still had the tokens when the callback was called
+		 */
+		volatile boolean tokensLeft;
+
+		public void available(ITokenBucket bucket, long tokenCount) {
+			tokensLeft = bucket.acquireToken(tokenCount, 0);
+			available.countDown();
+		}
+
+		public void reset(ITokenBucket bucket, long tokenCount) {
+			reset.countDown();
+		}
+
+	}
+
+	private SimpleBandwidthConfigure overall(long bandwidth, long burst) {
+		SimpleBandwidthConfigure config = new SimpleBandwidthConfigure();
+		config.getChannelBandwidth()[IBandwidthConfigure.OVERALL_CHANNEL] = bandwidth;
+		config.getChannelInitialBurst()[IBandwidthConfigure.OVERALL_CHANNEL] = burst;
+		return config;
+	}
+
+	public void testUnlimited() {
+		IBWControlContext context = service.registerBWControllable(new Node(null, null));
+		assertTrue(service.getAudioBucket(context).acquireToken(1024 * 1024, 0));
+		assertTrue(service.getVideoBucket(context).acquireToken(1024 * 1024, 0));
+		assertEquals(1024, service.getDataBucket(context).acquireTokenBestEffort(1024));
+	}
+
+	public void testOverallBandwidth() {
+		Node node = new Node(null, overall(BANDWIDTH, SECOND));
+		IBWControlContext context = service.registerBWControllable(node);
+		ITokenBucket audio = service.getAudioBucket(context);
+		ITokenBucket video = service.getVideoBucket(context);
+		// the initial burst is shared by all channels
+		assertTrue(audio.acquireToken(SECOND / 2, 0));
+		assertTrue(video.acquireToken(SECOND / 2 - 1024, 0));
+		assertFalse(video.acquireToken(SECOND / 2, 0));
+		// refilled while waiting
+		long start = System.currentTimeMillis();
+		assertTrue(video.acquireToken(SECOND / 4, 1000));
+		long waited = System.currentTimeMillis() - start;
+		assertTrue("Waited " + waited, waited >= 150);
+		assertFalse(audio.acquireToken(SECOND, 100));
+		long acquired = audio.acquireTokenBestEffort(SECOND);
+		assertTrue("Acquired " + acquired, acquired < SECOND);
+	}
+
+	public void testParentLimit() {
+		Node parent = new Node(null, overall(BANDWIDTH, SECOND));
+		service.registerBWControllable(parent);
+		Node child = new Node(parent, overall(BANDWIDTH * 10, SECOND * 10));
+		IBWControlContext context = service.registerBWControllable(child);
+		ITokenBucket audio = service.getAudioBucket(context);
+		assertFalse(audio.acquireToken(SECOND * 2, 0));
+		// the tokens taken from the child have been given back
+		assertTrue(audio.acquireToken(SECOND, 0));
+		assertFalse(audio.acquireToken(SECOND, 0));
+		assertTrue(audio.acquireTokenBestEffort(SECOND) < SECOND);
+		// unregistered parents block their children
+		service.unregisterBWControllable(service.lookupContext(parent));
+		assertFalse(audio.acquireToken(1, 0));
+	}
+
+	public void testCallback() throws InterruptedException {
+		Node node = new Node(null, overall(BANDWIDTH, 0));
+		IBWControlContext context = service.registerBWControllable(node);
+		Callback callback = new Callback();
+		assertFalse(service.getAudioBucket(context).acquireTokenNonblocking(SECOND / 4, callback));
+		assertFalse(callback.available.await(100, TimeUnit.MILLISECONDS));
+		assertTrue(callback.available.await(1000, TimeUnit.MILLISECONDS));
+		assertEquals(1, callback.reset.getCount());
+		// the tokens have been taken for the callback
+		assertFalse(callback.tokensLeft);
+		assertFalse(service.getAudioBucket(context).acquireToken(SECOND / 4, 0));
+	}
+
+	public void testReset() throws InterruptedException {
+		Node node = new Node(null, overall(BANDWIDTH, 0));
+		final IBWControlContext context = service.registerBWControllable(node);
+		Callback callback = new Callback();
+		assertFalse(service.getVideoBucket(context).acquireTokenNonblocking(SECOND, callback));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				service.resetBuckets(context);
+			}
+		}.start();
+		long start = System.currentTimeMillis();
+		// the blocked request is woken up
+		assertFalse(service.getAudioBucket(context).acquireToken(SECOND * 10, -1));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertTrue(callback.reset.await(1000, TimeUnit.MILLISECONDS));
+		assertEquals(1, callback.available.getCount());
+	}
+
+	public void testConfigureMigration() {
+		SimpleBandwidthConfigure config = new SimpleBandwidthConfigure();
+		config.getChannelBandwidth()[IBandwidthConfigure.AUDIO_CHANNEL] = BANDWIDTH;
+		config.getChannelInitialBurst()[IBandwidthConfigure.AUDIO_CHANNEL] = SECOND;
+		config.getChannelInitialBurst()[IBandwidthConfigure.VIDEO_CHANNEL] = 0;
+		Node node = new Node(null, config);
+		IBWControlContext context = service.registerBWControllable(node);
+		// the video channel is not limited
+		assertTrue(service.getVideoBucket(context).acquireToken(SECOND * 10, 0));
+		// the audio tokens move to the overall channel
+		config.getChannelBandwidth()[IBandwidthConfigure.OVERALL_CHANNEL] = BANDWIDTH;
+		service.updateBWConfigure(context);
+		assertTrue(service.getVideoBucket(context).acquireToken(SECOND / 2, 0));
+		assertFalse(service.getDataBucket(context).acquireToken(SECOND, 0));
+	}
+
+}
@@ -0,0 +1,279 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.stream.message.RTMPMessage;
+
+public class FanOutPushPushPipeTest extends TestCase {
+
+	private ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	private static class Consumer implements IPushableConsumer {
+
+		final List<IRTMPEvent> received = new ArrayList<IRTMPEvent>();
+
+		final CountDownLatch entered = new CountDownLatch(1);
+
+		final CountDownLatch blocked;
+
+		final CountDownLatch done;
+
+		Consumer(boolean block, int expected) {
+			blocked = new CountDownLatch(block ? 1 : 0);
+			done = new CountDownLatch(expected);
+		}
+
+		public void pushMessage(IPipe pipe, IMessage message) {
+			entered.countDown();
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+			}
+			synchronized (received) {
+				received.add(((RTMPMessage) message).getBody());
+			}
+			done.countDown();
+		}
+
+		public void onOOBControlMessage(IMessageComponent source, IPipe pipe,
+				OOBControlMessage oobCtrlMsg) {
+		}
+
+	}
+
+	private static RTMPMessage message(IRTMPEvent event, int timestamp) {
+		event.setTimestamp(timestamp);
+		RTMPMessage message = new RTMPMessage();
+		message.setBody(event);
+		return message;
+	}
+
+	private static RTMPMessage video(int frameType, int timestamp) {
+		ByteBuffer data = ByteBuffer.allocate(2);
+		data.put((byte) ((frameType << 4) | 2));
+		data.put((byte) 0);
+		data.flip();
+		return message(new VideoData(data), timestamp);
+	}
+
+	private static RTMPMessage audio(int timestamp) {
+		ByteBuffer data = ByteBuffer.allocate(1);
+		data.put((byte) 0);
+		data.flip();
+		return message(new AudioData(data), timestamp);
+	}
+
+	private static void awaitDelivered(FanOutQueue queue, long count)
+			throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (queue.getDelivered() < count
+				&& System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(1);
+		}
+	}
+
+	public void testSlowConsumer() throws InterruptedException {
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(executor, 16,
+				new DropOldestPolicy());
+		Consumer slow = new Consumer(true, 0);
+		Consumer fast = new Consumer(false, 1000);
+		pipe.subscribe(slow, null);
+		pipe.subscribe(fast, null);
+		List<RTMPMessage> messages = new ArrayList<RTMPMessage>();
+		for (int i = 0; i < 1000; i++) {
+			if (i == 1) {
+				// the first message is being delivered to the slow consumer
+				assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+			}
+			RTMPMessage message = audio(i);
+			messages.add(message);
+			pipe.pushMessage(message);
+			// the provider releases the events once pushed
+			message.getBody().release();
+			// the fast consumer keeps up with the provider
+			awaitDelivered(pipe.getQueue(fast), i + 1);
+		}
+		assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, fast.received.get(i).getTimestamp());
+		}
+		FanOutQueue queue = pipe.getQueue(slow);
+		assertEquals(16, queue.size());
+		assertEquals(16, queue.getMaxQueued());
+		assertEquals(983, queue.getDropped());
+		assertEquals(999, queue.getLag());
+		assertEquals(0, pipe.getQueue(fast).getDropped());
+		// events are released once delivered or dropped
+		AudioData dropped = (AudioData) messages.get(500).getBody();
+		assertNull(dropped.getData());
+		AudioData queued = (AudioData) messages.get(999).getBody();
+		assertNotNull(queued.getData());
+		pipe.unsubscribe(slow);
+		assertNull(queued.getData());
+		slow.blocked.countDown();
+	}
+
+	public void testDropNonKeyframes() throws InterruptedException {
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(executor, 4,
+				new DropNonKeyframesPolicy());
+		Consumer consumer = new Consumer(true, 3);
+		pipe.subscribe(consumer, null);
+		pipe.pushMessage(audio(0));
+		// the first message is being delivered
+		assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+		pipe.pushMessage(video(1, 1));
+		pipe.pushMessage(video(2, 2));
+		pipe.pushMessage(video(2, 3));
+		pipe.pushMessage(video(3, 4));
+		FanOutQueue queue = pipe.getQueue(consumer);
+		assertEquals(4, queue.size());
+		assertEquals(4, queue.getLag());
+		// the queue is full, the following interframes depend on this one
+		pipe.pushMessage(video(2, 5));
+		assertTrue(queue.isRecovering());
+		pipe.pushMessage(video(3, 6));
+		pipe.pushMessage(video(2, 7));
+		assertEquals(3, queue.getDropped());
+		// the keyframe replaces the queued messages
+		pipe.pushMessage(video(1, 8));
+		assertFalse(queue.isRecovering());
+		pipe.pushMessage(video(2, 9));
+		assertEquals(7, queue.getDropped());
+		assertEquals(2, queue.size());
+		consumer.blocked.countDown();
+		assertTrue(consumer.done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, consumer.received.get(0).getTimestamp());
+		assertEquals(8, consumer.received.get(1).getTimestamp());
+		assertEquals(9, consumer.received.get(2).getTimestamp());
+	}
+
+	public void testKeyframeKeepsConfiguration() throws InterruptedException {
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(executor, 4,
+				new DropNonKeyframesPolicy());
+		Consumer consumer = new Consumer(true, 4);
+		pipe.subscribe(consumer, null);
+		pipe.pushMessage(audio(0));
+		assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+		// AVC sequence header
+		ByteBuffer config = ByteBuffer.allocate(2);
+		config.put((byte) 0x17);
+		config.put((byte) 0);
+		config.flip();
+		pipe.pushMessage(message(new VideoData(config), 1));
+		ByteBuffer metaData = ByteBuffer.allocate(1);
+		metaData.put((byte) 0);
+		metaData.flip();
+		pipe.pushMessage(message(new Notify(metaData), 2));
+		pipe.pushMessage(video(2, 3));
+		pipe.pushMessage(video(2, 4));
+		FanOutQueue queue = pipe.getQueue(consumer);
+		assertEquals(4, queue.size());
+		// the keyframe only replaces the queued frames
+		pipe.pushMessage(video(1, 5));
+		assertEquals(2, queue.getDropped());
+		assertEquals(3, queue.size());
+		consumer.blocked.countDown();
+		assertTrue(consumer.done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, consumer.received.get(0).getTimestamp());
+		assertEquals(1, consumer.received.get(1).getTimestamp());
+		assertEquals(2, consumer.received.get(2).getTimestamp());
+		assertEquals(5, consumer.received.get(3).getTimestamp());
+	}
+
+	public void testAudioDropsFrames() throws InterruptedException {
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(executor, 4,
+				new DropNonKeyframesPolicy());
+		Consumer consumer = new Consumer(true, 0);
+		pipe.subscribe(consumer, null);
+		pipe.pushMessage(audio(0));
+		assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+		pipe.pushMessage(audio(1));
+		pipe.pushMessage(video(3, 2));
+		pipe.pushMessage(video(1, 3));
+		pipe.pushMessage(video(2, 4));
+		FanOutQueue queue = pipe.getQueue(consumer);
+		assertEquals(4, queue.size());
+		// audio and disposable frames can be dropped on their own
+		pipe.pushMessage(audio(5));
+		pipe.pushMessage(audio(6));
+		assertFalse(queue.isRecovering());
+		// the interframe depends on the dropped keyframe
+		pipe.pushMessage(audio(7));
+		assertTrue(queue.isRecovering());
+		pipe.pushMessage(video(2, 8));
+		assertEquals(4, queue.getDropped());
+		pipe.pushMessage(video(1, 9));
+		assertFalse(queue.isRecovering());
+		consumer.blocked.countDown();
+	}
+
+	public void testDisconnect() throws InterruptedException {
+		FanOutPushPushPipe pipe = new FanOutPushPushPipe(executor, 2,
+				new DisconnectPolicy());
+		Consumer consumer = new Consumer(true, 1);
+		pipe.subscribe(consumer, null);
+		pipe.pushMessage(audio(0));
+		assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < 4; i++) {
+			pipe.pushMessage(audio(i));
+		}
+		consumer.blocked.countDown();
+		long start = System.currentTimeMillis();
+		while (!pipe.getConsumers().isEmpty()
+				&& System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		assertTrue(pipe.getConsumers().isEmpty());
+		assertNull(pipe.getQueue(consumer));
+		assertEquals(1, pipe.getDisconnected());
+		assertEquals(1, consumer.received.size());
+	}
+
+}
@@ -0,0 +1,144 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+
+public class GOPCacheTest extends TestCase {
+
+	private int maxStreamSize;
+
+	@Override
+	protected void setUp() throws Exception {
+		maxStreamSize = GOPCache.getMaxStreamSize();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		GOPCache.setMaxStreamSize(maxStreamSize);
+	}
+
+	private static ByteBuffer createBuffer(int size, int first, int second) {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte) first);
+		buffer.put((byte) second);
+		buffer.fill((byte) 0, size - 2);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static IRTMPEvent video(int first, int second, int timestamp) {
+		VideoData video = new VideoData(createBuffer(100, first, second));
+		video.setTimestamp(timestamp);
+		return video;
+	}
+
+	private static IRTMPEvent audio(int first, int second, int timestamp) {
+		AudioData audio = new AudioData(createBuffer(10, first, second));
+		audio.setTimestamp(timestamp);
+		return audio;
+	}
+
+	private static IRTMPEvent metaData() {
+		ByteBuffer buffer = ByteBuffer.allocate(20);
+		buffer.put((byte) 2);
+		buffer.putShort((short) 10);
+		buffer.put("onMetaData".getBytes());
+		buffer.fill((byte) 0, 7);
+		buffer.flip();
+		return new Notify(buffer);
+	}
+
+	/**
+	 * Add an event like a connection dispatching it.
+	 */
+	private static IRTMPEvent add(GOPCache cache, IRTMPEvent event) {
+		cache.add(event);
+		event.release();
+		return event;
+	}
+
+	public void testGroupOfPictures() {
+		GOPCache cache = new GOPCache();
+		long totalSize = GOPCache.getTotalSize();
+		add(cache, metaData());
+		add(cache, video(0x17, 0, 0));
+		add(cache, audio(0xaf, 0, 0));
+		IRTMPEvent dropped = add(cache, video(0x27, 1, 960));
+		IRTMPEvent keyFrame = add(cache, video(0x17, 1, 1000));
+		add(cache, audio(0xaf, 1, 1010));
+		add(cache, video(0x27, 1, 1040));
+		// not cached before the first keyframe
+		assertNull(((IStreamData) dropped).getData());
+		assertEquals(3, cache.getFrames());
+		assertEquals(20 + 100 + 10 + 100 + 10 + 100, cache.getSize());
+		assertEquals(totalSize + cache.getSize(), GOPCache.getTotalSize());
+
+		List<IRTMPEvent> events = cache.getEvents();
+		assertEquals(6, events.size());
+		assertTrue(events.get(0) instanceof Notify);
+		assertTrue(events.get(1) instanceof VideoData);
+		assertTrue(events.get(2) instanceof AudioData);
+		// the configuration doesn't go back in time
+		assertEquals(1000, events.get(1).getTimestamp());
+		assertSame(keyFrame, events.get(3));
+		assertEquals(1040, events.get(5).getTimestamp());
+		for (IRTMPEvent event : events) {
+			event.release();
+		}
+
+		// the next keyframe replaces the frames
+		add(cache, video(0x17, 1, 2000));
+		assertEquals(1, cache.getFrames());
+		assertNull(((IStreamData) keyFrame).getData());
+		assertEquals(20 + 100 + 10 + 100, cache.getSize());
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertEquals(totalSize, GOPCache.getTotalSize());
+		assertTrue(cache.getEvents().isEmpty());
+	}
+
+	public void testStreamLimit() {
+		GOPCache.setMaxStreamSize(250);
+		GOPCache cache = new GOPCache();
+		add(cache, video(0x17, 1, 0));
+		add(cache, video(0x27, 1, 40));
+		assertEquals(2, cache.getFrames());
+		// incomplete groups of pictures are dropped
+		add(cache, video(0x27, 1, 80));
+		assertEquals(0, cache.getFrames());
+		assertEquals(0, cache.getSize());
+		add(cache, video(0x27, 1, 120));
+		assertEquals(0, cache.getFrames());
+		add(cache, video(0x17, 1, 160));
+		assertEquals(1, cache.getFrames());
+		cache.clear();
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.red5.io.FileKeyFrameMetaCache;
+import org.red5.io.SharedFile;
+import org.red5.io.flv.IKeyFrameDataAnalyzer.KeyFrameMeta;
+import org.red5.io.flv.impl.FLVReader;
+
+public class KeyFrameIndexServiceTest extends TestCase {
+
+	private static final String SAMPLE = "src/test/resources/fixtures/CuePointTest.flv";
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("streams", "");
+		dir.delete();
+		new File(dir, "sub").mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private File copy(String name) throws IOException {
+		File file = new File(dir, name);
+		FileInputStream in = new FileInputStream(SAMPLE);
+		FileOutputStream out = new FileOutputStream(file);
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = in.read(buf)) != -1) {
+			out.write(buf, 0, len);
+		}
+		in.close();
+		out.close();
+		return file;
+	}
+
+	private void waitForIndex(KeyFrameIndexService service) throws InterruptedException {
+		for (int i = 0; i < 500 && service.isIndexing(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(service.isIndexing());
+	}
+
+	public void testIndex() throws Exception {
+		File first = copy("first.flv");
+		File second = copy("sub/second.flv");
+		copy("sub/ignored.txt");
+		FileKeyFrameMetaCache cache = new FileKeyFrameMetaCache();
+		KeyFrameIndexService service = new KeyFrameIndexService();
+		service.setKeyFrameCache(cache);
+		service.setThreads(2);
+		service.setDirectories(Arrays.asList(dir.getPath()));
+		String bufferType = FLVReader.getBufferType();
+		FLVReader.setBufferType("shared");
+		int openFiles = SharedFile.getOpenFiles();
+		service.init();
+		try {
+			waitForIndex(service);
+			// indexed files are not kept open for the readers
+			assertEquals(openFiles, SharedFile.getOpenFiles());
+			assertEquals(2, service.getFilesFound());
+			assertEquals(2, service.getFilesIndexed());
+			assertEquals(0, service.getFilesPending());
+			KeyFrameMeta meta = cache.loadKeyFrameMeta(first);
+			assertNotNull(meta);
+			assertTrue(meta.positions.length > 0);
+			assertEquals(meta.positions.length, meta.timestamps.length);
+			assertNotNull(cache.loadKeyFrameMeta(second));
+
+			// indexed files are skipped
+			service.reindex();
+			waitForIndex(service);
+			assertEquals(4, service.getFilesFound());
+			assertEquals(2, service.getFilesSkipped());
+		} finally {
+			service.shutdown();
+			FLVReader.setBufferType(bufferType);
+		}
+		// ignored after the shutdown
+		service.reindex();
+		assertFalse(service.isIndexing());
+	}
+
+}
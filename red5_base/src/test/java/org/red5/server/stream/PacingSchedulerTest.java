@@ -0,0 +1,156 @@
+package org.red5.server.stream;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class PacingSchedulerTest extends TestCase {
+
+	private PacingScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		scheduler = new PacingScheduler();
+		scheduler.setShardCount(2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Stream that is paced a number of times with a fixed interval.
+	 */
+	private static class Stream implements IPacedStream {
+
+		final List<Stream> order;
+
+		final int interval;
+
+		final AtomicInteger runs = new AtomicInteger();
+
+		final CountDownLatch done;
+
+		Stream(List<Stream> order, int interval, int count) {
+			this.order = order;
+			this.interval = interval;
+			done = new CountDownLatch(count);
+		}
+
+		public long pace(long now) {
+			order.add(this);
+			runs.incrementAndGet();
+			done.countDown();
+			return done.getCount() == 0 ? -1 : now + interval;
+		}
+
+	}
+
+	public void testOrder() throws InterruptedException {
+		scheduler.setShardCount(1);
+		List<Stream> order = Collections.synchronizedList(new ArrayList<Stream>());
+		long now = System.currentTimeMillis();
+		Stream last = new Stream(order, 0, 1);
+		Stream first = new Stream(order, 0, 1);
+		Stream second = new Stream(order, 0, 1);
+		scheduler.schedule(last, now + 150);
+		scheduler.schedule(first, now + 50);
+		scheduler.schedule(second, now + 100);
+		// only moved to an earlier time
+		scheduler.schedule(second, now + 200);
+		assertEquals(3, scheduler.getPacedStreams());
+		assertTrue(last.done.await(2, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - now >= 140);
+		assertEquals(first, order.get(0));
+		assertEquals(second, order.get(1));
+		assertEquals(last, order.get(2));
+		Thread.sleep(50);
+		assertEquals(0, scheduler.getPacedStreams());
+		assertEquals(0, scheduler.getShardStreams()[0]);
+	}
+
+	public void testWakeupsWhenDue() throws InterruptedException {
+		List<Stream> order = Collections.synchronizedList(new ArrayList<Stream>());
+		Stream stream = new Stream(order, 20, 10);
+		scheduler.schedule(stream);
+		assertTrue(stream.done.await(2, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(10, stream.runs.get());
+		assertEquals(10, scheduler.getRuns());
+		// no polling between the messages
+		assertTrue("Woke up " + scheduler.getWakeups(), scheduler.getWakeups() <= 12);
+		assertTrue(scheduler.getMaxLateness() >= scheduler.getAverageLateness());
+		assertFalse(scheduler.isScheduled(stream));
+	}
+
+	public void testScheduleWhileRunning() throws InterruptedException {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		IPacedStream stream = new IPacedStream() {
+			public long pace(long now) {
+				if (runs.incrementAndGet() == 1) {
+					entered.countDown();
+					try {
+						release.await(2, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+				}
+				return -1;
+			}
+		};
+		scheduler.schedule(stream);
+		assertTrue(entered.await(2, TimeUnit.SECONDS));
+		// paced again although the running stream doesn't need it
+		scheduler.schedule(stream);
+		release.countDown();
+		Thread.sleep(100);
+		assertEquals(2, runs.get());
+		assertFalse(scheduler.isScheduled(stream));
+
+		scheduler.schedule(stream, System.currentTimeMillis() + 100);
+		scheduler.cancel(stream);
+		Thread.sleep(200);
+		assertEquals(2, runs.get());
+	}
+
+	public void testShards() {
+		List<Stream> order = Collections.synchronizedList(new ArrayList<Stream>());
+		long later = System.currentTimeMillis() + 10000;
+		for (int i = 0; i < 5; i++) {
+			scheduler.schedule(new Stream(order, 0, 1), later);
+		}
+		int[] streams = scheduler.getShardStreams();
+		assertEquals(2, streams.length);
+		assertEquals(3, streams[0]);
+		assertEquals(2, streams[1]);
+		assertEquals(2, scheduler.getShardLoads().length);
+		assertTrue(order.isEmpty());
+	}
+
+}
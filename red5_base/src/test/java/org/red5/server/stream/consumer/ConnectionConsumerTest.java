@@ -0,0 +1,78 @@
+package org.red5.server.stream.consumer;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ * 
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or modify it under the 
+ * terms of the GNU Lesser General Public License as published by the Free Software 
+ * Foundation; either version 2.1 of the License, or (at your option) any later 
+ * version. 
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY 
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A 
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along 
+ * with this library; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ */
+
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.api.IBandwidthConfigure;
+import org.red5.server.api.stream.support.SimpleConnectionBWConfig;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.net.rtmpt.RTMPTClientConnection;
+
+public class ConnectionConsumerTest extends TestCase {
+
+	private static ByteBuffer createBuffer(int size) {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.fill((byte) 0, size);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static OOBControlMessage request(String serviceName) {
+		OOBControlMessage oobCtrlMsg = new OOBControlMessage();
+		oobCtrlMsg.setTarget("ConnectionConsumer");
+		oobCtrlMsg.setServiceName(serviceName);
+		return oobCtrlMsg;
+	}
+
+	public void testFlowControl() {
+		RTMPTClientConnection conn = new RTMPTClientConnection();
+		ConnectionConsumer consumer = new ConnectionConsumer(conn, 5, 6, 4);
+		conn.rawWrite(createBuffer(100));
+		conn.rawWrite(createBuffer(50));
+		assertEquals(2, consumer.getPendingMessages());
+		// no stream uses the channels
+		assertEquals(0, consumer.getPendingVideoMessages());
+
+		conn.getPendingMessages(1024).release();
+		conn.receivedBytesRead(40);
+		assertEquals(0, consumer.getPendingMessages());
+		assertEquals(110, consumer.getWriteDelta());
+		assertEquals(60 * 1024, consumer.getBytesReadInterval());
+
+		SimpleConnectionBWConfig config = new SimpleConnectionBWConfig();
+		config.getChannelBandwidth()[IBandwidthConfigure.OVERALL_CHANNEL] = 1024 * 1024;
+		conn.setBandwidthConfigure(config);
+		assertEquals(64 * 1024, consumer.getBytesReadInterval());
+
+		// the out-of-band requests return the same values
+		OOBControlMessage pending = request("pendingCount");
+		consumer.onOOBControlMessage(null, null, pending);
+		assertEquals(consumer.getPendingMessages(), pending.getResult());
+		OOBControlMessage writeDelta = request("writeDelta");
+		consumer.onOOBControlMessage(null, null, writeDelta);
+		Long[] result = (Long[]) writeDelta.getResult();
+		assertEquals(consumer.getWriteDelta(), result[0].longValue());
+		assertEquals(64 * 1024, result[1].longValue());
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.red5.bench;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.server.net.rtmp.RTMPConnection;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.message.Packet;
+
+/**
+ * RTMP connection without a network session. Written packets are encoded like
+ * they would be for a socket and dropped after that.
+ */
+public class BenchConnection extends RTMPConnection {
+
+	private final RTMPProtocolEncoder encoder;
+
+	private long writtenBytes;
+
+	/**
+	 * Create connection that encodes with the given encoder.
+	 *
+	 * @param encoder Encoder, usually shared by all connections of a benchmark
+	 */
+	public BenchConnection(RTMPProtocolEncoder encoder) {
+		super(PERSISTENT);
+		this.encoder = encoder;
+		RTMP rtmp = new RTMP(RTMP.MODE_SERVER);
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		setState(rtmp);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void rawWrite(ByteBuffer out) {
+		writtenBytes += out.remaining();
+		out.release();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(Packet out) {
+		writingMessage(out);
+		final RTMP rtmp = getState();
+		final ByteBuffer data;
+		synchronized (rtmp) {
+			data = encoder.encodePacket(rtmp, out);
+		}
+		if (data != null) {
+			writtenBytes += data.remaining();
+			data.release();
+		}
+		messageSent(out);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onInactive() {
+	}
+
+}
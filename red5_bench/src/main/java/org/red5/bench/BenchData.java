@@ -0,0 +1,144 @@
+package org.red5.bench;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.SimpleByteBufferAllocator;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Serializer;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+
+/**
+ * Access to the sample data bundled with the benchmarks. All benchmarks run
+ * offline against these resources.
+ */
+public class BenchData {
+
+	/**
+	 * FLV file with video and metadata tags
+	 */
+	public static final String SAMPLE_FLV = "sample.flv";
+
+	/**
+	 * RTMP traffic of a client that connects and publishes the sample FLV,
+	 * without the handshake. See {@link org.red5.bench.rtmp.CaptureWriter}.
+	 */
+	public static final String PUBLISH_CAPTURE = "publish.rtmp";
+
+	private BenchData() {
+	}
+
+	/**
+	 * Use unpooled heap buffers like the server does.
+	 */
+	public static void setupBuffers() {
+		ByteBuffer.setUseDirectBuffers(false);
+		ByteBuffer.setAllocator(new SimpleByteBufferAllocator());
+	}
+
+	/**
+	 * Create RTMP encoder set up like in red5-common.xml.
+	 *
+	 * @return Encoder
+	 */
+	public static RTMPProtocolEncoder createEncoder() {
+		RTMPProtocolEncoder encoder = new RTMPProtocolEncoder();
+		encoder.setSerializer(new Serializer());
+		return encoder;
+	}
+
+	/**
+	 * Create RTMP decoder set up like in red5-common.xml.
+	 *
+	 * @return Decoder
+	 */
+	public static RTMPProtocolDecoder createDecoder() {
+		RTMPProtocolDecoder decoder = new RTMPProtocolDecoder();
+		decoder.setDeserializer(new Deserializer());
+		return decoder;
+	}
+
+	/**
+	 * Read a bundled resource.
+	 *
+	 * @param name Resource name
+	 * @return Contents of the resource
+	 * @throws IOException if the resource can not be read
+	 */
+	public static byte[] load(String name) throws IOException {
+		InputStream in = BenchData.class.getClassLoader().getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("Missing sample data " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copy a bundled resource to a temporary file, for the readers that need
+	 * a file. The file is deleted when the VM exits.
+	 *
+	 * @param name Resource name
+	 * @return Temporary file with the contents of the resource
+	 * @throws IOException if the resource can not be copied
+	 */
+	public static File copyToFile(String name) throws IOException {
+		int dot = name.lastIndexOf('.');
+		File file = File.createTempFile("red5-bench", name.substring(dot));
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(load(name));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Create a temporary file that is deleted when the VM exits.
+	 *
+	 * @param suffix File suffix
+	 * @return Temporary file
+	 * @throws IOException if the file can not be created
+	 */
+	public static File createTempFile(String suffix) throws IOException {
+		File file = File.createTempFile("red5-bench", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+}
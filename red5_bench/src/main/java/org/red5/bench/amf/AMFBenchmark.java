@@ -0,0 +1,225 @@
+package org.red5.bench.amf;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.red5.bench.BenchData;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Input;
+import org.red5.io.object.Output;
+import org.red5.io.object.Serializer;
+
+/**
+ * Round-trips invoke payloads through the AMF0 and AMF3 serializer: the
+ * arguments of a connect call and a result with a list of typed objects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class AMFBenchmark {
+
+	/**
+	 * Number of objects in the result
+	 */
+	private static final int RESULT_SIZE = 50;
+
+	@Param({ "AMF0", "AMF3" })
+	private String encoding;
+
+	private Serializer serializer;
+
+	private Deserializer deserializer;
+
+	private Map<String, Object> connectParams;
+
+	private List<Track> result;
+
+	private ByteBuffer buf;
+
+	/**
+	 * Typed object as returned by a service.
+	 */
+	public static class Track {
+
+		private String title;
+
+		private String artist;
+
+		private int duration;
+
+		private double rating;
+
+		private boolean available;
+
+		private Date added;
+
+		public String getTitle() {
+			return title;
+		}
+
+		public void setTitle(String title) {
+			this.title = title;
+		}
+
+		public String getArtist() {
+			return artist;
+		}
+
+		public void setArtist(String artist) {
+			this.artist = artist;
+		}
+
+		public int getDuration() {
+			return duration;
+		}
+
+		public void setDuration(int duration) {
+			this.duration = duration;
+		}
+
+		public double getRating() {
+			return rating;
+		}
+
+		public void setRating(double rating) {
+			this.rating = rating;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+
+		public void setAvailable(boolean available) {
+			this.available = available;
+		}
+
+		public Date getAdded() {
+			return added;
+		}
+
+		public void setAdded(Date added) {
+			this.added = added;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		BenchData.setupBuffers();
+		serializer = new Serializer();
+		deserializer = new Deserializer();
+		connectParams = new HashMap<String, Object>();
+		connectParams.put("app", "oflaDemo");
+		connectParams.put("flashVer", "WIN 10,0,22,87");
+		connectParams.put("swfUrl", "http://localhost:5080/demos/ofla_demo.swf");
+		connectParams.put("tcUrl", "rtmp://localhost/oflaDemo");
+		connectParams.put("fpad", Boolean.FALSE);
+		connectParams.put("capabilities", 15.0);
+		connectParams.put("audioCodecs", 3191.0);
+		connectParams.put("videoCodecs", 252.0);
+		connectParams.put("videoFunction", 1.0);
+		connectParams.put("pageUrl", "http://localhost:5080/demos/ofla_demo.html");
+		connectParams.put("objectEncoding", 3.0);
+		result = new ArrayList<Track>(RESULT_SIZE);
+		for (int i = 0; i < RESULT_SIZE; i++) {
+			Track track = new Track();
+			track.setTitle("Track " + i);
+			track.setArtist("Artist " + (i % 5));
+			track.setDuration(180 + i);
+			track.setRating(i / 10.0);
+			track.setAvailable(i % 3 != 0);
+			track.setAdded(new Date(1230768000000L + i * 86400000L));
+			result.add(track);
+		}
+		buf = ByteBuffer.allocate(8192);
+		buf.setAutoExpand(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		buf.release();
+	}
+
+	private Output createOutput() {
+		buf.clear();
+		if ("AMF3".equals(encoding)) {
+			return new org.red5.io.amf3.Output(buf);
+		}
+		return new org.red5.io.amf.Output(buf);
+	}
+
+	private Input createInput() {
+		buf.flip();
+		if ("AMF3".equals(encoding)) {
+			return new org.red5.io.amf3.Input(buf);
+		}
+		return new org.red5.io.amf.Input(buf);
+	}
+
+	@Benchmark
+	public void connect(Blackhole bh) {
+		Output out = createOutput();
+		serializer.serialize(out, "connect");
+		serializer.serialize(out, 1);
+		serializer.serialize(out, connectParams);
+		Input in = createInput();
+		bh.consume(deserializer.<Object> deserialize(in, String.class));
+		bh.consume(deserializer.<Object> deserialize(in, Number.class));
+		bh.consume(deserializer.<Object> deserialize(in, Object.class));
+	}
+
+	@Benchmark
+	public void result(Blackhole bh) {
+		Output out = createOutput();
+		serializer.serialize(out, "_result");
+		serializer.serialize(out, 2);
+		serializer.serialize(out, null);
+		serializer.serialize(out, result);
+		Input in = createInput();
+		bh.consume(deserializer.<Object> deserialize(in, String.class));
+		bh.consume(deserializer.<Object> deserialize(in, Number.class));
+		bh.consume(deserializer.<Object> deserialize(in, Object.class));
+		bh.consume(deserializer.<Object> deserialize(in, Object.class));
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.red5.bench.amf;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.bench.BenchData;
+import org.red5.bench.amf.AMFBenchmark.Track;
+import org.red5.compatibility.flex.messaging.io.ArrayCollection;
+import org.red5.io.amf3.Input;
+import org.red5.io.amf3.Output;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Serializer;
+
+/**
+ * Encodes and decodes an <code>ArrayCollection</code> with 10000 typed
+ * objects in AMF3. Every object, string and class definition is added to
+ * the reference tables, so the tables dominate large results. The decoder
+ * either creates new tables per message or reuses the ones of the
+ * connection like the RTMP decoder does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ArrayCollectionBenchmark {
+
+	/**
+	 * Number of objects in the collection
+	 */
+	private static final int SIZE = 10000;
+
+	@Param({ "fresh", "pooled" })
+	private String references;
+
+	private Serializer serializer;
+
+	private Deserializer deserializer;
+
+	private ArrayCollection<Track> collection;
+
+	private Input.RefStorage refStorage;
+
+	private ByteBuffer buf;
+
+	private byte[] encoded;
+
+	@Setup
+	public void setUp() {
+		BenchData.setupBuffers();
+		serializer = new Serializer();
+		deserializer = new Deserializer();
+		collection = new ArrayCollection<Track>();
+		for (int i = 0; i < SIZE; i++) {
+			Track track = new Track();
+			track.setTitle("Track " + i);
+			track.setArtist("Artist " + (i % 100));
+			track.setDuration(180 + i % 120);
+			track.setRating(i / 10.0);
+			track.setAvailable(i % 3 != 0);
+			track.setAdded(new Date(1230768000000L + i * 86400000L));
+			collection.add(track);
+		}
+		refStorage = new Input.RefStorage();
+		buf = ByteBuffer.allocate(1024 * 1024);
+		buf.setAutoExpand(true);
+		serializer.serialize(new Output(buf), collection);
+		buf.flip();
+		encoded = new byte[buf.limit()];
+		buf.get(encoded);
+	}
+
+	@TearDown
+	public void tearDown() {
+		buf.release();
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		buf.clear();
+		serializer.serialize(new Output(buf), collection);
+		return buf;
+	}
+
+	@Benchmark
+	public List<?> decode() {
+		buf.clear();
+		buf.put(encoded);
+		buf.flip();
+		Input input;
+		if ("pooled".equals(references)) {
+			refStorage.clear();
+			input = new Input(buf, refStorage);
+		} else {
+			input = new Input(buf);
+		}
+		List<?> result = (List<?>) deserializer.deserialize(input, Object.class);
+		if (result.size() != SIZE) {
+			throw new IllegalStateException("Decoded " + result.size() + " of " + SIZE + " objects");
+		}
+		return result;
+	}
+
+}
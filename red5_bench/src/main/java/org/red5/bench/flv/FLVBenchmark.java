@@ -0,0 +1,135 @@
+package org.red5.bench.flv;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.red5.bench.BenchData;
+import org.red5.io.ITag;
+import org.red5.io.MappedFile;
+import org.red5.io.flv.impl.FLVReader;
+import org.red5.io.flv.impl.FLVWriter;
+
+/**
+ * Reads and writes all tags of the bundled sample FLV. The scores are the
+ * number of files read or written, the sample has 55 tags in about 20 KB.
+ * Files are read with the configured buffer type, in mapped mode the
+ * benchmark keeps the file mapped like other viewers of the file would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FLVBenchmark {
+
+	@Param({ "auto", "mapped" })
+	private String bufferType;
+
+	private File sample;
+
+	private MappedFile mapped;
+
+	private File target;
+
+	private List<ITag> tags;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchData.setupBuffers();
+		sample = BenchData.copyToFile(BenchData.SAMPLE_FLV);
+		target = BenchData.createTempFile(".flv");
+		tags = new ArrayList<ITag>();
+		FLVReader reader = new FLVReader(sample);
+		try {
+			while (reader.hasMoreTags()) {
+				tags.add(reader.readTag());
+			}
+		} finally {
+			reader.close();
+		}
+		FLVReader.setBufferType(bufferType);
+		if ("mapped".equals(bufferType)) {
+			mapped = MappedFile.acquire(sample);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (mapped != null) {
+			mapped.release();
+			mapped = null;
+		}
+		FLVReader.setBufferType("auto");
+	}
+
+	@Benchmark
+	public int readTag(Blackhole bh) throws IOException {
+		FLVReader reader = new FLVReader(sample);
+		int count = 0;
+		try {
+			while (reader.hasMoreTags()) {
+				ITag tag = reader.readTag();
+				bh.consume(tag);
+				tag.getBody().release();
+				count++;
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long writeTag() throws IOException {
+		FLVWriter writer = new FLVWriter(new FileOutputStream(target), false);
+		try {
+			writer.writeHeader();
+			for (ITag tag : tags) {
+				// the writer consumes the body
+				tag.getBody().rewind();
+				writer.writeTag(tag);
+			}
+		} finally {
+			writer.close();
+		}
+		return writer.getBytesWritten();
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.red5.bench.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.mina.common.ByteBuffer;
+import org.red5.bench.BenchData;
+import org.red5.io.ITag;
+import org.red5.io.flv.impl.FLVReader;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Invoke;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.service.PendingCall;
+
+/**
+ * Writes the RTMP traffic a Flash client sends to publish the sample FLV:
+ * connect, createStream and publish invokes followed by the tags of the file
+ * on the channels of stream 1, chunked with the default chunk size of 128
+ * bytes. The handshake is not included. The output is bundled with the
+ * benchmarks as {@link BenchData#PUBLISH_CAPTURE}, run this class to
+ * regenerate it after the sample FLV has been changed.
+ */
+public class CaptureWriter {
+
+	private final RTMPProtocolEncoder encoder = BenchData.createEncoder();
+
+	private final RTMP rtmp = new RTMP(RTMP.MODE_CLIENT);
+
+	private final ByteBuffer out;
+
+	private final int[] lastTimestamps = new int[3];
+
+	public CaptureWriter() {
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		out = ByteBuffer.allocate(64 * 1024);
+		out.setAutoExpand(true);
+	}
+
+	/**
+	 * Write the encoded event to the capture.
+	 */
+	private void write(int channelId, int streamId, int timer, IRTMPEvent event) {
+		Header header = new Header();
+		header.setChannelId(channelId);
+		header.setStreamId(streamId);
+		header.setTimer(timer);
+		header.setDataType(event.getDataType());
+		ByteBuffer data = encoder.encodePacket(rtmp, new Packet(header, event));
+		out.put(data);
+		data.release();
+	}
+
+	private void invoke(int channelId, int streamId, int invokeId, PendingCall call,
+			Map<String, Object> params) {
+		Invoke invoke = new Invoke(call);
+		invoke.setInvokeId(invokeId);
+		invoke.setConnectionParams(params);
+		write(channelId, streamId, 0, invoke);
+	}
+
+	/**
+	 * Write a tag of the sample, publishing clients use relative timestamps.
+	 */
+	private void tag(ITag tag) {
+		final int index;
+		final IRTMPEvent event;
+		final ByteBuffer body = tag.getBody();
+		switch (tag.getDataType()) {
+			case ITag.TYPE_AUDIO:
+				index = 2;
+				event = new AudioData(body);
+				break;
+			case ITag.TYPE_VIDEO:
+				index = 1;
+				event = new VideoData(body);
+				break;
+			case ITag.TYPE_METADATA:
+				index = 0;
+				event = new Notify(body);
+				break;
+			default:
+				return;
+		}
+		write(4 + index, 1, tag.getTimestamp() - lastTimestamps[index], event);
+		lastTimestamps[index] = tag.getTimestamp();
+	}
+
+	/**
+	 * Write the whole capture.
+	 *
+	 * @param flv Sample FLV to publish
+	 * @return Encoded traffic
+	 * @throws IOException if the sample can not be read
+	 */
+	public byte[] capture(File flv) throws IOException {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("app", "live");
+		params.put("flashVer", "WIN 10,0,22,87");
+		params.put("swfUrl", "http://localhost:5080/demos/publisher.swf");
+		params.put("tcUrl", "rtmp://localhost/live");
+		params.put("fpad", Boolean.FALSE);
+		params.put("capabilities", 15.0);
+		params.put("audioCodecs", 3191.0);
+		params.put("videoCodecs", 252.0);
+		params.put("videoFunction", 1.0);
+		params.put("pageUrl", "http://localhost:5080/demos/publisher.html");
+		params.put("objectEncoding", 0.0);
+		invoke(3, 0, 1, new PendingCall("connect"), params);
+		invoke(3, 0, 2, new PendingCall("createStream"), null);
+		invoke(8, 1, 0, new PendingCall("publish", new Object[] { "sample", "live" }), null);
+
+		FLVReader reader = new FLVReader(flv);
+		try {
+			while (reader.hasMoreTags()) {
+				tag(reader.readTag());
+			}
+		} finally {
+			reader.close();
+		}
+		out.flip();
+		byte[] result = new byte[out.limit()];
+		out.get(result);
+		return result;
+	}
+
+	/**
+	 * Regenerate the capture.
+	 *
+	 * @param args Output file, defaults to the resource in the source tree
+	 * @throws IOException if the capture can not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		BenchData.setupBuffers();
+		File target = new File(args.length > 0 ? args[0] : "src/main/resources/"
+				+ BenchData.PUBLISH_CAPTURE);
+		byte[] data = new CaptureWriter().capture(BenchData.copyToFile(BenchData.SAMPLE_FLV));
+		FileOutputStream fos = new FileOutputStream(target);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+		System.out.println("Wrote " + data.length + " bytes to " + target);
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.red5.bench.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.red5.bench.BenchData;
+import org.red5.io.utils.BufferUtils;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+
+/**
+ * Decodes the bundled traffic of a publishing client the way the server
+ * receives it: in reads of a fixed size, with the remainder of the previous
+ * read left in the buffer. Scores are per decoded message, run with
+ * <code>-prof gc</code> to get the allocation per message in
+ * <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RTMPCaptureBenchmark {
+
+	/**
+	 * Bytes of one network read
+	 */
+	private static final int READ_SIZE = 8192;
+
+	/**
+	 * Messages in the capture, three invokes and the tags of the sample
+	 */
+	private static final int MESSAGES = 58;
+
+	private RTMPProtocolDecoder decoder;
+
+	private byte[] capture;
+
+	private ByteBuffer buffer;
+
+	private final CountingOutput out = new CountingOutput();
+
+	/**
+	 * Output that counts and drops the decoded objects.
+	 */
+	private static class CountingOutput implements ProtocolDecoderOutput {
+
+		private Blackhole bh;
+
+		private int count;
+
+		public void write(Object message) {
+			bh.consume(message);
+			count++;
+		}
+
+		public void flush() {
+		}
+
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchData.setupBuffers();
+		decoder = BenchData.createDecoder();
+		capture = BenchData.load(BenchData.PUBLISH_CAPTURE);
+		buffer = ByteBuffer.allocate(READ_SIZE * 2);
+		buffer.setAutoExpand(true);
+	}
+
+	private static RTMP createState() {
+		RTMP rtmp = new RTMP(RTMP.MODE_SERVER);
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		return rtmp;
+	}
+
+	private static void checkCount(int count) {
+		if (count != MESSAGES) {
+			throw new IllegalStateException("Decoded " + count + " of " + MESSAGES + " messages");
+		}
+	}
+
+	/**
+	 * Decode into a new list for every read, the buffer is compacted after
+	 * every read.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void decodeBuffer(Blackhole bh) {
+		RTMP rtmp = createState();
+		ByteBuffer in = buffer;
+		in.clear();
+		int count = 0;
+		int offset = 0;
+		while (offset < capture.length) {
+			int length = Math.min(READ_SIZE, capture.length - offset);
+			in.put(capture, offset, length);
+			offset += length;
+			in.flip();
+			// leaves undecoded data compacted at the start of the buffer
+			List<Object> packets = decoder.decodeBuffer(rtmp, in);
+			count += packets.size();
+			bh.consume(packets);
+		}
+		checkCount(count);
+	}
+
+	/**
+	 * Decode into a reused output, the buffer is only compacted when enough
+	 * data has been decoded.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void decodeBufferToOutput(Blackhole bh) {
+		RTMP rtmp = createState();
+		ByteBuffer in = buffer;
+		in.clear();
+		in.limit(0);
+		out.bh = bh;
+		out.count = 0;
+		int offset = 0;
+		while (offset < capture.length) {
+			int length = Math.min(READ_SIZE, capture.length - offset);
+			BufferUtils.append(in, ByteBuffer.wrap(capture, offset, length));
+			offset += length;
+			decoder.decodeBuffer(rtmp, in, out);
+		}
+		checkCount(out.count);
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.red5.bench.rtmp;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.red5.bench.BenchData;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+
+/**
+ * Measures the RTMP codec on interleaved audio and video of several streams.
+ * Every chunk of a message looks up the last header and packet of its channel
+ * in the protocol state, so the number of chunks and thus the lookups per
+ * message depend on the chunk size. The scores are per message, the chunks per
+ * message are 32 at 128 bytes and 1 at 4 KB for video, 3 and 1 for audio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RTMPCodecBenchmark {
+
+	/**
+	 * Number of streams, each of them uses its own audio and video channel
+	 */
+	private static final int STREAMS = 4;
+
+	/**
+	 * Frames per stream
+	 */
+	private static final int FRAMES = 25;
+
+	/**
+	 * Messages encoded or decoded per invocation
+	 */
+	private static final int MESSAGES = STREAMS * FRAMES * 2;
+
+	private static final int VIDEO_SIZE = 4000;
+
+	private static final int AUDIO_SIZE = 300;
+
+	@Param({ "128", "4096" })
+	private int chunkSize;
+
+	private RTMPProtocolEncoder encoder;
+
+	private RTMPProtocolDecoder decoder;
+
+	private byte[] video;
+
+	private byte[] audio;
+
+	/**
+	 * Encoded messages as they would arrive on a connection
+	 */
+	private byte[] encoded;
+
+	@Setup
+	public void setUp() {
+		BenchData.setupBuffers();
+		encoder = BenchData.createEncoder();
+		decoder = BenchData.createDecoder();
+		video = new byte[VIDEO_SIZE];
+		audio = new byte[AUDIO_SIZE];
+		for (int i = 0; i < VIDEO_SIZE; i++) {
+			video[i] = (byte) i;
+		}
+		for (int i = 0; i < AUDIO_SIZE; i++) {
+			audio[i] = (byte) (i * 3);
+		}
+		ByteBuffer out = ByteBuffer.allocate(MESSAGES * (VIDEO_SIZE + 64));
+		out.setAutoExpand(true);
+		RTMP rtmp = createState();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (int stream = 1; stream <= STREAMS; stream++) {
+				ByteBuffer buf = encoder.encodePacket(rtmp, createPacket(stream, frame, true));
+				out.put(buf);
+				buf.release();
+				buf = encoder.encodePacket(rtmp, createPacket(stream, frame, false));
+				out.put(buf);
+				buf.release();
+			}
+		}
+		out.flip();
+		encoded = new byte[out.limit()];
+		out.get(encoded);
+		out.release();
+	}
+
+	private RTMP createState() {
+		RTMP rtmp = new RTMP(RTMP.MODE_SERVER);
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		rtmp.setReadChunkSize(chunkSize);
+		rtmp.setWriteChunkSize(chunkSize);
+		return rtmp;
+	}
+
+	/**
+	 * Creates a packet on the channel Red5 would use for the stream.
+	 */
+	private Packet createPacket(int streamId, int frame, boolean isVideo) {
+		final int timestamp = frame * 40;
+		final IRTMPEvent event;
+		if (isVideo) {
+			event = new VideoData(ByteBuffer.wrap(video));
+		} else {
+			event = new AudioData(ByteBuffer.wrap(audio));
+		}
+		event.setTimestamp(timestamp);
+		Header header = new Header();
+		header.setChannelId(4 + ((streamId - 1) * 5) + (isVideo ? 1 : 2));
+		header.setStreamId(streamId);
+		header.setTimer(timestamp);
+		header.setDataType(event.getDataType());
+		return new Packet(header, event);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void encodePacket(Blackhole bh) {
+		RTMP rtmp = createState();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (int stream = 1; stream <= STREAMS; stream++) {
+				ByteBuffer buf = encoder.encodePacket(rtmp, createPacket(stream, frame, true));
+				bh.consume(buf);
+				buf.release();
+				buf = encoder.encodePacket(rtmp, createPacket(stream, frame, false));
+				bh.consume(buf);
+				buf.release();
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void decodeBuffer(Blackhole bh) {
+		// the decoder compacts the buffer, so it must not wrap the fixture
+		ByteBuffer in = ByteBuffer.allocate(encoded.length);
+		in.put(encoded);
+		in.flip();
+		List<Object> packets = decoder.decodeBuffer(createState(), in);
+		if (packets.size() != MESSAGES) {
+			throw new IllegalStateException("Decoded " + packets.size() + " of " + MESSAGES + " messages");
+		}
+		bh.consume(packets);
+		in.release();
+	}
+
+}
@@ -0,0 +1,112 @@
+package org.red5.bench.so;
+
+/*
+ * RED5 Open Source Flash Server - http://www.osflash.org/red5
+ *
+ * Copyright (c) 2006-2009 by respective authors (see below). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation; either version 2.1 of the License, or (at your option) any later
+ * version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.bench.BenchConnection;
+import org.red5.bench.BenchData;
+import org.red5.server.api.event.IEventListener;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.so.SharedObject;
+
+/**
+ * Changes attributes of a shared object with a number of connected clients.
+ * Every change is synchronized to all clients, each of them gets its own
+ * message that is encoded on its connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SharedObjectBenchmark {
+
+	@Param({ "1", "10", "100" })
+	private int listeners;
+
+	private BenchSharedObject so;
+
+	private int counter;
+
+	/**
+	 * Shared object that allows to register connections directly.
+	 */
+	private static class BenchSharedObject extends SharedObject {
+
+		BenchSharedObject() {
+			super(new HashMap<String, Object>(), "bench", "/bench", false);
+		}
+
+		@Override
+		protected void register(IEventListener listener) {
+			super.register(listener);
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		BenchData.setupBuffers();
+		RTMPProtocolEncoder encoder = BenchData.createEncoder();
+		so = new BenchSharedObject();
+		for (int i = 0; i < listeners; i++) {
+			so.register(new BenchConnection(encoder));
+		}
+	}
+
+	/**
+	 * Update a single attribute with a simple value.
+	 */
+	@Benchmark
+	public boolean setAttribute() {
+		counter++;
+		return so.setAttribute("score" + (counter & 7), counter);
+	}
+
+	/**
+	 * Update a single attribute with an object value, like the position and
+	 * state of a player in a game.
+	 */
+	@Benchmark
+	public boolean setObjectAttribute() {
+		counter++;
+		Map<String, Object> player = new HashMap<String, Object>();
+		player.put("x", counter % 800);
+		player.put("y", counter % 600);
+		player.put("state", "running");
+		return so.setAttribute("player" + (counter & 7), player);
+	}
+
+}